@@ -16,12 +16,15 @@
 
 package com.google.android.glass.sample.stopwatch;
 
+import android.content.ComponentCallbacks2;
 import android.graphics.Canvas;
 import android.graphics.Rect;
 import android.test.AndroidTestCase;
 import android.view.SurfaceHolder;
 import android.view.Surface;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Unit tests for {@link ChronometerDrawer}.
  */
@@ -36,10 +39,19 @@ public class ChronometerDrawerTest extends AndroidTestCase {
 
     private int mCountDownDrawCount;
     private int mChronometerDrawCount;
+    private int mCountDownMeasureCount;
 
     private boolean mCountDownStarted;
+    private boolean mCountDownRunning;
+    private boolean mCountDownFinished;
+    /** Phases of the countdown left before the last one, each ending 10ns before the next. */
+    private int mPhaseEndsLeft;
+    private int mPhaseEndsPlayed;
+    private long mAlarmTimeNanos;
     private boolean mChronometerStarted;
     private boolean mChronometerStopped;
+    private SessionHistory mSessionHistory;
+    private SessionHistory.Session mSession;
 
     /** Simple {@link SurfaceHolder} implementation for testing. */
     private final SurfaceHolder mHolder = new SurfaceHolder() {
@@ -126,6 +138,54 @@ public class ChronometerDrawerTest extends AndroidTestCase {
             @Override
             public void start() {
                 mCountDownStarted = true;
+                mCountDownRunning = true;
+            }
+
+            @Override
+            public void stop() {
+                mCountDownRunning = false;
+            }
+
+            @Override
+            public void finish() {
+                mCountDownFinished = true;
+                getListener().onFinish();
+            }
+
+            @Override
+            public boolean isStarted() {
+                return mCountDownStarted;
+            }
+
+            @Override
+            public boolean isRunning() {
+                return mCountDownRunning;
+            }
+
+            @Override
+            public long getStopTimeNanos() {
+                return 42;
+            }
+
+            @Override
+            public long getNextPhaseEndNanos() {
+                return 42 - 10 * mPhaseEndsLeft;
+            }
+
+            @Override
+            public boolean playPhaseEnd() {
+                if (mPhaseEndsLeft == 0) {
+                    return false;
+                }
+                --mPhaseEndsLeft;
+                ++mPhaseEndsPlayed;
+                return true;
+            }
+
+            @Override
+            protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+                super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+                ++mCountDownMeasureCount;
             }
         };
         mChronometerView = new ChronometerView(getContext()) {
@@ -146,15 +206,50 @@ public class ChronometerDrawerTest extends AndroidTestCase {
             }
         };
         mDrawer = new ChronometerDrawer(mCountDownView, mChronometerView);
+        mDrawer.setCountDownAlarm(new CountDownAlarm(getContext()) {
+
+            @Override
+            public void schedule(long stopTimeNanos) {
+                mAlarmTimeNanos = stopTimeNanos;
+            }
+
+            @Override
+            public void cancel() {
+                mAlarmTimeNanos = -1;
+            }
+        });
+
+        mSessionHistory = new SessionHistory(getContext(), "chronometer_drawer_test.db") {
+
+            @Override
+            public void add(SessionHistory.Session session) {
+                mSession = session;
+            }
+        };
+        mDrawer.setSessionHistory(mSessionHistory);
 
         mCanvasLockedCount = 0;
         mCanvasUnlockedCount = 0;
         mCountDownDrawCount = 0;
         mChronometerDrawCount = 0;
+        mCountDownMeasureCount = 0;
 
         mCountDownStarted = false;
+        mCountDownRunning = false;
+        mCountDownFinished = false;
+        mPhaseEndsLeft = 0;
+        mPhaseEndsPlayed = 0;
+        mAlarmTimeNanos = 0;
         mChronometerStarted = false;
         mChronometerStopped = false;
+        mSession = null;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSessionHistory.close();
+        getContext().deleteDatabase("chronometer_drawer_test.db");
+        super.tearDown();
     }
 
     public void testConstructorSetsListener() {
@@ -179,6 +274,18 @@ public class ChronometerDrawerTest extends AndroidTestCase {
         assertEquals(height, mChronometerView.getHeight());
     }
 
+    public void testSurfaceChangedSameDimensionsReusesLayout() {
+        mDrawer.surfaceChanged(mHolder, 0, 640, 360);
+        assertEquals(1, mCountDownMeasureCount);
+
+        mDrawer.surfaceChanged(mHolder, 0, 640, 360);
+        assertEquals(1, mCountDownMeasureCount);
+
+        mDrawer.surfaceChanged(mHolder, 0, 320, 240);
+        assertEquals(2, mCountDownMeasureCount);
+        assertEquals(320, mChronometerView.getWidth());
+    }
+
     public void testSurfaceCreatedStartsCountDown() {
         mDrawer.surfaceCreated(mHolder);
         assertTrue(mCountDownStarted);
@@ -276,4 +383,208 @@ public class ChronometerDrawerTest extends AndroidTestCase {
         assertFalse(mChronometerStopped);
         assertFalse(mCountDownStarted);
     }
+
+    public void testCommandsIgnoredDuringCountDown() {
+        mDrawer.surfaceCreated(mHolder);
+        mDrawer.pause(0);
+        mDrawer.lap(0);
+        assertFalse(mDrawer.isStarted());
+        assertFalse(mDrawer.isPaused());
+        assertEquals(0, mChronometerView.getLapCount());
+    }
+
+    public void testCommandsAppliedOnceStarted() {
+        mDrawer.surfaceCreated(mHolder);
+        mCountDownView.getListener().onFinish();
+        assertTrue(mDrawer.isStarted());
+
+        mDrawer.lap(mChronometerView.getBaseNanos() + TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, mChronometerView.getLapCount());
+        mDrawer.pause(mChronometerView.getBaseNanos() + TimeUnit.SECONDS.toNanos(2));
+        assertTrue(mDrawer.isPaused());
+        mDrawer.resume(mChronometerView.getBaseNanos() + TimeUnit.SECONDS.toNanos(3));
+        assertFalse(mDrawer.isPaused());
+    }
+
+    public void testChronometerStartsFromCountDownStopTime() {
+        mDrawer.surfaceCreated(mHolder);
+        mCountDownView.getListener().onFinish();
+        assertEquals(mCountDownView.getStopTimeNanos(), mChronometerView.getBaseNanos());
+    }
+
+    public void testSetTimeSourceIsPropagated() {
+        TimeSource timeSource = new TimeSource() {
+
+            @Override
+            public long elapsedRealtimeNanos() {
+                return 42;
+            }
+        };
+        mDrawer.setTimeSource(timeSource);
+        assertSame(timeSource, mChronometerView.getTimeSource());
+        assertEquals(42, mChronometerView.getBaseNanos());
+    }
+
+    public void testHiddenCountDownStopsAndSchedulesAlarm() {
+        mDrawer.surfaceCreated(mHolder);
+        mDrawer.renderingPaused(mHolder, true);
+        assertFalse(mCountDownRunning);
+        assertEquals(42, mAlarmTimeNanos);
+
+        mDrawer.renderingPaused(mHolder, false);
+        assertTrue(mCountDownRunning);
+        assertEquals(-1, mAlarmTimeNanos);
+    }
+
+    public void testCountDownAlarmFinishesHiddenCountDown() {
+        mDrawer.surfaceCreated(mHolder);
+        mDrawer.surfaceDestroyed(mHolder);
+        mDrawer.onCountDownAlarm();
+        assertTrue(mCountDownFinished);
+        assertTrue(mDrawer.isStarted());
+        assertEquals(42, mChronometerView.getBaseNanos());
+        // The chronometer only starts once visible.
+        assertFalse(mChronometerStarted);
+    }
+
+    public void testCountDownAlarmMarksEachHiddenPhaseEnd() {
+        mPhaseEndsLeft = 2;
+        mDrawer.surfaceCreated(mHolder);
+        mDrawer.renderingPaused(mHolder, true);
+        assertEquals(22, mAlarmTimeNanos);
+
+        mDrawer.onCountDownAlarm();
+        assertEquals(1, mPhaseEndsPlayed);
+        assertEquals(32, mAlarmTimeNanos);
+        mDrawer.onCountDownAlarm();
+        assertEquals(2, mPhaseEndsPlayed);
+        assertEquals(42, mAlarmTimeNanos);
+        assertFalse(mCountDownFinished);
+
+        mDrawer.onCountDownAlarm();
+        assertEquals(2, mPhaseEndsPlayed);
+        assertTrue(mCountDownFinished);
+    }
+
+    public void testCountDownAlarmIgnoredWhileVisible() {
+        mDrawer.surfaceCreated(mHolder);
+        mDrawer.onCountDownAlarm();
+        assertFalse(mCountDownFinished);
+        assertFalse(mDrawer.isStarted());
+    }
+
+    public void testResetKeepsBestRun() {
+        mDrawer.surfaceCreated(mHolder);
+        mCountDownView.getListener().onFinish();
+        long baseNanos = mChronometerView.getBaseNanos();
+
+        mDrawer.lap(baseNanos + TimeUnit.SECONDS.toNanos(10));
+        mDrawer.reset(baseNanos + TimeUnit.SECONDS.toNanos(11));
+        assertEquals(TimeUnit.SECONDS.toNanos(10),
+                mChronometerView.getGhostPace().getSplitNanos(0));
+
+        // A slower run is not kept.
+        baseNanos = mChronometerView.getBaseNanos();
+        mDrawer.lap(baseNanos + TimeUnit.SECONDS.toNanos(12));
+        mDrawer.reset(baseNanos + TimeUnit.SECONDS.toNanos(13));
+        assertEquals(TimeUnit.SECONDS.toNanos(10),
+                mChronometerView.getGhostPace().getSplitNanos(0));
+    }
+
+    public void testResetAddsSession() {
+        mDrawer.surfaceCreated(mHolder);
+        mDrawer.reset(100);
+        // No session while the countdown is running.
+        assertNull(mSession);
+
+        mCountDownView.getListener().onFinish();
+        long baseNanos = mChronometerView.getBaseNanos();
+        mDrawer.lap(baseNanos + TimeUnit.SECONDS.toNanos(10));
+        mDrawer.reset(baseNanos + TimeUnit.SECONDS.toNanos(15));
+
+        assertNotNull(mSession);
+        assertEquals(TimeUnit.SECONDS.toNanos(15), mSession.getDurationNanos());
+        assertEquals(1, mSession.getLapCount());
+        assertEquals(TimeUnit.SECONDS.toNanos(10), mSession.getLapNanos(0));
+    }
+
+    public void testPausedRedrawnOnlyOnSurfaceEvents() {
+        mDrawer.surfaceChanged(mHolder, 0, 640, 360);
+        mDrawer.surfaceCreated(mHolder);
+        mCountDownView.getListener().onFinish();
+        mDrawer.pause(mChronometerView.getBaseNanos() + TimeUnit.SECONDS.toNanos(1));
+        mDrawer.surfaceDestroyed(mHolder);
+        mChronometerDrawCount = 0;
+
+        // The last frame is drawn again on the new surface.
+        mDrawer.surfaceCreated(mHolder);
+        assertEquals(1, mChronometerDrawCount);
+        mDrawer.surfaceChanged(mHolder, 0, 640, 360);
+        assertEquals(2, mChronometerDrawCount);
+        // Nor ticks.
+        mDrawer.renderFrame();
+        assertEquals(2, mChronometerDrawCount);
+    }
+
+    public void testEventsRecorded() {
+        EventTrace trace = new EventTrace();
+        mDrawer.setEventTrace(trace);
+        mDrawer.surfaceCreated(mHolder);
+        mDrawer.renderingPaused(mHolder, true);
+        mDrawer.reset(40);
+
+        assertEquals(3, trace.getEventCount());
+        assertEquals(EventTrace.SURFACE_CREATED, trace.getEvent(0));
+        assertEquals(EventTrace.RENDERING_PAUSED, trace.getEvent(1));
+        assertEquals(1, trace.getArg(1));
+        // Only one event for a reset, which also ends the session.
+        assertEquals(EventTrace.RESET, trace.getEvent(2));
+        assertEquals(40, trace.getTimeNanos(2) - trace.getArg(2));
+    }
+
+    public void testTrimMemoryReleasesCountDownOnceDone() {
+        mDrawer.surfaceChanged(mHolder, 0, 640, 360);
+        mDrawer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertTrue(mDrawer.hasCountDownView());
+
+        mCountDownView.getListener().onFinish();
+        mDrawer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertFalse(mDrawer.hasCountDownView());
+
+        // The chronometer is still drawn.
+        mDrawer.surfaceChanged(mHolder, 0, 320, 180);
+        mDrawer.surfaceCreated(mHolder);
+        assertTrue(mChronometerStarted);
+    }
+
+    public void testLapsBetweenTicksAddNoJitter() {
+        final long[] nowNanos = { TimeUnit.SECONDS.toNanos(1) };
+        mDrawer.setTimeSource(new TimeSource() {
+
+            @Override
+            public long elapsedRealtimeNanos() {
+                return nowNanos[0];
+            }
+        });
+        mDrawer.surfaceChanged(mHolder, 0, 640, 360);
+        mDrawer.surfaceCreated(mHolder);
+        mCountDownView.getListener().onFinish();
+
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(ChronometerView.DELAY_MILLIS);
+        long firstTickNanos = nowNanos[0];
+        int ticks = 10;
+        for (int i = 0; i < ticks; ++i) {
+            nowNanos[0] = firstTickNanos + i * intervalNanos;
+            mChronometerView.tick();
+            // A lap between two on-time ticks updates the view, but isn't a tick.
+            nowNanos[0] += intervalNanos / 3;
+            mDrawer.lap(nowNanos[0]);
+        }
+
+        SessionMetrics metrics = mDrawer.getSessionMetrics();
+        assertEquals(ticks, metrics.getWakeups());
+        assertEquals(0, metrics.getFramesSkipped());
+        assertEquals(ticks - 1, metrics.getJitterMicros().getCount());
+        assertEquals(0, metrics.getJitterMicros().getMax());
+    }
 }
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.InstrumentationTestCase;
+import android.test.InstrumentationTestRunner;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering tests of the {@link ChronometerDrawer}, drawing into an
+ * {@link OffscreenSurfaceHolder} at simulated times.
+ *
+ * Frames are compared to the golden images in the test assets, {@code golden/<name>.png}, and a
+ * missing golden image fails the test. Running with {@code -e recordGoldens true} records the
+ * frames instead, in the test app's external files directory, to be reviewed and added to the
+ * assets. The draw time and pixels changed per frame are logged to compare rendering
+ * optimizations.
+ */
+public class ChronometerRenderingTest extends InstrumentationTestCase {
+
+    private static final String TAG = ChronometerRenderingTest.class.getSimpleName();
+    private static final String GOLDEN_DIR = "golden";
+    /** Instrumentation argument recording the frames rather than comparing them. */
+    private static final String RECORD_GOLDENS_ARGUMENT = "recordGoldens";
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+    private static final long BASE_NANOS = TimeUnit.SECONDS.toNanos(1000);
+
+    private long mElapsedRealtimeNanos;
+    private final TimeSource mTimeSource = new TimeSource() {
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return mElapsedRealtimeNanos;
+        }
+    };
+
+    private ChronometerDrawer mDrawer;
+    private ChronometerView mChronometerView;
+    private OffscreenSurfaceHolder mHolder;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Context context = getInstrumentation().getTargetContext();
+        mElapsedRealtimeNanos = BASE_NANOS;
+        CountDownView countDownView = new CountDownView(context);
+        mChronometerView = new ChronometerView(context);
+        mDrawer = new ChronometerDrawer(countDownView, mChronometerView);
+        mDrawer.setTimeSource(mTimeSource);
+
+        mHolder = new OffscreenSurfaceHolder(WIDTH, HEIGHT);
+        mDrawer.surfaceChanged(mHolder, 0, WIDTH, HEIGHT);
+        mDrawer.surfaceCreated(mHolder);
+        countDownView.getListener().onFinish();
+        // The chronometer is driven by renderAt() only.
+        mChronometerView.stop();
+        mChronometerView.setBaseNanos(BASE_NANOS);
+        mHolder.resetStats();
+    }
+
+    public void testGoldenFrames() throws IOException {
+        renderAt(0);
+        assertMatchesGolden("chronometer_zero");
+
+        renderAt(TimeUnit.SECONDS.toNanos(83) + TimeUnit.MILLISECONDS.toNanos(450));
+        assertMatchesGolden("chronometer_minutes");
+
+        renderAt(TimeUnit.HOURS.toNanos(1) + TimeUnit.MINUTES.toNanos(2)
+                + TimeUnit.SECONDS.toNanos(3));
+        assertMatchesGolden("chronometer_hours");
+    }
+
+    public void testSameValueRendersSamePixels() {
+        long valueNanos = TimeUnit.SECONDS.toNanos(42) + TimeUnit.MILLISECONDS.toNanos(170);
+        renderAt(valueNanos);
+        Bitmap expected = mHolder.captureFrame();
+
+        renderAt(TimeUnit.SECONDS.toNanos(59) + TimeUnit.MILLISECONDS.toNanos(990));
+        assertTrue(mHolder.getLastChangedPixels() > 0);
+        renderAt(valueNanos);
+
+        assertEquals(0, countDifferentPixels(expected, mHolder.captureFrame()));
+    }
+
+    public void testPartialRedrawMatchesFullRedraw() {
+        // Go through format and digit count changes, with partial redraws in between.
+        long[] valuesNanos = {
+            TimeUnit.MILLISECONDS.toNanos(10),
+            TimeUnit.SECONDS.toNanos(59),
+            TimeUnit.MINUTES.toNanos(59) + TimeUnit.SECONDS.toNanos(59),
+            TimeUnit.HOURS.toNanos(1),
+            TimeUnit.HOURS.toNanos(9) + TimeUnit.MINUTES.toNanos(59),
+            TimeUnit.HOURS.toNanos(10),
+            TimeUnit.HOURS.toNanos(10) + TimeUnit.SECONDS.toNanos(1),
+        };
+        for (long valueNanos : valuesNanos) {
+            renderAt(valueNanos);
+            renderAt(valueNanos + TimeUnit.MILLISECONDS.toNanos(10));
+            Bitmap partial = mHolder.captureFrame();
+
+            // A new surface is drawn entirely.
+            mDrawer.surfaceCreated(mHolder);
+            mChronometerView.stop();
+            renderAt(valueNanos + TimeUnit.MILLISECONDS.toNanos(10));
+            assertEquals(0, countDifferentPixels(mHolder.captureFrame(), partial));
+        }
+    }
+
+    public void testSurfaceRecreationCost() {
+        int count = 1000;
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+            // Alternate between two sizes, e.g. the card shown again in another configuration.
+            int width = i % 2 == 0 ? WIDTH / 2 : WIDTH;
+            int height = i % 2 == 0 ? HEIGHT / 2 : HEIGHT;
+            mDrawer.surfaceDestroyed(mHolder);
+            mDrawer.surfaceCreated(mHolder);
+            mDrawer.surfaceChanged(mHolder, 0, width, height);
+        }
+        mChronometerView.stop();
+        long averageMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos) / count;
+        Log.i(TAG, "Average surface re-creation: " + averageMicros + "us");
+        assertEquals(WIDTH, mChronometerView.getWidth());
+    }
+
+    public void testFrameCost() {
+        // 10 seconds at the chronometer's frame rate.
+        int frameCount = (int) (TimeUnit.SECONDS.toMillis(10) / ChronometerView.DELAY_MILLIS);
+        for (int i = 0; i < frameCount; ++i) {
+            renderAt(TimeUnit.MILLISECONDS.toNanos(i * ChronometerView.DELAY_MILLIS));
+        }
+        assertEquals(frameCount, mHolder.getFrameCount());
+
+        long averageDrawMicros =
+                TimeUnit.NANOSECONDS.toMicros(mHolder.getTotalDrawNanos()) / frameCount;
+        long averageChangedPixels = mHolder.getTotalChangedPixels() / frameCount;
+        Log.i(TAG, "Average frame: " + averageDrawMicros + "us, " + averageChangedPixels
+                + " pixels changed out of " + WIDTH * HEIGHT);
+        // Only the digits change from one frame to the next.
+        assertTrue(averageChangedPixels < WIDTH * HEIGHT / 4);
+    }
+
+    /**
+     * Draws the frame showing {@code valueNanos} on the chronometer.
+     */
+    private void renderAt(long valueNanos) {
+        // The drawer measures no draw time on the simulated clock, the value is sampled one refresh
+        // ahead.
+        mElapsedRealtimeNanos =
+                BASE_NANOS + valueNanos - ChronometerView.DEFAULT_PRESENT_LATENCY_NANOS;
+        mChronometerView.updateText();
+    }
+
+    /**
+     * Asserts that the last frame matches the golden image {@code name}, or records it when
+     * recording the golden images.
+     */
+    private void assertMatchesGolden(String name) throws IOException {
+        Bitmap actual = mHolder.captureFrame();
+        if (isRecordingGoldens()) {
+            File file = saveFrame(name, actual);
+            Log.i(TAG, "Recorded golden image " + name + " in " + file);
+            return;
+        }
+        Bitmap golden = loadGolden(name);
+        if (golden == null) {
+            fail("No golden image " + name + ", record it with -e " + RECORD_GOLDENS_ARGUMENT
+                    + " true and add it to the test assets");
+        }
+        assertEquals(WIDTH, golden.getWidth());
+        assertEquals(HEIGHT, golden.getHeight());
+        int differentPixels = countDifferentPixels(golden, actual);
+        if (differentPixels > 0) {
+            File file = saveFrame(name, actual);
+            fail(differentPixels + " pixels differ from golden image " + name + ", see " + file);
+        }
+    }
+
+    private boolean isRecordingGoldens() {
+        Instrumentation instrumentation = getInstrumentation();
+        return instrumentation instanceof InstrumentationTestRunner
+                && Boolean.parseBoolean(((InstrumentationTestRunner) instrumentation)
+                        .getArguments().getString(RECORD_GOLDENS_ARGUMENT));
+    }
+
+    private Bitmap loadGolden(String name) {
+        InputStream in;
+        try {
+            in = getInstrumentation().getContext().getAssets()
+                    .open(GOLDEN_DIR + "/" + name + ".png");
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(in);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+
+    private File saveFrame(String name, Bitmap frame) throws IOException {
+        File dir = new File(getInstrumentation().getContext().getExternalFilesDir(null),
+                GOLDEN_DIR);
+        dir.mkdirs();
+        File file = new File(dir, name + ".png");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            frame.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static int countDifferentPixels(Bitmap expected, Bitmap actual) {
+        int[] expectedPixels = new int[WIDTH * HEIGHT];
+        int[] actualPixels = new int[WIDTH * HEIGHT];
+        expected.getPixels(expectedPixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        actual.getPixels(actualPixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        int count = 0;
+        for (int i = 0; i < expectedPixels.length; ++i) {
+            if (expectedPixels[i] != actualPixels[i]) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
@@ -17,9 +17,20 @@
 package com.google.android.glass.sample.stopwatch;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Debug;
 import android.test.AndroidTestCase;
+import android.view.View;
+import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -29,7 +40,7 @@ public class ChronometerViewTest extends AndroidTestCase {
 
     private final long COUNT_DOWN_SECONDS = 5;
 
-    private long mElapsedRealtime;
+    private long mElapsedRealtimeNanos;
 
     private ChronometerView mView;
     private TextView mMinutesView;
@@ -48,9 +59,13 @@ public class ChronometerViewTest extends AndroidTestCase {
     private long mTimeMillis;
     private Runnable mPostedCallback;
     private Runnable mRemovedCallback;
+    /** Callback posted and not removed since, as a handler would run it. */
+    private Runnable mPendingCallback;
+    private int mChangeCount;
 
     private long mMillisLeft;
     private boolean mOnFinishCalled;
+    private int mMeasureCount;
 
 
     /** Extension of {@link ChronometerView} for easier testing. */
@@ -64,18 +79,23 @@ public class ChronometerViewTest extends AndroidTestCase {
         public boolean postDelayed(Runnable action, long delayMillis) {
             mPostedCallback = action;
             mPostedCallbackDelayMillis = delayMillis;
+            mPendingCallback = action;
             return true;
         }
 
         @Override
         public boolean removeCallbacks(Runnable action) {
             mRemovedCallback = action;
+            if (action == mPendingCallback) {
+                mPendingCallback = null;
+            }
             return true;
         }
 
         @Override
-        public long getElapsedRealtime() {
-            return mElapsedRealtime;
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            ++mMeasureCount;
         }
     }
 
@@ -84,11 +104,21 @@ public class ChronometerViewTest extends AndroidTestCase {
         super.setUp();
 
         mView = new MockChronometerView(getContext());
+        mView.setTimeSource(new TimeSource() {
+
+            @Override
+            public long elapsedRealtimeNanos() {
+                return mElapsedRealtimeNanos;
+            }
+        });
+        // Sample at drawing time unless a test covers the presentation latency.
+        mView.setPresentLatencyNanos(0);
         mView.setListener(new ChronometerView.Listener() {
 
             @Override
             public void onChange() {
                 mOnChangeCalled = true;
+                ++mChangeCount;
             }
         });
 
@@ -101,11 +131,13 @@ public class ChronometerViewTest extends AndroidTestCase {
         mPostedCallbackDelayMillis = 0;
         mPostedCallback = null;
         mRemovedCallback = null;
+        mPendingCallback = null;
         mOnChangeCalled = false;
+        mChangeCount = 0;
     }
 
-    public void testSetBaseMillisProperlyUpdatesText() {
-        mView.setBaseMillis(mElapsedRealtime);
+    public void testSetBaseNanosProperlyUpdatesText() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
         assertTrue(mOnChangeCalled);
         assertEquals("00", mMinutesView.getText());
         assertEquals("00", mSecondsView.getText());
@@ -145,11 +177,11 @@ public class ChronometerViewTest extends AndroidTestCase {
         long expectedMinutes = 3;
         long expectedSeconds = 45;
         long expectedCentiSeconds = 89;
-        long elapsedTimeMillis = TimeUnit.MINUTES.toMillis(expectedMinutes)
-                + TimeUnit.SECONDS.toMillis(expectedSeconds)
-                + expectedCentiSeconds * 10;
+        long elapsedTimeNanos = TimeUnit.MINUTES.toNanos(expectedMinutes)
+                + TimeUnit.SECONDS.toNanos(expectedSeconds)
+                + TimeUnit.MILLISECONDS.toNanos(expectedCentiSeconds * 10);
 
-        mElapsedRealtime += elapsedTimeMillis;
+        mElapsedRealtimeNanos += elapsedTimeNanos;
         mView.updateText();
         assertTrue(mOnChangeCalled);
         assertEquals("03", mMinutesView.getText());
@@ -157,4 +189,431 @@ public class ChronometerViewTest extends AndroidTestCase {
         assertEquals("89", mCentiSecondsView.getText());
     }
 
+    public void testPauseFreezesText() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mElapsedRealtimeNanos += TimeUnit.SECONDS.toNanos(12);
+        mView.pause(mElapsedRealtimeNanos);
+        assertTrue(mView.isPaused());
+
+        mElapsedRealtimeNanos += TimeUnit.MINUTES.toNanos(5);
+        mView.updateText();
+        assertEquals("00", mMinutesView.getText());
+        assertEquals("12", mSecondsView.getText());
+        assertEquals("00", mCentiSecondsView.getText());
+    }
+
+    public void testResumeExcludesPausedDuration() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mElapsedRealtimeNanos += TimeUnit.SECONDS.toNanos(12);
+        mView.pause(mElapsedRealtimeNanos);
+        mElapsedRealtimeNanos += TimeUnit.MINUTES.toNanos(5);
+        mView.resume(mElapsedRealtimeNanos);
+        assertFalse(mView.isPaused());
+
+        mElapsedRealtimeNanos += TimeUnit.SECONDS.toNanos(3);
+        mView.updateText();
+        assertEquals("00", mMinutesView.getText());
+        assertEquals("15", mSecondsView.getText());
+    }
+
+    public void testPauseUsesCommandTime() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        long commandNanos = mElapsedRealtimeNanos + TimeUnit.SECONDS.toNanos(7);
+        // The command is applied later than it was issued.
+        mElapsedRealtimeNanos = commandNanos + TimeUnit.MILLISECONDS.toNanos(250);
+        mView.pause(commandNanos);
+        assertEquals("07", mSecondsView.getText());
+        assertEquals("00", mCentiSecondsView.getText());
+    }
+
+    public void testLapRecordsElapsedTime() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        for (int i = 1; i <= 20; ++i) {
+            mView.lap(mElapsedRealtimeNanos + TimeUnit.SECONDS.toNanos(i));
+        }
+        assertEquals(20, mView.getLapCount());
+        assertEquals(TimeUnit.SECONDS.toNanos(1), mView.getLapNanos(0));
+        assertEquals(TimeUnit.SECONDS.toNanos(20), mView.getLapNanos(19));
+    }
+
+    public void testResetClearsLapsAndText() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mElapsedRealtimeNanos += TimeUnit.SECONDS.toNanos(42);
+        mView.lap(mElapsedRealtimeNanos);
+        mView.reset(mElapsedRealtimeNanos);
+        assertEquals(0, mView.getLapCount());
+        assertEquals("00", mMinutesView.getText());
+        assertEquals("00", mSecondsView.getText());
+        assertEquals("00", mCentiSecondsView.getText());
+    }
+
+    public void testTrimMemoryShrinksLapBuffer() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        for (int i = 1; i <= 100; ++i) {
+            mView.lap(mElapsedRealtimeNanos + TimeUnit.SECONDS.toNanos(i));
+        }
+        int capacity = mView.getLapCapacity();
+        mView.trimMemory();
+        // Laps are kept.
+        assertEquals(100, mView.getLapCount());
+        assertEquals(TimeUnit.SECONDS.toNanos(100), mView.getLapNanos(99));
+
+        mView.reset(mElapsedRealtimeNanos);
+        mView.trimMemory();
+        assertTrue(mView.getLapCapacity() < capacity);
+        mView.lap(mElapsedRealtimeNanos + TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, mView.getLapCount());
+    }
+
+    public void testHoursFormat() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mElapsedRealtimeNanos += TimeUnit.HOURS.toNanos(2) + TimeUnit.MINUTES.toNanos(5)
+                + TimeUnit.SECONDS.toNanos(9) + TimeUnit.MILLISECONDS.toNanos(990);
+        mView.updateText();
+        assertEquals(ChronometerView.FORMAT_HOURS, mView.getFormat());
+        assertEquals("2", mMinutesView.getText());
+        assertEquals("05", mSecondsView.getText());
+        assertEquals("09", mCentiSecondsView.getText());
+    }
+
+    public void testDaysFormat() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mElapsedRealtimeNanos += TimeUnit.DAYS.toNanos(3) + TimeUnit.HOURS.toNanos(4)
+                + TimeUnit.MINUTES.toNanos(7) + TimeUnit.SECONDS.toNanos(59);
+        mView.updateText();
+        assertEquals(ChronometerView.FORMAT_DAYS, mView.getFormat());
+        assertEquals("3", mMinutesView.getText());
+        assertEquals("04", mSecondsView.getText());
+        assertEquals("07", mCentiSecondsView.getText());
+    }
+
+    public void testResetGoesBackToMinutesFormat() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mElapsedRealtimeNanos += TimeUnit.HOURS.toNanos(30);
+        mView.updateText();
+        mView.reset(mElapsedRealtimeNanos);
+        assertEquals(ChronometerView.FORMAT_MINUTES, mView.getFormat());
+        assertEquals("00", mMinutesView.getText());
+    }
+
+    public void testSeparatorsComeFromGlyphAtlas() {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(160);
+        Resources resources = getContext().getResources();
+        GlyphAtlas atlas = GlyphAtlas.render(paint, resources.getDrawable(R.drawable.ic_colon),
+                resources.getDrawable(R.drawable.ic_interpunc));
+        ChronometerView view = new ChronometerView(getContext(), atlas);
+        view.setTimeSource(new TimeSource() {
+
+            @Override
+            public long elapsedRealtimeNanos() {
+                return mElapsedRealtimeNanos;
+            }
+        });
+        ImageView leftSeparatorView = (ImageView) view.findViewById(R.id.first_separator);
+        ImageView rightSeparatorView = (ImageView) view.findViewById(R.id.second_separator);
+
+        assertFromAtlas(atlas, GlyphAtlas.COLON, leftSeparatorView.getDrawable());
+        assertFromAtlas(atlas, GlyphAtlas.INTERPUNC, rightSeparatorView.getDrawable());
+
+        view.setBaseNanos(mElapsedRealtimeNanos);
+        mElapsedRealtimeNanos += TimeUnit.HOURS.toNanos(2);
+        view.updateText();
+        assertEquals(ChronometerView.FORMAT_HOURS, view.getFormat());
+        assertFromAtlas(atlas, GlyphAtlas.COLON, rightSeparatorView.getDrawable());
+
+        view.reset(mElapsedRealtimeNanos);
+        assertEquals(ChronometerView.FORMAT_MINUTES, view.getFormat());
+        assertFromAtlas(atlas, GlyphAtlas.INTERPUNC, rightSeparatorView.getDrawable());
+    }
+
+    public void testSimulatedLongRunHasNoDriftAndOnlyRemeasuresOnFormatChange() {
+        int width = 640;
+        int height = 360;
+        mView.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        mView.layout(0, 0, width, height);
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        long baseNanos = mElapsedRealtimeNanos;
+        mMeasureCount = 0;
+
+        // Odd step so that every component value gets displayed over the run.
+        long stepNanos = TimeUnit.SECONDS.toNanos(59) + TimeUnit.MILLISECONDS.toNanos(7);
+        for (long elapsedNanos = 0; elapsedNanos <= TimeUnit.HOURS.toNanos(72);
+                elapsedNanos += stepNanos) {
+            mElapsedRealtimeNanos = baseNanos + elapsedNanos;
+            mView.updateText();
+            assertComponents(elapsedNanos);
+        }
+
+        // One measure pass when switching to hours, one for the second digit of the hours and one
+        // when switching to days.
+        assertEquals(3, mMeasureCount);
+        assertEquals(width, mView.getWidth());
+        assertEquals(height, mView.getHeight());
+    }
+
+    public void testLayoutForReusesCachedLayouts() {
+        mMeasureCount = 0;
+        mView.layoutFor(640, 360);
+        mView.layoutFor(320, 180);
+        assertEquals(2, mMeasureCount);
+
+        mView.layoutFor(640, 360);
+        assertEquals(640, mView.getWidth());
+        assertEquals(360, mView.getHeight());
+        mView.layoutFor(320, 180);
+        assertEquals(320, mView.getWidth());
+        assertEquals(2, mMeasureCount);
+    }
+
+    public void testDirtyRectCoversChangedComponents() {
+        Rect dirty = new Rect();
+        mView.layoutFor(640, 360);
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        // Laid out since the last frame.
+        assertFalse(mView.getDirtyRect(dirty));
+
+        mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(10);
+        mView.updateText();
+        assertTrue(mView.getDirtyRect(dirty));
+        Rect centiSeconds = new Rect();
+        mCentiSecondsView.getHitRect(centiSeconds);
+        assertEquals(centiSeconds.width(), dirty.width());
+        assertEquals(centiSeconds.height(), dirty.height());
+
+        // Nothing changed.
+        mView.updateText();
+        assertTrue(mView.getDirtyRect(dirty));
+        assertTrue(dirty.isEmpty());
+
+        mElapsedRealtimeNanos += TimeUnit.SECONDS.toNanos(1);
+        mView.updateText();
+        assertTrue(mView.getDirtyRect(dirty));
+        assertTrue(dirty.width() > centiSeconds.width());
+    }
+
+    public void testHiddenCentisecondsOnlyChangeEverySecond() {
+        Rect dirty = new Rect();
+        mView.layoutFor(640, 360);
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mView.setCentisecondsShown(false);
+        mView.updateText();
+        assertEquals(View.INVISIBLE, mCentiSecondsView.getVisibility());
+        // Drawn entirely to hide the separator as well.
+        assertFalse(mView.getDirtyRect(dirty));
+
+        mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(500);
+        mView.updateText();
+        assertTrue(mView.getDirtyRect(dirty));
+        assertTrue(dirty.isEmpty());
+
+        mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(500);
+        mView.updateText();
+        assertTrue(mView.getDirtyRect(dirty));
+        assertFalse(dirty.isEmpty());
+
+        mView.setCentisecondsShown(true);
+        mView.updateText();
+        assertEquals(View.VISIBLE, mCentiSecondsView.getVisibility());
+        assertEquals("00", mCentiSecondsView.getText().toString());
+    }
+
+    public void testHiddenCentisecondsKeepHoursSeconds() {
+        mView.setCentisecondsShown(false);
+        mElapsedRealtimeNanos += TimeUnit.HOURS.toNanos(1);
+        mView.updateText();
+        // The right component shows the seconds from an hour.
+        assertEquals(View.VISIBLE, mCentiSecondsView.getVisibility());
+    }
+
+    public void testUpdateDelay() {
+        mView.setUpdateDelayMillis(250);
+        mView.start();
+        assertEquals(250, mPostedCallbackDelayMillis);
+    }
+
+    public void testPausedHourCostsNoTicks() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mView.start();
+        int ticks = runTicks(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(TimeUnit.SECONDS.toMillis(1) / ChronometerView.DELAY_MILLIS, ticks);
+
+        mView.pause(mElapsedRealtimeNanos);
+        assertNull(mPendingCallback);
+        mChangeCount = 0;
+        // No message nor change at all while paused.
+        assertEquals(0, runTicks(TimeUnit.HOURS.toNanos(1)));
+        assertEquals(0, mChangeCount);
+        // Stopped and started again while paused, e.g. the card hidden then shown.
+        mView.stop();
+        mView.start();
+        assertNull(mPendingCallback);
+
+        mView.resume(mElapsedRealtimeNanos);
+        assertNotNull(mPendingCallback);
+        ticks = runTicks(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(TimeUnit.SECONDS.toMillis(1) / ChronometerView.DELAY_MILLIS, ticks);
+        // The paused hour isn't counted.
+        assertEquals(TimeUnit.SECONDS.toNanos(2), mView.getElapsedNanos(mElapsedRealtimeNanos));
+    }
+
+    public void testLapKeepsSubMillisecondPrecision() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mView.lap(mElapsedRealtimeNanos + 1234567);
+        assertEquals(1234567, mView.getLapNanos(0));
+    }
+
+    public void testTextIsSampledAtPresentationTime() {
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mView.setPresentLatencyNanos(TimeUnit.MILLISECONDS.toNanos(30));
+        mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(995);
+        mView.updateText();
+        // Drawn at 0.995s but presented at 1.025s.
+        assertEquals("01", mSecondsView.getText());
+        assertEquals("02", mCentiSecondsView.getText());
+    }
+
+    public void testDisplayedTimeMatchesReferenceClockAtPresentation() {
+        long presentLatencyNanos = TimeUnit.MILLISECONDS.toNanos(21);
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mView.setPresentLatencyNanos(presentLatencyNanos);
+        long baseNanos = mElapsedRealtimeNanos;
+
+        // Ticks land anywhere between two frames, as with a late or jittery Handler.
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; ++i) {
+            mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(30)
+                    + (long) (random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(25));
+            mView.updateText();
+
+            // Reference: the time at which the frame is on screen.
+            long presentedNanos = mElapsedRealtimeNanos + presentLatencyNanos - baseNanos;
+            if (presentedNanos >= TimeUnit.HOURS.toNanos(1)) {
+                break;
+            }
+            assertComponents(presentedNanos);
+        }
+    }
+
+    public void testFormatDelta() {
+        char[] suffix = "vs best".toCharArray();
+        char[] buffer = new char[32];
+        assertEquals("+1.23 s vs best",
+                new String(buffer, 0, ChronometerView.formatDelta(123, suffix, buffer)));
+        assertEquals("-0.05 s vs best",
+                new String(buffer, 0, ChronometerView.formatDelta(-5, suffix, buffer)));
+        assertEquals("+125.00 s vs best",
+                new String(buffer, 0, ChronometerView.formatDelta(12500, suffix, buffer)));
+    }
+
+    public void testGhostDeltaShownAtLaps() {
+        TextView ghostView = (TextView) mView.findViewById(R.id.ghost_delta);
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mView.setGhostPace(new GhostPace(new long[] { TimeUnit.SECONDS.toNanos(10) }));
+        assertEquals(View.VISIBLE, ghostView.getVisibility());
+
+        mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(11230);
+        mView.lap(mElapsedRealtimeNanos);
+        assertTrue(mView.getGhostText().startsWith("+1.23 s"));
+
+        // No more laps to compare to.
+        mView.lap(mElapsedRealtimeNanos);
+        assertEquals(View.INVISIBLE, ghostView.getVisibility());
+    }
+
+    public void testGhostDeltaDrawnWithoutAllocating() {
+        mView.setCentisecondsShown(false);
+        mView.setBaseNanos(mElapsedRealtimeNanos);
+        mView.setGhostPace(new GhostPace(new long[] { TimeUnit.SECONDS.toNanos(10) }));
+        mView.layoutFor(640, 360);
+        Canvas canvas = new Canvas(Bitmap.createBitmap(640, 360, Bitmap.Config.ARGB_8888));
+        // Past the reference run's lap, only the delta changes every centisecond.
+        mElapsedRealtimeNanos += TimeUnit.SECONDS.toNanos(11);
+        mView.updateText();
+        mView.draw(canvas);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < 90; ++i) {
+                mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(10);
+                mView.updateText();
+                mView.draw(canvas);
+            }
+            assertEquals(0, Debug.getThreadAllocCount());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        assertEquals("+1.90 s", mView.getGhostText().substring(0, 7));
+    }
+
+    /**
+     * Ensures the displayed components match {@code elapsedNanos}, computed independently from
+     * the view.
+     */
+    private void assertComponents(long elapsedNanos) {
+        long days = elapsedNanos / TimeUnit.DAYS.toNanos(1);
+        long hours = elapsedNanos / TimeUnit.HOURS.toNanos(1);
+        long minutes = elapsedNanos / TimeUnit.MINUTES.toNanos(1);
+        long seconds = elapsedNanos / TimeUnit.SECONDS.toNanos(1);
+        String[] expected;
+        if (hours == 0) {
+            expected = new String[] {
+                String.format("%02d", minutes),
+                String.format("%02d", seconds % 60),
+                String.format("%02d", (elapsedNanos % TimeUnit.SECONDS.toNanos(1))
+                        / TimeUnit.MILLISECONDS.toNanos(10)),
+            };
+        } else if (days == 0) {
+            expected = new String[] {
+                Long.toString(hours),
+                String.format("%02d", minutes % 60),
+                String.format("%02d", seconds % 60),
+            };
+        } else {
+            expected = new String[] {
+                Long.toString(days),
+                String.format("%02d", hours % 24),
+                String.format("%02d", minutes % 60),
+            };
+        }
+        assertEquals(expected[0], mMinutesView.getText().toString());
+        assertEquals(expected[1], mSecondsView.getText().toString());
+        assertEquals(expected[2], mCentiSecondsView.getText().toString());
+    }
+
+    /** Asserts that {@code drawable} is {@code glyph} drawn from {@code atlas}, not decoded. */
+    private static void assertFromAtlas(GlyphAtlas atlas, char glyph, Drawable drawable) {
+        assertFalse(drawable instanceof BitmapDrawable);
+        assertTrue(render(atlas.newDrawable(glyph)).sameAs(render(drawable)));
+    }
+
+    private static Bitmap render(Drawable drawable) {
+        Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
+                drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+        drawable.setBounds(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        drawable.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    /**
+     * Runs the posted callbacks as a handler would over {@code durationNanos} of simulated time.
+     *
+     * @return the number of callbacks run.
+     */
+    private int runTicks(long durationNanos) {
+        long endNanos = mElapsedRealtimeNanos + durationNanos;
+        int count = 0;
+        while (mPendingCallback != null && mElapsedRealtimeNanos
+                + TimeUnit.MILLISECONDS.toNanos(mPostedCallbackDelayMillis) <= endNanos) {
+            Runnable callback = mPendingCallback;
+            mPendingCallback = null;
+            mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(mPostedCallbackDelayMillis);
+            callback.run();
+            ++count;
+        }
+        mElapsedRealtimeNanos = endNanos;
+        return count;
+    }
 }
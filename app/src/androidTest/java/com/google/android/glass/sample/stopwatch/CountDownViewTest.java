@@ -17,9 +17,16 @@
 package com.google.android.glass.sample.stopwatch;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.test.AndroidTestCase;
+import android.view.View;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -38,6 +45,8 @@ public class CountDownViewTest extends AndroidTestCase {
     private long mPostedCallbackDelayMillis;
     private long mTimeMillis;
     private Runnable mPostedCallback;
+    /** Callbacks posted and not removed, in order. */
+    private final List<Runnable> mPendingCallbacks = new ArrayList<Runnable>();
     private int mPlayedSoundId;
 
     private long mMillisLeft;
@@ -54,12 +63,16 @@ public class CountDownViewTest extends AndroidTestCase {
         public boolean postDelayed(Runnable action, long delayMillis) {
             mPostedCallback = action;
             mPostedCallbackDelayMillis = delayMillis;
+            mPendingCallbacks.add(action);
             return true;
         }
 
         @Override
-        public long getElapsedRealtime() {
-            return mElapsedRealtime;
+        public boolean removeCallbacks(Runnable action) {
+            while (mPendingCallbacks.remove(action)) {
+                // Removes all of them.
+            }
+            return super.removeCallbacks(action);
         }
 
         @Override
@@ -72,6 +85,13 @@ public class CountDownViewTest extends AndroidTestCase {
     protected void setUp() throws Exception {
         super.setUp();
         mView = new MockCountDownView(getContext());
+        mView.setTimeSource(new TimeSource() {
+
+            @Override
+            public long elapsedRealtimeNanos() {
+                return TimeUnit.MILLISECONDS.toNanos(mElapsedRealtime);
+            }
+        });
         mView.setListener(new CountDownView.Listener() {
 
             @Override
@@ -92,6 +112,7 @@ public class CountDownViewTest extends AndroidTestCase {
         // Reset the test flags.
         mPostedCallbackDelayMillis = 0;
         mPostedCallback = null;
+        mPendingCallbacks.clear();
         mOnFinishCalled = false;
         mMillisLeft = 0;
     }
@@ -132,27 +153,65 @@ public class CountDownViewTest extends AndroidTestCase {
         assertTrue(mOnFinishCalled);
     }
 
-    public void testUpdateViewProperlyPlaysCountDownSound() {
-        mView.start();
-        assertFalse(mView.updateView());
-        assertEquals(mView.mCountDownSoundId, mPlayedSoundId);
-        // Reset flag.
+    public void testStartSchedulesFirstSound() {
         mPlayedSoundId = -1;
-        assertFalse(mView.updateView());
+        mView.start();
+        // The update runnable is posted last.
         assertEquals(-1, mPlayedSoundId);
-        // Ensure that previous test is not a no-op.
-        assertFalse(-1 == mView.mCountDownSoundId);
+        mView.playScheduledSound();
+        assertEquals(mView.mCountDownSoundId, mPlayedSoundId);
+    }
 
-        mElapsedRealtime += 1500;
-        assertFalse(mView.updateView());
+    public void testScheduledSoundsPlayedAheadOfSecondBoundaries() {
+        mView.start();
+        mView.playScheduledSound();
         assertEquals(mView.mCountDownSoundId, mPlayedSoundId);
+        assertEquals(CountDownView.SEC_TO_MILLIS - CountDownView.SOUND_LATENCY_MILLIS,
+                mPostedCallbackDelayMillis);
+
+        for (int i = 1; i < COUNT_DOWN_SECONDS; ++i) {
+            mElapsedRealtime += mPostedCallbackDelayMillis;
+            mPlayedSoundId = -1;
+            mView.playScheduledSound();
+            assertEquals(mView.mCountDownSoundId, mPlayedSoundId);
+            // Following sounds are scheduled relative to the boundaries, not the last sound.
+            assertEquals(CountDownView.SEC_TO_MILLIS, mPostedCallbackDelayMillis);
+        }
+        assertEquals(CountDownView.SOUND_LATENCY_MILLIS, mView.getMaxSoundOffsetMillis());
+    }
+
+    public void testLastScheduledSoundIsFinishSound() {
+        mView.start();
+        for (int i = 0; i < COUNT_DOWN_SECONDS; ++i) {
+            mView.playScheduledSound();
+        }
+        mElapsedRealtime +=
+                TimeUnit.SECONDS.toMillis(COUNT_DOWN_SECONDS) - CountDownView.SOUND_LATENCY_MILLIS;
+        mPostedCallback = null;
+        mView.playScheduledSound();
+        assertEquals(mView.mFinishSoundId, mPlayedSoundId);
+        // No more sounds to schedule.
+        assertNull(mPostedCallback);
     }
 
-    public void testUpdateViewProperlyPlaysFinishSound() {
+    public void testUpdateViewDoesNotPlaySound() {
         mView.start();
+        mPlayedSoundId = -1;
+        assertFalse(mView.updateView());
+        mElapsedRealtime += 1500;
+        assertFalse(mView.updateView());
         mElapsedRealtime += TimeUnit.SECONDS.toMillis(COUNT_DOWN_SECONDS);
         assertTrue(mView.updateView());
-        assertEquals(mView.mFinishSoundId, mPlayedSoundId);
+        assertEquals(-1, mPlayedSoundId);
+    }
+
+    public void testUpdateViewRecordsFrameOffset() {
+        mView.start();
+        assertFalse(mView.updateView());
+        // First frame of the next second displayed 30ms late.
+        mElapsedRealtime += CountDownView.SEC_TO_MILLIS + 30;
+        assertFalse(mView.updateView());
+        assertEquals(30, mView.getMaxFrameOffsetMillis());
     }
 
     public void testUpdateViewProperlyUpdatesSecondsViewWithTranslation() {
@@ -183,4 +242,252 @@ public class CountDownViewTest extends AndroidTestCase {
         assertEquals(expectedSecondsText, mSecondsView.getText());
     }
 
+    public void testKeyframesMatchAnimationCurve() {
+        // Frames go from 1ms to 1000ms within each second.
+        for (int frame = CountDownView.KEYFRAME_RESOLUTION_MILLIS;
+                frame <= CountDownView.SEC_TO_MILLIS;
+                frame += CountDownView.KEYFRAME_RESOLUTION_MILLIS) {
+            float expectedAlpha;
+            float expectedTranslation;
+            if (frame <= CountDownView.ANIMATION_DURATION_IN_MILLIS) {
+                float factor = frame / CountDownView.ANIMATION_DURATION_IN_MILLIS;
+                expectedAlpha = factor * CountDownView.ALPHA_DELIMITER;
+                expectedTranslation = CountDownView.MAX_TRANSLATION_Y * (1 - factor);
+            } else {
+                float factor = (frame - CountDownView.ANIMATION_DURATION_IN_MILLIS)
+                        / CountDownView.ANIMATION_DURATION_IN_MILLIS;
+                expectedAlpha = CountDownView.ALPHA_DELIMITER
+                        + factor * (1 - CountDownView.ALPHA_DELIMITER);
+                expectedTranslation = 0;
+            }
+
+            mView.updateView(3 * CountDownView.SEC_TO_MILLIS - frame);
+            assertEquals(expectedAlpha, mSecondsView.getAlpha());
+            assertEquals(expectedTranslation, mSecondsView.getTranslationY());
+        }
+    }
+
+    public void testUpdateViewOnlyUpdatesTextOnSecondChange() {
+        mView.updateView(2100);
+        assertEquals("3", mSecondsView.getText());
+
+        // Replace the text to detect any update within the same second.
+        mSecondsView.setText("");
+        mView.updateView(2060);
+        mView.updateView(2000);
+        assertEquals("", mSecondsView.getText());
+
+        mView.updateView(1999);
+        assertEquals("2", mSecondsView.getText());
+    }
+
+
+    public void testStopRemovesCallbacksAndKeepsStopTime() {
+        mView.start();
+        long stopTimeNanos = mView.getStopTimeNanos();
+        mView.stop();
+        assertTrue(mView.isStarted());
+        assertFalse(mView.isRunning());
+
+        mElapsedRealtime += 1500;
+        mPostedCallback = null;
+        mView.start();
+        assertTrue(mView.isRunning());
+        assertNotNull(mPostedCallback);
+        assertEquals(stopTimeNanos, mView.getStopTimeNanos());
+    }
+
+    public void testResumeSkipsSoundsPassedWhileStopped() {
+        mView.start();
+        mView.playScheduledSound();
+        mView.stop();
+
+        // Resume 500ms after the second boundary following the last sound.
+        mElapsedRealtime += 2 * CountDownView.SEC_TO_MILLIS + 500;
+        mView.start();
+        // The next sound marks the boundary 3s after the start, the one at 2s is skipped.
+        mElapsedRealtime += 500 - CountDownView.SOUND_LATENCY_MILLIS;
+        mPlayedSoundId = -1;
+        mView.playScheduledSound();
+        assertEquals(mView.mCountDownSoundId, mPlayedSoundId);
+        assertEquals(CountDownView.SEC_TO_MILLIS, mPostedCallbackDelayMillis);
+    }
+
+    public void testNothingPostedWhileStopped() {
+        mView.setCountDown(600);
+        long startMillis = mElapsedRealtime;
+        mView.start();
+        // Not visible anymore: neither the ticks nor the beeps are left pending.
+        mView.stop();
+        assertTrue(mPendingCallbacks.isEmpty());
+        // A single phase, its end is the countdown's.
+        assertEquals(mView.getStopTimeNanos(), mView.getNextPhaseEndNanos());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(startMillis + TimeUnit.SECONDS.toMillis(600)),
+                mView.getNextPhaseEndNanos());
+        mPlayedSoundId = -1;
+        assertFalse(mView.playPhaseEnd());
+        assertEquals(-1, mPlayedSoundId);
+    }
+
+    public void testPhaseEndsPlayWhileStopped() {
+        mView.setProgram(IntervalProgram.parse("work:5, rest:2"));
+        long startMillis = mElapsedRealtime;
+        mView.start();
+        mView.stop();
+        assertTrue(mPendingCallbacks.isEmpty());
+
+        // The beeps at 2s, 3s and 4s are dropped, the end of the work phase is kept.
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(startMillis + TimeUnit.SECONDS.toMillis(5)),
+                mView.getNextPhaseEndNanos());
+        mElapsedRealtime = startMillis + TimeUnit.SECONDS.toMillis(5);
+        mPlayedSoundId = -1;
+        assertTrue(mView.playPhaseEnd());
+        assertEquals(mView.mFinishSoundId, mPlayedSoundId);
+        assertTrue(mPendingCallbacks.isEmpty());
+
+        // The end of the rest phase is the countdown's, left to finish().
+        assertEquals(mView.getStopTimeNanos(), mView.getNextPhaseEndNanos());
+        mPlayedSoundId = -1;
+        assertFalse(mView.playPhaseEnd());
+        assertEquals(-1, mPlayedSoundId);
+
+        mElapsedRealtime = startMillis + TimeUnit.SECONDS.toMillis(7);
+        mView.finish();
+        assertEquals(mView.mFinishSoundId, mPlayedSoundId);
+        assertTrue(mOnFinishCalled);
+    }
+
+    public void testResumeAfterPhaseEndSchedulesNextBeep() {
+        mView.setProgram(IntervalProgram.parse("work:5, rest:2"));
+        long startMillis = mElapsedRealtime;
+        mView.start();
+        mView.stop();
+        mElapsedRealtime = startMillis + TimeUnit.SECONDS.toMillis(5);
+        mView.playPhaseEnd();
+
+        mElapsedRealtime += 500;
+        mView.start();
+        // The sound and the tick are pending again, the next sound is the rest phase's beep at 6s.
+        assertEquals(2, mPendingCallbacks.size());
+        mElapsedRealtime = startMillis + TimeUnit.SECONDS.toMillis(6)
+                - CountDownView.SOUND_LATENCY_MILLIS;
+        mView.playScheduledSound();
+        assertEquals(mView.mCountDownSoundId, mPlayedSoundId);
+    }
+
+    public void testCancelRemovesSounds() {
+        mView.start();
+        mView.cancel();
+        assertTrue(mPendingCallbacks.isEmpty());
+        assertFalse(mView.isStarted());
+    }
+
+    public void testFinishPlaysFinishSound() {
+        mView.start();
+        mView.stop();
+        mElapsedRealtime += TimeUnit.SECONDS.toMillis(COUNT_DOWN_SECONDS);
+        mView.finish();
+        assertEquals(mView.mFinishSoundId, mPlayedSoundId);
+        assertTrue(mOnFinishCalled);
+        assertFalse(mView.isStarted());
+    }
+
+    public void testFinishWhileRunningIsNoOp() {
+        mView.start();
+        mView.finish();
+        assertFalse(mOnFinishCalled);
+        assertTrue(mView.isStarted());
+    }
+
+    public void testProgramPhasesDisplaySecondsLeftInPhase() {
+        mView.setProgram(IntervalProgram.parse("work:5, rest:2"));
+        TextView phaseView = (TextView) mView.findViewById(R.id.phase);
+        mView.start();
+
+        mElapsedRealtime += 1500;
+        assertFalse(mView.updateView());
+        assertEquals("4", mSecondsView.getText());
+        assertEquals(View.VISIBLE, phaseView.getVisibility());
+        assertEquals(getContext().getString(R.string.work), phaseView.getText().toString());
+
+        mElapsedRealtime += 4000;
+        assertFalse(mView.updateView());
+        assertEquals("2", mSecondsView.getText());
+        assertEquals(getContext().getString(R.string.rest), phaseView.getText().toString());
+        // The listener is given the time left in the whole program.
+        assertEquals(1500, mMillisLeft);
+    }
+
+    public void testProgramSoundsAreCompiledPerPhase() {
+        mView.setProgram(IntervalProgram.parse("work:5, rest:2"));
+        // Beeps for the last 3 seconds of each phase, the finish sound at each phase's end.
+        long[] soundSeconds = { 2, 3, 4, 5, 6, 7 };
+        int[] soundIds = {
+            mView.mCountDownSoundId,
+            mView.mCountDownSoundId,
+            mView.mCountDownSoundId,
+            mView.mFinishSoundId,
+            mView.mCountDownSoundId,
+            mView.mFinishSoundId,
+        };
+        long startMillis = mElapsedRealtime;
+        mView.start();
+
+        for (int i = 0; i < soundSeconds.length; ++i) {
+            mElapsedRealtime = startMillis + TimeUnit.SECONDS.toMillis(soundSeconds[i])
+                    - CountDownView.SOUND_LATENCY_MILLIS;
+            mPostedCallback = null;
+            mView.playScheduledSound();
+            assertEquals(soundIds[i], mPlayedSoundId);
+            assertEquals(i < soundSeconds.length - 1, mPostedCallback != null);
+        }
+        assertEquals(0, mView.getMaxSoundOffsetMillis());
+    }
+
+    public void testTableByteCountFollowsProgram() {
+        IntervalProgram shortProgram = IntervalProgram.parse("work:5, rest:2");
+        mView.setProgram(shortProgram);
+        long shortBytes = mView.getTableByteCount();
+        assertTrue(shortBytes > shortProgram.getByteCount());
+
+        IntervalProgram longProgram = IntervalProgram.parse("100x(work:20, rest:10)");
+        mView.setProgram(longProgram);
+        assertTrue(mView.getTableByteCount() > shortBytes + longProgram.getByteCount());
+    }
+
+    public void testGlyphAtlasSkipsTextLayout() {
+        Resources resources = getContext().getResources();
+        mView.setGlyphAtlas(GlyphAtlas.render(mView.getSecondsPaint(),
+                resources.getDrawable(R.drawable.ic_colon),
+                resources.getDrawable(R.drawable.ic_interpunc)));
+        mView.updateView(2100);
+        assertEquals(View.INVISIBLE, mSecondsView.getVisibility());
+        assertEquals("", mSecondsView.getText().toString());
+        // Still animated.
+        assertEquals(CountDownView.ALPHA_KEYFRAMES[90], mSecondsView.getAlpha());
+
+        // The seconds are drawn in the middle of the card.
+        int width = 640;
+        int height = 360;
+        mView.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        mView.layout(0, 0, width, height);
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mView.draw(new Canvas(bitmap));
+        int[] row = new int[width];
+        bitmap.getPixels(row, 0, width, 0, height / 2, width, 1);
+        int drawn = 0;
+        for (int pixel : row) {
+            if (Color.red(pixel) > 128) {
+                ++drawn;
+            }
+        }
+        assertTrue(drawn > 0);
+        bitmap.recycle();
+
+        mView.setGlyphAtlas(null);
+        mView.updateView(2100);
+        assertEquals(View.VISIBLE, mSecondsView.getVisibility());
+        assertEquals("3", mSecondsView.getText());
+    }
 }
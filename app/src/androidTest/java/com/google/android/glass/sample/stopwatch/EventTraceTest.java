@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link EventTrace}, replaying traces into {@link ChronometerDrawer}s drawing into
+ * {@link OffscreenSurfaceHolder}s.
+ */
+public class EventTraceTest extends InstrumentationTestCase {
+
+    private static final String TAG = EventTraceTest.class.getSimpleName();
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+    private static final long BASE_NANOS = TimeUnit.SECONDS.toNanos(1000);
+    private static final long FRAME_INTERVAL_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(ChronometerView.DELAY_MILLIS);
+
+    public void testWriteReadRoundTrip() throws IOException {
+        EventTrace trace = createFieldTrace();
+        // Large and negative values as well.
+        trace.record(EventTrace.LAP, Long.MAX_VALUE / 2, -1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trace.writeTo(out);
+        EventTrace read = EventTrace.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(trace, read);
+        Log.i(TAG, trace.getEventCount() + " events in " + out.size() + " bytes");
+    }
+
+    public void testReadInvalidTrace() {
+        try {
+            EventTrace.readFrom(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6 }));
+            fail("IOException expected");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    public void testEventsDroppedWhenFull() {
+        EventTrace trace = new EventTrace();
+        for (int i = 0; i < EventTrace.MAX_EVENTS + 10; ++i) {
+            trace.record(EventTrace.LAP, i, 0);
+        }
+        assertEquals(EventTrace.MAX_EVENTS, trace.getEventCount());
+        assertEquals(10, trace.getDroppedCount());
+        assertEquals(EventTrace.MAX_EVENTS - 1, trace.getTimeNanos(EventTrace.MAX_EVENTS - 1));
+    }
+
+    public void testReplayState() {
+        OffscreenSurfaceHolder holder = new OffscreenSurfaceHolder(WIDTH, HEIGHT);
+        ChronometerDrawer drawer = createDrawer();
+        createFieldTrace().replay(drawer, holder, FRAME_INTERVAL_NANOS);
+
+        // The countdown ended 3s after the surface creation, though delivered by a late alarm.
+        long countDownEndNanos = at(1) + TimeUnit.SECONDS.toNanos(3);
+        assertTrue(drawer.isStarted());
+        assertFalse(drawer.isPaused());
+        assertEquals(at(12000) - countDownEndNanos - TimeUnit.SECONDS.toNanos(1),
+                drawer.getElapsedNanos(at(12000)));
+        assertTrue(holder.getFrameCount() > 0);
+    }
+
+    public void testReplayIsReproducible() throws IOException {
+        EventTrace trace = createFieldTrace();
+
+        OffscreenSurfaceHolder firstHolder = new OffscreenSurfaceHolder(WIDTH, HEIGHT);
+        ChronometerDrawer firstDrawer = createDrawer();
+        EventTrace recorded = new EventTrace();
+        firstDrawer.setEventTrace(recorded);
+        long startNanos = System.nanoTime();
+        trace.replay(firstDrawer, firstHolder, FRAME_INTERVAL_NANOS);
+        long replayMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        // The replay drives the drawer through the very same events.
+        assertEquals(trace, recorded);
+
+        // Replaying the recorded trace from a file renders the same frames.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorded.writeTo(out);
+        OffscreenSurfaceHolder secondHolder = new OffscreenSurfaceHolder(WIDTH, HEIGHT);
+        ChronometerDrawer secondDrawer = createDrawer();
+        EventTrace.readFrom(new ByteArrayInputStream(out.toByteArray()))
+                .replay(secondDrawer, secondHolder, FRAME_INTERVAL_NANOS);
+
+        assertEquals(firstHolder.getFrameCount(), secondHolder.getFrameCount());
+        assertEquals(firstHolder.getTotalChangedPixels(), secondHolder.getTotalChangedPixels());
+        assertTrue(firstHolder.captureFrame().sameAs(secondHolder.captureFrame()));
+        assertEquals(firstDrawer.getElapsedNanos(at(12000)),
+                secondDrawer.getElapsedNanos(at(12000)));
+
+        Log.i(TAG, "Replayed " + trace.getEventCount() + " events, "
+                + firstHolder.getFrameCount() + " frames in " + replayMicros + "us, average draw "
+                + TimeUnit.NANOSECONDS.toMicros(firstHolder.getTotalDrawNanos())
+                        / firstHolder.getFrameCount() + "us");
+    }
+
+    /**
+     * Returns a trace as recorded on a device: the card is hidden before the countdown ends, shown
+     * again for a few laps, then the stopwatch is closed.
+     */
+    private static EventTrace createFieldTrace() {
+        EventTrace trace = new EventTrace();
+        trace.record(EventTrace.SURFACE_CHANGED, at(0), EventTrace.sizeArg(WIDTH, HEIGHT));
+        trace.record(EventTrace.SURFACE_CREATED, at(1), 0);
+        trace.record(EventTrace.RENDERING_PAUSED, at(1500), 1);
+        trace.record(EventTrace.COUNT_DOWN_ALARM, at(3200), 0);
+        trace.record(EventTrace.RENDERING_PAUSED, at(4000), 0);
+        trace.record(EventTrace.LAP, at(5000), 0);
+        // Delivered 2ms late.
+        trace.record(EventTrace.LAP, at(6500), TimeUnit.MILLISECONDS.toNanos(2));
+        trace.record(EventTrace.PAUSE, at(7000), 0);
+        trace.record(EventTrace.RESUME, at(8000), 0);
+        trace.record(EventTrace.TRIM_MEMORY, at(8500),
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        trace.record(EventTrace.SURFACE_DESTROYED, at(9000), 0);
+        trace.record(EventTrace.SURFACE_CREATED, at(10000), 0);
+        trace.record(EventTrace.SURFACE_CHANGED, at(10000), EventTrace.sizeArg(WIDTH, HEIGHT));
+        trace.record(EventTrace.LAP, at(11000), 0);
+        trace.record(EventTrace.END_SESSION, at(12000), 0);
+        return trace;
+    }
+
+    private ChronometerDrawer createDrawer() {
+        Context context = getInstrumentation().getTargetContext();
+        return new ChronometerDrawer(new CountDownView(context), new ChronometerView(context));
+    }
+
+    private static long at(long millis) {
+        return BASE_NANOS + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static void assertEquals(EventTrace expected, EventTrace actual) {
+        assertEquals(expected.getEventCount(), actual.getEventCount());
+        for (int i = 0; i < expected.getEventCount(); ++i) {
+            assertEquals("Event " + i, expected.getEvent(i), actual.getEvent(i));
+            assertEquals("Time of event " + i, expected.getTimeNanos(i), actual.getTimeNanos(i));
+            assertEquals("Argument of event " + i, expected.getArg(i), actual.getArg(i));
+        }
+    }
+}
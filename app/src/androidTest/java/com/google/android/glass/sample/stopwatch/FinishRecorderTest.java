@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link FinishRecorder}.
+ */
+public class FinishRecorderTest extends AndroidTestCase {
+
+    private FinishRecorder mRecorder;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRecorder = new FinishRecorder();
+    }
+
+    public void testRecordAcrossChunks() {
+        int count = FinishRecorder.CHUNK_SIZE * 3 + 7;
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i, mRecorder.record(i + 1));
+        }
+        assertEquals(count, mRecorder.getCount());
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i + 1, mRecorder.get(i));
+        }
+    }
+
+    public void testFullRecorderDropsFinishes() {
+        for (int i = 0; i < FinishRecorder.CAPACITY; ++i) {
+            mRecorder.record(i + 1);
+        }
+        assertEquals(0, mRecorder.getDroppedCount());
+
+        // A stuck key keeps recording: the count neither grows nor overflows.
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(-1, mRecorder.record(FinishRecorder.CAPACITY + i + 1));
+        }
+        assertEquals(3, mRecorder.getDroppedCount());
+        assertEquals(FinishRecorder.CAPACITY, mRecorder.getCount());
+        assertEquals(FinishRecorder.CAPACITY, mRecorder.get(FinishRecorder.CAPACITY - 1));
+    }
+
+    public void testSimulatedBurstLosesNothing() throws InterruptedException {
+        // 1,000 finishes over 10 seconds, recorded concurrently by 4 threads while the results are
+        // read.
+        final int threadCount = 4;
+        final int finishesPerThread = 250;
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(10) / (threadCount * finishesPerThread);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(threadCount);
+
+        for (int t = 0; t < threadCount; ++t) {
+            final int thread = t;
+            new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < finishesPerThread; ++i) {
+                        mRecorder.record((i * threadCount + thread + 1) * intervalNanos);
+                    }
+                    doneLatch.countDown();
+                }
+            }.start();
+        }
+
+        RaceResults results = new RaceResults();
+        startLatch.countDown();
+        while (!doneLatch.await(1, TimeUnit.MILLISECONDS)) {
+            results.update(mRecorder);
+        }
+        results.update(mRecorder);
+
+        int total = threadCount * finishesPerThread;
+        assertEquals(total, mRecorder.getCount());
+        assertEquals(total, results.getCount());
+        for (int rank = 0; rank < total; ++rank) {
+            assertEquals((rank + 1) * intervalNanos, results.getFinishNanos(rank));
+        }
+    }
+
+    public void testRecordIsFast() {
+        int count = 100000;
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+            mRecorder.record(i + 1);
+        }
+        long averageNanos = (System.nanoTime() - startNanos) / count;
+        assertTrue("Recording took " + averageNanos + "ns", averageNanos < 1000);
+    }
+}
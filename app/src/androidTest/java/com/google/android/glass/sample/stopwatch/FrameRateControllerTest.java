@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link FrameRateController}.
+ */
+public class FrameRateControllerTest extends AndroidTestCase {
+
+    private static final long CHEAP_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long THROTTLED_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private FrameRateController mController;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mController = new FrameRateController();
+    }
+
+    public void testStaysAtFullRateWithinBudget() {
+        drawFrames(1000, CHEAP_FRAME_NANOS);
+        assertEquals(0, mController.getLevel());
+        assertEquals(ChronometerView.DELAY_MILLIS, mController.getDelayMillis());
+        assertTrue(mController.isCentisecondsShown());
+        assertEquals(0, mController.getTransitionCount());
+    }
+
+    public void testStepsDownOneLevelAtATime() {
+        assertEquals(1, drawFramesUntilChange(THROTTLED_FRAME_NANOS));
+        assertEquals(1, mController.getLevel());
+        assertEquals(83, mController.getDelayMillis());
+        assertEquals(2, drawFramesUntilChange(THROTTLED_FRAME_NANOS));
+        assertEquals(250, mController.getDelayMillis());
+        assertTrue(mController.isCentisecondsShown());
+        assertEquals(3, drawFramesUntilChange(THROTTLED_FRAME_NANOS));
+        assertFalse(mController.isCentisecondsShown());
+
+        // Nothing lower.
+        drawFrames(1000, THROTTLED_FRAME_NANOS);
+        assertEquals(FrameRateController.LOWEST_LEVEL, mController.getLevel());
+        assertEquals(3, mController.getTransitionCount());
+    }
+
+    public void testRaisesBackWithHeadroom() {
+        drawFrames(1000, THROTTLED_FRAME_NANOS);
+        assertEquals(FrameRateController.LOWEST_LEVEL, mController.getLevel());
+
+        drawFrames(1000, CHEAP_FRAME_NANOS);
+        assertEquals(0, mController.getLevel());
+        assertTrue(mController.isCentisecondsShown());
+    }
+
+    public void testNoOscillationJustOverBudget() {
+        // Slightly over the budget at 24Hz, well within it at 12Hz.
+        long frameNanos = TimeUnit.MILLISECONDS.toNanos(ChronometerView.DELAY_MILLIS) / 4 + 1000;
+        drawFrames(1000, frameNanos);
+        assertEquals(1, mController.getLevel());
+        assertEquals(1, mController.getTransitionCount());
+    }
+
+    public void testAverageDrawNanos() {
+        drawFrames(100, CHEAP_FRAME_NANOS);
+        assertEquals(CHEAP_FRAME_NANOS, mController.getAverageDrawNanos());
+    }
+
+    private void drawFrames(int count, long drawNanos) {
+        for (int i = 0; i < count; ++i) {
+            mController.onFrameDrawn(drawNanos);
+        }
+    }
+
+    /**
+     * Draws frames taking {@code drawNanos} until the level changes, and returns the new level.
+     */
+    private int drawFramesUntilChange(long drawNanos) {
+        for (int i = 0; i < 1000; ++i) {
+            if (mController.onFrameDrawn(drawNanos)) {
+                return mController.getLevel();
+            }
+        }
+        fail("The level didn't change");
+        return -1;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link GhostPace}.
+ */
+public class GhostPaceTest extends AndroidTestCase {
+
+    private static final long SEC_TO_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Reference run with laps at 60s, 125s and 185s. */
+    private GhostPace mGhostPace;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGhostPace = new GhostPace(new long[] {
+            60 * SEC_TO_NANOS,
+            125 * SEC_TO_NANOS,
+            185 * SEC_TO_NANOS,
+        });
+    }
+
+    public void testDeltaAtLaps() {
+        assertEquals(2 * SEC_TO_NANOS, mGhostPace.getMinDeltaNanos(62 * SEC_TO_NANOS, 1,
+                62 * SEC_TO_NANOS));
+        assertEquals(-3 * SEC_TO_NANOS, mGhostPace.getMinDeltaNanos(122 * SEC_TO_NANOS, 2,
+                122 * SEC_TO_NANOS));
+    }
+
+    public void testDeltaHeldUntilReferenceCompletesNextLap() {
+        // 2s late at the first lap, the reference run completes its second lap at 125s.
+        assertEquals(2 * SEC_TO_NANOS, mGhostPace.getMinDeltaNanos(100 * SEC_TO_NANOS, 1,
+                62 * SEC_TO_NANOS));
+        assertEquals(2 * SEC_TO_NANOS, mGhostPace.getMinDeltaNanos(127 * SEC_TO_NANOS, 1,
+                62 * SEC_TO_NANOS));
+        // Then grows continuously.
+        assertEquals(5 * SEC_TO_NANOS, mGhostPace.getMinDeltaNanos(130 * SEC_TO_NANOS, 1,
+                62 * SEC_TO_NANOS));
+    }
+
+    public void testDeltaBeforeFirstLap() {
+        assertEquals(0, mGhostPace.getMinDeltaNanos(30 * SEC_TO_NANOS, 0, 0));
+        assertEquals(4 * SEC_TO_NANOS, mGhostPace.getMinDeltaNanos(64 * SEC_TO_NANOS, 0, 0));
+    }
+
+    public void testIsComparable() {
+        assertTrue(mGhostPace.isComparable(0));
+        assertTrue(mGhostPace.isComparable(3));
+        assertFalse(mGhostPace.isComparable(4));
+    }
+
+    public void testIsBeatenBy() {
+        long[] faster = { 61 * SEC_TO_NANOS, 124 * SEC_TO_NANOS, 184 * SEC_TO_NANOS };
+        long[] slower = { 59 * SEC_TO_NANOS, 124 * SEC_TO_NANOS, 186 * SEC_TO_NANOS };
+        assertTrue(mGhostPace.isBeatenBy(faster, 3));
+        assertFalse(mGhostPace.isBeatenBy(slower, 3));
+        // Shorter runs never beat the reference run.
+        assertFalse(mGhostPace.isBeatenBy(faster, 2));
+    }
+
+    public void testUnsortedSplitsRejected() {
+        try {
+            new GhostPace(new long[] { 2, 1 });
+            fail("Accepted unsorted splits");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    public void testSaveAndLoad() {
+        SharedPreferences preferences =
+                getContext().getSharedPreferences("ghost_pace_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+        assertNull(GhostPace.load(preferences));
+
+        mGhostPace.save(preferences);
+        GhostPace loaded = GhostPace.load(preferences);
+        assertEquals(3, loaded.getLapCount());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(mGhostPace.getSplitNanos(i), loaded.getSplitNanos(i));
+        }
+        preferences.edit().clear().commit();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.content.res.Resources;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit tests for {@link GlyphAtlas}.
+ */
+public class GlyphAtlasTest extends AndroidTestCase {
+
+    private static final long KEY = LayoutCache.key(640, 360, 240);
+    private static final long APK_VERSION = 1400000000000L;
+
+    private File mFile;
+    private GlyphAtlas mAtlas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "glyphs-test.atlas");
+        mFile.delete();
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(160);
+        Resources resources = getContext().getResources();
+        mAtlas = GlyphAtlas.render(paint, resources.getDrawable(R.drawable.ic_colon),
+                resources.getDrawable(R.drawable.ic_interpunc));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testRender() {
+        Drawable colon = getContext().getResources().getDrawable(R.drawable.ic_colon);
+        assertEquals(colon.getIntrinsicWidth(), mAtlas.getWidth(GlyphAtlas.COLON));
+        assertTrue(mAtlas.getWidth('0') > 0);
+        assertTrue(mAtlas.getBaseline() > 0);
+        assertTrue(mAtlas.getDigitHeight() > mAtlas.getBaseline());
+        char[] text = "10".toCharArray();
+        assertEquals(mAtlas.getWidth('1') + mAtlas.getWidth('0'), mAtlas.getWidth(text, 0, 2));
+
+        Drawable drawable = mAtlas.newDrawable(GlyphAtlas.INTERPUNC);
+        assertEquals(mAtlas.getWidth(GlyphAtlas.INTERPUNC), drawable.getIntrinsicWidth());
+    }
+
+    public void testSaveAndLoad() throws IOException {
+        assertNull(GlyphAtlas.load(mFile, KEY, APK_VERSION));
+        mAtlas.save(mFile, KEY, APK_VERSION);
+
+        GlyphAtlas loaded = GlyphAtlas.load(mFile, KEY, APK_VERSION);
+        assertNotNull(loaded);
+        assertEquals(mAtlas.getByteCount(), loaded.getByteCount());
+        assertEquals(mAtlas.getBaseline(), loaded.getBaseline());
+        assertEquals(mAtlas.getDigitHeight(), loaded.getDigitHeight());
+        for (int i = 0; i < GlyphAtlas.GLYPHS.length(); ++i) {
+            char glyph = GlyphAtlas.GLYPHS.charAt(i);
+            assertEquals(mAtlas.getWidth(glyph), loaded.getWidth(glyph));
+        }
+    }
+
+    public void testOtherConfigurationNotLoaded() throws IOException {
+        mAtlas.save(mFile, KEY, APK_VERSION);
+
+        assertNull(GlyphAtlas.load(mFile, LayoutCache.key(427, 240, 240), APK_VERSION));
+        assertNull(GlyphAtlas.load(mFile, LayoutCache.key(640, 360, 320), APK_VERSION));
+        // A new APK may come with new resources.
+        assertNull(GlyphAtlas.load(mFile, KEY, APK_VERSION + 1));
+    }
+
+    public void testCorruptedFileRejected() throws IOException {
+        FileOutputStream output = new FileOutputStream(mFile);
+        output.write(new byte[] { 0x53, 0x47, 0x4c });
+        output.close();
+        try {
+            GlyphAtlas.load(mFile, KEY, APK_VERSION);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    public void testTruncatedFileRejected() throws IOException {
+        mAtlas.save(mFile, KEY, APK_VERSION);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+        try {
+            GlyphAtlas.load(mFile, KEY, APK_VERSION);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
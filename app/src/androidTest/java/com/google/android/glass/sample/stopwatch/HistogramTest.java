@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Unit tests for {@link Histogram}.
+ */
+public class HistogramTest extends AndroidTestCase {
+
+    public void testBucketsContainTheirValues() {
+        int previous = -1;
+        for (int value = 0; value < 100000; ++value) {
+            int bucket = Histogram.getBucket(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(value <= Histogram.getBucketUpperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(value > Histogram.getBucketUpperBound(bucket - 1));
+            }
+            previous = bucket;
+        }
+        assertEquals(Integer.MAX_VALUE,
+                Histogram.getBucketUpperBound(Histogram.getBucket(Integer.MAX_VALUE)));
+    }
+
+    public void testBucketsWithinPrecision() {
+        for (long value = 16; value <= Integer.MAX_VALUE; value = value * 3 / 2) {
+            long upperBound = Histogram.getBucketUpperBound(Histogram.getBucket((int) value));
+            assertTrue(upperBound - value <= value / 8);
+        }
+    }
+
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int value = 1; value <= 100; ++value) {
+            histogram.add(value);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(10, histogram.getPercentile(10));
+        assertWithin(50, histogram.getPercentile(50));
+        assertWithin(90, histogram.getPercentile(90));
+        assertEquals(100, histogram.getPercentile(100));
+    }
+
+    public void testNegativeCountedAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.add(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    public void testAddAllAndClear() {
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        first.add(10);
+        second.add(1000);
+        second.add(1000);
+        first.addAll(second);
+        assertEquals(3, first.getCount());
+        assertEquals(1000, first.getMax());
+        assertEquals(10, first.getPercentile(33));
+
+        first.clear();
+        assertEquals(0, first.getCount());
+        assertEquals(0, first.getMax());
+    }
+
+    /**
+     * Asserts that {@code actual} estimates {@code expected} within the histogram's precision.
+     */
+    private static void assertWithin(int expected, int actual) {
+        assertTrue("Expected " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
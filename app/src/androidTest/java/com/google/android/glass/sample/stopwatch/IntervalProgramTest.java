@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link IntervalProgram}.
+ */
+public class IntervalProgramTest extends AndroidTestCase {
+
+    private static final long SEC_TO_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public void testNestedRepeatsAreUnrolled() {
+        IntervalProgram program = new IntervalProgram.Builder()
+                .phase(IntervalProgram.WARM_UP, 60)
+                .repeat(2)
+                    .repeat(8)
+                        .phase(IntervalProgram.WORK, 20)
+                        .phase(IntervalProgram.REST, 10)
+                    .end()
+                    .phase(IntervalProgram.REST, 60)
+                .end()
+                .phase(IntervalProgram.COOL_DOWN, 60)
+                .build();
+
+        assertEquals(1 + 2 * (8 * 2 + 1) + 1, program.getPhaseCount());
+        assertEquals(IntervalProgram.WARM_UP, program.getPhaseKind(0));
+        assertEquals(IntervalProgram.WORK, program.getPhaseKind(1));
+        assertEquals(IntervalProgram.REST, program.getPhaseKind(2));
+        assertEquals(IntervalProgram.REST, program.getPhaseKind(17));
+        assertEquals(IntervalProgram.WORK, program.getPhaseKind(18));
+        assertEquals(IntervalProgram.COOL_DOWN, program.getPhaseKind(35));
+        assertEquals((60 + 2 * (8 * 30 + 60) + 60) * SEC_TO_NANOS, program.getDurationNanos());
+        assertEquals(60, program.getMaxPhaseSeconds());
+    }
+
+    public void testByteCount() {
+        IntervalProgram program = IntervalProgram.parse("100x(work:20, rest:10)");
+
+        // The kind and the end time of each phase.
+        assertEquals(200 * (4 + 8), program.getByteCount());
+    }
+
+    public void testParseMatchesBuilder() {
+        IntervalProgram program =
+                IntervalProgram.parse("warmup:60, 8x(work:20, rest:10), cooldown:45");
+
+        assertEquals(18, program.getPhaseCount());
+        assertEquals(IntervalProgram.WARM_UP, program.getPhaseKind(0));
+        assertEquals(IntervalProgram.WORK, program.getPhaseKind(15));
+        assertEquals(IntervalProgram.REST, program.getPhaseKind(16));
+        assertEquals(IntervalProgram.COOL_DOWN, program.getPhaseKind(17));
+        assertEquals(60 * SEC_TO_NANOS, program.getPhaseEndNanos(0));
+        assertEquals(80 * SEC_TO_NANOS, program.getPhaseEndNanos(1));
+        assertEquals((60 + 8 * 30 + 45) * SEC_TO_NANOS, program.getDurationNanos());
+    }
+
+    public void testParseNestedRepeats() {
+        IntervalProgram program = IntervalProgram.parse("2x(3x(work:1),rest:2)");
+        assertEquals(8, program.getPhaseCount());
+        assertEquals(IntervalProgram.REST, program.getPhaseKind(3));
+        assertEquals(IntervalProgram.WORK, program.getPhaseKind(4));
+    }
+
+    public void testParseRejectsMalformedPrograms() {
+        String[] programs = {
+            "",
+            "work",
+            "work:",
+            "work:-5",
+            "sprint:10",
+            "8x(work:20",
+            "8(work:20)",
+            "work:20,",
+            "work:20)",
+        };
+        for (String program : programs) {
+            try {
+                IntervalProgram.parse(program);
+                fail("Parsed malformed program: " + program);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    public void testPhaseIndexAtBoundaries() {
+        IntervalProgram program = IntervalProgram.parse("warmup:5, work:20, rest:10");
+
+        assertEquals(0, program.getPhaseIndex(-1, -1));
+        assertEquals(0, program.getPhaseIndex(0, -1));
+        assertEquals(0, program.getPhaseIndex(5 * SEC_TO_NANOS - 1, -1));
+        assertEquals(1, program.getPhaseIndex(5 * SEC_TO_NANOS, -1));
+        assertEquals(2, program.getPhaseIndex(25 * SEC_TO_NANOS, -1));
+        assertEquals(3, program.getPhaseIndex(35 * SEC_TO_NANOS, -1));
+    }
+
+    public void testPhaseIndexIgnoresWrongHint() {
+        IntervalProgram program = IntervalProgram.parse("warmup:5, work:20, rest:10");
+
+        assertEquals(1, program.getPhaseIndex(6 * SEC_TO_NANOS, 1));
+        assertEquals(1, program.getPhaseIndex(6 * SEC_TO_NANOS, 0));
+        assertEquals(1, program.getPhaseIndex(6 * SEC_TO_NANOS, 2));
+        assertEquals(1, program.getPhaseIndex(6 * SEC_TO_NANOS, 42));
+    }
+
+    public void testLargeProgramLookup() {
+        IntervalProgram program = new IntervalProgram.Builder()
+                .repeat(5000)
+                    .phase(IntervalProgram.WORK, 20)
+                    .phase(IntervalProgram.REST, 10)
+                .end()
+                .build();
+        assertEquals(10000, program.getPhaseCount());
+
+        // Walk the program with the previous lookup as hint, with an odd step to land anywhere
+        // within the phases.
+        long frameNanos = SEC_TO_NANOS + TimeUnit.MILLISECONDS.toNanos(41);
+        int phaseIndex = -1;
+        for (long elapsedNanos = 0; elapsedNanos < program.getDurationNanos();
+                elapsedNanos += frameNanos) {
+            phaseIndex = program.getPhaseIndex(elapsedNanos, phaseIndex);
+            assertTrue(program.getPhaseStartNanos(phaseIndex) <= elapsedNanos);
+            assertTrue(elapsedNanos < program.getPhaseEndNanos(phaseIndex));
+        }
+        assertEquals(9999, phaseIndex);
+    }
+
+    public void testTooManyPhasesRejected() {
+        try {
+            IntervalProgram.parse("1000x(1000x(work:1, rest:1))");
+            fail("Built a program with too many phases");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    public void testMaxPhasesRespected() {
+        assertEquals(10, IntervalProgram.parse("5x(work:1, rest:1)", 10).getPhaseCount());
+        try {
+            IntervalProgram.parse("5x(work:1, rest:1), cooldown:1", 10);
+            fail("Built a program with too many phases");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link LapAdapter}.
+ */
+public class LapAdapterTest extends AndroidTestCase {
+
+    private static final String TAG = LapAdapterTest.class.getSimpleName();
+
+    private static final int MANY_LAPS = 50000;
+    private static final long LAP_NANOS = TimeUnit.MILLISECONDS.toNanos(61230);
+
+    /** {@link LapAdapter.LapSource} computing the laps rather than storing them. */
+    private static class RegularLaps implements LapAdapter.LapSource {
+        private final int mCount;
+        private int mReadCount;
+
+        RegularLaps(int count) {
+            mCount = count;
+        }
+
+        @Override
+        public int getLapCount() {
+            return mCount;
+        }
+
+        @Override
+        public long getLapNanos(int index) {
+            ++mReadCount;
+            return (index + 1) * LAP_NANOS;
+        }
+    }
+
+    private LapAdapter mAdapter;
+    private FrameLayout mParent;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mAdapter = new LapAdapter(getContext());
+        mParent = new FrameLayout(getContext());
+    }
+
+    public void testLatestLapFirst() {
+        mAdapter.setSource(new RegularLaps(3));
+        assertEquals(3, mAdapter.getCount());
+
+        View card = mAdapter.getView(0, null, mParent);
+        assertEquals("Lap 3", getText(card, R.id.lap_number));
+        assertEquals("01:01.23", getText(card, R.id.lap_time));
+        assertEquals("Total 03:03.69", getText(card, R.id.lap_split));
+        assertEquals(3 * LAP_NANOS, mAdapter.getItem(0));
+        assertEquals("Lap 1", getText(mAdapter.getView(2, null, mParent), R.id.lap_number));
+    }
+
+    public void testCardRecycled() {
+        mAdapter.setSource(new RegularLaps(MANY_LAPS));
+        View card = mAdapter.getView(0, null, mParent);
+        assertSame(card, mAdapter.getView(MANY_LAPS - 1, card, mParent));
+        assertEquals("Lap 1", getText(card, R.id.lap_number));
+        assertEquals("Total 01:01.23", getText(card, R.id.lap_split));
+    }
+
+    public void testGetPosition() {
+        mAdapter.setSource(new RegularLaps(MANY_LAPS));
+        assertEquals(0, mAdapter.getPosition(MANY_LAPS * LAP_NANOS));
+        assertEquals(MANY_LAPS - 1, mAdapter.getPosition(LAP_NANOS));
+        assertEquals(MANY_LAPS - 100, mAdapter.getPosition(100 * LAP_NANOS));
+        assertEquals(AdapterView.INVALID_POSITION, mAdapter.getPosition(LAP_NANOS + 1));
+        assertEquals(AdapterView.INVALID_POSITION, mAdapter.getPosition("Lap"));
+    }
+
+    public void testNoSource() {
+        mAdapter.setSource(null);
+        assertEquals(0, mAdapter.getCount());
+    }
+
+    public void testOpeningReadsNoLap() {
+        // Opening reads the count only, whatever the number of laps.
+        for (int count : new int[] { 10, MANY_LAPS }) {
+            RegularLaps laps = new RegularLaps(count);
+            long startNanos = System.nanoTime();
+            mAdapter.setSource(laps);
+            mAdapter.getView(0, null, mParent);
+            long openNanos = System.nanoTime() - startNanos;
+
+            assertTrue(laps.mReadCount <= 2);
+            Log.i(TAG, "Opened " + count + " laps in "
+                    + TimeUnit.NANOSECONDS.toMicros(openNanos) + "us");
+        }
+    }
+
+    public void testScrollThroughManyLaps() {
+        mAdapter.setSource(new RegularLaps(MANY_LAPS));
+        View card = null;
+        long startNanos = System.nanoTime();
+        for (int position = 0; position < MANY_LAPS; ++position) {
+            card = mAdapter.getView(position, card, mParent);
+        }
+        long scrollNanos = System.nanoTime() - startNanos;
+
+        assertEquals("Lap 1", getText(card, R.id.lap_number));
+        Log.i(TAG, "Bound " + MANY_LAPS + " cards, "
+                + TimeUnit.NANOSECONDS.toMicros(scrollNanos) / MANY_LAPS + "us per card");
+    }
+
+    public void testFormatElapsedMatchesRaceResults() {
+        char[] buffer = new char[32];
+        Random random = new Random(46);
+        for (int i = 0; i < 1000; ++i) {
+            long elapsedNanos = (long) (random.nextDouble() * TimeUnit.HOURS.toNanos(30));
+            int end = LapAdapter.formatElapsed(elapsedNanos, buffer, 0);
+            assertEquals(RaceActivity.formatElapsed(elapsedNanos), new String(buffer, 0, end));
+        }
+        assertEquals("00:00.00", new String(buffer, 0, LapAdapter.formatElapsed(0, buffer, 0)));
+        assertEquals("1:00:00.00", new String(buffer, 0,
+                LapAdapter.formatElapsed(TimeUnit.HOURS.toNanos(1), buffer, 0)));
+    }
+
+    private static String getText(View card, int id) {
+        return ((TextView) card.findViewById(id)).getText().toString();
+    }
+}
@@ -16,8 +16,11 @@
 
 package com.google.android.glass.sample.stopwatch;
 
+import android.content.ComponentName;
 import android.content.ContextWrapper;
 import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.SystemClock;
 import android.test.ActivityUnitTestCase;
 
 /**
@@ -26,8 +29,50 @@ import android.test.ActivityUnitTestCase;
 public class MenuActivityTest extends ActivityUnitTestCase<MockMenuActivity> {
 
     private boolean mServiceStopped;
+    private boolean mServiceUnbound;
+    private boolean mServiceRunning;
+    private boolean mStopwatchRunning;
+    private ServiceConnection mConnection;
     private Intent mActivityIntent;
 
+    private int mCommandId;
+    private long mCommandNanos;
+
+    /** {@link StopwatchService.StopwatchBinder} recording the received commands. */
+    private final StopwatchService.StopwatchBinder mBinder =
+            new StopwatchService().new StopwatchBinder() {
+
+        @Override
+        public boolean isRunning() {
+            return mStopwatchRunning;
+        }
+
+        @Override
+        public boolean isStarted() {
+            return true;
+        }
+
+        @Override
+        public void pause(long whenNanos) {
+            recordCommand(R.id.pause, whenNanos);
+        }
+
+        @Override
+        public void resume(long whenNanos) {
+            recordCommand(R.id.resume, whenNanos);
+        }
+
+        @Override
+        public void lap(long whenNanos) {
+            recordCommand(R.id.lap, whenNanos);
+        }
+
+        @Override
+        public void reset(long whenNanos) {
+            recordCommand(R.id.reset, whenNanos);
+        }
+    };
+
     public MenuActivityTest() {
         super(MockMenuActivity.class);
     }
@@ -46,7 +91,29 @@ public class MenuActivityTest extends ActivityUnitTestCase<MockMenuActivity> {
                 mServiceStopped = true;
                 return true;
             }
+
+            @Override
+            public boolean bindService(Intent intent, ServiceConnection conn, int flags) {
+                assertEquals(
+                        StopwatchService.class.getName(), intent.getComponent().getClassName());
+                mConnection = conn;
+                // Without BIND_AUTO_CREATE, only connected once the service runs.
+                if (mServiceRunning) {
+                    conn.onServiceConnected(intent.getComponent(), mBinder);
+                }
+                return true;
+            }
+
+            @Override
+            public void unbindService(ServiceConnection conn) {
+                mServiceUnbound = true;
+            }
         });
+        mServiceRunning = true;
+        mStopwatchRunning = true;
+        mConnection = null;
+        mCommandId = 0;
+        mCommandNanos = 0;
 
         mActivityIntent = new Intent(getInstrumentation().getTargetContext(), MenuActivity.class);
     }
@@ -59,6 +126,22 @@ public class MenuActivityTest extends ActivityUnitTestCase<MockMenuActivity> {
         assertTrue(mServiceStopped);
     }
 
+    public void testOptionsMenuPause() {
+        assertCommandDelivered(R.id.pause);
+    }
+
+    public void testOptionsMenuResume() {
+        assertCommandDelivered(R.id.resume);
+    }
+
+    public void testOptionsMenuLap() {
+        assertCommandDelivered(R.id.lap);
+    }
+
+    public void testOptionsMenuReset() {
+        assertCommandDelivered(R.id.reset);
+    }
+
     public void testOptionsMenuUnknown() {
         MenuActivity activity = startActivity(mActivityIntent, null, null);
         boolean menuHandled = getInstrumentation().invokeMenuActionSync(activity, R.id.stop + 1, 0);
@@ -73,4 +156,66 @@ public class MenuActivityTest extends ActivityUnitTestCase<MockMenuActivity> {
         activity.onOptionsMenuClosed(null);
         assertTrue(isFinishCalled());
     }
+
+    public void testServiceNotRunningFinishesActivity() {
+        mServiceRunning = false;
+        MockMenuActivity activity = startActivity(mActivityIntent, null, null);
+        assertFalse(isFinishCalled());
+
+        // Never connected.
+        activity.runDelayed();
+        assertTrue(isFinishCalled());
+    }
+
+    public void testServiceConnectedInTimeKeepsActivity() {
+        MockMenuActivity activity = startActivity(mActivityIntent, null, null);
+
+        activity.runDelayed();
+        assertFalse(isFinishCalled());
+    }
+
+    public void testStopwatchNotRunningFinishesActivity() {
+        mStopwatchRunning = false;
+        startActivity(mActivityIntent, null, null);
+
+        assertTrue(isFinishCalled());
+    }
+
+    public void testServiceDisconnectedBeforeMenuFinishesActivity() {
+        startActivity(mActivityIntent, null, null);
+        assertFalse(isFinishCalled());
+
+        // The window isn't attached in a unit test, so the menu isn't open yet.
+        mConnection.onServiceDisconnected(
+                new ComponentName(getInstrumentation().getTargetContext(), StopwatchService.class));
+        assertTrue(isFinishCalled());
+    }
+
+    public void testDestroyUnbindsService() {
+        startActivity(mActivityIntent, null, null);
+        getInstrumentation().callActivityOnDestroy(getActivity());
+        assertTrue(mServiceUnbound);
+    }
+
+    /**
+     * Selects the menu item {@code itemId} and ensures the matching command is delivered
+     * synchronously to the service, with the time of the selection.
+     */
+    private void assertCommandDelivered(int itemId) {
+        MenuActivity activity = startActivity(mActivityIntent, null, null);
+        long beforeNanos = SystemClock.elapsedRealtimeNanos();
+        boolean menuHandled = getInstrumentation().invokeMenuActionSync(activity, itemId, 0);
+        long afterNanos = SystemClock.elapsedRealtimeNanos();
+
+        assertTrue(menuHandled);
+        assertEquals(itemId, mCommandId);
+        assertTrue(mCommandNanos >= beforeNanos);
+        assertTrue(mCommandNanos <= afterNanos);
+        assertFalse(mServiceStopped);
+    }
+
+    private void recordCommand(int commandId, long whenNanos) {
+        mCommandId = commandId;
+        mCommandNanos = whenNanos;
+    }
 }
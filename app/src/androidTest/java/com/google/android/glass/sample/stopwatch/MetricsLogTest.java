@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link MetricsLog} and {@link MetricsAggregator}.
+ */
+public class MetricsLogTest extends AndroidTestCase {
+
+    private static final MetricsLog.Visitor IGNORING_VISITOR = new MetricsLog.Visitor() {
+
+        @Override
+        public void visit(MetricsLog.Record record) {
+        }
+    };
+
+    private File mDirectory;
+    private SessionMetrics mMetrics;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getContext().getCacheDir(), "metrics-test");
+        deleteRecursively(mDirectory);
+        mMetrics = new SessionMetrics();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(mDirectory);
+        super.tearDown();
+    }
+
+    public void testAppendAndRead() throws IOException {
+        MetricsLog log = new MetricsLog(mDirectory);
+        assertEquals(0, log.getFiles().length);
+        append(log, 1000L, 3);
+        append(log, 2000L, 5);
+
+        File[] files = log.getFiles();
+        assertEquals(1, files.length);
+        final List<Long> starts = new ArrayList<Long>();
+        final List<Integer> frames = new ArrayList<Integer>();
+        assertEquals(2, MetricsLog.read(files[0], new MetricsLog.Visitor() {
+
+            @Override
+            public void visit(MetricsLog.Record record) {
+                starts.add(record.getStartMillis());
+                frames.add(record.getFramesDrawn());
+            }
+        }));
+        assertEquals(1000L, (long) starts.get(0));
+        assertEquals(3, (int) frames.get(0));
+        assertEquals(2000L, (long) starts.get(1));
+        assertEquals(5, (int) frames.get(1));
+    }
+
+    public void testAppendSoonWritesFromWriterThread() throws Exception {
+        HandlerThread writerThread = new HandlerThread("MetricsLogTest");
+        writerThread.start();
+        try {
+            Handler writer = new Handler(writerThread.getLooper());
+            MetricsLog log = new MetricsLog(mDirectory, writer);
+            // Hold the writer so that nothing is written before the record is reused.
+            final CountDownLatch release = new CountDownLatch(1);
+            writer.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            mMetrics.reset();
+            ByteBuffer record = mMetrics.toRecord(1000L, 1, -1);
+            log.appendSoon(record);
+            assertFalse(mDirectory.exists());
+            // The next session reuses the record's buffer.
+            mMetrics.toRecord(2000L, 1, -1);
+            release.countDown();
+
+            final CountDownLatch written = new CountDownLatch(1);
+            writer.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    written.countDown();
+                }
+            });
+            assertTrue(written.await(5, TimeUnit.SECONDS));
+            File[] files = log.getFiles();
+            assertEquals(1, files.length);
+            final List<Long> starts = new ArrayList<Long>();
+            MetricsLog.read(files[0], new MetricsLog.Visitor() {
+
+                @Override
+                public void visit(MetricsLog.Record record) {
+                    starts.add(record.getStartMillis());
+                }
+            });
+            assertEquals(1, starts.size());
+            assertEquals(1000L, (long) starts.get(0));
+        } finally {
+            writerThread.quitSafely();
+        }
+    }
+
+    public void testReopenedLogAppends() throws IOException {
+        append(new MetricsLog(mDirectory), 1000L, 1);
+        append(new MetricsLog(mDirectory), 2000L, 1);
+
+        MetricsAggregator aggregator = new MetricsAggregator();
+        aggregator.add(mDirectory);
+        assertEquals(1, aggregator.getFileCount());
+        assertEquals(2, aggregator.getSessionCount());
+    }
+
+    public void testRotatesAndCapsFiles() throws IOException {
+        MetricsLog log = new MetricsLog(mDirectory);
+        int sessions = (MetricsLog.MAX_FILES + 2) * MetricsLog.RECORDS_PER_FILE + 1;
+        for (int i = 0; i < sessions; ++i) {
+            append(log, i, 1);
+        }
+
+        File[] files = log.getFiles();
+        assertEquals(MetricsLog.MAX_FILES, files.length);
+        assertEquals(MetricsLog.MAX_FILES, mDirectory.list().length);
+        assertEquals(1, MetricsLog.read(files[0], IGNORING_VISITOR));
+        assertEquals(MetricsLog.RECORDS_PER_FILE,
+                MetricsLog.read(files[files.length - 1], IGNORING_VISITOR));
+
+        MetricsAggregator aggregator = new MetricsAggregator();
+        aggregator.add(mDirectory);
+        assertEquals((MetricsLog.MAX_FILES - 1) * MetricsLog.RECORDS_PER_FILE + 1,
+                aggregator.getSessionCount());
+    }
+
+    public void testAggregatorSkipsInvalidFiles() throws IOException {
+        for (int device = 0; device < 3; ++device) {
+            MetricsLog log = new MetricsLog(new File(mDirectory, "device" + device));
+            for (int i = 0; i < 10; ++i) {
+                append(log, i, 100);
+            }
+        }
+        FileOutputStream output = new FileOutputStream(new File(mDirectory, "notes.txt"));
+        output.write("not a metrics log".getBytes());
+        output.close();
+
+        MetricsAggregator aggregator = new MetricsAggregator();
+        aggregator.add(mDirectory);
+        assertEquals(3, aggregator.getFileCount());
+        assertEquals(30, aggregator.getSessionCount());
+        assertEquals(3000, aggregator.getTotalFramesDrawn());
+        assertEquals(30, aggregator.getJitterP99Micros().getCount());
+
+        StringWriter dump = new StringWriter();
+        aggregator.dump(new PrintWriter(dump));
+        assertTrue(dump.toString().contains("30 sessions from 3 files, 1 invalid files"));
+    }
+
+    public void testInvalidRecordRejected() throws IOException {
+        try {
+            new MetricsLog(mDirectory).append(ByteBuffer.allocate(10));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Appends a session started at {@code startMillis} drawing {@code frames} on time.
+     */
+    private void append(MetricsLog log, long startMillis, int frames) throws IOException {
+        mMetrics.reset();
+        for (int i = 0; i < frames; ++i) {
+            mMetrics.onTick(TimeUnit.MILLISECONDS.toNanos(i * ChronometerView.DELAY_MILLIS),
+                    ChronometerView.DELAY_MILLIS);
+            mMetrics.onFrameDrawn(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        log.append(mMetrics.toRecord(startMillis, frames * ChronometerView.DELAY_MILLIS, -1));
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
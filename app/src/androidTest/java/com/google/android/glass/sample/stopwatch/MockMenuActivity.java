@@ -23,9 +23,23 @@ import java.lang.Runnable;
  */
 public class MockMenuActivity extends MenuActivity {
 
+    private Runnable mDelayedRunnable;
+
     @Override
     protected void post(Runnable runnable) {
         runnable.run();
     }
 
+    @Override
+    protected void postDelayed(Runnable runnable, long delayMillis) {
+        mDelayedRunnable = runnable;
+    }
+
+    /**
+     * Runs the last {@link Runnable} posted with a delay.
+     */
+    public void runDelayed() {
+        mDelayedRunnable.run();
+    }
+
 }
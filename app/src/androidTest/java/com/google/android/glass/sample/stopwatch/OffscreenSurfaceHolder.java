@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+/**
+ * {@link SurfaceHolder} drawing into an offscreen {@link Bitmap}, to test rendering without a
+ * display.
+ *
+ * Like a real surface, the content outside of the dirty rectangle passed to
+ * {@link #lockCanvas(Rect)} is kept from the previous frame. For each posted frame, the time spent
+ * between locking and posting the canvas and the number of pixels changed are recorded.
+ */
+public class OffscreenSurfaceHolder implements SurfaceHolder {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Bitmap mBitmap;
+    private final Canvas mCanvas;
+    private final Rect mFrame;
+
+    /** Pixels of the last posted frame. */
+    private final int[] mPixels;
+    private final int[] mNewPixels;
+
+    private boolean mLocked;
+    private long mLockNanos;
+
+    private int mFrameCount;
+    private long mLastDrawNanos;
+    private long mTotalDrawNanos;
+    private int mLastChangedPixels;
+    private long mTotalChangedPixels;
+
+    public OffscreenSurfaceHolder(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+        mFrame = new Rect(0, 0, width, height);
+        mPixels = new int[width * height];
+        mNewPixels = new int[width * height];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns a copy of the last posted frame.
+     */
+    public Bitmap captureFrame() {
+        return Bitmap.createBitmap(mPixels, mWidth, mHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns the number of frames posted.
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the time spent drawing the last posted frame, from locking to posting the canvas.
+     */
+    public long getLastDrawNanos() {
+        return mLastDrawNanos;
+    }
+
+    /**
+     * Returns the time spent drawing all the posted frames.
+     */
+    public long getTotalDrawNanos() {
+        return mTotalDrawNanos;
+    }
+
+    /**
+     * Returns the number of pixels changed by the last posted frame.
+     */
+    public int getLastChangedPixels() {
+        return mLastChangedPixels;
+    }
+
+    /**
+     * Returns the number of pixels changed by all the posted frames.
+     */
+    public long getTotalChangedPixels() {
+        return mTotalChangedPixels;
+    }
+
+    /**
+     * Resets the recorded frame count, draw times and changed pixels, keeping the last frame.
+     */
+    public void resetStats() {
+        mFrameCount = 0;
+        mLastDrawNanos = 0;
+        mTotalDrawNanos = 0;
+        mLastChangedPixels = 0;
+        mTotalChangedPixels = 0;
+    }
+
+    @Override
+    public void addCallback(SurfaceHolder.Callback callback) {
+        // Nothing to do here.
+    }
+
+    @Override
+    public Surface getSurface() {
+        return null;
+    }
+
+    @Override
+    public Rect getSurfaceFrame() {
+        return mFrame;
+    }
+
+    @Override
+    public boolean isCreating() {
+        return false;
+    }
+
+    @Override
+    public Canvas lockCanvas() {
+        return lockCanvas(null);
+    }
+
+    @Override
+    public Canvas lockCanvas(Rect dirty) {
+        if (mLocked) {
+            throw new IllegalStateException("Canvas already locked");
+        }
+        mLocked = true;
+        mLockNanos = System.nanoTime();
+        mCanvas.save();
+        if (dirty != null) {
+            mCanvas.clipRect(dirty);
+        }
+        return mCanvas;
+    }
+
+    @Override
+    public void removeCallback(SurfaceHolder.Callback callback) {
+        // Nothing to do here.
+    }
+
+    @Override
+    public void setFixedSize(int width, int height) {
+        // Nothing to do here.
+    }
+
+    @Override
+    public void setFormat(int format) {
+        // Nothing to do here.
+    }
+
+    @Override
+    public void setKeepScreenOn(boolean keepScreenOn) {
+        // Nothing to do here.
+    }
+
+    @Override
+    public void setSizeFromLayout() {
+        // Nothing to do here.
+    }
+
+    @Override
+    public void setType(int type) {
+        // Nothing to do here.
+    }
+
+    @Override
+    public void unlockCanvasAndPost(Canvas canvas) {
+        if (!mLocked || canvas != mCanvas) {
+            throw new IllegalStateException("Canvas not locked");
+        }
+        mCanvas.restore();
+        mLocked = false;
+        mLastDrawNanos = System.nanoTime() - mLockNanos;
+        mTotalDrawNanos += mLastDrawNanos;
+
+        mBitmap.getPixels(mNewPixels, 0, mWidth, 0, 0, mWidth, mHeight);
+        int changedPixels = 0;
+        for (int i = 0; i < mNewPixels.length; ++i) {
+            if (mNewPixels[i] != mPixels[i]) {
+                ++changedPixels;
+                mPixels[i] = mNewPixels[i];
+            }
+        }
+        mLastChangedPixels = changedPixels;
+        mTotalChangedPixels += changedPixels;
+        ++mFrameCount;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.app.Activity;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.speech.RecognizerIntent;
+import android.test.ActivityUnitTestCase;
+import android.view.KeyEvent;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link RaceActivity}.
+ */
+public class RaceActivityTest extends ActivityUnitTestCase<RaceActivity> {
+
+    private static final long BASE_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private int mFinishCount;
+    private boolean mFinishesRecorded;
+    /** Connection of the activity, left unbound until the test connects it when not null. */
+    private ServiceConnection[] mDeferredConnection;
+    private Intent mActivityIntent;
+    private long mElapsedRealtimeNanos;
+    private ChronometerView mChronometerView;
+
+    /**
+     * {@link StopwatchService.StopwatchBinder} counting the finishes recorded, and mapping them on
+     * {@code mChronometerView}.
+     */
+    private final StopwatchService.StopwatchBinder mBinder =
+            new StopwatchService().new StopwatchBinder() {
+
+        @Override
+        public int recordFinish(long whenNanos) {
+            ++mFinishCount;
+            // Not recorded unless a test covers the results, so that they aren't updated.
+            return mFinishesRecorded ? super.recordFinish(whenNanos) : -1;
+        }
+
+        @Override
+        public long getElapsedNanosAt(long whenNanos) {
+            return Math.max(0, mChronometerView.getElapsedNanosAt(whenNanos));
+        }
+    };
+
+    public RaceActivityTest() {
+        super(RaceActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // Set a mock context to simulate service binding.
+        setActivityContext(new ContextWrapper(getInstrumentation().getTargetContext()) {
+
+            @Override
+            public boolean bindService(Intent intent, ServiceConnection conn, int flags) {
+                if (mDeferredConnection != null) {
+                    mDeferredConnection[0] = conn;
+                } else {
+                    conn.onServiceConnected(intent.getComponent(), mBinder);
+                }
+                return true;
+            }
+
+            @Override
+            public void unbindService(ServiceConnection conn) {
+                // Nothing to do here.
+            }
+        });
+        mFinishCount = 0;
+        mFinishesRecorded = false;
+        mDeferredConnection = null;
+
+        mChronometerView = new ChronometerView(getInstrumentation().getTargetContext());
+        mChronometerView.setTimeSource(new TimeSource() {
+
+            @Override
+            public long elapsedRealtimeNanos() {
+                return mElapsedRealtimeNanos;
+            }
+        });
+        mElapsedRealtimeNanos = BASE_NANOS;
+        mChronometerView.setBaseNanos(BASE_NANOS);
+
+        mActivityIntent = new Intent(getInstrumentation().getTargetContext(), RaceActivity.class);
+    }
+
+    public void testKeyPressRecordsFinish() {
+        RaceActivity activity = startActivity(mActivityIntent, null, null);
+
+        assertTrue(activity.onKeyDown(KeyEvent.KEYCODE_DPAD_CENTER,
+                newKeyDown(KeyEvent.KEYCODE_DPAD_CENTER, 0)));
+        assertEquals(1, mFinishCount);
+    }
+
+    public void testRepeatedKeyIgnored() {
+        RaceActivity activity = startActivity(mActivityIntent, null, null);
+
+        for (int repeatCount = 0; repeatCount < 3; ++repeatCount) {
+            // Still handled, so that the repeats don't reach the system.
+            assertTrue(activity.onKeyDown(KeyEvent.KEYCODE_ENTER,
+                    newKeyDown(KeyEvent.KEYCODE_ENTER, repeatCount)));
+        }
+        assertEquals(1, mFinishCount);
+
+        // Pressing the key again records another finish.
+        activity.onKeyDown(KeyEvent.KEYCODE_ENTER, newKeyDown(KeyEvent.KEYCODE_ENTER, 0));
+        assertEquals(2, mFinishCount);
+    }
+
+    public void testFinishesKeepTheirTimeAcrossPauseAndReset() {
+        mFinishesRecorded = true;
+        RaceActivity activity = startActivity(mActivityIntent, null, null);
+        TextView resultsView = (TextView) activity.findViewById(R.id.race_results);
+
+        activity.recordFinish(at(2));
+        assertEquals("1.  00:02.00\n", resultsView.getText().toString());
+
+        // Recorded while paused at 3s.
+        mChronometerView.pause(at(3));
+        activity.recordFinish(at(5));
+        // Resumed 7s later: a finish 1s after resuming is at 4s, the earlier ones don't move.
+        mChronometerView.resume(at(10));
+        activity.recordFinish(at(11));
+        assertEquals("3.  00:04.00\n2.  00:03.00\n1.  00:02.00\n",
+                resultsView.getText().toString());
+
+        // Neither do they after a reset, the next finish is 1s after it.
+        mChronometerView.reset(at(12));
+        activity.recordFinish(at(13));
+        assertEquals("4.  00:01.00\n3.  00:04.00\n2.  00:03.00\n",
+                resultsView.getText().toString());
+    }
+
+    public void testSpokenBibAssignedToLatestFinish() {
+        mFinishesRecorded = true;
+        RaceActivity activity = startActivity(mActivityIntent, null, null);
+        TextView resultsView = (TextView) activity.findViewById(R.id.race_results);
+        assertFalse(activity.requestBib());
+
+        activity.recordFinish(at(2));
+        activity.recordFinish(at(3));
+        assertTrue(activity.requestBib());
+        assertEquals(RecognizerIntent.ACTION_RECOGNIZE_SPEECH,
+                getStartedActivityIntent().getAction());
+        // Recorded while the bib is spoken, it doesn't take it.
+        activity.recordFinish(at(4));
+
+        ArrayList<String> spoken = new ArrayList<String>();
+        spoken.add("number 42");
+        activity.onActivityResult(RaceActivity.REQUEST_BIB, Activity.RESULT_OK,
+                new Intent().putStringArrayListExtra(RecognizerIntent.EXTRA_RESULTS, spoken));
+        // Kept by the service, so that a relaunched activity shows them with their finishes.
+        RaceResults results = mBinder.getRaceResults();
+        assertEquals(RaceResults.NO_BIB, results.getBib(0));
+        assertEquals(42, results.getBib(1));
+        assertEquals(RaceResults.NO_BIB, results.getBib(2));
+        assertEquals("3.  00:04.00\n2.  00:03.00  #42\n1.  00:02.00\n",
+                resultsView.getText().toString());
+    }
+
+    public void testSpokenBibAssignedToSelectedFinish() {
+        mFinishesRecorded = true;
+        RaceActivity activity = startActivity(mActivityIntent, null, null);
+        TextView resultsView = (TextView) activity.findViewById(R.id.race_results);
+        assertFalse(activity.selectResult(-1));
+        for (int seconds = 1; seconds <= 5; ++seconds) {
+            activity.recordFinish(at(seconds));
+        }
+
+        // Buried below the latest results shown.
+        assertTrue(activity.selectResult(-4));
+        assertEquals("3.  00:03.00\n2.  00:02.00\n> 1.  00:01.00\n",
+                resultsView.getText().toString());
+        assertTrue(activity.selectResult(1));
+        assertEquals("3.  00:03.00\n> 2.  00:02.00\n1.  00:01.00\n",
+                resultsView.getText().toString());
+        assertTrue(activity.requestBib());
+        ArrayList<String> spoken = new ArrayList<String>();
+        spoken.add("12");
+        activity.onActivityResult(RaceActivity.REQUEST_BIB, Activity.RESULT_OK,
+                new Intent().putStringArrayListExtra(RecognizerIntent.EXTRA_RESULTS, spoken));
+        assertEquals(12, mBinder.getRaceResults().getBib(1));
+        assertEquals("3.  00:03.00\n> 2.  00:02.00  #12\n1.  00:01.00\n",
+                resultsView.getText().toString());
+
+        // Swiping past the latest finish follows the next ones again.
+        assertTrue(activity.selectResult(10));
+        activity.recordFinish(at(6));
+        assertEquals("6.  00:06.00\n5.  00:05.00\n4.  00:04.00\n",
+                resultsView.getText().toString());
+    }
+
+    public void testBibSpokenWhileRecreatedAssignedOnceBound() {
+        mFinishesRecorded = true;
+        mBinder.recordFinish(at(2));
+        mBinder.recordFinish(at(3));
+        mDeferredConnection = new ServiceConnection[1];
+        // Recreated while the bib of the first finish was spoken.
+        Bundle savedState = new Bundle();
+        savedState.putInt(RaceActivity.STATE_BIB_FINISH_INDEX, 0);
+        RaceActivity activity = startActivity(mActivityIntent, savedState, null);
+
+        ArrayList<String> spoken = new ArrayList<String>();
+        spoken.add("7");
+        activity.onActivityResult(RaceActivity.REQUEST_BIB, Activity.RESULT_OK,
+                new Intent().putStringArrayListExtra(RecognizerIntent.EXTRA_RESULTS, spoken));
+        assertEquals(RaceResults.NO_BIB, mBinder.getRaceResults().getBib(0));
+
+        mDeferredConnection[0].onServiceConnected(null, mBinder);
+        assertEquals(7, mBinder.getRaceResults().getBib(0));
+        assertEquals(RaceResults.NO_BIB, mBinder.getRaceResults().getBib(1));
+    }
+
+    public void testParseBib() {
+        assertEquals(7, RaceActivity.parseBib("7"));
+        assertEquals(1234, RaceActivity.parseBib("12 34"));
+        assertEquals(RaceResults.NO_BIB, RaceActivity.parseBib("seven"));
+        assertEquals(RaceResults.NO_BIB, RaceActivity.parseBib("99999999999"));
+    }
+
+    /** Returns the time {@code seconds} after the chronometer's start. */
+    private static long at(long seconds) {
+        return BASE_NANOS + TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    private static KeyEvent newKeyDown(int keyCode, int repeatCount) {
+        long nowMillis = SystemClock.uptimeMillis();
+        return new KeyEvent(nowMillis, nowMillis, KeyEvent.ACTION_DOWN, keyCode, repeatCount);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Unit tests for {@link RaceResults}.
+ */
+public class RaceResultsTest extends AndroidTestCase {
+
+    private FinishRecorder mRecorder;
+    private RaceResults mResults;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRecorder = new FinishRecorder();
+        mResults = new RaceResults();
+    }
+
+    public void testUpdateOnlyAddsNewFinishes() {
+        mRecorder.record(10);
+        mRecorder.record(20);
+        assertEquals(2, mResults.update(mRecorder));
+        assertEquals(0, mResults.update(mRecorder));
+
+        mRecorder.record(30);
+        assertEquals(1, mResults.update(mRecorder));
+        assertEquals(3, mResults.getCount());
+        assertEquals(30, mResults.getFinishNanos(2));
+    }
+
+    public void testOutOfOrderFinishesAreSorted() {
+        long[] finishes = { 50, 10, 40, 20, 30, 60 };
+        for (long finish : finishes) {
+            mRecorder.record(finish);
+            mResults.update(mRecorder);
+        }
+
+        for (int rank = 0; rank < finishes.length; ++rank) {
+            assertEquals((rank + 1) * 10, mResults.getFinishNanos(rank));
+        }
+        // The result ranked first is the second finish recorded.
+        assertEquals(1, mResults.getFinishIndex(0));
+        assertEquals(0, mResults.getFinishIndex(4));
+    }
+
+    public void testGetRank() {
+        mRecorder.record(20);
+        mRecorder.record(10);
+        mResults.update(mRecorder);
+
+        assertEquals(1, mResults.getRank(0));
+        assertEquals(0, mResults.getRank(1));
+        assertEquals(-1, mResults.getRank(2));
+    }
+
+    public void testAssignBibLater() {
+        mRecorder.record(20);
+        mRecorder.record(10);
+        mResults.update(mRecorder);
+        assertEquals(RaceResults.NO_BIB, mResults.getBib(0));
+
+        mResults.assignBib(0, 42);
+        mResults.assignBib(1, 7);
+        assertEquals(7, mResults.getBib(0));
+        assertEquals(42, mResults.getBib(1));
+    }
+
+    public void testAssignBibToUnknownFinishThrows() {
+        try {
+            mResults.assignBib(0, 42);
+            fail("Assigned a bib to an unknown finish");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+    }
+
+    public void testFormatElapsed() {
+        assertEquals("01:02.03", RaceActivity.formatElapsed(62030000000L));
+        assertEquals("1:00:00.50", RaceActivity.formatElapsed(3600500000000L));
+    }
+}
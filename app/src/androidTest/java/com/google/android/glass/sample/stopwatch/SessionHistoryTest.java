@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link SessionHistory}.
+ */
+public class SessionHistoryTest extends AndroidTestCase {
+
+    private static final String TAG = SessionHistoryTest.class.getSimpleName();
+    private static final String DATABASE_NAME = "session_history_test.db";
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private SessionHistory mHistory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+        mHistory = new SessionHistory(getContext(), DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHistory.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testAddIsWrittenOnFlush() {
+        mHistory.add(new SessionHistory.Session(1000, 42, new long[] { 10, 20 }));
+        assertEquals(0, mHistory.getCount());
+
+        mHistory.flush();
+        assertEquals(1, mHistory.getCount());
+        SessionHistory.Session session = mHistory.getLatest(1).get(0);
+        assertEquals(1000, session.getStartTimeMillis());
+        assertEquals(42, session.getDurationNanos());
+        assertEquals(2, session.getLapCount());
+        assertEquals(10, session.getLapNanos(0));
+        assertEquals(20, session.getLapNanos(1));
+    }
+
+    public void testLatestFirst() {
+        mHistory.insert(new SessionHistory.Session[] {
+            new SessionHistory.Session(2000, 1, new long[0]),
+            new SessionHistory.Session(3000, 1, new long[0]),
+            new SessionHistory.Session(1000, 1, new long[0]),
+        });
+
+        List<SessionHistory.Session> sessions = mHistory.getLatest(2);
+        assertEquals(2, sessions.size());
+        assertEquals(3000, sessions.get(0).getStartTimeMillis());
+        assertEquals(2000, sessions.get(1).getStartTimeMillis());
+    }
+
+    public void testRangeBounds() {
+        mHistory.insert(new SessionHistory.Session[] {
+            new SessionHistory.Session(DAY_MILLIS - 1, 1, new long[0]),
+            new SessionHistory.Session(DAY_MILLIS, 1, new long[0]),
+            new SessionHistory.Session(2 * DAY_MILLIS - 1, 1, new long[0]),
+            new SessionHistory.Session(2 * DAY_MILLIS, 1, new long[0]),
+        });
+
+        List<SessionHistory.Session> sessions = mHistory.getRange(DAY_MILLIS, 2 * DAY_MILLIS);
+        assertEquals(2, sessions.size());
+        assertEquals(2 * DAY_MILLIS - 1, sessions.get(0).getStartTimeMillis());
+        assertEquals(DAY_MILLIS, sessions.get(1).getStartTimeMillis());
+    }
+
+    public void testPendingUploadsOldestFirst() {
+        mHistory.insert(new SessionHistory.Session[] {
+            new SessionHistory.Session(3000, 1, new long[0]),
+            new SessionHistory.Session(1000, 1, new long[0]),
+            new SessionHistory.Session(2000, 1, new long[0]),
+        });
+
+        List<SessionHistory.Session> pending = mHistory.getPendingUploads(2);
+        assertEquals(2, pending.size());
+        assertEquals(3000, pending.get(0).getStartTimeMillis());
+        assertEquals(1000, pending.get(1).getStartTimeMillis());
+
+        mHistory.markUploaded(pending);
+        pending = mHistory.getPendingUploads(2);
+        assertEquals(1, pending.size());
+        assertEquals(2000, pending.get(0).getStartTimeMillis());
+        // Uploaded sessions stay in the history.
+        assertEquals(3, mHistory.getCount());
+    }
+
+    @LargeTest
+    public void testPerformanceAt100kSessions() {
+        int sessionCount = 100000;
+        int batchSize = 1000;
+        long[] lapNanos = { TimeUnit.SECONDS.toNanos(60), TimeUnit.SECONDS.toNanos(125) };
+
+        SessionHistory.Session[] batch = new SessionHistory.Session[batchSize];
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < sessionCount; i += batchSize) {
+            for (int j = 0; j < batchSize; ++j) {
+                // One session every 10 minutes.
+                batch[j] = new SessionHistory.Session((i + j) * TimeUnit.MINUTES.toMillis(10),
+                        TimeUnit.MINUTES.toNanos(5), lapNanos);
+            }
+            mHistory.insert(batch);
+        }
+        long insertNanos = System.nanoTime() - startNanos;
+        assertEquals(sessionCount, mHistory.getCount());
+        Log.i(TAG, "Inserted " + sessionCount + " sessions at "
+                + sessionCount * TimeUnit.SECONDS.toNanos(1) / insertNanos + " sessions/s");
+
+        startNanos = System.nanoTime();
+        assertEquals(50, mHistory.getLatest(50).size());
+        long latestMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        startNanos = System.nanoTime();
+        // 144 sessions a day.
+        assertEquals(144, mHistory.getRange(100 * DAY_MILLIS, 101 * DAY_MILLIS).size());
+        long rangeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        Log.i(TAG, "Latest 50 sessions: " + latestMillis + "ms, one day: " + rangeMillis + "ms");
+
+        // Indexed queries don't depend on the number of sessions stored.
+        assertTrue("Latest sessions took " + latestMillis + "ms", latestMillis < 50);
+        assertTrue("Date range took " + rangeMillis + "ms", rangeMillis < 50);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link SessionMetrics}.
+ */
+public class SessionMetricsTest extends AndroidTestCase {
+
+    private static final long INTERVAL_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(ChronometerView.DELAY_MILLIS);
+    private static final long DRAW_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private SessionMetrics mMetrics;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMetrics = new SessionMetrics();
+    }
+
+    public void testOnTimeTicks() {
+        for (int i = 0; i < 100; ++i) {
+            tick(i * INTERVAL_NANOS);
+        }
+        assertEquals(100, mMetrics.getFramesDrawn());
+        assertEquals(0, mMetrics.getFramesSkipped());
+        assertEquals(100, mMetrics.getWakeups());
+        assertEquals(99, mMetrics.getJitterMicros().getCount());
+        assertEquals(0, mMetrics.getJitterMicros().getMax());
+    }
+
+    public void testLateTicksSkipFrames() {
+        tick(0);
+        // 3 intervals late by 5ms: 2 frames skipped.
+        long late = 3 * INTERVAL_NANOS + TimeUnit.MILLISECONDS.toNanos(5);
+        tick(late);
+        // Slightly late: no frame skipped.
+        tick(late + INTERVAL_NANOS + TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertEquals(2, mMetrics.getFramesSkipped());
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(2 * ChronometerView.DELAY_MILLIS + 5),
+                mMetrics.getJitterMicros().getMax());
+    }
+
+    public void testTicksStoppedNotTakenAsLate() {
+        tick(0);
+        mMetrics.onTicksStopped();
+        tick(TimeUnit.SECONDS.toNanos(10));
+
+        assertEquals(0, mMetrics.getFramesSkipped());
+        assertEquals(0, mMetrics.getJitterMicros().getCount());
+    }
+
+    public void testWakeupsCounted() {
+        mMetrics.onWakeup();
+        mMetrics.onTick(0, ChronometerView.DELAY_MILLIS);
+        assertEquals(2, mMetrics.getWakeups());
+        assertEquals(0, mMetrics.getFramesDrawn());
+    }
+
+    public void testRecord() {
+        for (int i = 0; i < 10; ++i) {
+            tick(i * INTERVAL_NANOS);
+        }
+        ByteBuffer record = mMetrics.toRecord(1234L, 5678L, 42);
+
+        assertEquals(MetricsLog.RECORD_SIZE, record.remaining());
+        assertEquals(MetricsLog.RECORD_MAGIC, record.getInt(0));
+        assertEquals(10, record.getInt(4));
+        assertEquals(1234L, record.getLong(8));
+        assertEquals(5678L, record.getLong(16));
+        assertEquals(42, record.getInt(44));
+        assertEquals(10, record.getInt(48));
+        assertTrue(record.getInt(52) > 0);
+        assertEquals(TimeUnit.NANOSECONDS.toMicros(DRAW_NANOS), record.getInt(60));
+
+        mMetrics.reset();
+        assertEquals(0, mMetrics.getFramesDrawn());
+        assertEquals(0, mMetrics.getWakeups());
+        assertEquals(0, mMetrics.getJitterMicros().getCount());
+    }
+
+    /**
+     * Collecting the metrics of a frame must stay well below the frame's budget.
+     */
+    public void testOverheadWithinOnePercentOfFrameBudget() {
+        final int frames = 100000;
+        // Warms up.
+        for (int i = 0; i < frames; ++i) {
+            tick(i * INTERVAL_NANOS);
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < frames; ++i) {
+            tick((frames + i) * INTERVAL_NANOS + (i & 0xfff));
+        }
+        long averageNanos = (System.nanoTime() - startNanos) / frames;
+
+        assertTrue("Average overhead " + averageNanos + "ns", averageNanos < INTERVAL_NANOS / 100);
+    }
+
+    private void tick(long tickNanos) {
+        mMetrics.onTick(tickNanos, ChronometerView.DELAY_MILLIS);
+        mMetrics.onFrameDrawn(DRAW_NANOS);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unit tests for {@link SessionUploader}, with a local HTTP server standing in for the real one.
+ */
+public class SessionUploaderTest extends AndroidTestCase {
+
+    private static final String TAG = SessionUploaderTest.class.getSimpleName();
+    private static final String DATABASE_NAME = "session_uploader_test.db";
+    private static final int LAP_COUNT = 20;
+
+    /**
+     * Minimal HTTP server recording the uncompressed request bodies and answering with
+     * {@link #mResponseCode}, one request per connection.
+     */
+    private class StandInServer extends Thread {
+
+        final ServerSocket mServerSocket;
+        final List<String> mBodies = Collections.synchronizedList(new ArrayList<String>());
+        volatile int mResponseCode = 200;
+
+        StandInServer() throws IOException {
+            super("StandInServer");
+            mServerSocket = new ServerSocket(0, 0, InetAddress.getByName(null));
+        }
+
+        URL getUrl() throws IOException {
+            return new URL("http://localhost:" + mServerSocket.getLocalPort() + "/sessions");
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Socket socket;
+                try {
+                    socket = mServerSocket.accept();
+                } catch (IOException e) {
+                    // Closed.
+                    return;
+                }
+                try {
+                    serve(socket);
+                } catch (IOException e) {
+                    Log.w(TAG, "Stand-in server failed: " + e);
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // Ignore.
+                    }
+                }
+            }
+        }
+
+        void serve(Socket socket) throws IOException {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int contentLength = 0;
+            boolean gzip = false;
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                String lowerCase = line.toLowerCase();
+                if (lowerCase.startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+                } else if (lowerCase.startsWith("content-encoding:")) {
+                    gzip = lowerCase.endsWith("gzip");
+                }
+            }
+            byte[] body = new byte[contentLength];
+            in.readFully(body);
+            mBodies.add(new String(gzip ? gunzip(body) : body, "UTF-8"));
+
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 " + mResponseCode + " Stand-in\r\nContent-Length: 0\r\n"
+                    + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+            out.flush();
+        }
+
+        void close() throws IOException {
+            mServerSocket.close();
+        }
+    }
+
+    private SessionHistory mHistory;
+    private StandInServer mServer;
+    private SessionUploader mUploader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+        mHistory = new SessionHistory(getContext(), DATABASE_NAME);
+        mServer = new StandInServer();
+        mServer.start();
+        mUploader = new SessionUploader(mHistory, mServer.getUrl());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        mServer.join();
+        mHistory.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUploadsInBatches() {
+        int count = 2 * SessionUploader.BATCH_SIZE + 20;
+        insertSessions(count);
+
+        long startNanos = System.nanoTime();
+        assertTrue(mUploader.uploadPending());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        assertEquals(3, mServer.mBodies.size());
+        assertEquals(SessionUploader.BATCH_SIZE, countSessions(mServer.mBodies.get(0)));
+        assertEquals(SessionUploader.BATCH_SIZE, countSessions(mServer.mBodies.get(1)));
+        assertEquals(20, countSessions(mServer.mBodies.get(2)));
+        assertTrue(mHistory.getPendingUploads(1).isEmpty());
+
+        assertEquals(3, mUploader.getRequestCount());
+        assertEquals(count, mUploader.getSessionCount());
+        assertEquals(count * LAP_COUNT, mUploader.getLapCount());
+        Log.i(TAG, "Uploaded " + count + " sessions in " + elapsedMillis + "ms: "
+                + (float) mUploader.getSessionCount() / mUploader.getRequestCount()
+                + " sessions per request, "
+                + (float) mUploader.getByteCount() / mUploader.getLapCount() + " bytes per lap");
+    }
+
+    public void testNothingPending() {
+        assertTrue(mUploader.uploadPending());
+        assertEquals(0, mUploader.getRequestCount());
+    }
+
+    public void testServerErrorKeepsSessionsPending() {
+        insertSessions(3);
+        mServer.mResponseCode = 503;
+        assertFalse(mUploader.uploadPending());
+        assertEquals(3, mHistory.getPendingUploads(10).size());
+
+        // Resumes where it failed.
+        mServer.mResponseCode = 200;
+        assertTrue(mUploader.uploadPending());
+        assertTrue(mHistory.getPendingUploads(10).isEmpty());
+        assertEquals(2, mServer.mBodies.size());
+    }
+
+    public void testOfflineKeepsSessionsPending() throws Exception {
+        insertSessions(3);
+        // Nothing listens to the port anymore.
+        mServer.close();
+        mServer.join();
+        assertFalse(mUploader.uploadPending());
+        assertEquals(3, mHistory.getPendingUploads(10).size());
+    }
+
+    public void testRejectedBatchIsDropped() {
+        insertSessions(3);
+        mServer.mResponseCode = 400;
+        assertTrue(mUploader.uploadPending());
+        assertTrue(mHistory.getPendingUploads(10).isEmpty());
+        assertEquals(1, mServer.mBodies.size());
+    }
+
+    public void testEncode() throws IOException {
+        List<SessionHistory.Session> sessions = Arrays.asList(
+                new SessionHistory.Session(1000, 42, new long[] { 10, 20 }),
+                new SessionHistory.Session(2000, 7, new long[0]));
+        assertEquals("{\"sessions\":["
+                + "{\"start_time_ms\":1000,\"duration_ns\":42,\"laps_ns\":[10,20]},"
+                + "{\"start_time_ms\":2000,\"duration_ns\":7,\"laps_ns\":[]}]}",
+                new String(gunzip(SessionUploader.encode(sessions)), "UTF-8"));
+    }
+
+    public void testBackoff() {
+        assertEquals(TimeUnit.SECONDS.toMillis(30), SessionUploader.getBackoffMillis(1));
+        assertEquals(TimeUnit.SECONDS.toMillis(60), SessionUploader.getBackoffMillis(2));
+        assertEquals(TimeUnit.SECONDS.toMillis(120), SessionUploader.getBackoffMillis(3));
+        assertEquals(TimeUnit.HOURS.toMillis(1), SessionUploader.getBackoffMillis(100));
+    }
+
+    private void insertSessions(int count) {
+        SessionHistory.Session[] sessions = new SessionHistory.Session[count];
+        for (int i = 0; i < count; ++i) {
+            long[] lapNanos = new long[LAP_COUNT];
+            for (int lap = 0; lap < LAP_COUNT; ++lap) {
+                lapNanos[lap] = (lap + 1) * TimeUnit.SECONDS.toNanos(61) + i * 1234567;
+            }
+            sessions[i] = new SessionHistory.Session(1000 * i, lapNanos[LAP_COUNT - 1], lapNanos);
+        }
+        mHistory.insert(sessions);
+    }
+
+    private static int countSessions(String body) {
+        int count = 0;
+        for (int i = body.indexOf("start_time_ms"); i >= 0;
+                i = body.indexOf("start_time_ms", i + 1)) {
+            ++count;
+        }
+        return count;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
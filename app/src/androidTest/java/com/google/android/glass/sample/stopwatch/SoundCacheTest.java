@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+
+/**
+ * Unit tests for {@link SoundCache}.
+ *
+ * Sounds are loaded from the main thread so that the load completion is dispatched on a running
+ * {@link android.os.Looper}.
+ */
+public class SoundCacheTest extends InstrumentationTestCase {
+
+    private static final long LOAD_TIMEOUT_MILLIS = 5000;
+    private static final long POLL_DELAY_MILLIS = 10;
+
+    private SoundCache mSoundCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSoundCache = new SoundCache(getInstrumentation().getTargetContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSoundCache.release();
+        super.tearDown();
+    }
+
+    public void testGetInstanceIsShared() {
+        assertSame(SoundCache.getInstance(getInstrumentation().getTargetContext()),
+                SoundCache.getInstance(getInstrumentation().getContext()));
+    }
+
+    public void testPlayBeforeLoadDoesNotPlay() {
+        assertFalse(mSoundCache.isLoaded(R.raw.start));
+        assertFalse(mSoundCache.play(R.raw.start));
+    }
+
+    public void testLoadCompletes() {
+        load(R.raw.start, R.raw.countdown_bip);
+        assertTrue(waitForLoaded(R.raw.start));
+        assertTrue(waitForLoaded(R.raw.countdown_bip));
+        assertTrue(mSoundCache.play(R.raw.countdown_bip));
+    }
+
+    public void testReleaseUnloadsSounds() {
+        load(R.raw.start);
+        assertTrue(waitForLoaded(R.raw.start));
+
+        mSoundCache.release();
+        assertFalse(mSoundCache.isLoaded(R.raw.start));
+
+        // The next use loads the sound again.
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                assertFalse(mSoundCache.play(R.raw.start));
+            }
+        });
+        assertTrue(waitForLoaded(R.raw.start));
+    }
+
+    private void load(final int... soundIds) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                mSoundCache.load(soundIds);
+            }
+        });
+    }
+
+    /**
+     * Waits for the sound to be loaded, returning whether or not it loaded in time.
+     */
+    private boolean waitForLoaded(int soundId) {
+        long deadline = SystemClock.elapsedRealtime() + LOAD_TIMEOUT_MILLIS;
+        while (!mSoundCache.isLoaded(soundId)) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                return false;
+            }
+            SystemClock.sleep(POLL_DELAY_MILLIS);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link StallWatchdog}, fed with the {@link android.os.Looper}'s logging format.
+ */
+public class StallWatchdogTest extends AndroidTestCase {
+
+    private static final String TAG = StallWatchdogTest.class.getSimpleName();
+
+    /** Messages dispatched to measure the watchdog's cost. */
+    private static final int MEASURED_MESSAGES = 10000;
+
+    private static final String SLOW_HANDLER = "com.example.SlowHandler";
+    private static final String TASK = "com.example.Task";
+
+    private long mElapsedRealtimeNanos;
+    private StallWatchdog mWatchdog;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mElapsedRealtimeNanos = TimeUnit.SECONDS.toNanos(10);
+        mWatchdog = new StallWatchdog(new TimeSource() {
+
+            @Override
+            public long elapsedRealtimeNanos() {
+                return mElapsedRealtimeNanos;
+            }
+        });
+    }
+
+    public void testMessageDelayingTickRecorded() {
+        mWatchdog.onTickScheduled(40);
+        advanceMillis(30);
+        // Runs from 10ms before the deadline to 20ms after it.
+        dispatch(SLOW_HANDLER, null, 30);
+        tick();
+
+        // Including the tick itself.
+        assertEquals(2, mWatchdog.getMessageCount());
+        assertEquals(1, mWatchdog.getStallCount());
+        assertEquals(1, mWatchdog.getLateTickCount());
+        List<StallWatchdog.Offender> offenders = mWatchdog.getOffenders();
+        assertEquals(1, offenders.size());
+        assertEquals(SLOW_HANDLER, offenders.get(0).mTarget);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), offenders.get(0).mTotalNanos);
+    }
+
+    public void testMessagesBeforeDeadlineIgnored() {
+        mWatchdog.onTickScheduled(40);
+        dispatch(SLOW_HANDLER, null, 30);
+        dispatch(SLOW_HANDLER, TASK, 5);
+        advanceMillis(5);
+        tick();
+
+        assertEquals(3, mWatchdog.getMessageCount());
+        assertEquals(0, mWatchdog.getStallCount());
+        assertEquals(0, mWatchdog.getLateTickCount());
+    }
+
+    public void testShortDelayIgnored() {
+        mWatchdog.onTickScheduled(40);
+        advanceMillis(40);
+        dispatch(SLOW_HANDLER, null, 1);
+        tick();
+
+        assertEquals(0, mWatchdog.getStallCount());
+        assertEquals(0, mWatchdog.getLateTickCount());
+    }
+
+    public void testNoTickScheduled() {
+        mWatchdog.onTickScheduled(40);
+        mWatchdog.onTickCancelled();
+        advanceMillis(100);
+        dispatch(SLOW_HANDLER, null, 100);
+
+        assertEquals(0, mWatchdog.getStallCount());
+    }
+
+    public void testTopOffendersByTotalDelay() {
+        for (int i = 0; i < 3; ++i) {
+            mWatchdog.onTickScheduled(0);
+            dispatch(SLOW_HANDLER, TASK, 10);
+            tick();
+        }
+        mWatchdog.onTickScheduled(0);
+        dispatch(SLOW_HANDLER, null, 25);
+        tick();
+
+        List<StallWatchdog.Offender> offenders = mWatchdog.getOffenders();
+        assertEquals(2, offenders.size());
+        assertEquals(SLOW_HANDLER + " " + TASK, offenders.get(0).mTarget);
+        assertEquals(3, offenders.get(0).mCount);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), offenders.get(0).mMaxNanos);
+        assertEquals(SLOW_HANDLER, offenders.get(1).mTarget);
+
+        StringWriter output = new StringWriter();
+        mWatchdog.dump(new PrintWriter(output));
+        String dump = output.toString();
+        assertTrue(dump.contains("30.0ms in 3 stalls (max 10.0ms): " + SLOW_HANDLER + " " + TASK));
+        assertTrue(dump.contains("4 late ticks"));
+    }
+
+    public void testRingBufferBounded() {
+        for (int i = 0; i < StallWatchdog.CAPACITY + 10; ++i) {
+            mWatchdog.onTickScheduled(0);
+            dispatch(SLOW_HANDLER, null, 10);
+            tick();
+        }
+        assertEquals(StallWatchdog.CAPACITY + 10, mWatchdog.getStallCount());
+        assertEquals(StallWatchdog.CAPACITY, mWatchdog.getOffenders().get(0).mCount);
+    }
+
+    public void testGetTarget() {
+        assertEquals("android.view.Choreographer$FrameHandler com.example.Task",
+                StallWatchdog.getTarget(">>>>> Dispatching to Handler "
+                        + "(android.view.Choreographer$FrameHandler) {41a2b3c8} "
+                        + "com.example.Task@41b5e6f0: 0"));
+        assertEquals("android.app.ActivityThread$H", StallWatchdog.getTarget(">>>>> Dispatching to "
+                + "Handler (android.app.ActivityThread$H) {41a2b3c8} null: 114"));
+        assertEquals("unexpected", StallWatchdog.getTarget("unexpected"));
+    }
+
+    public void testCostPerMessage() throws InterruptedException {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        try {
+            Handler handler = new Handler(thread.getLooper());
+            // Warm up, then measure without the watchdog and with it.
+            dispatchMessages(handler, MEASURED_MESSAGES);
+            long baselineNanos = dispatchMessages(handler, MEASURED_MESSAGES);
+            StallWatchdog watchdog = new StallWatchdog(TimeSource.SYSTEM);
+            watchdog.install(thread.getLooper());
+            long watchedNanos;
+            try {
+                watchedNanos = dispatchMessages(handler, MEASURED_MESSAGES);
+            } finally {
+                watchdog.uninstall();
+            }
+
+            // The last message may finish after the watchdog is uninstalled.
+            assertTrue(watchdog.getMessageCount() >= MEASURED_MESSAGES - 1);
+            long baselineMessageNanos = baselineNanos / MEASURED_MESSAGES;
+            long costNanos = (watchedNanos - baselineNanos) / MEASURED_MESSAGES;
+            Log.i(TAG, "Cost per message: " + costNanos + "ns, on top of " + baselineMessageNanos
+                    + "ns without the watchdog");
+            assertTrue("Cost per message: " + costNanos + "ns",
+                    costNanos < TimeUnit.MICROSECONDS.toNanos(50));
+        } finally {
+            thread.quit();
+        }
+    }
+
+    /**
+     * Dispatches {@code count} messages one after the other on {@code handler}'s thread, each
+     * posting the next, and returns the time taken.
+     */
+    private static long dispatchMessages(final Handler handler, final int count)
+            throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        handler.post(new Runnable() {
+            private int mRemaining = count;
+
+            @Override
+            public void run() {
+                if (--mRemaining > 0) {
+                    handler.post(this);
+                } else {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        return SystemClock.elapsedRealtimeNanos() - startNanos;
+    }
+
+    /**
+     * Dispatches a message to {@code handler} with {@code callback}, taking {@code millis}.
+     */
+    private void dispatch(String handler, String callback, long millis) {
+        mWatchdog.println(">>>>> Dispatching to Handler (" + handler + ") {41a2b3c8} "
+                + (callback != null ? callback + "@41b5e6f0" : "null") + ": 0");
+        advanceMillis(millis);
+        mWatchdog.println("<<<<< Finished to Handler (" + handler + ") {41a2b3c8} "
+                + (callback != null ? callback + "@41b5e6f0" : "null"));
+    }
+
+    /**
+     * Runs the tick, as its own message.
+     */
+    private void tick() {
+        mWatchdog.println(">>>>> Dispatching to Handler (android.os.Handler) {41a2b3c8} "
+                + "com.google.android.glass.sample.stopwatch.ChronometerView$1@41b5e6f0: 0");
+        mWatchdog.onTickRun();
+        mWatchdog.println("<<<<< Finished to Handler (android.os.Handler) {41a2b3c8} "
+                + "com.google.android.glass.sample.stopwatch.ChronometerView$1@41b5e6f0");
+    }
+
+    private void advanceMillis(long millis) {
+        mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link StartupTrace}.
+ */
+public class StartupTraceTest extends AndroidTestCase {
+
+    private long mElapsedRealtimeNanos;
+
+    private StartupTrace mTrace;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mElapsedRealtimeNanos = TimeUnit.SECONDS.toNanos(10);
+        mTrace = new StartupTrace() {
+
+            @Override
+            protected long getElapsedRealtimeNanos() {
+                return mElapsedRealtimeNanos;
+            }
+        };
+    }
+
+    public void testPhaseNotReached() {
+        assertFalse(mTrace.isReached(StartupTrace.FIRST_FRAME_DRAWN));
+        assertEquals(-1, mTrace.getElapsedMillis(StartupTrace.FIRST_FRAME_DRAWN));
+    }
+
+    public void testElapsedMillisFromFirstPhase() {
+        mTrace.mark(StartupTrace.SERVICE_STARTED);
+        mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(120);
+        mTrace.mark(StartupTrace.SURFACE_CREATED);
+        mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(30);
+        mTrace.mark(StartupTrace.FIRST_FRAME_DRAWN);
+
+        assertEquals(0, mTrace.getElapsedMillis(StartupTrace.SERVICE_STARTED));
+        assertEquals(120, mTrace.getElapsedMillis(StartupTrace.SURFACE_CREATED));
+        assertEquals(150, mTrace.getElapsedMillis(StartupTrace.FIRST_FRAME_DRAWN));
+    }
+
+    public void testMarkOnlyRecordsFirstCall() {
+        mTrace.mark(StartupTrace.SERVICE_STARTED);
+        mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(100);
+        mTrace.mark(StartupTrace.SURFACE_CREATED);
+        mElapsedRealtimeNanos += TimeUnit.MILLISECONDS.toNanos(100);
+        mTrace.mark(StartupTrace.SURFACE_CREATED);
+
+        assertEquals(100, mTrace.getElapsedMillis(StartupTrace.SURFACE_CREATED));
+    }
+
+    public void testDumpListsAllPhases() {
+        mTrace.mark(StartupTrace.SERVICE_STARTED);
+        StringWriter output = new StringWriter();
+        mTrace.dump(new PrintWriter(output));
+
+        String dump = output.toString();
+        assertTrue(dump.contains("service started"));
+        assertTrue(dump.contains("first frame drawn"));
+    }
+}
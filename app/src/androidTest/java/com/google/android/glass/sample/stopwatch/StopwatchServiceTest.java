@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link StopwatchService}.
+ */
+public class StopwatchServiceTest extends AndroidTestCase {
+
+    private static final String TAG = StopwatchServiceTest.class.getSimpleName();
+
+    /** Number of commands timed through each path. */
+    private static final int COMMAND_COUNT = 200;
+    private static final String EXTRA_WHEN_NANOS = "when_nanos";
+
+    public void testBinderWithoutStopwatch() {
+        // E.g. a LapAdapter still bound once the stopwatch is gone.
+        StopwatchService.StopwatchBinder binder = new StopwatchService().new StopwatchBinder();
+        assertFalse(binder.isRunning());
+        assertEquals(0, binder.getLapCount());
+        assertEquals(0, binder.getLapNanos(0));
+        assertEquals(0, binder.getElapsedNanos(0));
+    }
+
+    /**
+     * Compares the latency from issuing a command to the stopwatch's state change through the
+     * binder, as the menu does, and through an {@link Intent} delivered to the service as before.
+     * The Intent path is only timed up to its in-process part, a lower bound: the Intent is
+     * marshalled and unmarshalled once as for its IPC through the system, then applied from the
+     * main thread's queue as {@code onStartCommand} would be. The system's own dispatch comes on
+     * top of it.
+     */
+    public void testBinderCommandLatencyBelowIntentPath() throws InterruptedException {
+        Context context = getContext();
+        CountDownView countDownView = new CountDownView(context);
+        final ChronometerDrawer drawer =
+                new ChronometerDrawer(countDownView, new ChronometerView(context));
+        countDownView.getListener().onFinish();
+        StopwatchService service = new StopwatchService();
+        service.setCallback(drawer);
+        final StopwatchService.StopwatchBinder binder = service.new StopwatchBinder();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        Histogram binderMicros = new Histogram();
+        for (int i = 0; i < COMMAND_COUNT; ++i) {
+            long startNanos = System.nanoTime();
+            binder.lap(SystemClock.elapsedRealtimeNanos());
+            assertEquals(i + 1, drawer.getLapCount());
+            binderMicros.add((int) TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        }
+
+        Histogram intentMicros = new Histogram();
+        for (int i = 0; i < COMMAND_COUNT; ++i) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            long startNanos = System.nanoTime();
+            Intent intent = new Intent(context, StopwatchService.class)
+                    .putExtra(EXTRA_WHEN_NANOS, SystemClock.elapsedRealtimeNanos());
+            Parcel parcel = Parcel.obtain();
+            intent.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            final Intent received = Intent.CREATOR.createFromParcel(parcel);
+            parcel.recycle();
+            mainHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    binder.lap(received.getLongExtra(EXTRA_WHEN_NANOS, 0));
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+            assertEquals(COMMAND_COUNT + i + 1, drawer.getLapCount());
+            intentMicros.add((int) TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        }
+
+        Log.i(TAG, "Command to state change over " + COMMAND_COUNT + " commands, binder: median "
+                + binderMicros.getPercentile(50) + "us, p95 " + binderMicros.getPercentile(95)
+                + "us; Intent (lower bound): median " + intentMicros.getPercentile(50)
+                + "us, p95 " + intentMicros.getPercentile(95) + "us");
+        assertTrue(binderMicros.getPercentile(50) <= intentMicros.getPercentile(50));
+    }
+
+    public void testTriggerPortOnlyFromPackage() {
+        Context context = getContext();
+        String packageName = context.getPackageName();
+        assertTrue(StopwatchService.isFromPackage(
+                StopwatchService.newTriggerIntent(context, 7300), packageName));
+
+        // E.g. another app starting the exported service.
+        Intent intent = new Intent(context, StopwatchService.class)
+                .putExtra(StopwatchService.EXTRA_TRIGGER_PORT, 7300);
+        assertFalse(StopwatchService.isFromPackage(intent, packageName));
+        assertFalse(StopwatchService.isFromPackage(
+                StopwatchService.newTriggerIntent(context, 7300), "com.example.other"));
+    }
+
+    public void testProgramFromIntent() {
+        Context context = getContext();
+        Intent intent = new Intent(context, StopwatchService.class);
+        assertEquals(TimeUnit.SECONDS.toNanos(ChronometerDrawer.COUNT_DOWN_VALUE),
+                StopwatchService.getProgram(intent).getDurationNanos());
+        // Given as an int or a long.
+        intent.putExtra(StopwatchService.EXTRA_COUNT_DOWN_SECONDS, 10);
+        assertEquals(TimeUnit.SECONDS.toNanos(10),
+                StopwatchService.getProgram(intent).getDurationNanos());
+        intent.putExtra(StopwatchService.EXTRA_COUNT_DOWN_SECONDS, 12L);
+        assertEquals(TimeUnit.SECONDS.toNanos(12),
+                StopwatchService.getProgram(intent).getDurationNanos());
+
+        // Any app can start the exported service: a large program falls back to the countdown.
+        intent.putExtra(StopwatchService.EXTRA_INTERVAL_PROGRAM, "1000x(work:1, rest:1)");
+        assertEquals(1, StopwatchService.getProgram(intent).getPhaseCount());
+        intent.putExtra(StopwatchService.EXTRA_INTERVAL_PROGRAM, "500x(work:1, rest:1)");
+        assertEquals(StopwatchService.MAX_INTENT_PHASES,
+                StopwatchService.getProgram(intent).getPhaseCount());
+    }
+
+    public void testSoundsKeptWhenUiHiddenDuringCountDown() {
+        // Delivered when the menu closes while counting down.
+        assertFalse(StopwatchService.shouldReleaseSounds(
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, false));
+        assertFalse(StopwatchService.shouldReleaseSounds(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE, false));
+    }
+
+    public void testSoundsReleasedOnLowMemoryDuringCountDown() {
+        assertTrue(StopwatchService.shouldReleaseSounds(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW, false));
+        assertTrue(StopwatchService.shouldReleaseSounds(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL, false));
+        assertTrue(StopwatchService.shouldReleaseSounds(
+                ComponentCallbacks2.TRIM_MEMORY_BACKGROUND, false));
+        assertTrue(StopwatchService.shouldReleaseSounds(
+                ComponentCallbacks2.TRIM_MEMORY_COMPLETE, false));
+    }
+
+    public void testSoundsReleasedOnceCountDownDone() {
+        assertTrue(StopwatchService.shouldReleaseSounds(
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, true));
+        assertTrue(StopwatchService.shouldReleaseSounds(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE, true));
+    }
+}
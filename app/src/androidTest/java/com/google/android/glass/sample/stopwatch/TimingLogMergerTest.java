@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link TimingLog}, {@link ClockFit} and {@link TimingLogMerger}.
+ */
+public class TimingLogMergerTest extends AndroidTestCase {
+
+    private static final String TAG = TimingLogMergerTest.class.getSimpleName();
+
+    /** Wall clock time at which the simulated event starts. */
+    private static final long START_WALL_MILLIS = 1400000000000L;
+    private static final long LAP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long TOLERANCE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    /**
+     * Log of a simulated device timing laps every {@link #LAP_INTERVAL_NANOS} from
+     * {@link #START_WALL_MILLIS}, generated as it is read. The device's clock is offset from the
+     * wall clock by {@code elapsedAtStartNanos} and drifts by {@code driftPpm}.
+     */
+    private static class SimulatedLog extends InputStream
+            implements TimingLogMerger.LogSource {
+        private static final int CHUNK_EVENTS = 1024;
+        private static final int CLOCK_SAMPLE_INTERVAL = 1000;
+
+        private final int mEventCount;
+        private final long mElapsedAtStartNanos;
+        private final double mDriftPpm;
+        private final long mSeed;
+
+        private final ByteArrayOutputStream mChunk = new ByteArrayOutputStream();
+        private TimingLog.Writer mWriter;
+        private Random mRandom;
+        private int mWrittenCount;
+        private byte[] mBytes;
+        private int mPosition;
+
+        SimulatedLog(int eventCount, long elapsedAtStartNanos, double driftPpm, long seed) {
+            mEventCount = eventCount;
+            mElapsedAtStartNanos = elapsedAtStartNanos;
+            mDriftPpm = driftPpm;
+            mSeed = seed;
+        }
+
+        @Override
+        public InputStream open() {
+            mChunk.reset();
+            mWriter = new TimingLog.Writer(mChunk);
+            mRandom = new Random(mSeed);
+            mWrittenCount = 0;
+            mBytes = new byte[0];
+            mPosition = 0;
+            return this;
+        }
+
+        /** Returns the time on the device's clock at {@code wallNanos} since the start. */
+        long toElapsedNanos(long wallNanos) {
+            return mElapsedAtStartNanos + Math.round(wallNanos / (1 + mDriftPpm / 1e6));
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mPosition == mBytes.length && !generate()) {
+                return -1;
+            }
+            int read = Math.min(length, mBytes.length - mPosition);
+            System.arraycopy(mBytes, mPosition, buffer, offset, read);
+            mPosition += read;
+            return read;
+        }
+
+        private boolean generate() throws IOException {
+            if (mWrittenCount == mEventCount) {
+                return false;
+            }
+            int end = Math.min(mEventCount, mWrittenCount + CHUNK_EVENTS);
+            for (; mWrittenCount < end; ++mWrittenCount) {
+                long wallNanos = mWrittenCount * LAP_INTERVAL_NANOS;
+                if (mWrittenCount % CLOCK_SAMPLE_INTERVAL == 0) {
+                    // Sampled a little before the lap, with the wall clock's resolution.
+                    long sampleWallNanos = wallNanos - mRandom.nextInt(1000000);
+                    mWriter.writeClockSample(toElapsedNanos(sampleWallNanos), START_WALL_MILLIS
+                            + TimeUnit.NANOSECONDS.toMillis(sampleWallNanos));
+                }
+                mWriter.writeEvent(EventTrace.LAP, toElapsedNanos(wallNanos));
+            }
+            mWriter.flush();
+            mBytes = mChunk.toByteArray();
+            mChunk.reset();
+            mPosition = 0;
+            return true;
+        }
+    }
+
+    /** {@link TimingLogMerger.Listener} checking the order of the merged commands. */
+    private static class OrderChecker implements TimingLogMerger.Listener {
+        long mLastWallNanos = Long.MIN_VALUE;
+        long mCount;
+        long mMaxErrorNanos;
+
+        @Override
+        public void onEvent(int log, int event, long wallNanos) {
+            assertTrue(wallNanos >= mLastWallNanos);
+            assertEquals(EventTrace.LAP, event);
+            mLastWallNanos = wallNanos;
+            // All the devices timed the same laps.
+            long sinceStartNanos = wallNanos - TimeUnit.MILLISECONDS.toNanos(START_WALL_MILLIS);
+            long lapNanos = Math.round((double) sinceStartNanos / LAP_INTERVAL_NANOS)
+                    * LAP_INTERVAL_NANOS;
+            mMaxErrorNanos = Math.max(mMaxErrorNanos, Math.abs(sinceStartNanos - lapNanos));
+            ++mCount;
+        }
+    }
+
+    public void testWriteReadRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimingLog.Writer writer = new TimingLog.Writer(out);
+        writer.writeClockSample(100, START_WALL_MILLIS);
+        writer.writeEvent(EventTrace.LAP, 200);
+        writer.writeEvent(EventTrace.RESET, Long.MAX_VALUE);
+        writer.flush();
+        assertEquals(5 + 3 * TimingLog.RECORD_SIZE, out.size());
+
+        TimingLog.Reader reader = new TimingLog.Reader(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(reader.next());
+        assertEquals(TimingLog.CLOCK_SAMPLE, reader.getType());
+        assertEquals(100, reader.getElapsedNanos());
+        assertEquals(START_WALL_MILLIS, reader.getValue());
+        assertTrue(reader.next());
+        assertEquals(EventTrace.LAP, reader.getType());
+        assertEquals(200, reader.getElapsedNanos());
+        assertTrue(reader.next());
+        assertEquals(EventTrace.RESET, reader.getType());
+        assertEquals(Long.MAX_VALUE, reader.getElapsedNanos());
+        assertFalse(reader.next());
+    }
+
+    public void testReadInvalidLog() throws IOException {
+        try {
+            new TimingLog.Reader(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6 }));
+            fail("IOException expected");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimingLog.Writer writer = new TimingLog.Writer(out);
+        writer.writeEvent(EventTrace.LAP, 200);
+        writer.flush();
+        TimingLog.Reader reader = new TimingLog.Reader(
+                new ByteArrayInputStream(out.toByteArray(), 0, out.size() - 1));
+        try {
+            reader.next();
+            fail("IOException expected");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    public void testWriteCommandsSortsByIssueTime() throws IOException {
+        EventTrace trace = new EventTrace();
+        trace.record(EventTrace.SURFACE_CREATED, 100, 0);
+        trace.record(EventTrace.LAP, 1000, 500);
+        // Issued before the previous lap, delivered right after it.
+        trace.record(EventTrace.PAUSE, 1001, 700);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimingLog.Writer writer = new TimingLog.Writer(out);
+        writer.writeCommands(trace);
+        writer.flush();
+
+        TimingLog.Reader reader = new TimingLog.Reader(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(reader.next());
+        assertEquals(EventTrace.PAUSE, reader.getType());
+        assertEquals(301, reader.getElapsedNanos());
+        assertTrue(reader.next());
+        assertEquals(EventTrace.LAP, reader.getType());
+        assertEquals(500, reader.getElapsedNanos());
+        assertFalse(reader.next());
+    }
+
+    public void testClockFitOffsetAndDrift() {
+        ClockFit clockFit = new ClockFit();
+        // The wall clock runs 50ppm faster than the device's.
+        for (int i = 0; i <= 10; ++i) {
+            long elapsedNanos = TimeUnit.HOURS.toNanos(i);
+            clockFit.add(elapsedNanos, START_WALL_MILLIS + TimeUnit.NANOSECONDS.toMillis(
+                    elapsedNanos + elapsedNanos / 20000));
+        }
+        assertEquals(50, clockFit.getDriftPpm(), 0.01);
+        long elapsedNanos = TimeUnit.HOURS.toNanos(5) + 123456789;
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(START_WALL_MILLIS) + elapsedNanos
+                + elapsedNanos / 20000, clockFit.toWallNanos(elapsedNanos), TOLERANCE_NANOS);
+    }
+
+    public void testClockFitSingleSample() {
+        ClockFit clockFit = new ClockFit();
+        clockFit.add(1000, START_WALL_MILLIS);
+        assertEquals(0, clockFit.getDriftPpm(), 0);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(START_WALL_MILLIS) + 500,
+                clockFit.toWallNanos(1500));
+    }
+
+    public void testClockFitStepWithFewSamplesFitsOffsetOnly() {
+        ClockFit clockFit = new ClockFit();
+        // The wall clock is stepped forward by 500ms, e.g. by NTP, between the session's start
+        // and end: not drift.
+        long durationNanos = TimeUnit.HOURS.toNanos(1);
+        clockFit.add(0, START_WALL_MILLIS);
+        clockFit.add(durationNanos,
+                START_WALL_MILLIS + TimeUnit.NANOSECONDS.toMillis(durationNanos) + 500);
+        assertEquals(0, clockFit.getDriftPpm(), 0);
+        // Split between the samples, wherever the step occurred.
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(START_WALL_MILLIS + 250) + durationNanos / 2,
+                clockFit.toWallNanos(durationNanos / 2));
+    }
+
+    public void testMergeAlignsDevices() throws IOException {
+        TimingLogMerger merger = new TimingLogMerger();
+        merger.addLog(new SimulatedLog(5000, TimeUnit.HOURS.toNanos(3), 0, 1));
+        merger.addLog(new SimulatedLog(5000, TimeUnit.MINUTES.toNanos(7), 80, 2));
+        merger.addLog(new SimulatedLog(4000, TimeUnit.DAYS.toNanos(2), -120, 3));
+        OrderChecker checker = new OrderChecker();
+
+        assertEquals(14000, merger.merge(checker));
+        assertEquals(14000, checker.mCount);
+        assertTrue("Error " + checker.mMaxErrorNanos, checker.mMaxErrorNanos <= TOLERANCE_NANOS);
+        assertEquals(80, merger.getClockFit(1).getDriftPpm(), 1);
+        assertEquals(-120, merger.getClockFit(2).getDriftPpm(), 1);
+    }
+
+    public void testMergeWithoutClockSample() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimingLog.Writer writer = new TimingLog.Writer(out);
+        writer.writeEvent(EventTrace.LAP, 200);
+        writer.flush();
+        final byte[] log = out.toByteArray();
+        TimingLogMerger merger = new TimingLogMerger();
+        merger.addLog(new TimingLogMerger.LogSource() {
+
+            @Override
+            public InputStream open() {
+                return new ByteArrayInputStream(log);
+            }
+        });
+        try {
+            merger.merge(new OrderChecker());
+            fail("IOException expected");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @LargeTest
+    public void testMergeTwentyMillionEvents() throws IOException {
+        int logCount = 20;
+        int eventCount = 1000000;
+        TimingLogMerger merger = new TimingLogMerger();
+        Random random = new Random(47);
+        for (int i = 0; i < logCount; ++i) {
+            merger.addLog(new SimulatedLog(eventCount, TimeUnit.MINUTES.toNanos(random.nextInt(
+                    10000)), random.nextGaussian() * 50, i));
+        }
+        OrderChecker checker = new OrderChecker();
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        long usedBytes = runtime.totalMemory() - runtime.freeMemory();
+        long startNanos = System.nanoTime();
+        long mergedCount = merger.merge(checker);
+        long mergeNanos = System.nanoTime() - startNanos;
+
+        assertEquals((long) logCount * eventCount, mergedCount);
+        assertTrue("Error " + checker.mMaxErrorNanos, checker.mMaxErrorNanos <= TOLERANCE_NANOS);
+        Log.i(TAG, "Merged " + mergedCount + " events from " + logCount + " logs in "
+                + TimeUnit.NANOSECONDS.toMillis(mergeNanos) + "ms, "
+                + mergeNanos / mergedCount + "ns per event, heap grew by "
+                + (runtime.totalMemory() - runtime.freeMemory() - usedBytes) / 1024 + "kB");
+    }
+}
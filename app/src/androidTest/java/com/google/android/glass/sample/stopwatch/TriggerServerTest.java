@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link TriggerServer}, with a local client standing in for the sensors.
+ */
+public class TriggerServerTest extends AndroidTestCase {
+
+    private static final String TAG = TriggerServerTest.class.getSimpleName();
+
+    /** Both the server and the client use the same clock, to measure the end-to-end latency. */
+    private final TimeSource mTimeSource = new TimeSource() {
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return System.nanoTime();
+        }
+    };
+
+    private TriggerServer mServer;
+    private SocketChannel mClient;
+
+    private int[] mCommands;
+    private long[] mCommandNanos;
+    /** Time at which each command was received. */
+    private long[] mReceivedNanos;
+    private int mCommandCount;
+    private CountDownLatch mLatch;
+
+    private final TriggerServer.Listener mListener = new TriggerServer.Listener() {
+
+        @Override
+        public void onCommand(int command, long whenNanos) {
+            long receivedNanos = mTimeSource.elapsedRealtimeNanos();
+            mCommands[mCommandCount] = command;
+            mCommandNanos[mCommandCount] = whenNanos;
+            mReceivedNanos[mCommandCount] = receivedNanos;
+            ++mCommandCount;
+            mLatch.countDown();
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new TriggerServer(0, mTimeSource, mListener);
+        mServer.start();
+        mClient = SocketChannel.open(
+                new InetSocketAddress(InetAddress.getByName(null), mServer.getPort()));
+        mClient.socket().setTcpNoDelay(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.close();
+        mServer.stop();
+        super.tearDown();
+    }
+
+    public void testCommandsSplitAcrossWrites() throws Exception {
+        expectCommands(2);
+        ByteBuffer frames = ByteBuffer.allocate(TriggerServer.FRAME_SIZE * 2);
+        frames.put((byte) TriggerServer.COMMAND_START).putLong(1000);
+        frames.put((byte) TriggerServer.COMMAND_LAP).putLong(2000);
+        frames.flip();
+
+        // Cut in the middle of the first frame's time.
+        frames.limit(5);
+        write(frames);
+        Thread.sleep(50);
+        frames.limit(frames.capacity());
+        write(frames);
+
+        assertTrue(mLatch.await(1, TimeUnit.SECONDS));
+        assertEquals(TriggerServer.COMMAND_START, mCommands[0]);
+        assertEquals(TriggerServer.COMMAND_LAP, mCommands[1]);
+        assertEquals(1000, mCommandNanos[1] - mCommandNanos[0]);
+    }
+
+    public void testLatencyCompensation() throws Exception {
+        // The sender's clock is a second behind.
+        long clockOffsetNanos = TimeUnit.SECONDS.toNanos(1);
+        expectCommands(1);
+        sendCommand(TriggerServer.COMMAND_START, mTimeSource.elapsedRealtimeNanos()
+                - clockOffsetNanos);
+        assertTrue(mLatch.await(1, TimeUnit.SECONDS));
+
+        // A lap that occurred 5ms before being sent.
+        expectCommands(1);
+        long lapNanos = mTimeSource.elapsedRealtimeNanos() - TimeUnit.MILLISECONDS.toNanos(5);
+        sendCommand(TriggerServer.COMMAND_LAP, lapNanos - clockOffsetNanos);
+        assertTrue(mLatch.await(1, TimeUnit.SECONDS));
+
+        assertEquals(TriggerServer.COMMAND_LAP, mCommands[0]);
+        long errorNanos = mCommandNanos[0] - lapNanos;
+        assertTrue("Lap off by " + errorNanos + "ns",
+                errorNanos >= 0 && errorNanos < TimeUnit.MILLISECONDS.toNanos(5));
+    }
+
+    public void testSyncFramesNotReported() throws Exception {
+        expectCommands(1);
+        sendCommand(TriggerServer.COMMAND_SYNC, 1000);
+        sendCommand(TriggerServer.COMMAND_LAP, 2000);
+
+        assertTrue(mLatch.await(1, TimeUnit.SECONDS));
+        assertEquals(TriggerServer.COMMAND_LAP, mCommands[0]);
+    }
+
+    public void testOffsetEstimatorFirstFrameUncompensated() {
+        TriggerServer.OffsetEstimator estimator = new TriggerServer.OffsetEstimator();
+
+        // Reported at the time it was read.
+        assertEquals(5000 - 1000, estimator.update(5000, 1000));
+    }
+
+    public void testOffsetEstimatorFollowsSlowSenderClock() {
+        TriggerServer.OffsetEstimator estimator = new TriggerServer.OffsetEstimator();
+        long secondNanos = TimeUnit.SECONDS.toNanos(1);
+        long minLatencyNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        // The sender's clock falls behind by 50us every second, over 20 minutes.
+        long driftNanosPerSecond = TimeUnit.MICROSECONDS.toNanos(50);
+        long offsetNanos = 0;
+        for (int i = 0; i < 1200; ++i) {
+            long readNanos = i * secondNanos;
+            long trueOffsetNanos = i * driftNanosPerSecond;
+            // Only one frame in 5 gets the lowest latency.
+            long latencyNanos = minLatencyNanos * (1 + i % 5);
+            offsetNanos = estimator.update(readNanos, readNanos - trueOffsetNanos - latencyNanos);
+            long errorNanos = offsetNanos - trueOffsetNanos;
+            assertTrue("Off by " + errorNanos + "ns after " + i + "s",
+                    errorNanos >= minLatencyNanos && errorNanos <= 2 * minLatencyNanos);
+        }
+    }
+
+    public void testOffsetEstimatorLateFrameBarelyMovesEstimate() {
+        TriggerServer.OffsetEstimator estimator = new TriggerServer.OffsetEstimator();
+        long secondNanos = TimeUnit.SECONDS.toNanos(1);
+        long offsetNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        estimator.update(secondNanos, secondNanos - offsetNanos);
+
+        // A frame delayed by 50ms, a second later.
+        long lateNanos = TimeUnit.MILLISECONDS.toNanos(50);
+        long estimateNanos = estimator.update(2 * secondNanos, 2 * secondNanos - offsetNanos
+                - lateNanos);
+        assertEquals(offsetNanos + secondNanos * TriggerServer.MAX_DRIFT_PPM / 1000000,
+                estimateNanos);
+    }
+
+    @LargeTest
+    public void testLoadAt10kCommandsPerSecond() throws Exception {
+        int commandsPerSecond = 10000;
+        int count = 2 * commandsPerSecond;
+        // Commands are sent in batches every millisecond.
+        int batchSize = commandsPerSecond / 1000;
+        expectCommands(count);
+
+        ByteBuffer batch = ByteBuffer.allocate(TriggerServer.FRAME_SIZE * batchSize);
+        long[] sentNanos = new long[count];
+        long startNanos = mTimeSource.elapsedRealtimeNanos();
+        for (int sent = 0; sent < count; sent += batchSize) {
+            long batchNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(sent / batchSize);
+            while (mTimeSource.elapsedRealtimeNanos() < batchNanos) {
+                Thread.yield();
+            }
+            batch.clear();
+            for (int i = 0; i < batchSize; ++i) {
+                sentNanos[sent + i] = mTimeSource.elapsedRealtimeNanos();
+                batch.put((byte) TriggerServer.COMMAND_FINISH).putLong(sentNanos[sent + i]);
+            }
+            batch.flip();
+            write(batch);
+        }
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+
+        long[] latencyNanos = new long[count];
+        for (int i = 0; i < count; ++i) {
+            assertEquals(TriggerServer.COMMAND_FINISH, mCommands[i]);
+            // Compensated down to the lowest latency seen.
+            assertTrue(mCommandNanos[i] >= sentNanos[i]);
+            latencyNanos[i] = mReceivedNanos[i] - sentNanos[i];
+        }
+        Arrays.sort(latencyNanos);
+        long p50Micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos[count / 2]);
+        long p99Micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos[count * 99 / 100]);
+        Log.i(TAG, "Command latency: p50 " + p50Micros + "us, p90 "
+                + TimeUnit.NANOSECONDS.toMicros(latencyNanos[count * 9 / 10]) + "us, p99 "
+                + p99Micros + "us, max "
+                + TimeUnit.NANOSECONDS.toMicros(latencyNanos[count - 1]) + "us");
+        assertTrue("p99 latency: " + p99Micros + "us", p99Micros < 20000);
+    }
+
+    private void expectCommands(int count) {
+        mCommands = new int[count];
+        mCommandNanos = new long[count];
+        mReceivedNanos = new long[count];
+        mCommandCount = 0;
+        mLatch = new CountDownLatch(count);
+    }
+
+    private void sendCommand(int command, long senderNanos) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(TriggerServer.FRAME_SIZE);
+        frame.put((byte) command).putLong(senderNanos);
+        frame.flip();
+        write(frame);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mClient.write(buffer);
+        }
+    }
+}
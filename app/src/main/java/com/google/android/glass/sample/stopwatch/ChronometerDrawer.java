@@ -18,13 +18,23 @@ package com.google.android.glass.sample.stopwatch;
 
 import com.google.android.glass.timeline.DirectRenderingCallback;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
 import android.graphics.Canvas;
-import android.os.SystemClock;
+import android.graphics.Rect;
+import android.os.AsyncTask;
+import android.os.Handler;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.View;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
 /**
  * {@link DirectRenderingCallback} used to draw the chronometer on the timeline {@link LiveCard}.
  * Rendering requires that:
@@ -39,32 +49,86 @@ import android.view.View;
  * {@link Canvas}, monitoring the
  * {@link SurfaceHolder.Callback#onSurfaceChanged(SurfaceHolder, int, int, int)} callback is also
  * required to properly measure and layout the {@link View}'s dimension.
+ *
+ * The {@link ChronometerView} reuses its cached layouts when the surface dimensions change back,
+ * and only the components it reports dirty are drawn again, in the previous frame's buffer.
+ *
+ * The time spent drawing each chronometer frame is tracked to predict when the next frame is
+ * presented, the {@link ChronometerView} samples its value at that time.
+ *
+ * While the {@link LiveCard} isn't visible, the countdown stops ticking and the end of each of its
+ * phases is delivered by a {@link CountDownAlarm} instead, see {@link #onCountDownAlarm()}.
+ *
+ * The digits of the countdown and the chronometer's separators are prerendered once in a
+ * {@link GlyphAtlas}, saved for the surface's dimensions, the screen density and the APK: the
+ * next launches load it before the first frame, which then lays out no text. A launch without a
+ * matching atlas draws as usual, and renders and saves one once its first frame is on screen.
+ *
+ * On memory pressure, the resources that can be rebuilt are released in tiers, see
+ * {@link #onTrimMemory(int)}.
  */
 public class ChronometerDrawer implements DirectRenderingCallback {
 
     private static final String TAG = ChronometerDrawer.class.getSimpleName();
-    private static final int COUNT_DOWN_VALUE = 3;
+    private static final String PREFS_NAME = "stopwatch";
+    /** File of the app's cache directory where the {@link GlyphAtlas} is saved. */
+    private static final String GLYPH_ATLAS_FILE = "glyphs.atlas";
+    /** Default countdown duration in seconds. */
+    public static final long COUNT_DOWN_VALUE = 3;
 
-    private final CountDownView mCountDownView;
-    private final ChronometerView mChronometerView;
+    private final Context mContext;
+    private final StartupTrace mStartupTrace;
+    private final Handler mHandler = new Handler();
+
+    /** Countdown, released once done on memory pressure. */
+    private CountDownView mCountDownView;
+    private CountDownAlarm mCountDownAlarm;
+    private SessionHistory mSessionHistory;
+    private EventTrace mEventTrace;
+    private StallWatchdog mStallWatchdog;
+    private ChronometerView mChronometerView;
+    /** Prerendered glyphs, released with the countdown on memory pressure. */
+    private GlyphAtlas mGlyphAtlas;
+    /** Key of the configuration {@link #mGlyphAtlas} is for, or should be rendered for. */
+    private long mGlyphAtlasKey;
+    private TimeSource mTimeSource = TimeSource.SYSTEM;
+    private final FrameRateController mFrameRateController = new FrameRateController();
+    private final SessionMetrics mSessionMetrics = new SessionMetrics();
+    private MetricsLog mMetricsLog;
+    /** Start of the current session, as returned by {@link System#currentTimeMillis()}. */
+    private long mSessionStartMillis;
 
     private SurfaceHolder mHolder;
+    /** Last view drawn on the current surface, {@code null} if its content is unknown. */
+    private View mLastDrawnView;
+    private final Rect mDirtyRect = new Rect();
     private boolean mCountDownDone;
     private boolean mRenderingPaused;
+    private boolean mFirstFrameDrawn;
+    private boolean mMetricsFirstFrameReported;
+
+    private int mWidthMeasureSpec;
+    private int mHeightMeasureSpec;
+    private int mWidth;
+    private int mHeight;
+    private boolean mMeasured;
 
     private final CountDownView.Listener mCountDownListener = new CountDownView.Listener() {
 
         @Override
         public void onTick(long millisUntilFinish) {
+            mSessionMetrics.onWakeup();
             if (mHolder != null) {
-                draw(mCountDownView);
+                draw(mCountDownView, null);
             }
         }
 
         @Override
         public void onFinish() {
             mCountDownDone = true;
-            mChronometerView.setBaseMillis(SystemClock.elapsedRealtime());
+            // Start from the countdown's end rather than from this possibly late callback.
+            getChronometerView().setBaseNanos(mCountDownView.getStopTimeNanos());
+            mSessionStartMillis = toCurrentTimeMillis(mCountDownView.getStopTimeNanos());
             updateRenderingState();
         }
     };
@@ -74,41 +138,107 @@ public class ChronometerDrawer implements DirectRenderingCallback {
         @Override
         public void onChange() {
             if (mHolder != null) {
-                draw(mChronometerView);
+                long startNanos = mTimeSource.elapsedRealtimeNanos();
+                // Commands such as lap() also update the view; only its ticks are paced.
+                boolean tick = mChronometerView.isTicking();
+                if (tick) {
+                    mSessionMetrics.onTick(startNanos, mFrameRateController.getDelayMillis());
+                }
+                boolean partial = mChronometerView.getDirtyRect(mDirtyRect)
+                        && mLastDrawnView == mChronometerView;
+                if (!partial) {
+                    draw(mChronometerView, null);
+                } else if (!mDirtyRect.isEmpty()) {
+                    draw(mChronometerView, mDirtyRect);
+                } else {
+                    // Nothing changed, e.g. centiseconds hidden.
+                    return;
+                }
+                long drawNanos = mTimeSource.elapsedRealtimeNanos() - startNanos;
+                if (tick) {
+                    mSessionMetrics.onFrameDrawn(drawNanos);
+                }
+                onFrameDrawn(drawNanos);
             }
         }
     };
 
-    public ChronometerDrawer(Context context) {
-        this(new CountDownView(context), new ChronometerView(context));
+    private final Runnable mRenderGlyphAtlasRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            renderGlyphAtlas();
+        }
+    };
+
+    private final Runnable mInflateChronometerRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            getChronometerView();
+        }
+    };
+
+    /**
+     * Creates a {@link ChronometerDrawer} only inflating the {@link CountDownView} upfront: the
+     * {@link ChronometerView} is inflated once the first countdown frame has been drawn.
+     */
+    public ChronometerDrawer(Context context, StartupTrace startupTrace, IntervalProgram program) {
+        this(context, startupTrace, new CountDownView(context), null, program);
+        mCountDownAlarm = new CountDownAlarm(context);
     }
 
     public ChronometerDrawer(CountDownView countDownView, ChronometerView chronometerView) {
+        this(null, new StartupTrace(), countDownView, chronometerView,
+                IntervalProgram.countDown(COUNT_DOWN_VALUE));
+    }
+
+    private ChronometerDrawer(Context context, StartupTrace startupTrace,
+            CountDownView countDownView, ChronometerView chronometerView, IntervalProgram program) {
+        mContext = context;
+        mStartupTrace = startupTrace;
+
         mCountDownView = countDownView;
-        mCountDownView.setCountDown(COUNT_DOWN_VALUE);
+        mCountDownView.setProgram(program);
         mCountDownView.setListener(mCountDownListener);
 
-        mChronometerView = chronometerView;
-        mChronometerView.setListener(mChronometerListener);
+        if (chronometerView != null) {
+            setChronometerView(chronometerView);
+        }
     }
 
     /**
      * Uses the provided {@code width} and {@code height} to measure and layout the inflated
-     * {@link CountDownView} and {@link ChronometerView}.
+     * {@link CountDownView} and {@link ChronometerView}. Dimensions identical to the previous call
+     * reuse the current measure and layout.
      */
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        record(EventTrace.SURFACE_CHANGED, EventTrace.sizeArg(width, height));
+        mLastDrawnView = null;
         // Measure and layout the view with the canvas dimensions.
         int measuredWidth = View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY);
         int measuredHeight = View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY);
 
-        mCountDownView.measure(measuredWidth, measuredHeight);
-        mCountDownView.layout(
-                0, 0, mCountDownView.getMeasuredWidth(), mCountDownView.getMeasuredHeight());
+        if (mMeasured && measuredWidth == mWidthMeasureSpec
+                && measuredHeight == mHeightMeasureSpec) {
+            drawIfPaused();
+            return;
+        }
+        mWidthMeasureSpec = measuredWidth;
+        mHeightMeasureSpec = measuredHeight;
+        mWidth = width;
+        mHeight = height;
+        mMeasured = true;
 
-        mChronometerView.measure(measuredWidth, measuredHeight);
-        mChronometerView.layout(
-                0, 0, mChronometerView.getMeasuredWidth(), mChronometerView.getMeasuredHeight());
+        if (mCountDownView != null) {
+            loadGlyphAtlas();
+            measureAndLayout(mCountDownView);
+        }
+        if (mChronometerView != null) {
+            measureAndLayout(mChronometerView);
+        }
+        drawIfPaused();
     }
 
     /**
@@ -116,9 +246,12 @@ public class ChronometerDrawer implements DirectRenderingCallback {
      */
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
+        record(EventTrace.SURFACE_CREATED, 0);
+        mStartupTrace.mark(StartupTrace.SURFACE_CREATED);
         // The creation of a new Surface implicitly resumes the rendering.
         mRenderingPaused = false;
         mHolder = holder;
+        mLastDrawnView = null;
         updateRenderingState();
     }
 
@@ -127,6 +260,7 @@ public class ChronometerDrawer implements DirectRenderingCallback {
      */
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
+        record(EventTrace.SURFACE_DESTROYED, 0);
         mHolder = null;
         updateRenderingState();
     }
@@ -136,32 +270,556 @@ public class ChronometerDrawer implements DirectRenderingCallback {
      */
     @Override
     public void renderingPaused(SurfaceHolder holder, boolean paused) {
+        record(EventTrace.RENDERING_PAUSED, paused ? 1 : 0);
         mRenderingPaused = paused;
         updateRenderingState();
     }
 
+    /**
+     * Sets the {@link TimeSource} used by the countdown and the chronometer.
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        mTimeSource = timeSource;
+        if (mCountDownView != null) {
+            mCountDownView.setTimeSource(timeSource);
+        }
+        if (mChronometerView != null) {
+            mChronometerView.setTimeSource(timeSource);
+        }
+    }
+
+    /**
+     * Sets the {@link CountDownAlarm} used while the countdown isn't visible, visible for testing.
+     */
+    void setCountDownAlarm(CountDownAlarm countDownAlarm) {
+        mCountDownAlarm = countDownAlarm;
+    }
+
+    /**
+     * Sets the {@link SessionHistory} each session is added to when it ends.
+     */
+    public void setSessionHistory(SessionHistory sessionHistory) {
+        mSessionHistory = sessionHistory;
+    }
+
+    /**
+     * Sets the {@link EventTrace} recording the events driving this drawer, {@code null} to stop
+     * recording.
+     */
+    public void setEventTrace(EventTrace eventTrace) {
+        mEventTrace = eventTrace;
+    }
+
+    /**
+     * Sets the {@link MetricsLog} the metrics of each session are appended to when it ends.
+     */
+    public void setMetricsLog(MetricsLog metricsLog) {
+        mMetricsLog = metricsLog;
+    }
+
+    /**
+     * Sets the {@link StallWatchdog} notified of the views' ticks, {@code null} for none.
+     */
+    public void setStallWatchdog(StallWatchdog stallWatchdog) {
+        mStallWatchdog = stallWatchdog;
+        if (mCountDownView != null) {
+            mCountDownView.setStallWatchdog(stallWatchdog);
+        }
+        if (mChronometerView != null) {
+            mChronometerView.setStallWatchdog(stallWatchdog);
+        }
+    }
+
+    /**
+     * Marks the end of the hidden countdown's phase when its {@link CountDownAlarm} goes off and
+     * schedules the next one, or finishes the countdown after its last phase. No-op if the
+     * countdown is visible as it then goes on on its own.
+     */
+    public void onCountDownAlarm() {
+        record(EventTrace.COUNT_DOWN_ALARM, 0);
+        if (!mCountDownDone && !mCountDownView.isRunning()) {
+            if (mCountDownView.playPhaseEnd()) {
+                if (mCountDownAlarm != null) {
+                    mCountDownAlarm.schedule(mCountDownView.getNextPhaseEndNanos());
+                }
+            } else {
+                mCountDownView.finish();
+            }
+        }
+    }
+
+    /**
+     * Releases the resources rebuilt on demand, more of them as {@code level} rises:
+     * <ul>
+     * <li>from {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_MODERATE}, the countdown once done,
+     *     along with its program, sound schedule and {@link GlyphAtlas}, as it is never drawn
+     *     again;
+     * <li>from {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL} and while not rendering,
+     *     the {@link ChronometerView}'s buffers, grown again on the next laps.
+     * </ul>
+     */
+    public void onTrimMemory(int level) {
+        record(EventTrace.TRIM_MEMORY, level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE && mCountDownDone
+                && mCountDownView != null) {
+            mCountDownView.setListener(null);
+            mCountDownView = null;
+            // The chronometer's separators keep their own reference.
+            mGlyphAtlas = null;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL && mChronometerView != null
+                && (mHolder == null || mRenderingPaused)) {
+            mChronometerView.trimMemory();
+        }
+    }
+
+    /**
+     * Returns whether or not the countdown view is still held, visible for testing.
+     */
+    boolean hasCountDownView() {
+        return mCountDownView != null;
+    }
+
+    /**
+     * Returns the metrics of the current session, visible for testing.
+     */
+    SessionMetrics getSessionMetrics() {
+        return mSessionMetrics;
+    }
+
+    /**
+     * Prints the state of the stopwatch and of the resources it holds.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Stopwatch:");
+        writer.println("  state: " + (!mCountDownDone ? "countdown"
+                : isPaused() ? "paused" : "started"));
+        if (mCountDownView != null) {
+            writer.println("  countdown view: " + mCountDownView.getProgram().getPhaseCount()
+                    + " phases");
+        } else {
+            writer.println("  countdown view: released");
+        }
+        writer.println("  glyph atlas: " + (mGlyphAtlas != null
+                ? (mGlyphAtlas.getByteCount() / 1024) + "kB" : "none"));
+        if (mChronometerView != null) {
+            writer.println("  chronometer view: " + mChronometerView.getLapCount() + " laps, "
+                    + mChronometerView.getLapCapacity() + " buffered");
+            writer.println("  frame rate: level " + mFrameRateController.getLevel() + ", "
+                    + mFrameRateController.getDelayMillis() + "ms, "
+                    + mFrameRateController.getTransitionCount() + " transitions, average draw "
+                    + TimeUnit.NANOSECONDS.toMicros(mFrameRateController.getAverageDrawNanos())
+                    + "us");
+            writer.println("  session metrics: " + mSessionMetrics.getFramesDrawn() + " frames, "
+                    + mSessionMetrics.getFramesSkipped() + " skipped, jitter p99 "
+                    + mSessionMetrics.getJitterMicros().getPercentile(99) + "us, "
+                    + mSessionMetrics.getWakeups() + " wakeups");
+        } else {
+            writer.println("  chronometer view: not inflated");
+        }
+    }
+
+    /**
+     * Prints the memory held by this stopwatch's own buffers and tables, in bytes.
+     */
+    public void dumpFootprint(PrintWriter writer) {
+        long lapBytes = 0;
+        if (mChronometerView != null) {
+            // The lap times are longs.
+            lapBytes = mChronometerView.getLapCapacity() * 8L;
+            writer.println("  lap buffer: " + lapBytes + "B, "
+                    + mChronometerView.getLapCapacity() + " laps");
+        }
+        long countDownBytes = 0;
+        if (mCountDownView != null) {
+            countDownBytes = mCountDownView.getTableByteCount();
+            writer.println("  countdown tables: " + countDownBytes + "B, "
+                    + mCountDownView.getProgram().getPhaseCount() + " phases");
+        }
+        long atlasBytes = mGlyphAtlas != null ? mGlyphAtlas.getByteCount() : 0;
+        writer.println("  glyph atlas: " + atlasBytes + "B");
+        writer.println("  total: " + (lapBytes + countDownBytes + atlasBytes) + "B");
+    }
+
+    /**
+     * Returns whether or not the countdown is done and the chronometer started.
+     */
+    public boolean isStarted() {
+        return mCountDownDone;
+    }
+
+    /**
+     * Returns whether or not the chronometer is paused.
+     */
+    public boolean isPaused() {
+        return mChronometerView != null && mChronometerView.isPaused();
+    }
+
+    /**
+     * Returns the chronometer's value at {@code whenNanos}, 0 while the countdown is running.
+     */
+    public long getElapsedNanos(long whenNanos) {
+        return mCountDownDone ? Math.max(0, getChronometerView().getElapsedNanos(whenNanos)) : 0;
+    }
+
+    /**
+     * Returns the chronometer's value at {@code whenNanos} as it was then, see
+     * {@link ChronometerView#getElapsedNanosAt(long)}. 0 while the countdown is running.
+     */
+    public long getElapsedNanosAt(long whenNanos) {
+        return mCountDownDone
+                ? Math.max(0, getChronometerView().getElapsedNanosAt(whenNanos)) : 0;
+    }
+
+    /**
+     * Returns the number of laps recorded in the current session.
+     */
+    public int getLapCount() {
+        return mChronometerView != null ? mChronometerView.getLapCount() : 0;
+    }
+
+    /**
+     * Returns the chronometer's value at the lap at {@code index}, see
+     * {@link ChronometerView#getLapNanos(int)}.
+     */
+    public long getLapNanos(int index) {
+        return getChronometerView().getLapNanos(index);
+    }
+
+    /**
+     * Pauses the chronometer at {@code whenNanos}, no-op while the countdown is running.
+     */
+    public void pause(long whenNanos) {
+        recordCommand(EventTrace.PAUSE, whenNanos);
+        if (mCountDownDone) {
+            getChronometerView().pause(whenNanos);
+            mSessionMetrics.onTicksStopped();
+        }
+    }
+
+    /**
+     * Resumes the chronometer at {@code whenNanos}, no-op while the countdown is running.
+     */
+    public void resume(long whenNanos) {
+        recordCommand(EventTrace.RESUME, whenNanos);
+        if (mCountDownDone) {
+            getChronometerView().resume(whenNanos);
+        }
+    }
+
+    /**
+     * Records a lap at {@code whenNanos}, no-op while the countdown is running.
+     */
+    public void lap(long whenNanos) {
+        recordCommand(EventTrace.LAP, whenNanos);
+        if (mCountDownDone) {
+            getChronometerView().lap(whenNanos);
+        }
+    }
+
+    /**
+     * Resets the chronometer at {@code whenNanos}, no-op while the countdown is running. The
+     * session ends and a new one starts.
+     */
+    public void reset(long whenNanos) {
+        recordCommand(EventTrace.RESET, whenNanos);
+        if (mCountDownDone) {
+            addSession(whenNanos);
+            getChronometerView().reset(whenNanos);
+            mSessionStartMillis = toCurrentTimeMillis(whenNanos);
+        }
+    }
+
+    /**
+     * Ends the current session at {@code whenNanos}: it is added to the {@link SessionHistory} and
+     * becomes the reference run if it beats it. Cancels the countdown and its sounds if not done.
+     */
+    public void endSession(long whenNanos) {
+        recordCommand(EventTrace.END_SESSION, whenNanos);
+        if (mCountDownDone) {
+            addSession(whenNanos);
+        } else if (mCountDownView != null) {
+            mCountDownView.cancel();
+        }
+    }
+
+    /**
+     * Adds the current session ending at {@code whenNanos} to the {@link SessionHistory} and
+     * keeps it as the best run if it is.
+     */
+    private void addSession(long whenNanos) {
+        long[] splitsNanos = getSplitsNanos();
+        long durationNanos = getElapsedNanos(whenNanos);
+        if (mSessionHistory != null && durationNanos > 0) {
+            mSessionHistory.add(
+                    new SessionHistory.Session(mSessionStartMillis, durationNanos, splitsNanos));
+        }
+        saveBestRun(splitsNanos);
+        appendMetrics(durationNanos);
+    }
+
+    /**
+     * Appends the metrics of the session lasting {@code durationNanos} to the {@link MetricsLog},
+     * and starts collecting the next session's.
+     */
+    private void appendMetrics(long durationNanos) {
+        if (mMetricsLog != null && durationNanos > 0) {
+            // The time to the first frame only applies to the first session.
+            int firstFrameMillis = mMetricsFirstFrameReported ? -1
+                    : (int) mStartupTrace.getElapsedMillis(StartupTrace.FIRST_FRAME_DRAWN);
+            mMetricsFirstFrameReported = true;
+            // Opening the next file touches the disk, left to the log's writer thread.
+            mMetricsLog.appendSoon(mSessionMetrics.toRecord(mSessionStartMillis,
+                    TimeUnit.NANOSECONDS.toMillis(durationNanos), firstFrameMillis));
+        }
+        mSessionMetrics.reset();
+    }
+
+    /**
+     * Makes the run with the provided lap times the reference run shown by the
+     * {@link ChronometerView} if it beats the current one, and saves it.
+     */
+    private void saveBestRun(long[] splitsNanos) {
+        int lapCount = splitsNanos.length;
+        if (lapCount == 0) {
+            return;
+        }
+        GhostPace ghostPace = mChronometerView.getGhostPace();
+        if (ghostPace == null || ghostPace.isBeatenBy(splitsNanos, lapCount)) {
+            ghostPace = new GhostPace(splitsNanos);
+            mChronometerView.setGhostPace(ghostPace);
+            if (mContext != null) {
+                ghostPace.save(mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+            }
+        }
+    }
+
+    /**
+     * Returns the lap times of the current run.
+     */
+    private long[] getSplitsNanos() {
+        int lapCount = mChronometerView != null ? mChronometerView.getLapCount() : 0;
+        long[] splitsNanos = new long[lapCount];
+        for (int i = 0; i < lapCount; ++i) {
+            splitsNanos[i] = mChronometerView.getLapNanos(i);
+        }
+        return splitsNanos;
+    }
+
+    /**
+     * Draws the next frame of the visible view at the current time, as its own tick would, no-op
+     * while not rendering or paused, as nothing ticks then. Visible for replaying an
+     * {@link EventTrace}, whose virtual time never runs the views' ticks.
+     */
+    void renderFrame() {
+        if (mHolder == null || mRenderingPaused || isPaused()) {
+            return;
+        }
+        if (!mCountDownDone) {
+            if (mCountDownView.isRunning()) {
+                mCountDownView.updateView();
+            }
+        } else {
+            getChronometerView().updateText();
+        }
+    }
+
+    private void record(int event, long arg) {
+        if (mEventTrace != null) {
+            mEventTrace.record(event, mTimeSource.elapsedRealtimeNanos(), arg);
+        }
+    }
+
+    /**
+     * Records a command for {@code whenNanos}, along with how late it is delivered.
+     */
+    private void recordCommand(int event, long whenNanos) {
+        if (mEventTrace != null) {
+            long nowNanos = mTimeSource.elapsedRealtimeNanos();
+            mEventTrace.record(event, nowNanos, nowNanos - whenNanos);
+        }
+    }
+
+    /**
+     * Converts {@code whenNanos} from the {@link TimeSource} to the wall clock.
+     */
+    private long toCurrentTimeMillis(long whenNanos) {
+        return System.currentTimeMillis()
+                - TimeUnit.NANOSECONDS.toMillis(mTimeSource.elapsedRealtimeNanos() - whenNanos);
+    }
+
     /**
      * Starts or stops rendering according to the {@link LiveCard}'s state.
      */
     private void updateRenderingState() {
         if (mHolder != null && !mRenderingPaused) {
             if (mCountDownDone) {
-                mChronometerView.start();
+                getChronometerView().start();
+                drawIfPaused();
             } else {
+                if (mCountDownAlarm != null) {
+                    mCountDownAlarm.cancel();
+                }
                 mCountDownView.start();
             }
         } else {
-            mChronometerView.stop();
+            if (mChronometerView != null) {
+                mChronometerView.stop();
+                mSessionMetrics.onTicksStopped();
+            }
+            if (!mCountDownDone && mCountDownView.isStarted()) {
+                // Hand the phases' ends over to an alarm rather than ticking off screen.
+                mCountDownView.stop();
+                if (mCountDownAlarm != null) {
+                    mCountDownAlarm.schedule(mCountDownView.getNextPhaseEndNanos());
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the paused chronometer's last frame, on a new surface or after a change: no tick
+     * draws it while paused.
+     */
+    private void drawIfPaused() {
+        if (mHolder != null && !mRenderingPaused && mCountDownDone && isPaused()) {
+            draw(mChronometerView, null);
+        }
+    }
+
+    /**
+     * Returns the {@link ChronometerView}, inflating it first if needed.
+     */
+    private ChronometerView getChronometerView() {
+        if (mChronometerView == null) {
+            mHandler.removeCallbacks(mInflateChronometerRunnable);
+            setChronometerView(new ChronometerView(mContext, mGlyphAtlas));
+            mChronometerView.setGhostPace(GhostPace.load(
+                    mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)));
+            mStartupTrace.mark(StartupTrace.CHRONOMETER_INFLATED);
+        }
+        return mChronometerView;
+    }
+
+    private void setChronometerView(ChronometerView chronometerView) {
+        mChronometerView = chronometerView;
+        mChronometerView.setListener(mChronometerListener);
+        mChronometerView.setStallWatchdog(mStallWatchdog);
+        if (mChronometerView.getTimeSource() != mTimeSource) {
+            mChronometerView.setTimeSource(mTimeSource);
+        }
+        applyFrameRate();
+        if (mMeasured) {
+            measureAndLayout(mChronometerView);
+        }
+    }
+
+    /**
+     * Loads the {@link GlyphAtlas} saved for the current surface dimensions into the countdown,
+     * if any, before its first frame.
+     */
+    private void loadGlyphAtlas() {
+        if (mContext == null || mCountDownDone) {
+            return;
+        }
+        long key = LayoutCache.key(mWidth, mHeight,
+                mContext.getResources().getDisplayMetrics().densityDpi);
+        if (mGlyphAtlas != null && key == mGlyphAtlasKey) {
+            return;
+        }
+        mGlyphAtlasKey = key;
+        mGlyphAtlas = null;
+        File file = new File(mContext.getCacheDir(), GLYPH_ATLAS_FILE);
+        try {
+            mGlyphAtlas = GlyphAtlas.load(file, key, getApkVersion());
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to load the glyph atlas: " + e);
+            file.delete();
+        }
+        mCountDownView.setGlyphAtlas(mGlyphAtlas);
+    }
+
+    /**
+     * Renders the {@link GlyphAtlas} for the current surface dimensions, and saves it in the
+     * background for the next launches.
+     */
+    private void renderGlyphAtlas() {
+        if (mCountDownView == null || mGlyphAtlas != null) {
+            return;
+        }
+        Resources resources = mContext.getResources();
+        final GlyphAtlas glyphAtlas = GlyphAtlas.render(mCountDownView.getSecondsPaint(),
+                resources.getDrawable(R.drawable.ic_colon),
+                resources.getDrawable(R.drawable.ic_interpunc));
+        // Only used by the chronometer from now on, the countdown's frames stay consistent.
+        mGlyphAtlas = glyphAtlas;
+        final File file = new File(mContext.getCacheDir(), GLYPH_ATLAS_FILE);
+        final long key = mGlyphAtlasKey;
+        final long apkVersion = getApkVersion();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    glyphAtlas.save(file, key, apkVersion);
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to save the glyph atlas: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the version of the installed APK, changed by every update or reinstall so that the
+     * saved {@link GlyphAtlas} is rendered again from the new resources.
+     */
+    private long getApkVersion() {
+        try {
+            return mContext.getPackageManager()
+                    .getPackageInfo(mContext.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
         }
     }
 
     /**
-     * Draws the view in the SurfaceHolder's canvas.
+     * Measures and lays out the {@code view} with the last known surface dimensions, the
+     * {@link ChronometerView} uses its cached layouts.
      */
-    private void draw(View view) {
+    private void measureAndLayout(View view) {
+        if (view == mChronometerView) {
+            mChronometerView.layoutFor(mWidth, mHeight);
+            return;
+        }
+        view.measure(mWidthMeasureSpec, mHeightMeasureSpec);
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    }
+
+    /**
+     * Adapts the chronometer's update rate to the cost of its frames, and updates the predicted
+     * delay between sampling its value and presenting the frame: the draw itself, then one
+     * refresh.
+     */
+    private void onFrameDrawn(long drawNanos) {
+        if (mFrameRateController.onFrameDrawn(drawNanos)) {
+            applyFrameRate();
+        }
+        mChronometerView.setPresentLatencyNanos(mFrameRateController.getAverageDrawNanos()
+                + ChronometerView.DEFAULT_PRESENT_LATENCY_NANOS);
+    }
+
+    private void applyFrameRate() {
+        mChronometerView.setUpdateDelayMillis(mFrameRateController.getDelayMillis());
+        mChronometerView.setCentisecondsShown(mFrameRateController.isCentisecondsShown());
+    }
+
+    /**
+     * Draws the view in the SurfaceHolder's canvas, only within {@code dirty} if not {@code null}.
+     */
+    private void draw(View view, Rect dirty) {
         Canvas canvas;
         try {
-            canvas = mHolder.lockCanvas();
+            canvas = dirty != null ? mHolder.lockCanvas(dirty) : mHolder.lockCanvas();
         } catch (Exception e) {
             Log.e(TAG, "Unable to lock canvas: " + e);
             return;
@@ -169,6 +827,28 @@ public class ChronometerDrawer implements DirectRenderingCallback {
         if (canvas != null) {
             view.draw(canvas);
             mHolder.unlockCanvasAndPost(canvas);
+            mLastDrawnView = view;
+            if (!mFirstFrameDrawn) {
+                onFirstFrameDrawn();
+            }
+        }
+    }
+
+    /**
+     * Reports the startup timings and schedules the deferred initialization now that the first
+     * frame is on screen.
+     */
+    private void onFirstFrameDrawn() {
+        mFirstFrameDrawn = true;
+        mStartupTrace.mark(StartupTrace.FIRST_FRAME_DRAWN);
+        Log.i(TAG, "Time to first frame: "
+                + mStartupTrace.getElapsedMillis(StartupTrace.FIRST_FRAME_DRAWN) + "ms");
+        if (mGlyphAtlas == null && mGlyphAtlasKey != 0) {
+            mHandler.post(mRenderGlyphAtlasRunnable);
+        }
+        if (mChronometerView == null) {
+            // Inflate the chronometer between two countdown frames rather than before the first.
+            mHandler.post(mInflateChronometerRunnable);
         }
     }
 }
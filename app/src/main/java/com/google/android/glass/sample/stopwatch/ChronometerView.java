@@ -17,18 +17,43 @@
 package com.google.android.glass.sample.stopwatch;
 
 import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
 import android.os.Handler;
-import android.os.SystemClock;
+import android.text.TextPaint;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewParent;
 import android.widget.FrameLayout;
+import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 /**
  * View used to display draw a running Chronometer.
  *
+ * The chronometer is displayed as MM:SS.cc for the first hour, H:MM:SS for the first day and
+ * D:HH:MM afterwards. The view is laid out again only when the format or the number of leading
+ * digits changes, reusing the layouts already computed for the same dimensions from a
+ * {@link LayoutCache}. The bounds of the components changed by each update are tracked so that
+ * only those are drawn again, see {@link #getDirtyRect(Rect)}.
+ *
+ * All the timings are kept in nanoseconds from a {@link TimeSource}. The displayed value is sampled
+ * at the time the frame is predicted to be presented rather than at the time it is drawn.
+ *
+ * The base and pause times set by each command are kept along with the time the command was
+ * issued, so that a past time can be mapped to the value the chronometer showed then, see
+ * {@link #getElapsedNanosAt(long)}.
+ *
+ * When a {@link GhostPace} is set, the delta against the reference run is shown below the
+ * chronometer. It is formatted in a reused buffer when its displayed value changes, and drawn from
+ * it over its view's bounds rather than set as the view's text, which would be copied, so that it
+ * doesn't allocate nor lay out the view again.
+ *
  * This code is greatly inspired by the Android's Chronometer widget.
  */
 public class ChronometerView extends FrameLayout {
@@ -44,18 +69,88 @@ public class ChronometerView extends FrameLayout {
     /** About 24 FPS, visible for testing. */
     static final long DELAY_MILLIS = 41;
 
-    private final TextView mMinutesView;
-    private final TextView mSecondsView;
-    private final TextView mCentiSecondsView;
+    /** Default delay between drawing a frame and its presentation, one 60Hz refresh. */
+    static final long DEFAULT_PRESENT_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    /** Longest delta: sign, 19 digits of seconds, 2 of centiseconds and separators. */
+    private static final int MAX_DELTA_LENGTH = 1 + 19 + 3 + 3;
+
+    /** Number of layouts kept, e.g. a few formats and digit counts for two surface sizes. */
+    private static final int LAYOUT_CACHE_CAPACITY = 8;
+
+    /** Components whose changes are tracked: the three values, then the delta. */
+    private static final int COMPONENT_COUNT = 4;
+    private static final int GHOST_COMPONENT = 3;
+
+    /** Initial capacity of the lap times buffer, grown as needed. */
+    private static final int INITIAL_LAP_CAPACITY = 16;
+    /** Initial capacity of the state history, grown as needed. */
+    private static final int INITIAL_HISTORY_CAPACITY = 8;
+    /** Pause time of the states in the history that aren't paused. */
+    private static final long NOT_PAUSED = Long.MIN_VALUE;
+
+    // Display formats, visible for testing.
+    static final int FORMAT_MINUTES = 0;
+    static final int FORMAT_HOURS = 1;
+    static final int FORMAT_DAYS = 2;
+
+    private static final long HOUR_NANOS = TimeUnit.HOURS.toNanos(1);
+    private static final long DAY_NANOS = TimeUnit.DAYS.toNanos(1);
+    private static final long CENTI_SECOND_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** Number of values for which the displayed text is cached. */
+    private static final int CACHED_VALUES = 100;
+    private static final String[] PADDED_VALUES = new String[CACHED_VALUES];
+    private static final String[] VALUES = new String[CACHED_VALUES];
+
+    static {
+        for (int i = 0; i < CACHED_VALUES; ++i) {
+            PADDED_VALUES[i] = String.format("%02d", i);
+            VALUES[i] = Integer.toString(i);
+        }
+    }
+
+    // Components from left to right: minutes, seconds and centiseconds in FORMAT_MINUTES.
+    private final TextView mLeftView;
+    private final TextView mMiddleView;
+    private final TextView mRightView;
+    private final ImageView mRightSeparatorView;
+    /** Separators drawn from the glyph atlas if any, swapped in the right separator's view. */
+    private final Drawable mColonDrawable;
+    private final Drawable mInterpuncDrawable;
+    private final TextView mGhostView;
+
+    private GhostPace mGhostPace;
+    /** Suffix of the delta, and the buffer it is formatted in. */
+    private final char[] mGhostSuffix;
+    private final char[] mGhostText;
+    private int mGhostTextLength;
+    private long mDisplayedDeltaCentis = Long.MIN_VALUE;
+
+    /** Value displayed by each component, -1 if unknown. */
+    private final long[] mDisplayedValues = new long[3];
+    private int mFormat = -1;
+    private int mLeftDigits;
+
+    private final LayoutCache mLayoutCache;
+    /** Components, and their bounds in this view as left, top, right and bottom. */
+    private final View[] mComponentViews;
+    private final int[] mComponentBounds = new int[COMPONENT_COUNT * 4];
+    /** Bit mask of the components changed since the last {@link #getDirtyRect(Rect)}. */
+    private int mDirtyComponents;
+    private boolean mLaidOut;
 
     private final Handler mHandler = new Handler();
     private final Runnable mUpdateTextRunnable = new Runnable() {
 
         @Override
         public void run() {
+            if (mStallWatchdog != null) {
+                mStallWatchdog.onTickRun();
+            }
             if (mRunning) {
-                updateText();
-                postDelayed(mUpdateTextRunnable, DELAY_MILLIS);
+                tick();
+                scheduleUpdate();
             }
         }
     };
@@ -64,8 +159,31 @@ public class ChronometerView extends FrameLayout {
     private boolean mForceStart;
     private boolean mVisible;
     private boolean mRunning;
+    private boolean mTicking;
+
+    private boolean mPaused;
 
-    private long mBaseMillis;
+    private long mUpdateDelayMillis = DELAY_MILLIS;
+    private boolean mCentisecondsShown = true;
+
+    private TimeSource mTimeSource = TimeSource.SYSTEM;
+    private StallWatchdog mStallWatchdog;
+    private long mPresentLatencyNanos = DEFAULT_PRESENT_LATENCY_NANOS;
+
+    private long mBaseNanos;
+    private long mPauseNanos;
+
+    private long[] mLapNanos = new long[INITIAL_LAP_CAPACITY];
+    private int mLapCount;
+
+    /**
+     * Time from which each state applies, with its base and pause times, {@code NOT_PAUSED} if
+     * running. The first state applies from the start.
+     */
+    private long[] mHistoryNanos = new long[INITIAL_HISTORY_CAPACITY];
+    private long[] mHistoryBaseNanos = new long[INITIAL_HISTORY_CAPACITY];
+    private long[] mHistoryPauseNanos = new long[INITIAL_HISTORY_CAPACITY];
+    private int mHistoryCount;
 
     private Listener mChangeListener;
 
@@ -78,29 +196,242 @@ public class ChronometerView extends FrameLayout {
     }
 
     public ChronometerView(Context context, AttributeSet attrs, int style) {
+        this(context, attrs, style, null);
+    }
+
+    /**
+     * Creates a {@link ChronometerView} drawing its separators from {@code glyphAtlas} rather than
+     * decoding their images, if not {@code null}.
+     */
+    public ChronometerView(Context context, GlyphAtlas glyphAtlas) {
+        this(context, null, 0, glyphAtlas);
+    }
+
+    private ChronometerView(Context context, AttributeSet attrs, int style,
+            GlyphAtlas glyphAtlas) {
         super(context, attrs, style);
         LayoutInflater.from(context).inflate(R.layout.card_chronometer, this);
 
-        mMinutesView = (TextView) findViewById(R.id.minute);
-        mSecondsView = (TextView) findViewById(R.id.second);
-        mCentiSecondsView = (TextView) findViewById(R.id.centi_second);
+        mLeftView = (TextView) findViewById(R.id.minute);
+        mMiddleView = (TextView) findViewById(R.id.second);
+        mRightView = (TextView) findViewById(R.id.centi_second);
+        mRightSeparatorView = (ImageView) findViewById(R.id.second_separator);
+        ImageView leftSeparatorView = (ImageView) findViewById(R.id.first_separator);
+        // The right separator is set along with the format, by setBaseNanos below.
+        if (glyphAtlas != null) {
+            mColonDrawable = glyphAtlas.newDrawable(GlyphAtlas.COLON);
+            mInterpuncDrawable = glyphAtlas.newDrawable(GlyphAtlas.INTERPUNC);
+            leftSeparatorView.setImageDrawable(glyphAtlas.newDrawable(GlyphAtlas.COLON));
+        } else {
+            mColonDrawable = null;
+            mInterpuncDrawable = null;
+            leftSeparatorView.setImageResource(R.drawable.ic_colon);
+        }
+        mGhostView = (TextView) findViewById(R.id.ghost_delta);
+        mGhostSuffix = context.getString(R.string.ghost_vs_best).toCharArray();
+        mGhostText = new char[MAX_DELTA_LENGTH + mGhostSuffix.length];
+        mComponentViews = new View[] { mLeftView, mMiddleView, mRightView, mGhostView };
+        mLayoutCache = new LayoutCache(this, LAYOUT_CACHE_CAPACITY);
+
+        setBaseNanos(mTimeSource.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Sets the {@link TimeSource} and resets the chronometer to 0 with its current time.
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        mTimeSource = timeSource;
+        reset(timeSource.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Returns the {@link TimeSource} used by the chronometer.
+     */
+    public TimeSource getTimeSource() {
+        return mTimeSource;
+    }
+
+    /**
+     * Sets the {@link StallWatchdog} notified of the ticks, {@code null} for none.
+     */
+    public void setStallWatchdog(StallWatchdog stallWatchdog) {
+        mStallWatchdog = stallWatchdog;
+    }
+
+    /**
+     * Sets the predicted delay between drawing a frame and its presentation.
+     */
+    public void setPresentLatencyNanos(long presentLatencyNanos) {
+        mPresentLatencyNanos = presentLatencyNanos;
+    }
+
+    /**
+     * Sets the delay between two updates while started, {@link #DELAY_MILLIS} by default.
+     */
+    public void setUpdateDelayMillis(long updateDelayMillis) {
+        mUpdateDelayMillis = updateDelayMillis;
+    }
+
+    /**
+     * Shows or hides the centiseconds, along with their separator. While hidden, the chronometer
+     * only changes once a second below an hour. Applied from the next update.
+     */
+    public void setCentisecondsShown(boolean shown) {
+        mCentisecondsShown = shown;
+    }
+
+    /**
+     * Sets the base value of the chronometer in nanoseconds.
+     */
+    public void setBaseNanos(long baseNanos) {
+        mBaseNanos = baseNanos;
+        // The chronometer starts over, its previous states no longer apply.
+        mHistoryCount = 0;
+        addState(Long.MIN_VALUE);
+        updateText();
+    }
+
+    /**
+     * Gets the base value of the chronometer in nanoseconds.
+     */
+    public long getBaseNanos() {
+        return mBaseNanos;
+    }
+
+    /**
+     * Pauses the chronometer at {@code whenNanos}, time at which the command was issued.
+     */
+    public void pause(long whenNanos) {
+        if (!mPaused) {
+            mPaused = true;
+            mPauseNanos = whenNanos;
+            addState(whenNanos);
+            updateText();
+            // Nothing changes until resumed.
+            if (mRunning) {
+                cancelUpdate();
+            }
+        }
+    }
+
+    /**
+     * Resumes the chronometer at {@code whenNanos}, excluding the paused duration from the
+     * elapsed time.
+     */
+    public void resume(long whenNanos) {
+        if (mPaused) {
+            mBaseNanos += whenNanos - mPauseNanos;
+            mPaused = false;
+            addState(whenNanos);
+            updateText();
+            if (mRunning) {
+                scheduleUpdate();
+            }
+        }
+    }
+
+    /**
+     * Returns whether or not the chronometer is paused.
+     */
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * Records a lap at {@code whenNanos}.
+     */
+    public void lap(long whenNanos) {
+        if (mLapCount == mLapNanos.length) {
+            long[] lapNanos = new long[mLapNanos.length * 2];
+            System.arraycopy(mLapNanos, 0, lapNanos, 0, mLapCount);
+            mLapNanos = lapNanos;
+        }
+        mLapNanos[mLapCount++] = getElapsedNanos(whenNanos);
+        // Show the delta at this lap right away.
+        updateText();
+    }
+
+    /**
+     * Returns the number of recorded laps.
+     */
+    public int getLapCount() {
+        return mLapCount;
+    }
+
+    /**
+     * Returns the elapsed time in nanoseconds at which the lap at {@code index} was recorded.
+     */
+    public long getLapNanos(int index) {
+        if (index < 0 || index >= mLapCount) {
+            throw new IndexOutOfBoundsException("Invalid lap index: " + index);
+        }
+        return mLapNanos[index];
+    }
+
+    /**
+     * Returns the number of laps that can be recorded without growing the buffer, visible for
+     * testing.
+     */
+    int getLapCapacity() {
+        return mLapNanos.length;
+    }
+
+    /**
+     * Releases the buffer space left by the previous runs' laps, it is grown again as needed.
+     */
+    public void trimMemory() {
+        int capacity = Math.max(INITIAL_LAP_CAPACITY, mLapCount);
+        if (mLapNanos.length > capacity) {
+            mLapNanos = Arrays.copyOf(mLapNanos, capacity);
+        }
+    }
 
-        setBaseMillis(getElapsedRealtime());
+    /**
+     * Resets the chronometer to 0 at {@code whenNanos} and clears the recorded laps, keeping the
+     * paused state.
+     */
+    public void reset(long whenNanos) {
+        mBaseNanos = whenNanos;
+        mPauseNanos = whenNanos;
+        mLapCount = 0;
+        addState(whenNanos);
+        updateText();
+    }
+
+    /**
+     * Appends the current base and pause times to the history, applying from {@code whenNanos}.
+     * A command issued before the last one applies from the same time.
+     */
+    private void addState(long whenNanos) {
+        if (mHistoryCount == mHistoryNanos.length) {
+            int length = mHistoryCount * 2;
+            mHistoryNanos = Arrays.copyOf(mHistoryNanos, length);
+            mHistoryBaseNanos = Arrays.copyOf(mHistoryBaseNanos, length);
+            mHistoryPauseNanos = Arrays.copyOf(mHistoryPauseNanos, length);
+        }
+        if (mHistoryCount > 0) {
+            whenNanos = Math.max(whenNanos, mHistoryNanos[mHistoryCount - 1]);
+        }
+        mHistoryNanos[mHistoryCount] = whenNanos;
+        mHistoryBaseNanos[mHistoryCount] = mBaseNanos;
+        mHistoryPauseNanos[mHistoryCount] = mPaused ? mPauseNanos : NOT_PAUSED;
+        ++mHistoryCount;
     }
 
     /**
-     * Sets the base value of the chronometer in milliseconds.
+     * Sets the {@link GhostPace} the current run is compared to, {@code null} to hide the delta.
      */
-    public void setBaseMillis(long baseMillis) {
-        mBaseMillis = baseMillis;
+    public void setGhostPace(GhostPace ghostPace) {
+        mGhostPace = ghostPace;
+        mDisplayedDeltaCentis = Long.MIN_VALUE;
         updateText();
     }
 
     /**
-     * Gets the base value of the chronometer in milliseconds.
+     * Returns the {@link GhostPace} the current run is compared to.
      */
-    public long getBaseMillis() {
-        return mBaseMillis;
+    public GhostPace getGhostPace() {
+        return mGhostPace;
     }
 
     /**
@@ -118,25 +449,42 @@ public class ChronometerView extends FrameLayout {
     }
 
     /**
-     * Starts the chronometer.
+     * Starts the chronometer's updates, only ticking while not paused.
      */
     public void start() {
-        if (!mRunning) {
-            postDelayed(mUpdateTextRunnable, DELAY_MILLIS);
+        if (!mRunning && !mPaused) {
+            scheduleUpdate();
         }
         mRunning = true;
     }
 
     /**
-     * Stops the chronometer.
+     * Stops the chronometer's updates.
      */
     public void stop() {
-        if (mRunning) {
-            removeCallbacks(mUpdateTextRunnable);
+        if (mRunning && !mPaused) {
+            cancelUpdate();
         }
         mRunning = false;
     }
 
+    /**
+     * Schedules the next tick, reporting its deadline to the {@link StallWatchdog}.
+     */
+    private void scheduleUpdate() {
+        postDelayed(mUpdateTextRunnable, mUpdateDelayMillis);
+        if (mStallWatchdog != null) {
+            mStallWatchdog.onTickScheduled(mUpdateDelayMillis);
+        }
+    }
+
+    private void cancelUpdate() {
+        removeCallbacks(mUpdateTextRunnable);
+        if (mStallWatchdog != null) {
+            mStallWatchdog.onTickCancelled();
+        }
+    }
+
     @Override
     public boolean postDelayed(Runnable action, long delayMillis) {
         return mHandler.postDelayed(action, delayMillis);
@@ -149,27 +497,287 @@ public class ChronometerView extends FrameLayout {
     }
 
     /**
-     * Returns {@link SystemClock.elapsedRealtime}, overridable for testing.
+     * Returns the chronometer's value at {@code nowNanos}, excluding the paused durations.
+     */
+    public long getElapsedNanos(long nowNanos) {
+        return (mPaused ? mPauseNanos : nowNanos) - mBaseNanos;
+    }
+
+    /**
+     * Returns the chronometer's value at {@code whenNanos} as it was then: unlike
+     * {@link #getElapsedNanos(long)}, the pauses, resumes and resets issued later don't change it.
      */
-    protected long getElapsedRealtime() {
-        return SystemClock.elapsedRealtime();
+    public long getElapsedNanosAt(long whenNanos) {
+        int index = Arrays.binarySearch(mHistoryNanos, 0, mHistoryCount, whenNanos);
+        if (index < 0) {
+            // Before the insertion point, the first state applying from the start.
+            index = Math.max(0, -index - 2);
+        } else {
+            // Several commands issued at the same time, the last one applies.
+            while (index < mHistoryCount - 1 && mHistoryNanos[index + 1] == whenNanos) {
+                ++index;
+            }
+        }
+        long pauseNanos = mHistoryPauseNanos[index];
+        return (pauseNanos != NOT_PAUSED ? pauseNanos : whenNanos) - mHistoryBaseNanos[index];
+    }
+
+    /**
+     * Returns whether or not the change being notified is one of the chronometer's scheduled
+     * ticks, rather than an update made by a command such as {@link #lap(long)}.
+     */
+    public boolean isTicking() {
+        return mTicking;
+    }
+
+    /**
+     * Updates the value of the chronometer as a scheduled tick, visible for testing.
+     */
+    void tick() {
+        mTicking = true;
+        try {
+            updateText();
+        } finally {
+            mTicking = false;
+        }
     }
 
     /**
      * Updates the value of the chronometer, visible for testing.
      */
     void updateText() {
-        long millis = getElapsedRealtime() - mBaseMillis;
-        // Cap chronometer to one hour.
-        millis %= TimeUnit.HOURS.toMillis(1);
-
-        mMinutesView.setText(String.format("%02d", TimeUnit.MILLISECONDS.toMinutes(millis)));
-        millis %= TimeUnit.MINUTES.toMillis(1);
-        mSecondsView.setText(String.format("%02d", TimeUnit.MILLISECONDS.toSeconds(millis)));
-        millis = (millis % TimeUnit.SECONDS.toMillis(1)) / 10;
-        mCentiSecondsView.setText(String.format("%02d", millis));
+        long nanos = Math.max(0,
+                getElapsedNanos(mTimeSource.elapsedRealtimeNanos() + mPresentLatencyNanos));
+        int format = nanos < HOUR_NANOS ? FORMAT_MINUTES
+                : nanos < DAY_NANOS ? FORMAT_HOURS : FORMAT_DAYS;
+        boolean formatChanged = format != mFormat;
+        if (formatChanged) {
+            setFormat(format);
+        }
+        boolean rightShown = mCentisecondsShown || format != FORMAT_MINUTES;
+        if (rightShown != (mRightView.getVisibility() == VISIBLE)) {
+            setRightShown(rightShown);
+        }
+
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(nanos);
+        long minutes = TimeUnit.NANOSECONDS.toMinutes(nanos);
+        switch (format) {
+            case FORMAT_MINUTES:
+                setComponent(0, mLeftView, minutes, true);
+                setComponent(1, mMiddleView, seconds % 60, true);
+                if (rightShown) {
+                    setComponent(2, mRightView,
+                            (nanos % TimeUnit.SECONDS.toNanos(1)) / CENTI_SECOND_NANOS, true);
+                }
+                break;
+            case FORMAT_HOURS:
+                setComponent(0, mLeftView, TimeUnit.NANOSECONDS.toHours(nanos), false);
+                setComponent(1, mMiddleView, minutes % 60, true);
+                setComponent(2, mRightView, seconds % 60, true);
+                break;
+            default:
+                setComponent(0, mLeftView, TimeUnit.NANOSECONDS.toDays(nanos), false);
+                setComponent(1, mMiddleView, TimeUnit.NANOSECONDS.toHours(nanos) % 24, true);
+                setComponent(2, mRightView, minutes % 60, true);
+                break;
+        }
+        int leftDigits = mLeftView.length();
+        if (formatChanged || leftDigits != mLeftDigits) {
+            mLeftDigits = leftDigits;
+            if (getWidth() > 0 && getHeight() > 0) {
+                layoutFor(getWidth(), getHeight());
+            }
+        }
+        updateGhost(nanos);
         if (mChangeListener != null) {
             mChangeListener.onChange();
         }
     }
+
+    /**
+     * Shows the delta against the {@link GhostPace} at {@code nanos}, if comparable.
+     */
+    private void updateGhost(long nanos) {
+        boolean shown = mGhostPace != null && mGhostPace.isComparable(mLapCount);
+        int visibility = shown ? VISIBLE : INVISIBLE;
+        if (mGhostView.getVisibility() != visibility) {
+            mGhostView.setVisibility(visibility);
+            mDirtyComponents |= 1 << GHOST_COMPONENT;
+        }
+        if (!shown) {
+            mDisplayedDeltaCentis = Long.MIN_VALUE;
+            return;
+        }
+
+        long lastLapNanos = mLapCount == 0 ? 0 : mLapNanos[mLapCount - 1];
+        long deltaCentis =
+                mGhostPace.getMinDeltaNanos(nanos, mLapCount, lastLapNanos) / CENTI_SECOND_NANOS;
+        if (deltaCentis != mDisplayedDeltaCentis) {
+            mDisplayedDeltaCentis = deltaCentis;
+            mGhostTextLength = formatDelta(deltaCentis, mGhostSuffix, mGhostText);
+            mDirtyComponents |= 1 << GHOST_COMPONENT;
+        }
+    }
+
+    /**
+     * Returns the delta shown, visible for testing.
+     */
+    String getGhostText() {
+        return new String(mGhostText, 0, mGhostTextLength);
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+        if (mGhostView.getVisibility() == VISIBLE && mGhostTextLength > 0) {
+            // Centered in the view, which only provides the bounds and text style.
+            TextPaint paint = mGhostView.getPaint();
+            paint.setColor(mGhostView.getCurrentTextColor());
+            float x = (mGhostView.getLeft() + mGhostView.getRight()
+                    - paint.measureText(mGhostText, 0, mGhostTextLength)) / 2;
+            float y = (mGhostView.getTop() + mGhostView.getBottom()
+                    - paint.ascent() - paint.descent()) / 2;
+            canvas.drawText(mGhostText, 0, mGhostTextLength, x, y, paint);
+        }
+    }
+
+    /**
+     * Formats {@code deltaCentis} followed by {@code suffix} in {@code buffer}, e.g.
+     * "+1.23 s vs best", visible for testing.
+     *
+     * @return the length of the formatted text.
+     */
+    static int formatDelta(long deltaCentis, char[] suffix, char[] buffer) {
+        long centis = Math.abs(deltaCentis);
+        // Write the digits backwards from the end of the number.
+        int seconds = 1;
+        for (long value = centis / 100; value >= 10; value /= 10) {
+            ++seconds;
+        }
+        int end = 1 + seconds + 3;
+        buffer[end - 1] = (char) ('0' + centis % 10);
+        buffer[end - 2] = (char) ('0' + centis / 10 % 10);
+        buffer[end - 3] = '.';
+        long value = centis / 100;
+        for (int i = end - 4; i > 0; --i) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        buffer[0] = deltaCentis < 0 ? '-' : '+';
+
+        buffer[end++] = ' ';
+        buffer[end++] = 's';
+        buffer[end++] = ' ';
+        System.arraycopy(suffix, 0, buffer, end, suffix.length);
+        return end + suffix.length;
+    }
+
+    /**
+     * Returns the current display format, visible for testing.
+     */
+    int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Switches to {@code format}, the view is laid out again once its components are set.
+     */
+    private void setFormat(int format) {
+        mFormat = format;
+        if (mColonDrawable != null) {
+            mRightSeparatorView.setImageDrawable(
+                    format == FORMAT_MINUTES ? mInterpuncDrawable : mColonDrawable);
+        } else {
+            mRightSeparatorView.setImageResource(
+                    format == FORMAT_MINUTES ? R.drawable.ic_interpunc : R.drawable.ic_colon);
+        }
+        for (int i = 0; i < mDisplayedValues.length; ++i) {
+            mDisplayedValues[i] = -1;
+        }
+    }
+
+    /**
+     * Shows or hides the right component and its separator, keeping their space so that the layout
+     * doesn't change.
+     */
+    private void setRightShown(boolean shown) {
+        int visibility = shown ? VISIBLE : INVISIBLE;
+        mRightView.setVisibility(visibility);
+        mRightSeparatorView.setVisibility(visibility);
+        mDisplayedValues[2] = -1;
+        // The separator isn't a tracked component, the view is drawn entirely.
+        mLaidOut = true;
+    }
+
+    /**
+     * Lays out the view with the provided dimensions, with the cached layout for the current format
+     * and number of leading digits if any, or by measuring it otherwise.
+     */
+    public void layoutFor(int width, int height) {
+        long key = LayoutCache.key(width, height, ((mFormat + 1) << 8) | mLeftDigits);
+        if (!mLayoutCache.apply(key)) {
+            forceLayout();
+            measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+            layout(0, 0, width, height);
+            mLayoutCache.store(key);
+        }
+        updateComponentBounds();
+        mLaidOut = true;
+    }
+
+    /**
+     * Sets {@code dirty} to the bounds of the components changed since the last call.
+     *
+     * @return whether or not drawing these bounds is enough to update the previous frame: false
+     *     when the view was laid out since, and has to be drawn entirely.
+     */
+    public boolean getDirtyRect(Rect dirty) {
+        dirty.setEmpty();
+        for (int i = 0; i < COMPONENT_COUNT; ++i) {
+            if ((mDirtyComponents & (1 << i)) != 0) {
+                int offset = i * 4;
+                dirty.union(mComponentBounds[offset], mComponentBounds[offset + 1],
+                        mComponentBounds[offset + 2], mComponentBounds[offset + 3]);
+            }
+        }
+        mDirtyComponents = 0;
+        boolean partial = !mLaidOut;
+        mLaidOut = false;
+        return partial;
+    }
+
+    /**
+     * Updates the bounds of the components, in this view's coordinates.
+     */
+    private void updateComponentBounds() {
+        for (int i = 0; i < COMPONENT_COUNT; ++i) {
+            View view = mComponentViews[i];
+            int left = view.getLeft();
+            int top = view.getTop();
+            for (ViewParent parent = view.getParent(); parent != this;
+                    parent = parent.getParent()) {
+                left += ((View) parent).getLeft();
+                top += ((View) parent).getTop();
+            }
+            int offset = i * 4;
+            mComponentBounds[offset] = left;
+            mComponentBounds[offset + 1] = top;
+            mComponentBounds[offset + 2] = left + view.getWidth();
+            mComponentBounds[offset + 3] = top + view.getHeight();
+        }
+    }
+
+    private void setComponent(int index, TextView view, long value, boolean padded) {
+        if (mDisplayedValues[index] == value) {
+            return;
+        }
+        mDisplayedValues[index] = value;
+        mDirtyComponents |= 1 << index;
+        if (value < CACHED_VALUES) {
+            view.setText(padded ? PADDED_VALUES[(int) value] : VALUES[(int) value]);
+        } else {
+            view.setText(Long.toString(value));
+        }
+    }
 }
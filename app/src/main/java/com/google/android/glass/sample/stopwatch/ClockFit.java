@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the offset and drift of a device's {@code elapsedRealtime} clock against the wall
+ * clock from samples of both, to map the device's times to the wall clock's timeline.
+ *
+ * The difference between the clocks is fitted as a linear function of the elapsed time by least
+ * squares, updated in constant memory as the samples are added. With fewer than
+ * {@link #MIN_DRIFT_SAMPLES} samples, only the offset is fitted and the drift is taken as 0: a
+ * step of the wall clock, e.g. an NTP correction, between two samples would otherwise pass for
+ * drift over the whole log.
+ */
+public class ClockFit {
+
+    /** Fewest samples from which the drift is fitted along with the offset. */
+    public static final int MIN_DRIFT_SAMPLES = 4;
+
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private int mCount;
+    /** First sample, the origin of the fit so that the sums stay small. */
+    private long mFirstElapsedNanos;
+    private long mFirstWallNanos;
+    // Running means and co-moments of the elapsed time x and the clocks' difference y since the
+    // first sample.
+    private double mMeanX;
+    private double mMeanY;
+    private double mSumXX;
+    private double mSumXY;
+
+    /**
+     * Adds a sample of the wall clock at {@code wallMillis} taken at {@code elapsedNanos}.
+     */
+    public void add(long elapsedNanos, long wallMillis) {
+        long wallNanos = wallMillis * NANOS_PER_MILLI;
+        if (mCount == 0) {
+            mFirstElapsedNanos = elapsedNanos;
+            mFirstWallNanos = wallNanos;
+        }
+        double x = elapsedNanos - mFirstElapsedNanos;
+        double y = (wallNanos - mFirstWallNanos) - (elapsedNanos - mFirstElapsedNanos);
+        ++mCount;
+        double dx = x - mMeanX;
+        mMeanX += dx / mCount;
+        mMeanY += (y - mMeanY) / mCount;
+        mSumXX += dx * (x - mMeanX);
+        mSumXY += dx * (y - mMeanY);
+    }
+
+    /**
+     * Returns the number of samples added.
+     */
+    public int getSampleCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the drift of the wall clock against the {@code elapsedRealtime} clock, in parts per
+     * million.
+     */
+    public double getDriftPpm() {
+        return getSlope() * 1e6;
+    }
+
+    /**
+     * Returns the time on the wall clock at {@code elapsedNanos}, in nanoseconds since the epoch.
+     *
+     * @throws IllegalStateException if no sample was added
+     */
+    public long toWallNanos(long elapsedNanos) {
+        if (mCount == 0) {
+            throw new IllegalStateException("No clock sample");
+        }
+        double slope = getSlope();
+        long x = elapsedNanos - mFirstElapsedNanos;
+        return mFirstWallNanos + x + Math.round(mMeanY + slope * (x - mMeanX));
+    }
+
+    private double getSlope() {
+        return mCount >= MIN_DRIFT_SAMPLES && mSumXX > 0 ? mSumXY / mSumXX : 0;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exact alarm delivering the end of a countdown's phase to the {@link StopwatchService} while the
+ * countdown isn't visible, so that no {@link android.os.Handler} keeps ticking meanwhile. A single
+ * alarm is pending at a time, scheduled again for the next phase when it goes off.
+ */
+public class CountDownAlarm {
+
+    private final Context mContext;
+    private final AlarmManager mAlarmManager;
+
+    public CountDownAlarm(Context context) {
+        mContext = context;
+        mAlarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    /**
+     * Schedules the alarm at {@code phaseEndNanos}, as returned by
+     * {@link android.os.SystemClock#elapsedRealtimeNanos()}, replacing any previous one.
+     */
+    public void schedule(long phaseEndNanos) {
+        mAlarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                TimeUnit.NANOSECONDS.toMillis(phaseEndNanos), getPendingIntent());
+    }
+
+    /**
+     * Cancels the scheduled alarm, if any.
+     */
+    public void cancel() {
+        mAlarmManager.cancel(getPendingIntent());
+    }
+
+    private PendingIntent getPendingIntent() {
+        Intent intent = new Intent(mContext, StopwatchService.class);
+        intent.setAction(StopwatchService.ACTION_COUNT_DOWN_ALARM);
+        return PendingIntent.getService(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
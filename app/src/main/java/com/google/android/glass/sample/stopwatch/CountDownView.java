@@ -17,28 +17,50 @@
 package com.google.android.glass.sample.stopwatch;
 
 import android.content.Context;
-import android.media.AudioManager;
-import android.media.SoundPool;
+import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.os.Handler;
-import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.View;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Animated countdown going from {@code mTimeSeconds} to 0.
+ * Animated countdown going from {@code mTimeSeconds} to 0, or through each phase of an
+ * {@link IntervalProgram} showing the seconds left in the current phase.
  *
  * The current animation for each second is as follow:
  *   1. From 0 to 500ms, move the TextView from {@code MAX_TRANSLATION_Y} to 0 and its alpha from
  *      {@code 0} to {@code ALPHA_DELIMITER}.
  *   2. From 500ms to 1000ms, update the TextView's alpha from {@code ALPHA_DELIMITER} to {@code 1}.
  * At each second change, update the TextView text.
+ *
+ * The animation curve is precomputed into keyframes every {@code KEYFRAME_RESOLUTION_MILLIS} so
+ * that each tick only looks up the TextView's alpha and translation.
+ *
+ * Sounds are scheduled independently from the animation ticks: each one is triggered
+ * {@code SOUND_LATENCY_MILLIS} ahead of the second boundary it marks so that it is heard when the
+ * new second is displayed. The sounds are compiled with the program: a beep for each of the last
+ * {@code PHASE_BEEP_SECONDS} seconds of a phase or for every second of a countdown phase, and the
+ * finish sound when a phase ends.
+ *
+ * The countdown keeps running while stopped, e.g. while the view isn't visible, but nothing is
+ * posted anymore: the beeps are dropped, and the phases' ends are left to an exact alarm, see
+ * {@link #getNextPhaseEndNanos()} and {@link #playPhaseEnd()}. The countdown can then be resumed
+ * or finished.
+ *
+ * With a {@link GlyphAtlas}, the seconds are drawn from its prerendered digits: the TextView only
+ * holds the animation's alpha and translation, and its text is never laid out.
  */
 public class CountDownView extends FrameLayout {
 
+    private static final String TAG = CountDownView.class.getSimpleName();
+
     /**
      * Interface to listen for changes in the countdown.
      */
@@ -58,38 +80,116 @@ public class CountDownView extends FrameLayout {
     public static final float ANIMATION_DURATION_IN_MILLIS = 850.0f;
     private static final long DELAY_MILLIS = 40;
 
-    private static final int SOUND_PRIORITY = 1;
-    private static final int MAX_STREAMS = 1;
-
     // Constants visible for testing.
     static final int MAX_TRANSLATION_Y = 30;
     static final float ALPHA_DELIMITER = 0.95f;
     static final long SEC_TO_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    static final int KEYFRAME_RESOLUTION_MILLIS = 10;
+    /** Estimated delay between playing a sound and it being heard. */
+    static final long SOUND_LATENCY_MILLIS = 50;
+    private static final long SOUND_LATENCY_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(SOUND_LATENCY_MILLIS);
+    private static final long SEC_TO_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Number of beeps announcing the end of a phase other than a countdown. */
+    static final int PHASE_BEEP_SECONDS = 3;
+
+    /** Largest countdown value for which the displayed text is cached. */
+    private static final int MAX_CACHED_SECONDS = 99;
+    /** Estimated size of a cached {@link String} besides its characters, and of its reference. */
+    private static final int STRING_OVERHEAD_BYTES = 44;
+
+    /** Alpha of the TextView for each keyframe of a second, visible for testing. */
+    static final float[] ALPHA_KEYFRAMES;
+    /** Translation of the TextView for each keyframe of a second, visible for testing. */
+    static final float[] TRANSLATION_Y_KEYFRAMES;
+
+    static {
+        int keyframeCount = (int) (SEC_TO_MILLIS / KEYFRAME_RESOLUTION_MILLIS) + 1;
+        ALPHA_KEYFRAMES = new float[keyframeCount];
+        TRANSLATION_Y_KEYFRAMES = new float[keyframeCount];
+        for (int i = 0; i < keyframeCount; ++i) {
+            long frame = i * KEYFRAME_RESOLUTION_MILLIS;
+            if (frame <= ANIMATION_DURATION_IN_MILLIS) {
+                float factor = frame / ANIMATION_DURATION_IN_MILLIS;
+                ALPHA_KEYFRAMES[i] = factor * ALPHA_DELIMITER;
+                TRANSLATION_Y_KEYFRAMES[i] = MAX_TRANSLATION_Y * (1 - factor);
+            } else {
+                float factor =
+                        (frame - ANIMATION_DURATION_IN_MILLIS) / ANIMATION_DURATION_IN_MILLIS;
+                ALPHA_KEYFRAMES[i] = ALPHA_DELIMITER + factor * (1 - ALPHA_DELIMITER);
+                TRANSLATION_Y_KEYFRAMES[i] = 0;
+            }
+        }
+    }
+
+    /** Label of each phase kind, countdown phases have none. */
+    private static final int[] PHASE_LABELS = {
+        0,
+        R.string.warm_up,
+        R.string.work,
+        R.string.rest,
+        R.string.cool_down,
+    };
 
     // Sounds ID visible for testing.
-    final int mFinishSoundId;
-    final int mCountDownSoundId;
+    final int mFinishSoundId = R.raw.start;
+    final int mCountDownSoundId = R.raw.countdown_bip;
 
     private final TextView mSecondsView;
+    private final TextView mPhaseView;
+
+    private GlyphAtlas mGlyphAtlas;
+    private final Paint mGlyphPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    /** Displayed seconds when drawn from the {@link GlyphAtlas}. */
+    private final char[] mSecondsChars = new char[20];
+    private int mSecondsLength;
 
-    private final SoundPool mSoundPool;
+    private final SoundCache mSoundCache;
 
     private final Handler mHandler = new Handler();
     private final Runnable mUpdateViewRunnable = new Runnable() {
 
         @Override
         public void run() {
+            if (mStallWatchdog != null) {
+                mStallWatchdog.onTickRun();
+            }
             if (!updateView()) {
-                postDelayed(mUpdateViewRunnable, DELAY_MILLIS);
+                scheduleUpdate(DELAY_MILLIS);
             }
         }
     };
+    private final Runnable mPlaySoundRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            playScheduledSound();
+        }
+    };
 
     private long mTimeSeconds;
-    private long mCurrentTimeSeconds;
-    private long mStopTimeInFuture;
+    private IntervalProgram mProgram;
+    private String[] mSecondsText = new String[0];
+    private long mDisplayedSeconds = -1;
+    private int mPhaseIndex = -1;
+    private TimeSource mTimeSource = TimeSource.SYSTEM;
+    private StallWatchdog mStallWatchdog;
+    private long mStartTimeNanos;
+    private long mStopTimeNanos;
+
+    /** Time of each sound from the start of the program, and the sound to play. */
+    private long[] mSoundNanos = new long[0];
+    private int[] mSoundIds = new int[0];
+    private int mSoundCount;
+    private int mNextSoundIndex;
+    private long mMaxSoundOffsetMillis;
+    private long mMaxFrameOffsetMillis;
     private Listener mListener;
     private boolean mStarted;
+    private boolean mRunning;
+    /** Whether or not the last sound, marking the end of the program, was played. */
+    private boolean mLastSoundPlayed;
 
     public CountDownView(Context context) {
         this(context, null, 0);
@@ -103,20 +203,93 @@ public class CountDownView extends FrameLayout {
         super(context, attrs, style);
         LayoutInflater.from(context).inflate(R.layout.card_countdown, this);
         mSecondsView = (TextView) findViewById(R.id.seconds);
+        mPhaseView = (TextView) findViewById(R.id.phase);
 
-        mSoundPool = new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
-        mFinishSoundId = mSoundPool.load(context, R.raw.start, SOUND_PRIORITY);
-        mCountDownSoundId = mSoundPool.load(context, R.raw.countdown_bip, SOUND_PRIORITY);
+        mSoundCache = SoundCache.getInstance(context);
+        mSoundCache.load(mFinishSoundId, mCountDownSoundId);
     }
 
     public void setCountDown(long timeSeconds) {
-        mTimeSeconds = timeSeconds;
+        setProgram(IntervalProgram.countDown(timeSeconds));
     }
 
     public long getCountDown() {
         return mTimeSeconds;
     }
 
+    /**
+     * Sets the {@link IntervalProgram} to go through, only effective on the next start.
+     */
+    public void setProgram(IntervalProgram program) {
+        mProgram = program;
+        mTimeSeconds = TimeUnit.NANOSECONDS.toSeconds(program.getDurationNanos());
+
+        // The text displays up to the phase duration + 1 when starting exactly on a second
+        // boundary.
+        mSecondsText =
+                new String[(int) Math.min(program.getMaxPhaseSeconds(), MAX_CACHED_SECONDS) + 2];
+        for (int i = 0; i < mSecondsText.length; ++i) {
+            mSecondsText[i] = Integer.toString(i);
+        }
+        mDisplayedSeconds = -1;
+        mPhaseIndex = -1;
+        compileSounds(program);
+    }
+
+    /**
+     * Returns the {@link IntervalProgram} gone through.
+     */
+    public IntervalProgram getProgram() {
+        return mProgram;
+    }
+
+    /**
+     * Returns the estimated number of bytes taken by the tables compiled for the program: its
+     * phases, the times of its sounds and the cached seconds text.
+     */
+    public long getTableByteCount() {
+        long bytes = mSoundNanos.length * 8L + mSoundIds.length * 4L;
+        if (mProgram != null) {
+            bytes += mProgram.getByteCount();
+        }
+        for (String text : mSecondsText) {
+            bytes += STRING_OVERHEAD_BYTES + text.length() * 2;
+        }
+        return bytes;
+    }
+
+    /**
+     * Compiles the times at which sounds are played through {@code program}.
+     */
+    private void compileSounds(IntervalProgram program) {
+        mSoundCount = 0;
+        for (int phase = 0; phase < program.getPhaseCount(); ++phase) {
+            long startNanos = program.getPhaseStartNanos(phase);
+            long endNanos = program.getPhaseEndNanos(phase);
+            long beepNanos = program.getPhaseKind(phase) == IntervalProgram.COUNT_DOWN ? startNanos
+                    : Math.max(startNanos, endNanos - PHASE_BEEP_SECONDS * SEC_TO_NANOS);
+            if (phase > 0 && beepNanos == startNanos) {
+                // Already marked by the end of the previous phase.
+                beepNanos += SEC_TO_NANOS;
+            }
+            for (; beepNanos < endNanos; beepNanos += SEC_TO_NANOS) {
+                addSound(beepNanos, mCountDownSoundId);
+            }
+            addSound(endNanos, mFinishSoundId);
+        }
+    }
+
+    private void addSound(long nanos, int soundId) {
+        if (mSoundCount == mSoundNanos.length) {
+            int length = Math.max(16, mSoundCount * 2);
+            mSoundNanos = Arrays.copyOf(mSoundNanos, length);
+            mSoundIds = Arrays.copyOf(mSoundIds, length);
+        }
+        mSoundNanos[mSoundCount] = nanos;
+        mSoundIds[mSoundCount] = soundId;
+        ++mSoundCount;
+    }
+
     /**
      * Sets a {@link Listener}.
      */
@@ -131,40 +304,246 @@ public class CountDownView extends FrameLayout {
         return mListener;
     }
 
+    /**
+     * Sets the {@link TimeSource} used by the countdown, only effective on the next start.
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        mTimeSource = timeSource;
+    }
+
+    /**
+     * Returns the time in nanoseconds at which the countdown finishes, as returned by its
+     * {@link TimeSource}.
+     */
+    public long getStopTimeNanos() {
+        return mStopTimeNanos;
+    }
+
+    /**
+     * Sets the {@link GlyphAtlas} the seconds are drawn from, {@code null} to lay out their text.
+     */
+    public void setGlyphAtlas(GlyphAtlas glyphAtlas) {
+        mGlyphAtlas = glyphAtlas;
+        mSecondsView.setVisibility(glyphAtlas != null ? View.INVISIBLE : View.VISIBLE);
+        mDisplayedSeconds = -1;
+    }
+
+    /**
+     * Returns the {@link Paint} the seconds are drawn with, e.g. to render a {@link GlyphAtlas}.
+     */
+    public Paint getSecondsPaint() {
+        return mSecondsView.getPaint();
+    }
+
+    /**
+     * Sets the {@link StallWatchdog} notified of the ticks, {@code null} for none.
+     */
+    public void setStallWatchdog(StallWatchdog stallWatchdog) {
+        mStallWatchdog = stallWatchdog;
+    }
+
+    /**
+     * Schedules the next tick in {@code delayMillis}, reporting its deadline to the
+     * {@link StallWatchdog}.
+     */
+    private void scheduleUpdate(long delayMillis) {
+        postDelayed(mUpdateViewRunnable, delayMillis);
+        if (mStallWatchdog != null) {
+            mStallWatchdog.onTickScheduled(delayMillis);
+        }
+    }
+
+    private void cancelUpdate() {
+        removeCallbacks(mUpdateViewRunnable);
+        if (mStallWatchdog != null) {
+            mStallWatchdog.onTickCancelled();
+        }
+    }
+
     @Override
     public boolean postDelayed(Runnable action, long delayMillis) {
         return mHandler.postDelayed(action, delayMillis);
     }
 
+    @Override
+    public boolean removeCallbacks(Runnable action) {
+        mHandler.removeCallbacks(action);
+        return true;
+    }
+
     /**
-     * Starts the countdown animation if not yet started.
+     * Starts the countdown if not yet started, or resumes its animation and sounds if stopped.
      */
     public void start() {
         if (!mStarted) {
-            mCurrentTimeSeconds = 0;
-            mStopTimeInFuture = TimeUnit.SECONDS.toMillis(mTimeSeconds) + getElapsedRealtime();
+            mStartTimeNanos = mTimeSource.elapsedRealtimeNanos();
+            mStopTimeNanos = mStartTimeNanos + mProgram.getDurationNanos();
+            mNextSoundIndex = 0;
+            mPhaseIndex = -1;
+            mMaxSoundOffsetMillis = 0;
+            mMaxFrameOffsetMillis = 0;
+            mLastSoundPlayed = false;
             mStarted = true;
-            postDelayed(mUpdateViewRunnable, 0);
+            scheduleSound();
+        } else if (!mRunning && !mLastSoundPlayed) {
+            // The beeps passed while stopped are dropped.
+            skipPastSounds();
+            scheduleSound();
+        }
+        if (!mRunning) {
+            mDisplayedSeconds = -1;
+            mRunning = true;
+            scheduleUpdate(0);
+        }
+    }
+
+    /**
+     * Stops the countdown animation and its sounds, the countdown itself keeps running.
+     */
+    public void stop() {
+        if (mRunning) {
+            mRunning = false;
+            cancelUpdate();
+            removeCallbacks(mPlaySoundRunnable);
         }
     }
 
     /**
-     * Returns {@link SystemClock.elapsedRealtime}, overridable for testing.
+     * Returns the time at which the next phase of a stopped countdown ends, as returned by its
+     * {@link TimeSource}: its stop time once in the last phase.
      */
-    protected long getElapsedRealtime() {
-        return SystemClock.elapsedRealtime();
+    public long getNextPhaseEndNanos() {
+        return mStartTimeNanos + mSoundNanos[getNextPhaseEndIndex()];
+    }
+
+    /**
+     * Plays the sound marking the end of the current phase of a stopped countdown, once
+     * {@link #getNextPhaseEndNanos()} is reached. The end of the last phase is left to
+     * {@link #finish()}.
+     *
+     * @return whether or not the sound was played, {@code false} in the last phase.
+     */
+    public boolean playPhaseEnd() {
+        int index = getNextPhaseEndIndex();
+        if (!mStarted || mRunning || index == mSoundCount - 1) {
+            return false;
+        }
+        playSound(mSoundIds[index]);
+        mNextSoundIndex = index + 1;
+        return true;
+    }
+
+    /**
+     * Returns the index of the next sound marking the end of a phase, from the next sound.
+     */
+    private int getNextPhaseEndIndex() {
+        int index = mNextSoundIndex;
+        while (index < mSoundCount - 1 && mSoundIds[index] != mFinishSoundId) {
+            ++index;
+        }
+        return index;
+    }
+
+    /**
+     * Finishes a stopped countdown once its stop time is reached, playing the finish sound.
+     */
+    public void finish() {
+        if (mStarted && !mRunning) {
+            mStarted = false;
+            removeCallbacks(mPlaySoundRunnable);
+            if (!mLastSoundPlayed) {
+                mLastSoundPlayed = true;
+                playSound(mFinishSoundId);
+            }
+            if (mListener != null) {
+                mListener.onFinish();
+            }
+        }
+    }
+
+    /**
+     * Cancels the countdown, its animation and its sounds, without finishing it.
+     */
+    public void cancel() {
+        stop();
+        removeCallbacks(mPlaySoundRunnable);
+        mStarted = false;
+    }
+
+    /**
+     * Returns whether or not the countdown is started and not finished yet.
+     */
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * Returns whether or not the countdown animation and sounds are running.
+     */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Returns the largest offset observed between a sound being heard and its second boundary.
+     */
+    public long getMaxSoundOffsetMillis() {
+        return mMaxSoundOffsetMillis;
+    }
+
+    /**
+     * Returns the largest delay observed between a second boundary and its first frame.
+     */
+    public long getMaxFrameOffsetMillis() {
+        return mMaxFrameOffsetMillis;
+    }
+
+    /**
+     * Moves the next sound to the first one still ahead, the ones passed while stopped are not
+     * played. The last sound, marking the end of the program, is always kept.
+     */
+    private void skipPastSounds() {
+        long elapsedNanos = mTimeSource.elapsedRealtimeNanos() - mStartTimeNanos;
+        if (elapsedNanos > mSoundNanos[mNextSoundIndex]) {
+            int index = Arrays.binarySearch(mSoundNanos, mNextSoundIndex, mSoundCount,
+                    elapsedNanos);
+            mNextSoundIndex = Math.min(index >= 0 ? index : -index - 1, mSoundCount - 1);
+        }
+    }
+
+    /**
+     * Schedules the next sound ahead of its second boundary.
+     */
+    private void scheduleSound() {
+        long delayNanos = mStartTimeNanos + mSoundNanos[mNextSoundIndex] - SOUND_LATENCY_NANOS
+                - mTimeSource.elapsedRealtimeNanos();
+        postDelayed(mPlaySoundRunnable, Math.max(0, TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+    }
+
+    /**
+     * Plays the sound marking the upcoming second boundary and schedules the next one, visible for
+     * testing.
+     */
+    void playScheduledSound() {
+        playSound(mSoundIds[mNextSoundIndex]);
+        long offsetNanos = mTimeSource.elapsedRealtimeNanos() + SOUND_LATENCY_NANOS
+                - mStartTimeNanos - mSoundNanos[mNextSoundIndex];
+        mMaxSoundOffsetMillis = Math.max(mMaxSoundOffsetMillis,
+                TimeUnit.NANOSECONDS.toMillis(Math.abs(offsetNanos)));
+
+        if (mNextSoundIndex < mSoundCount - 1) {
+            ++mNextSoundIndex;
+            scheduleSound();
+        } else {
+            mLastSoundPlayed = true;
+        }
     }
 
     /**
      * Plays the provided {@code soundId}, overridable for testing.
      */
     protected void playSound(int soundId) {
-        mSoundPool.play(soundId,
-                        1 /* leftVolume */,
-                        1 /* rightVolume */,
-                        SOUND_PRIORITY,
-                        0 /* loop */,
-                        1 /* rate */);
+        mSoundCache.play(soundId);
     }
 
     /**
@@ -173,29 +552,65 @@ public class CountDownView extends FrameLayout {
      * @return whether or not the count down is finished.
      */
     boolean updateView() {
-        long millisLeft = mStopTimeInFuture - getElapsedRealtime();
-        long currentTimeSeconds = TimeUnit.MILLISECONDS.toSeconds(millisLeft);
-        boolean countDownDone = millisLeft <= 0;
+        long nowNanos = mTimeSource.elapsedRealtimeNanos();
+        long nanosLeft = mStopTimeNanos - nowNanos;
+        boolean countDownDone = nanosLeft <= 0;
+        long millisLeft = TimeUnit.NANOSECONDS.toMillis(nanosLeft);
 
         if (countDownDone) {
             mStarted = false;
+            mRunning = false;
+            recordFrameOffset(-millisLeft);
+            Log.d(TAG, "Max offset from second boundaries, sound: " + mMaxSoundOffsetMillis
+                    + "ms, frame: " + mMaxFrameOffsetMillis + "ms");
             if (mListener != null) {
                 mListener.onFinish();
             }
-            playSound(mFinishSoundId);
         } else {
-            updateView(millisLeft);
+            long elapsedNanos = nowNanos - mStartTimeNanos;
+            int phaseIndex = mProgram.getPhaseIndex(elapsedNanos, mPhaseIndex);
+            if (phaseIndex != mPhaseIndex) {
+                setPhase(phaseIndex);
+            }
+            long phaseMillisLeft = TimeUnit.NANOSECONDS.toMillis(
+                    mProgram.getPhaseEndNanos(phaseIndex) - elapsedNanos);
+
+            long displayedSeconds = mDisplayedSeconds;
+            updateView(phaseMillisLeft);
+            if (displayedSeconds != -1 && displayedSeconds != mDisplayedSeconds) {
+                // The boundary was crossed when the time left was a whole number of seconds.
+                recordFrameOffset(mDisplayedSeconds * SEC_TO_MILLIS - phaseMillisLeft);
+            }
             if (mListener != null) {
                 mListener.onTick(millisLeft);
             }
-            if (mCurrentTimeSeconds != currentTimeSeconds) {
-                playSound(mCountDownSoundId);
-                mCurrentTimeSeconds = currentTimeSeconds;
-            }
         }
         return countDownDone;
     }
 
+    /**
+     * Shows the label of the phase at {@code phaseIndex}, countdown phases have none.
+     */
+    private void setPhase(int phaseIndex) {
+        int kind = mProgram.getPhaseKind(phaseIndex);
+        if (mPhaseIndex == -1 || kind != mProgram.getPhaseKind(mPhaseIndex)) {
+            if (kind == IntervalProgram.COUNT_DOWN) {
+                mPhaseView.setVisibility(View.GONE);
+            } else {
+                mPhaseView.setText(PHASE_LABELS[kind]);
+                mPhaseView.setVisibility(View.VISIBLE);
+            }
+        }
+        mPhaseIndex = phaseIndex;
+    }
+
+    /**
+     * Records the delay between a second boundary and the frame displaying it.
+     */
+    private void recordFrameOffset(long offsetMillis) {
+        mMaxFrameOffsetMillis = Math.max(mMaxFrameOffsetMillis, offsetMillis);
+    }
+
     /**
      * Updates the view to reflect the current state of animation, visible for testing.
      *
@@ -204,15 +619,61 @@ public class CountDownView extends FrameLayout {
     void updateView(long millisUntilFinish) {
         long currentTimeSeconds = TimeUnit.MILLISECONDS.toSeconds(millisUntilFinish) + 1;
         long frame = SEC_TO_MILLIS - (millisUntilFinish % SEC_TO_MILLIS);
+        int keyframe = (int) (frame / KEYFRAME_RESOLUTION_MILLIS);
 
-        mSecondsView.setText(Long.toString(currentTimeSeconds));
-        if (frame <= ANIMATION_DURATION_IN_MILLIS) {
-            float factor = frame / ANIMATION_DURATION_IN_MILLIS;
-            mSecondsView.setAlpha(factor * ALPHA_DELIMITER);
-            mSecondsView.setTranslationY(MAX_TRANSLATION_Y * (1 - factor));
-        } else {
-            float factor = (frame - ANIMATION_DURATION_IN_MILLIS) / ANIMATION_DURATION_IN_MILLIS;
-            mSecondsView.setAlpha(ALPHA_DELIMITER + factor * (1 - ALPHA_DELIMITER));
+        if (currentTimeSeconds != mDisplayedSeconds) {
+            if (mGlyphAtlas != null) {
+                mSecondsLength = formatSeconds(currentTimeSeconds, mSecondsChars);
+            } else {
+                mSecondsView.setText(currentTimeSeconds < mSecondsText.length
+                        ? mSecondsText[(int) currentTimeSeconds]
+                        : Long.toString(currentTimeSeconds));
+            }
+            mDisplayedSeconds = currentTimeSeconds;
+        }
+        mSecondsView.setAlpha(ALPHA_KEYFRAMES[keyframe]);
+        mSecondsView.setTranslationY(TRANSLATION_Y_KEYFRAMES[keyframe]);
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+        if (mGlyphAtlas != null && mDisplayedSeconds != -1) {
+            drawSeconds(canvas);
+        }
+    }
+
+    /**
+     * Draws the seconds from the {@link GlyphAtlas} where the TextView would, centered in its
+     * bounds with its alpha and translation.
+     */
+    private void drawSeconds(Canvas canvas) {
+        View view = mSecondsView;
+        int width = mGlyphAtlas.getWidth(mSecondsChars, 0, mSecondsLength);
+        int left = view.getLeft() + view.getPaddingLeft()
+                + (view.getWidth() - view.getPaddingLeft() - view.getPaddingRight() - width) / 2;
+        int top = view.getTop() + view.getPaddingTop() + (view.getHeight() - view.getPaddingTop()
+                - view.getPaddingBottom() - mGlyphAtlas.getDigitHeight()) / 2;
+        mGlyphPaint.setColor(mSecondsView.getCurrentTextColor());
+        mGlyphPaint.setAlpha(Math.round(view.getAlpha() * mGlyphPaint.getAlpha()));
+        mGlyphAtlas.draw(canvas, mSecondsChars, 0, mSecondsLength, left,
+                top + Math.round(view.getTranslationY()), mGlyphPaint);
+    }
+
+    /**
+     * Formats {@code seconds} in {@code buffer}, returning the number of characters.
+     */
+    private static int formatSeconds(long seconds, char[] buffer) {
+        int length = 0;
+        do {
+            buffer[length++] = (char) ('0' + seconds % 10);
+            seconds /= 10;
+        } while (seconds > 0);
+        for (int i = 0, j = length - 1; i < j; ++i, --j) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
         }
+        return length;
     }
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.view.SurfaceHolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Trace of the events driving a {@link ChronometerDrawer}, the surface callbacks and the user
+ * commands, with the time at which they occurred.
+ *
+ * A trace recorded on a device can be written to a compact file and replayed later into another
+ * {@link ChronometerDrawer} under virtual time, rendering the same frames in the same states. Each
+ * event is stored as its type, then the time since the previous event and its argument as
+ * variable-length integers, typically 3 to 7 bytes.
+ */
+public class EventTrace {
+
+    // Events, the argument is described in parentheses.
+    /** Surface dimensions changed (width in the upper 32 bits, height in the lower ones). */
+    public static final int SURFACE_CHANGED = 1;
+    public static final int SURFACE_CREATED = 2;
+    public static final int SURFACE_DESTROYED = 3;
+    /** Rendering paused or resumed (1 if paused, 0 otherwise). */
+    public static final int RENDERING_PAUSED = 4;
+    public static final int COUNT_DOWN_ALARM = 5;
+    /** Memory trimmed (the trim level). */
+    public static final int TRIM_MEMORY = 6;
+    // Commands, delivered with a delay (nanoseconds between their time and their delivery).
+    public static final int PAUSE = 7;
+    public static final int RESUME = 8;
+    public static final int LAP = 9;
+    public static final int RESET = 10;
+    public static final int END_SESSION = 11;
+
+    /** Events recorded at most, the next ones are dropped. */
+    public static final int MAX_EVENTS = 16384;
+
+    private static final int MAGIC = 0x53575452;
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Virtual time of a replay, only moving forward when the replay advances it. */
+    private static class VirtualTimeSource implements TimeSource {
+        long mNanos;
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return mNanos;
+        }
+    }
+
+    private byte[] mTypes = new byte[INITIAL_CAPACITY];
+    private long[] mTimesNanos = new long[INITIAL_CAPACITY];
+    private long[] mArgs = new long[INITIAL_CAPACITY];
+    private int mCount;
+    private int mDroppedCount;
+
+    /**
+     * Records {@code event} with its {@code arg}, which occurred at {@code whenNanos} on the
+     * {@link TimeSource}.
+     */
+    public void record(int event, long whenNanos, long arg) {
+        if (mCount == mTypes.length) {
+            if (mCount == MAX_EVENTS) {
+                ++mDroppedCount;
+                return;
+            }
+            int capacity = Math.min(mCount * 2, MAX_EVENTS);
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mTimesNanos = Arrays.copyOf(mTimesNanos, capacity);
+            mArgs = Arrays.copyOf(mArgs, capacity);
+        }
+        mTypes[mCount] = (byte) event;
+        mTimesNanos[mCount] = whenNanos;
+        mArgs[mCount] = arg;
+        ++mCount;
+    }
+
+    public int getEventCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the number of events dropped since the trace was full.
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public int getEvent(int index) {
+        return mTypes[index];
+    }
+
+    public long getTimeNanos(int index) {
+        return mTimesNanos[index];
+    }
+
+    public long getArg(int index) {
+        return mArgs[index];
+    }
+
+    /**
+     * Returns the argument of a {@link #SURFACE_CHANGED} event.
+     */
+    public static long sizeArg(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    /**
+     * Writes the trace to {@code out}, which is left open.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        writeVarLong(data, mCount);
+        data.writeLong(mCount > 0 ? mTimesNanos[0] : 0);
+        long previousNanos = mCount > 0 ? mTimesNanos[0] : 0;
+        for (int i = 0; i < mCount; ++i) {
+            data.writeByte(mTypes[i]);
+            writeVarLong(data, mTimesNanos[i] - previousNanos);
+            writeVarLong(data, mArgs[i]);
+            previousNanos = mTimesNanos[i];
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a trace written by {@link #writeTo(OutputStream)} from {@code in}, which is left open.
+     *
+     * @throws IOException if {@code in} can't be read or isn't a trace
+     */
+    public static EventTrace readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an event trace");
+        }
+        int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported event trace version: " + version);
+        }
+        long count = readVarLong(data);
+        if (count < 0 || count > MAX_EVENTS) {
+            throw new IOException("Invalid event count: " + count);
+        }
+        EventTrace trace = new EventTrace();
+        long timeNanos = data.readLong();
+        for (int i = 0; i < count; ++i) {
+            int event = data.readUnsignedByte();
+            timeNanos += readVarLong(data);
+            trace.record(event, timeNanos, readVarLong(data));
+        }
+        return trace;
+    }
+
+    /**
+     * Replays the trace into {@code drawer}, drawing on {@code holder} for the surface events.
+     *
+     * The drawer's {@link TimeSource} is replaced by a virtual one, set to the time of each event
+     * when it is replayed. In between, the virtual time advances by {@code frameIntervalNanos} and
+     * a frame is rendered at each step, as the views' own ticks would, if greater than 0.
+     */
+    public void replay(ChronometerDrawer drawer, SurfaceHolder holder, long frameIntervalNanos) {
+        if (mCount == 0) {
+            return;
+        }
+        VirtualTimeSource timeSource = new VirtualTimeSource();
+        timeSource.mNanos = mTimesNanos[0];
+        drawer.setTimeSource(timeSource);
+
+        long nextFrameNanos = mTimesNanos[0] + frameIntervalNanos;
+        for (int i = 0; i < mCount; ++i) {
+            long eventNanos = mTimesNanos[i];
+            while (frameIntervalNanos > 0 && nextFrameNanos <= eventNanos) {
+                timeSource.mNanos = nextFrameNanos;
+                drawer.renderFrame();
+                nextFrameNanos += frameIntervalNanos;
+            }
+            timeSource.mNanos = eventNanos;
+            dispatch(drawer, holder, mTypes[i], eventNanos, mArgs[i]);
+        }
+    }
+
+    private static void dispatch(ChronometerDrawer drawer, SurfaceHolder holder, int event,
+            long eventNanos, long arg) {
+        switch (event) {
+            case SURFACE_CHANGED:
+                drawer.surfaceChanged(holder, 0, (int) (arg >>> 32), (int) arg);
+                break;
+            case SURFACE_CREATED:
+                drawer.surfaceCreated(holder);
+                break;
+            case SURFACE_DESTROYED:
+                drawer.surfaceDestroyed(holder);
+                break;
+            case RENDERING_PAUSED:
+                drawer.renderingPaused(holder, arg != 0);
+                break;
+            case COUNT_DOWN_ALARM:
+                drawer.onCountDownAlarm();
+                break;
+            case TRIM_MEMORY:
+                drawer.onTrimMemory((int) arg);
+                break;
+            case PAUSE:
+                drawer.pause(eventNanos - arg);
+                break;
+            case RESUME:
+                drawer.resume(eventNanos - arg);
+                break;
+            case LAP:
+                drawer.lap(eventNanos - arg);
+                break;
+            case RESET:
+                drawer.reset(eventNanos - arg);
+                break;
+            case END_SESSION:
+                drawer.endSession(eventNanos - arg);
+                break;
+            default:
+                // Unknown event, from a later version.
+                break;
+        }
+    }
+
+    /**
+     * Writes {@code value} in 7 bits groups, least significant first, zigzag encoded so that small
+     * negative values stay short as well.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7f) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+}
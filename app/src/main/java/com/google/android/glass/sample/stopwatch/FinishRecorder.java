@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Append-only, lock-free buffer of race finish times, in nanoseconds as returned by the
+ * stopwatch's {@link TimeSource}.
+ *
+ * Recording a finish claims a slot with a compare-and-set of the count and writes the time in a
+ * preallocated chunk: no lock is taken and nothing is allocated but the occasional new chunk, so
+ * that bursts of finishes can be recorded from any thread without losing any. Readers only see the
+ * finishes whose time is written. Once full, the count stops growing and the finishes are counted
+ * as dropped.
+ */
+public class FinishRecorder {
+
+    /** Number of finish times per chunk, a power of 2. */
+    static final int CHUNK_SIZE = 1024;
+    private static final int CHUNK_SHIFT = 10;
+    private static final int MAX_CHUNKS = 1024;
+
+    /** Largest number of finishes recorded. */
+    public static final int CAPACITY = CHUNK_SIZE * MAX_CHUNKS;
+
+    private final AtomicReferenceArray<AtomicLongArray> mChunks =
+            new AtomicReferenceArray<AtomicLongArray>(MAX_CHUNKS);
+    private final AtomicInteger mClaimedCount = new AtomicInteger();
+    private final AtomicInteger mDroppedCount = new AtomicInteger();
+    /** Lower bound of the number of contiguous finishes written, from the start. */
+    private volatile int mWrittenCount;
+
+    public FinishRecorder() {
+        mChunks.set(0, new AtomicLongArray(CHUNK_SIZE));
+    }
+
+    /**
+     * Records a finish at {@code whenNanos}, which must not be 0.
+     *
+     * @return the index of the finish, or -1 if the recorder is full.
+     */
+    public int record(long whenNanos) {
+        int index;
+        do {
+            index = mClaimedCount.get();
+            if (index >= CAPACITY) {
+                mDroppedCount.incrementAndGet();
+                return -1;
+            }
+        } while (!mClaimedCount.compareAndSet(index, index + 1));
+        getChunk(index >> CHUNK_SHIFT).set(index & (CHUNK_SIZE - 1), whenNanos);
+        return index;
+    }
+
+    /**
+     * Returns the number of finishes whose time can be read: a finish being recorded concurrently
+     * is only counted once written, as well as the ones following it.
+     */
+    public int getCount() {
+        int claimedCount = mClaimedCount.get();
+        int count = mWrittenCount;
+        while (count < claimedCount) {
+            AtomicLongArray chunk = mChunks.get(count >> CHUNK_SHIFT);
+            if (chunk == null || chunk.get(count & (CHUNK_SIZE - 1)) == 0) {
+                break;
+            }
+            ++count;
+        }
+        // Concurrent readers may store a lower count, which is still a valid one.
+        mWrittenCount = count;
+        return count;
+    }
+
+    /**
+     * Returns the number of finishes not recorded because the recorder was full.
+     */
+    public int getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * Returns the time of the finish at {@code index}, which must be lower than
+     * {@link #getCount()}.
+     */
+    public long get(int index) {
+        return mChunks.get(index >> CHUNK_SHIFT).get(index & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Returns the chunk at {@code chunkIndex}, allocating it if needed.
+     */
+    private AtomicLongArray getChunk(int chunkIndex) {
+        AtomicLongArray chunk = mChunks.get(chunkIndex);
+        if (chunk == null) {
+            mChunks.compareAndSet(chunkIndex, null, new AtomicLongArray(CHUNK_SIZE));
+            chunk = mChunks.get(chunkIndex);
+        }
+        return chunk;
+    }
+}
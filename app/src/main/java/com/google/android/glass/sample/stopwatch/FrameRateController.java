@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the chronometer's update rate to the measured cost of its frames, to hold the share of the
+ * main thread spent drawing within a budget, e.g. when the device is thermally throttled.
+ *
+ * The rate goes down one level at a time, from about 24Hz to 12Hz then 4Hz, and finally the
+ * centiseconds are hidden so that only the frames changing the seconds are drawn. It goes back up
+ * once the frames would fit in half of the budget at the higher rate, so that it doesn't oscillate
+ * around a threshold. A few frames are measured at each level before changing again.
+ */
+public class FrameRateController {
+
+    private static final String TAG = FrameRateController.class.getSimpleName();
+
+    /** Delay between updates at each level, from the highest rate down. */
+    private static final long[] DELAYS_MILLIS = { ChronometerView.DELAY_MILLIS, 83, 250, 250 };
+    /** Last level, the only one hiding the centiseconds. */
+    public static final int LOWEST_LEVEL = DELAYS_MILLIS.length - 1;
+
+    /** The frames may take a quarter of the main thread's time at most. */
+    private static final int BUDGET_DIVISOR = 4;
+    /** Frames drawn at a level before changing again. */
+    private static final int SETTLE_FRAMES = 8;
+    /** Weight of the last frame in the moving average of the draw duration. */
+    private static final int DRAW_NANOS_WEIGHT_SHIFT = 3;
+
+    private int mLevel;
+    private long mAverageDrawNanos;
+    private int mFramesAtLevel;
+    private int mTransitionCount;
+
+    /**
+     * Takes the duration of a drawn frame into account.
+     *
+     * @return whether or not the level changed.
+     */
+    public boolean onFrameDrawn(long drawNanos) {
+        if (mAverageDrawNanos == 0) {
+            mAverageDrawNanos = drawNanos;
+        } else {
+            mAverageDrawNanos += (drawNanos - mAverageDrawNanos) >> DRAW_NANOS_WEIGHT_SHIFT;
+        }
+        if (++mFramesAtLevel < SETTLE_FRAMES) {
+            return false;
+        }
+
+        int level = mLevel;
+        if (mLevel < LOWEST_LEVEL && mAverageDrawNanos > getBudgetNanos(mLevel)) {
+            ++level;
+        } else if (mLevel > 0 && mAverageDrawNanos <= getBudgetNanos(mLevel - 1) / 2) {
+            --level;
+        }
+        if (level == mLevel) {
+            return false;
+        }
+        Log.i(TAG, "Frame level " + mLevel + " -> " + level + ": " + getRateHertz(mLevel)
+                + "Hz -> " + getRateHertz(level) + "Hz" + (level == LOWEST_LEVEL
+                        ? " without centiseconds" : "") + ", average draw "
+                + TimeUnit.NANOSECONDS.toMicros(mAverageDrawNanos) + "us");
+        mLevel = level;
+        mFramesAtLevel = 0;
+        ++mTransitionCount;
+        return true;
+    }
+
+    /**
+     * Returns the current level, from 0 at the highest rate to {@link #LOWEST_LEVEL}.
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Returns the delay between the chronometer's updates at the current level.
+     */
+    public long getDelayMillis() {
+        return DELAYS_MILLIS[mLevel];
+    }
+
+    /**
+     * Returns whether or not the centiseconds are shown at the current level.
+     */
+    public boolean isCentisecondsShown() {
+        return mLevel < LOWEST_LEVEL;
+    }
+
+    /**
+     * Returns the moving average of the frames' draw duration.
+     */
+    public long getAverageDrawNanos() {
+        return mAverageDrawNanos;
+    }
+
+    /**
+     * Returns the number of level changes so far.
+     */
+    public int getTransitionCount() {
+        return mTransitionCount;
+    }
+
+    private static long getBudgetNanos(int level) {
+        return TimeUnit.MILLISECONDS.toNanos(DELAYS_MILLIS[level]) / BUDGET_DIVISOR;
+    }
+
+    private static long getRateHertz(int level) {
+        return TimeUnit.SECONDS.toMillis(1) / DELAYS_MILLIS[level];
+    }
+}
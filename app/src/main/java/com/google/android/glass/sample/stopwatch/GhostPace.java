@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.content.SharedPreferences;
+
+import java.util.Arrays;
+
+/**
+ * Reference run, e.g. the best one so far, the current run is compared to lap by lap.
+ *
+ * The reference run is kept as its sorted lap times from the start, so that the delta of the
+ * current run is computed every frame with a binary search and without allocating. The stopwatch
+ * only knows where the current run is at its laps, so the delta is only exact there, and is a
+ * lower bound in between rather than an interpolation:
+ * <ul>
+ * <li>at the k-th lap, the delta is the difference between the k-th lap times;
+ * <li>after it, the delta is held until the reference run completes the (k+1)-th lap, then grows
+ *     with the time elapsed since, as the current run is then at least that late. It never
+ *     decreases before the current run's next lap.
+ * </ul>
+ */
+public class GhostPace {
+
+    private static final String PREF_SPLITS = "ghost_pace_splits";
+    private static final String SEPARATOR = ",";
+
+    /** Lap times of the reference run from its start, sorted. */
+    private final long[] mSplitsNanos;
+
+    public GhostPace(long[] splitsNanos) {
+        for (int i = 1; i < splitsNanos.length; ++i) {
+            if (splitsNanos[i] < splitsNanos[i - 1]) {
+                throw new IllegalArgumentException("Unsorted splits at " + i);
+            }
+        }
+        mSplitsNanos = splitsNanos.clone();
+    }
+
+    /**
+     * Returns the number of laps of the reference run.
+     */
+    public int getLapCount() {
+        return mSplitsNanos.length;
+    }
+
+    /**
+     * Returns the time of the lap at {@code index} in the reference run, from its start.
+     */
+    public long getSplitNanos(int index) {
+        return mSplitsNanos[index];
+    }
+
+    /**
+     * Returns whether or not the current run can be compared to the reference run at its
+     * {@code lapCount}-th lap.
+     */
+    public boolean isComparable(int lapCount) {
+        return lapCount <= mSplitsNanos.length && mSplitsNanos.length > 0;
+    }
+
+    /**
+     * Returns the smallest delta of the current run against the reference run consistent with its
+     * laps so far, positive when late: exact at a lap, a lower bound between laps.
+     *
+     * @param elapsedNanos the current run's time
+     * @param lapCount the number of laps of the current run, see {@link #isComparable(int)}
+     * @param lastLapNanos the time of the current run's last lap, ignored if {@code lapCount} is 0
+     */
+    public long getMinDeltaNanos(long elapsedNanos, int lapCount, long lastLapNanos) {
+        long deltaNanos = lapCount == 0 ? 0 : lastLapNanos - mSplitsNanos[lapCount - 1];
+        // Number of laps completed by the reference run at the same time.
+        int index = Arrays.binarySearch(mSplitsNanos, elapsedNanos);
+        int referenceLapCount = index >= 0 ? index + 1 : -index - 1;
+        if (referenceLapCount > lapCount) {
+            // The reference run completed the next lap already.
+            deltaNanos = Math.max(deltaNanos, elapsedNanos - mSplitsNanos[lapCount]);
+        }
+        return deltaNanos;
+    }
+
+    /**
+     * Returns whether or not a run with the provided lap times beats this reference run: it must
+     * have at least as many laps and complete the reference run's laps sooner.
+     */
+    public boolean isBeatenBy(long[] splitsNanos, int lapCount) {
+        int referenceLapCount = mSplitsNanos.length;
+        return referenceLapCount == 0 || (lapCount >= referenceLapCount
+                && splitsNanos[referenceLapCount - 1] < mSplitsNanos[referenceLapCount - 1]);
+    }
+
+    /**
+     * Loads the reference run saved in {@code preferences}, or returns {@code null}.
+     */
+    public static GhostPace load(SharedPreferences preferences) {
+        String splits = preferences.getString(PREF_SPLITS, null);
+        if (splits == null || splits.length() == 0) {
+            return null;
+        }
+        String[] values = splits.split(SEPARATOR);
+        long[] splitsNanos = new long[values.length];
+        try {
+            for (int i = 0; i < values.length; ++i) {
+                splitsNanos[i] = Long.parseLong(values[i]);
+            }
+            return new GhostPace(splitsNanos);
+        } catch (IllegalArgumentException e) {
+            // Includes NumberFormatException, the saved run is ignored.
+            return null;
+        }
+    }
+
+    /**
+     * Saves the reference run in {@code preferences}.
+     */
+    public void save(SharedPreferences preferences) {
+        StringBuilder splits = new StringBuilder();
+        for (int i = 0; i < mSplitsNanos.length; ++i) {
+            if (i > 0) {
+                splits.append(SEPARATOR);
+            }
+            splits.append(mSplitsNanos[i]);
+        }
+        preferences.edit().putString(PREF_SPLITS, splits.toString()).apply();
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Prerendered digits and separators of the stopwatch, side by side in a single {@link Bitmap}, so
+ * that they are drawn without laying out text nor decoding the separators' images.
+ *
+ * The atlas only holds the coverage of each pixel, as white over the cards' black background: a
+ * glyph is drawn with the color of the {@link Paint}, and its alpha.
+ *
+ * An atlas is saved to a file along with the key of the configuration it was rendered for, and
+ * loaded back through a single memory-mapped read. The file holds a header, big-endian: a magic
+ * number, the version, the configuration key, the APK version, the atlas' dimensions and the
+ * glyphs' baseline, then the character, left edge, width and height of each glyph, followed by
+ * the atlas' pixels.
+ */
+public class GlyphAtlas {
+
+    /** Separator between the minutes and seconds, {@code ic_colon}. */
+    public static final char COLON = ':';
+    /** Separator between the seconds and centiseconds, {@code ic_interpunc}. */
+    public static final char INTERPUNC = '\u00b7';
+
+    /** Glyphs of an atlas, visible for testing. */
+    static final String GLYPHS = "0123456789" + COLON + INTERPUNC;
+
+    private static final int MAGIC = 0x53474c41;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int GLYPH_SIZE = 16;
+    /** Largest dimension accepted from a file, to reject corrupted ones. */
+    private static final int MAX_DIMENSION = 4096;
+
+    private final Bitmap mBitmap;
+    private final int mBaseline;
+    private final int[] mLefts = new int[GLYPHS.length()];
+    private final int[] mWidths = new int[GLYPHS.length()];
+    private final int[] mHeights = new int[GLYPHS.length()];
+    private final Rect mSourceRect = new Rect();
+    private final Rect mDestinationRect = new Rect();
+
+    private GlyphAtlas(Bitmap bitmap, int baseline) {
+        mBitmap = bitmap;
+        mBaseline = baseline;
+    }
+
+    /**
+     * Renders the digits with {@code digitPaint}, and the separators at their intrinsic size.
+     */
+    public static GlyphAtlas render(Paint digitPaint, Drawable colon, Drawable interpunc) {
+        Paint paint = new Paint(digitPaint);
+        paint.setColor(Color.WHITE);
+        Paint.FontMetricsInt metrics = paint.getFontMetricsInt();
+        int digitHeight = metrics.bottom - metrics.top;
+
+        int[] widths = new int[GLYPHS.length()];
+        int[] heights = new int[GLYPHS.length()];
+        int width = 0;
+        int height = digitHeight;
+        for (int i = 0; i < GLYPHS.length(); ++i) {
+            char glyph = GLYPHS.charAt(i);
+            if (glyph == COLON || glyph == INTERPUNC) {
+                Drawable drawable = glyph == COLON ? colon : interpunc;
+                widths[i] = drawable.getIntrinsicWidth();
+                heights[i] = drawable.getIntrinsicHeight();
+                height = Math.max(height, heights[i]);
+            } else {
+                widths[i] = (int) Math.ceil(paint.measureText(GLYPHS, i, i + 1));
+                heights[i] = digitHeight;
+            }
+            width += widths[i];
+        }
+
+        // Rendered in color over black first, the coverage is then any of the channels.
+        Bitmap rendered = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(rendered);
+        canvas.drawColor(Color.BLACK);
+        GlyphAtlas atlas = new GlyphAtlas(
+                Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8), -metrics.top);
+        int left = 0;
+        for (int i = 0; i < GLYPHS.length(); ++i) {
+            char glyph = GLYPHS.charAt(i);
+            if (glyph == COLON || glyph == INTERPUNC) {
+                Drawable drawable = glyph == COLON ? colon : interpunc;
+                drawable.setBounds(left, 0, left + widths[i], heights[i]);
+                drawable.draw(canvas);
+            } else {
+                canvas.drawText(GLYPHS, i, i + 1, left, -metrics.top, paint);
+            }
+            atlas.mLefts[i] = left;
+            atlas.mWidths[i] = widths[i];
+            atlas.mHeights[i] = heights[i];
+            left += widths[i];
+        }
+
+        int[] pixels = new int[width * height];
+        rendered.getPixels(pixels, 0, width, 0, 0, width, height);
+        rendered.recycle();
+        ByteBuffer coverage = ByteBuffer.allocate(pixels.length);
+        for (int pixel : pixels) {
+            coverage.put((byte) Color.red(pixel));
+        }
+        coverage.rewind();
+        atlas.mBitmap.copyPixelsFromBuffer(coverage);
+        return atlas;
+    }
+
+    /**
+     * Loads the atlas saved in {@code file} for {@code key} and {@code apkVersion}.
+     *
+     * @return the atlas, or {@code null} if {@code file} doesn't exist or was saved for another
+     *     configuration or APK.
+     * @throws IOException if {@code file} can't be read or isn't a valid atlas
+     */
+    public static GlyphAtlas load(File file, long key, long apkVersion) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        ByteBuffer buffer;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a glyph atlas: " + file);
+        }
+        if (buffer.getInt(4) != VERSION || buffer.getLong(8) != key
+                || buffer.getLong(16) != apkVersion) {
+            return null;
+        }
+        int width = buffer.getInt(24);
+        int height = buffer.getInt(28);
+        int baseline = buffer.getInt(32);
+        int glyphCount = buffer.getInt(36);
+        int pixelsOffset = HEADER_SIZE + glyphCount * GLYPH_SIZE;
+        if (width <= 0 || width > MAX_DIMENSION || height <= 0 || height > MAX_DIMENSION
+                || glyphCount != GLYPHS.length()
+                || buffer.capacity() < pixelsOffset + width * height) {
+            throw new IOException("Corrupted glyph atlas: " + file);
+        }
+
+        GlyphAtlas atlas = new GlyphAtlas(
+                Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8), baseline);
+        for (int i = 0; i < glyphCount; ++i) {
+            int offset = HEADER_SIZE + i * GLYPH_SIZE;
+            if (buffer.getInt(offset) != GLYPHS.charAt(i)) {
+                throw new IOException("Corrupted glyph atlas: " + file);
+            }
+            atlas.mLefts[i] = buffer.getInt(offset + 4);
+            atlas.mWidths[i] = buffer.getInt(offset + 8);
+            atlas.mHeights[i] = buffer.getInt(offset + 12);
+        }
+        buffer.position(pixelsOffset);
+        atlas.mBitmap.copyPixelsFromBuffer(buffer.slice());
+        return atlas;
+    }
+
+    /**
+     * Saves the atlas to {@code file} for {@code key} and {@code apkVersion}, replacing it
+     * atomically.
+     */
+    public void save(File file, long key, long apkVersion) throws IOException {
+        int width = mBitmap.getWidth();
+        int height = mBitmap.getHeight();
+        ByteBuffer buffer = ByteBuffer.allocate(
+                HEADER_SIZE + GLYPHS.length() * GLYPH_SIZE + mBitmap.getByteCount());
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(key)
+                .putLong(apkVersion)
+                .putInt(width)
+                .putInt(height)
+                .putInt(mBaseline)
+                .putInt(GLYPHS.length());
+        for (int i = 0; i < GLYPHS.length(); ++i) {
+            buffer.putInt(GLYPHS.charAt(i))
+                    .putInt(mLefts[i])
+                    .putInt(mWidths[i])
+                    .putInt(mHeights[i]);
+        }
+        mBitmap.copyPixelsToBuffer(buffer);
+        buffer.flip();
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(temporaryFile);
+        try {
+            FileChannel channel = output.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            output.close();
+        }
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Returns the size in bytes of the atlas' pixels.
+     */
+    public int getByteCount() {
+        return mBitmap.getByteCount();
+    }
+
+    /**
+     * Returns the distance from the top of the digits to their baseline.
+     */
+    public int getBaseline() {
+        return mBaseline;
+    }
+
+    /**
+     * Returns the height of the digits, from the font's top to its bottom.
+     */
+    public int getDigitHeight() {
+        return mHeights[0];
+    }
+
+    /**
+     * Returns the width of {@code glyph}.
+     */
+    public int getWidth(char glyph) {
+        return mWidths[indexOf(glyph)];
+    }
+
+    /**
+     * Returns the width of {@code length} glyphs of {@code text} from {@code start}.
+     */
+    public int getWidth(char[] text, int start, int length) {
+        int width = 0;
+        for (int i = start; i < start + length; ++i) {
+            width += getWidth(text[i]);
+        }
+        return width;
+    }
+
+    /**
+     * Draws {@code length} glyphs of {@code text} from {@code start}, with their top left corner
+     * at {@code left} and {@code top}, in the color and alpha of {@code paint}.
+     */
+    public void draw(Canvas canvas, char[] text, int start, int length, int left, int top,
+            Paint paint) {
+        for (int i = start; i < start + length; ++i) {
+            left += draw(canvas, text[i], left, top, paint);
+        }
+    }
+
+    /**
+     * Draws {@code glyph} with its top left corner at {@code left} and {@code top}.
+     *
+     * @return the width of {@code glyph}.
+     */
+    private int draw(Canvas canvas, char glyph, int left, int top, Paint paint) {
+        int index = indexOf(glyph);
+        mSourceRect.set(mLefts[index], 0, mLefts[index] + mWidths[index], mHeights[index]);
+        mDestinationRect.set(left, top, left + mWidths[index], top + mHeights[index]);
+        canvas.drawBitmap(mBitmap, mSourceRect, mDestinationRect, paint);
+        return mWidths[index];
+    }
+
+    /**
+     * Returns a {@link Drawable} of {@code glyph} in white, e.g. for a separator's
+     * {@link android.widget.ImageView}.
+     */
+    public Drawable newDrawable(char glyph) {
+        final int index = indexOf(glyph);
+        return new Drawable() {
+
+            private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            private final Rect mSource = new Rect(mLefts[index], 0,
+                    mLefts[index] + mWidths[index], mHeights[index]);
+
+            {
+                mPaint.setColor(Color.WHITE);
+            }
+
+            @Override
+            public void draw(Canvas canvas) {
+                canvas.drawBitmap(mBitmap, mSource, getBounds(), mPaint);
+            }
+
+            @Override
+            public int getIntrinsicWidth() {
+                return mWidths[index];
+            }
+
+            @Override
+            public int getIntrinsicHeight() {
+                return mHeights[index];
+            }
+
+            @Override
+            public void setAlpha(int alpha) {
+                mPaint.setAlpha(alpha);
+            }
+
+            @Override
+            public void setColorFilter(ColorFilter colorFilter) {
+                mPaint.setColorFilter(colorFilter);
+            }
+
+            @Override
+            public int getOpacity() {
+                return PixelFormat.TRANSLUCENT;
+            }
+        };
+    }
+
+    private static int indexOf(char glyph) {
+        int index = GLYPHS.indexOf(glyph);
+        if (index < 0) {
+            throw new IllegalArgumentException("No glyph for " + glyph);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative values in fixed log-linear buckets, to estimate their percentiles in
+ * constant memory: values below 16 have their own bucket, larger ones are split in 8 buckets per
+ * power of 2, so that a value is known within 12.5%.
+ *
+ * Adding a value takes a few arithmetic operations and never allocates.
+ */
+public class Histogram {
+
+    /** Values below which each value has its own bucket. */
+    private static final int LINEAR_LIMIT = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    /** Largest power of 2 of an int. */
+    private static final int MAX_EXPONENT = 30;
+    /** Linear buckets, then the buckets of each power of 2 from 16. */
+    private static final int BUCKET_COUNT =
+            LINEAR_LIMIT + ((MAX_EXPONENT - 3) << SUB_BUCKET_BITS);
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private int mMax;
+
+    /**
+     * Adds {@code value}, negative values are counted as 0.
+     */
+    public void add(int value) {
+        value = Math.max(0, value);
+        ++mCounts[getBucket(value)];
+        ++mCount;
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    /**
+     * Adds the values of {@code other}.
+     */
+    public void addAll(Histogram other) {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mCount += other.mCount;
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public void clear() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mMax = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public int getMax() {
+        return mMax;
+    }
+
+    /**
+     * Returns the value at {@code percentile}, from 0 to 100, as the upper bound of its bucket,
+     * and at most the largest value added. Returns 0 if no value was added.
+     */
+    public int getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(mCount * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return (int) Math.min(mMax, getBucketUpperBound(i));
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * Returns the bucket of {@code value}, visible for testing.
+     */
+    static int getBucket(int value) {
+        if (value < LINEAR_LIMIT) {
+            return value;
+        }
+        int exponent = 31 - Integer.numberOfLeadingZeros(value);
+        int subBucket = (value >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return LINEAR_LIMIT + ((exponent - 4) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * Returns the largest value of bucket {@code bucket}, visible for testing.
+     */
+    static long getBucketUpperBound(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = 4 + ((bucket - LINEAR_LIMIT) >> SUB_BUCKET_BITS);
+        int subBucket = (bucket - LINEAR_LIMIT) & ((1 << SUB_BUCKET_BITS) - 1);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequence of timed phases, e.g. a warm-up, 8 repeats of 20s of work and 10s of rest, then a
+ * cool-down.
+ *
+ * Programs are described with a {@link Builder}, or parsed from their text form, and compiled
+ * once into a flat array of phase boundaries: nested repeats are unrolled so that looking up the
+ * phase at a given time is a binary search, whatever the program's size.
+ */
+public class IntervalProgram {
+
+    // Phase kinds.
+    public static final int COUNT_DOWN = 0;
+    public static final int WARM_UP = 1;
+    public static final int WORK = 2;
+    public static final int REST = 3;
+    public static final int COOL_DOWN = 4;
+
+    /** Names of the phase kinds in the text form of a program. */
+    private static final String[] KIND_NAMES = {
+        "countdown",
+        "warmup",
+        "work",
+        "rest",
+        "cooldown",
+    };
+
+    /** Largest number of phases once repeats are unrolled. */
+    static final int MAX_PHASES = 1000000;
+
+    private static final long SEC_TO_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Builds an {@link IntervalProgram}, repeats can be nested.
+     */
+    public static class Builder {
+
+        private final int mMaxPhases;
+        private int[] mKinds = new int[16];
+        private long[] mSeconds = new long[16];
+        private int mPhaseCount;
+
+        /** Index of the first phase and repeat count of each open repeat, innermost last. */
+        private int[] mRepeatStarts = new int[4];
+        private int[] mRepeatCounts = new int[4];
+        private int mRepeatDepth;
+
+        public Builder() {
+            this(MAX_PHASES);
+        }
+
+        /**
+         * Creates a builder of programs of at most {@code maxPhases} once unrolled, at most
+         * {@link #MAX_PHASES}.
+         */
+        public Builder(int maxPhases) {
+            mMaxPhases = Math.min(maxPhases, MAX_PHASES);
+        }
+
+        /**
+         * Appends a phase of {@code kind} lasting {@code seconds}.
+         */
+        public Builder phase(int kind, long seconds) {
+            if (kind < COUNT_DOWN || kind > COOL_DOWN) {
+                throw new IllegalArgumentException("Invalid phase kind: " + kind);
+            }
+            if (seconds <= 0) {
+                throw new IllegalArgumentException("Invalid phase duration: " + seconds);
+            }
+            if (mPhaseCount == mMaxPhases) {
+                throw new IllegalArgumentException("Too many phases: " + (mPhaseCount + 1));
+            }
+            ensurePhaseCapacity(mPhaseCount + 1);
+            mKinds[mPhaseCount] = kind;
+            mSeconds[mPhaseCount] = seconds;
+            ++mPhaseCount;
+            return this;
+        }
+
+        /**
+         * Opens a repeat of the phases appended until the matching {@link #end()}.
+         */
+        public Builder repeat(int count) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("Invalid repeat count: " + count);
+            }
+            if (mRepeatDepth == mRepeatStarts.length) {
+                mRepeatStarts = Arrays.copyOf(mRepeatStarts, mRepeatDepth * 2);
+                mRepeatCounts = Arrays.copyOf(mRepeatCounts, mRepeatDepth * 2);
+            }
+            mRepeatStarts[mRepeatDepth] = mPhaseCount;
+            mRepeatCounts[mRepeatDepth] = count;
+            ++mRepeatDepth;
+            return this;
+        }
+
+        /**
+         * Closes the innermost repeat, unrolling its phases.
+         */
+        public Builder end() {
+            if (mRepeatDepth == 0) {
+                throw new IllegalStateException("No repeat to end");
+            }
+            --mRepeatDepth;
+            int start = mRepeatStarts[mRepeatDepth];
+            int count = mRepeatCounts[mRepeatDepth];
+            int length = mPhaseCount - start;
+            if ((long) length * count + start > mMaxPhases) {
+                throw new IllegalArgumentException("Too many phases: " + (long) length * count);
+            }
+            ensurePhaseCapacity(start + length * count);
+            for (int i = 1; i < count; ++i) {
+                System.arraycopy(mKinds, start, mKinds, mPhaseCount, length);
+                System.arraycopy(mSeconds, start, mSeconds, mPhaseCount, length);
+                mPhaseCount += length;
+            }
+            return this;
+        }
+
+        /**
+         * Compiles the program, all the repeats must be ended.
+         */
+        public IntervalProgram build() {
+            if (mRepeatDepth != 0) {
+                throw new IllegalStateException("Unended repeat");
+            }
+            if (mPhaseCount == 0) {
+                throw new IllegalStateException("Empty program");
+            }
+            long[] endNanos = new long[mPhaseCount];
+            long nanos = 0;
+            for (int i = 0; i < mPhaseCount; ++i) {
+                nanos += TimeUnit.SECONDS.toNanos(mSeconds[i]);
+                endNanos[i] = nanos;
+            }
+            return new IntervalProgram(Arrays.copyOf(mKinds, mPhaseCount), endNanos);
+        }
+
+        private void ensurePhaseCapacity(int capacity) {
+            if (capacity > mKinds.length) {
+                int length = Math.max(capacity, mKinds.length * 2);
+                mKinds = Arrays.copyOf(mKinds, length);
+                mSeconds = Arrays.copyOf(mSeconds, length);
+            }
+        }
+    }
+
+    /**
+     * Returns a program made of a single {@link #COUNT_DOWN} phase lasting {@code seconds}.
+     */
+    public static IntervalProgram countDown(long seconds) {
+        return new Builder().phase(COUNT_DOWN, seconds).build();
+    }
+
+    /**
+     * Parses the text form of a program: comma separated phases written {@code kind:seconds} and
+     * repeats written {@code count x (phases)}, e.g.
+     * {@code "warmup:60, 8x(work:20, rest:10), cooldown:60"}.
+     *
+     * @throws IllegalArgumentException if {@code program} is malformed.
+     */
+    public static IntervalProgram parse(String program) {
+        return parse(program, MAX_PHASES);
+    }
+
+    /**
+     * Parses the text form of a program, see {@link #parse(String)}, of at most {@code maxPhases}
+     * once unrolled.
+     *
+     * @throws IllegalArgumentException if {@code program} is malformed or has too many phases.
+     */
+    public static IntervalProgram parse(String program, int maxPhases) {
+        Builder builder = new Builder(maxPhases);
+        String text = program.replaceAll("\\s", "");
+        int end = parsePhases(text, 0, builder);
+        if (end != text.length()) {
+            throw new IllegalArgumentException("Unexpected character at " + end + ": " + program);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Parses comma separated phases from {@code start}, returns the index following them.
+     */
+    private static int parsePhases(String text, int start, Builder builder) {
+        int index = start;
+        while (true) {
+            int separator = index;
+            while (separator < text.length() && Character.isLetterOrDigit(text.charAt(separator))) {
+                ++separator;
+            }
+            if (separator == text.length() || separator == index) {
+                throw new IllegalArgumentException("Malformed program: " + text);
+            }
+            String token = text.substring(index, separator);
+            if (text.charAt(separator) == ':') {
+                index = separator + 1;
+                int digitsEnd = index;
+                while (digitsEnd < text.length() && Character.isDigit(text.charAt(digitsEnd))) {
+                    ++digitsEnd;
+                }
+                builder.phase(parseKind(token), parseNumber(text, index, digitsEnd));
+                index = digitsEnd;
+            } else if (text.charAt(separator) == '(' && token.endsWith("x")) {
+                builder.repeat((int) parseNumber(token, 0, token.length() - 1));
+                index = parsePhases(text, separator + 1, builder);
+                if (index == text.length() || text.charAt(index) != ')') {
+                    throw new IllegalArgumentException("Unclosed repeat: " + text);
+                }
+                builder.end();
+                ++index;
+            } else {
+                throw new IllegalArgumentException("Malformed program: " + text);
+            }
+            if (index == text.length() || text.charAt(index) != ',') {
+                return index;
+            }
+            ++index;
+        }
+    }
+
+    private static int parseKind(String name) {
+        for (int kind = 0; kind < KIND_NAMES.length; ++kind) {
+            if (KIND_NAMES[kind].equals(name)) {
+                return kind;
+            }
+        }
+        throw new IllegalArgumentException("Unknown phase kind: " + name);
+    }
+
+    private static long parseNumber(String text, int start, int end) {
+        try {
+            return Long.parseLong(text.substring(start, end));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in: " + text, e);
+        }
+    }
+
+    private final int[] mKinds;
+    /** Time at which each phase ends, from the start of the program. */
+    private final long[] mEndNanos;
+
+    private IntervalProgram(int[] kinds, long[] endNanos) {
+        mKinds = kinds;
+        mEndNanos = endNanos;
+    }
+
+    /**
+     * Returns the number of phases, repeats unrolled.
+     */
+    public int getPhaseCount() {
+        return mKinds.length;
+    }
+
+    /**
+     * Returns the kind of the phase at {@code index}.
+     */
+    public int getPhaseKind(int index) {
+        return mKinds[index];
+    }
+
+    /**
+     * Returns the time at which the phase at {@code index} starts, from the start of the program.
+     */
+    public long getPhaseStartNanos(int index) {
+        return index == 0 ? 0 : mEndNanos[index - 1];
+    }
+
+    /**
+     * Returns the time at which the phase at {@code index} ends, from the start of the program.
+     */
+    public long getPhaseEndNanos(int index) {
+        return mEndNanos[index];
+    }
+
+    /**
+     * Returns the number of bytes taken by the compiled phases.
+     */
+    public long getByteCount() {
+        return mKinds.length * 4L + mEndNanos.length * 8L;
+    }
+
+    /**
+     * Returns the duration of the whole program.
+     */
+    public long getDurationNanos() {
+        return mEndNanos[mEndNanos.length - 1];
+    }
+
+    /**
+     * Returns the duration in seconds of the longest phase.
+     */
+    public long getMaxPhaseSeconds() {
+        long maxNanos = 0;
+        for (int i = 0; i < mEndNanos.length; ++i) {
+            maxNanos = Math.max(maxNanos, mEndNanos[i] - getPhaseStartNanos(i));
+        }
+        return maxNanos / SEC_TO_NANOS;
+    }
+
+    /**
+     * Returns the index of the phase running at {@code elapsedNanos} from the start of the
+     * program, or {@link #getPhaseCount()} once the program is over.
+     *
+     * @param hint index of a likely phase, e.g. the one returned by the previous lookup, checked
+     *        before searching the phase boundaries
+     */
+    public int getPhaseIndex(long elapsedNanos, int hint) {
+        if (elapsedNanos < 0) {
+            return 0;
+        }
+        if (hint >= 0 && hint < mEndNanos.length && elapsedNanos < mEndNanos[hint]
+                && elapsedNanos >= getPhaseStartNanos(hint)) {
+            return hint;
+        }
+        int index = Arrays.binarySearch(mEndNanos, elapsedNanos);
+        // A phase ending exactly at elapsedNanos is over.
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
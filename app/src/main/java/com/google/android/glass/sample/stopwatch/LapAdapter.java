@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import com.google.android.glass.widget.CardScrollAdapter;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.TextView;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CardScrollAdapter} showing one card per lap, the latest first.
+ *
+ * The laps are read from their {@link LapSource} as the cards are shown, nothing is copied nor
+ * formatted ahead: a card's texts are formatted in buffers owned by the card, which are reused when
+ * the card is recycled for another lap. The number of laps is fixed when the source is set, so
+ * that the positions don't move while laps are recorded.
+ */
+public class LapAdapter extends CardScrollAdapter {
+
+    /**
+     * Source of the lap times.
+     */
+    public interface LapSource {
+        /** Returns the number of laps recorded. */
+        public int getLapCount();
+
+        /** Returns the chronometer's value at the lap at {@code index}, ascending. */
+        public long getLapNanos(int index);
+    }
+
+    /** Longest value formatted: 19 digits of hours, and the minutes, seconds and centiseconds. */
+    private static final int MAX_ELAPSED_LENGTH = 19 + 9;
+    /** Longest lap number. */
+    private static final int MAX_NUMBER_LENGTH = 10;
+
+    private static final long CENTI_SECOND_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** Views and buffers of a card, kept as its tag. */
+    private static class LapCard {
+        TextView mNumberView;
+        TextView mTimeView;
+        TextView mSplitView;
+        char[] mNumberText;
+        char[] mTimeText;
+        char[] mSplitText;
+    }
+
+    private final LayoutInflater mInflater;
+    private final char[] mNumberPrefix;
+    private final char[] mSplitPrefix;
+
+    private LapSource mSource;
+    private int mCount;
+
+    public LapAdapter(Context context) {
+        mInflater = LayoutInflater.from(context);
+        mNumberPrefix = context.getString(R.string.lap_number_prefix).toCharArray();
+        mSplitPrefix = context.getString(R.string.lap_split_prefix).toCharArray();
+    }
+
+    /**
+     * Shows the laps recorded so far by {@code source}, {@code null} to show none.
+     */
+    public void setSource(LapSource source) {
+        mSource = source;
+        mCount = source != null ? source.getLapCount() : 0;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the chronometer's value at the lap shown at {@code position}, as a {@link Long}.
+     */
+    @Override
+    public Object getItem(int position) {
+        return mSource.getLapNanos(getLapIndex(position));
+    }
+
+    /**
+     * Returns the position of the lap at the chronometer's value {@code item}, found by a binary
+     * search as the laps are sorted.
+     */
+    @Override
+    public int getPosition(Object item) {
+        if (!(item instanceof Long)) {
+            return AdapterView.INVALID_POSITION;
+        }
+        long lapNanos = (Long) item;
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleNanos = mSource.getLapNanos(middle);
+            if (middleNanos < lapNanos) {
+                low = middle + 1;
+            } else if (middleNanos > lapNanos) {
+                high = middle - 1;
+            } else {
+                return getLapIndex(middle);
+            }
+        }
+        return AdapterView.INVALID_POSITION;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        LapCard card;
+        if (convertView == null) {
+            convertView = mInflater.inflate(R.layout.card_lap, parent, false);
+            card = new LapCard();
+            card.mNumberView = (TextView) convertView.findViewById(R.id.lap_number);
+            card.mTimeView = (TextView) convertView.findViewById(R.id.lap_time);
+            card.mSplitView = (TextView) convertView.findViewById(R.id.lap_split);
+            card.mNumberText = new char[mNumberPrefix.length + MAX_NUMBER_LENGTH];
+            card.mTimeText = new char[MAX_ELAPSED_LENGTH];
+            card.mSplitText = new char[mSplitPrefix.length + MAX_ELAPSED_LENGTH];
+            System.arraycopy(mNumberPrefix, 0, card.mNumberText, 0, mNumberPrefix.length);
+            System.arraycopy(mSplitPrefix, 0, card.mSplitText, 0, mSplitPrefix.length);
+            convertView.setTag(card);
+        } else {
+            card = (LapCard) convertView.getTag();
+        }
+
+        int index = getLapIndex(position);
+        long splitNanos = mSource.getLapNanos(index);
+        long lapNanos = index == 0 ? splitNanos : splitNanos - mSource.getLapNanos(index - 1);
+        // The buffers are set as is: TextView copies the characters.
+        card.mNumberView.setText(card.mNumberText, 0,
+                formatNumber(index + 1, card.mNumberText, mNumberPrefix.length));
+        card.mTimeView.setText(card.mTimeText, 0, formatElapsed(lapNanos, card.mTimeText, 0));
+        card.mSplitView.setText(card.mSplitText, 0,
+                formatElapsed(splitNanos, card.mSplitText, mSplitPrefix.length));
+        return convertView;
+    }
+
+    /**
+     * Formats {@code elapsedNanos} as shown by the chronometer in {@code buffer} from
+     * {@code offset}: MM:SS.cc, or H:MM:SS.cc after the first hour. Visible for testing.
+     *
+     * @return the end of the formatted text.
+     */
+    static int formatElapsed(long elapsedNanos, char[] buffer, int offset) {
+        long centiSeconds = Math.max(0, elapsedNanos) / CENTI_SECOND_NANOS;
+        long seconds = centiSeconds / 100;
+        long minutes = seconds / 60;
+        long hours = minutes / 60;
+        int end = offset;
+        if (hours > 0) {
+            end = formatNumber(hours, buffer, end);
+            buffer[end++] = ':';
+        }
+        end = formatTwoDigits(hours > 0 ? minutes % 60 : minutes, buffer, end);
+        buffer[end++] = ':';
+        end = formatTwoDigits(seconds % 60, buffer, end);
+        buffer[end++] = '.';
+        return formatTwoDigits(centiSeconds % 100, buffer, end);
+    }
+
+    /**
+     * Formats {@code value}, positive, in {@code buffer} from {@code offset}.
+     *
+     * @return the end of the formatted text.
+     */
+    private static int formatNumber(long value, char[] buffer, int offset) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            ++digits;
+        }
+        for (int i = offset + digits - 1; i >= offset; --i) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + digits;
+    }
+
+    /**
+     * Formats {@code value} on two digits at least, padded with a 0.
+     */
+    private static int formatTwoDigits(long value, char[] buffer, int offset) {
+        if (value < 10) {
+            buffer[offset++] = '0';
+        }
+        return formatNumber(value, buffer, offset);
+    }
+
+    /**
+     * Returns the index of the lap shown at {@code position}, the latest first.
+     */
+    private int getLapIndex(int position) {
+        return mCount - 1 - position;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import com.google.android.glass.widget.CardScrollView;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.IBinder;
+
+/**
+ * Activity scrolling through the laps of the running stopwatch, one card per lap, the latest first.
+ *
+ * Opening it takes the same time whatever the number of laps: the {@link LapAdapter} only reads
+ * and formats the laps of the cards shown.
+ */
+public class LapHistoryActivity extends Activity {
+
+    private LapAdapter mAdapter;
+    private CardScrollView mCardScrollView;
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            if (service instanceof StopwatchService.StopwatchBinder) {
+                mAdapter.setSource((StopwatchService.StopwatchBinder) service);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mAdapter.setSource(null);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mAdapter = new LapAdapter(this);
+        mCardScrollView = new CardScrollView(this);
+        mCardScrollView.setHorizontalScrollBarEnabled(true);
+        mCardScrollView.setAdapter(mAdapter);
+        setContentView(mCardScrollView);
+
+        // Only bind to an already running stopwatch.
+        bindService(new Intent(this, StopwatchService.class), mConnection, 0);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mCardScrollView.activate();
+    }
+
+    @Override
+    protected void onPause() {
+        mCardScrollView.deactivate();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unbindService(mConnection);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cache of the layouts of a view tree whose structure doesn't change, e.g. inflated once.
+ *
+ * A layout is stored as the bounds of every view of the tree, in a single primitive array, under a
+ * key identifying the inputs it was computed from: typically the dimensions and what changes the
+ * size of the content. Applying a cached layout lays out every view to its stored bounds, skipping
+ * the measure pass entirely. The least recently stored layout is evicted first.
+ */
+public class LayoutCache {
+
+    private static final int BOUNDS_SIZE = 4;
+    private static final long NO_KEY = Long.MIN_VALUE;
+
+    /** Views of the tree, parents first. */
+    private final View[] mViews;
+
+    private final long[] mKeys;
+    private final int[][] mBounds;
+    private int mNextSlot;
+
+    public LayoutCache(View root, int capacity) {
+        List<View> views = new ArrayList<View>();
+        collectViews(root, views);
+        mViews = views.toArray(new View[views.size()]);
+
+        mKeys = new long[capacity];
+        mBounds = new int[capacity][mViews.length * BOUNDS_SIZE];
+        clear();
+    }
+
+    /**
+     * Returns a key for a layout computed from {@code width}, {@code height} and {@code variant},
+     * whose values must fit in 24 bits, 24 bits and 16 bits respectively.
+     */
+    public static long key(int width, int height, int variant) {
+        return ((long) width << 40) | ((long) height << 16) | variant;
+    }
+
+    /**
+     * Lays out the view tree as stored under {@code key}, if any.
+     *
+     * @return whether or not a layout was stored under {@code key}.
+     */
+    public boolean apply(long key) {
+        for (int slot = 0; slot < mKeys.length; ++slot) {
+            if (mKeys[slot] == key) {
+                int[] bounds = mBounds[slot];
+                // Parents first, so that the children's bounds are the last ones set.
+                for (int i = 0; i < mViews.length; ++i) {
+                    int offset = i * BOUNDS_SIZE;
+                    mViews[i].layout(bounds[offset], bounds[offset + 1], bounds[offset + 2],
+                            bounds[offset + 3]);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the current layout of the view tree under {@code key}.
+     */
+    public void store(long key) {
+        int slot = mNextSlot;
+        mNextSlot = (mNextSlot + 1) % mKeys.length;
+        mKeys[slot] = key;
+        int[] bounds = mBounds[slot];
+        for (int i = 0; i < mViews.length; ++i) {
+            View view = mViews[i];
+            int offset = i * BOUNDS_SIZE;
+            bounds[offset] = view.getLeft();
+            bounds[offset + 1] = view.getTop();
+            bounds[offset + 2] = view.getRight();
+            bounds[offset + 3] = view.getBottom();
+        }
+    }
+
+    /**
+     * Removes all the stored layouts.
+     */
+    public void clear() {
+        for (int slot = 0; slot < mKeys.length; ++slot) {
+            mKeys[slot] = NO_KEY;
+        }
+        mNextSlot = 0;
+    }
+
+    private static void collectViews(View view, List<View> views) {
+        views.add(view);
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); ++i) {
+                collectViews(group.getChildAt(i), views);
+            }
+        }
+    }
+}
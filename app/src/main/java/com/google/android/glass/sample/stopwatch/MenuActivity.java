@@ -17,9 +17,13 @@
 package com.google.android.glass.sample.stopwatch;
 
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
+import android.os.SystemClock;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -28,17 +32,96 @@ import java.lang.Runnable;
 
 /**
  * Activity showing the stopwatch options menu.
+ *
+ * The activity binds to the {@link StopwatchService} so that the stopwatch commands are delivered
+ * in-process, without going through an {@link Intent} round-trip. The activity finishes without
+ * showing the menu if the service isn't running, or stops before the menu opens.
  */
 public class MenuActivity extends Activity {
 
+    /** Delay after which the service is deemed not running if it isn't bound yet. */
+    private static final long BIND_TIMEOUT_MILLIS = 1000;
+
     private final Handler mHandler = new Handler();
 
+    /** Finishes the activity if the service isn't bound yet. */
+    private final Runnable mBindTimeout = new Runnable() {
+
+        @Override
+        public void run() {
+            if (mStopwatch == null) {
+                finish();
+            }
+        }
+    };
+
+    private StopwatchService.StopwatchBinder mStopwatch;
+    private boolean mAttachedToWindow;
+    private boolean mOptionsMenuOpen;
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            if (service instanceof StopwatchService.StopwatchBinder) {
+                StopwatchService.StopwatchBinder stopwatch =
+                        (StopwatchService.StopwatchBinder) service;
+                if (!stopwatch.isRunning()) {
+                    // E.g. the service only handling a late countdown alarm before stopping.
+                    finish();
+                    return;
+                }
+                mStopwatch = stopwatch;
+                openOptionsMenu();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mStopwatch = null;
+            if (!mOptionsMenuOpen) {
+                // The stopwatch stopped before its menu could be shown.
+                finish();
+            }
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // Only bind to an already running stopwatch, there is no menu to show otherwise. Without
+        // BIND_AUTO_CREATE, the binding succeeds whether or not the service is running, and is
+        // only connected once it runs: give up if it isn't connected shortly.
+        if (bindService(new Intent(this, StopwatchService.class), mConnection, 0)) {
+            postDelayed(mBindTimeout, BIND_TIMEOUT_MILLIS);
+        } else {
+            finish();
+        }
+    }
+
     @Override
     public void onAttachedToWindow() {
         super.onAttachedToWindow();
+        mAttachedToWindow = true;
         openOptionsMenu();
     }
 
+    @Override
+    public void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mAttachedToWindow = false;
+    }
+
+    @Override
+    public void openOptionsMenu() {
+        // The menu content depends on the stopwatch state: wait for both the window and the
+        // service to be available.
+        if (!mOptionsMenuOpen && mAttachedToWindow && mStopwatch != null) {
+            mOptionsMenuOpen = true;
+            super.openOptionsMenu();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
@@ -46,10 +129,68 @@ public class MenuActivity extends Activity {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        boolean started = mStopwatch != null && mStopwatch.isStarted();
+        boolean paused = started && mStopwatch.isPaused();
+
+        menu.findItem(R.id.pause).setVisible(started && !paused);
+        menu.findItem(R.id.resume).setVisible(paused);
+        menu.findItem(R.id.lap).setVisible(started && !paused);
+        menu.findItem(R.id.reset).setVisible(started);
+        menu.findItem(R.id.race).setVisible(started);
+        menu.findItem(R.id.laps).setVisible(started && mStopwatch.getLapCount() > 0);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        // Capture the command time before anything else so that the menu's own latency is not
+        // reflected in the stopwatch's value.
+        long whenNanos = SystemClock.elapsedRealtimeNanos();
+
         // Handle item selection.
         switch (item.getItemId()) {
+            case R.id.pause:
+                if (mStopwatch != null) {
+                    mStopwatch.pause(whenNanos);
+                }
+                return true;
+            case R.id.resume:
+                if (mStopwatch != null) {
+                    mStopwatch.resume(whenNanos);
+                }
+                return true;
+            case R.id.lap:
+                if (mStopwatch != null) {
+                    mStopwatch.lap(whenNanos);
+                }
+                return true;
+            case R.id.reset:
+                if (mStopwatch != null) {
+                    mStopwatch.reset(whenNanos);
+                }
+                return true;
+            case R.id.race:
+                // Start the new Activity at the end of the message queue for proper options menu
+                // animation.
+                post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        startActivity(new Intent(MenuActivity.this, RaceActivity.class));
+                    }
+                });
+                return true;
+            case R.id.laps:
+                post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        startActivity(new Intent(MenuActivity.this, LapHistoryActivity.class));
+                    }
+                });
+                return true;
             case R.id.stop:
                 // Stop the service at the end of the message queue for proper options menu
                 // animation. This is only needed when starting a new Activity or stopping a Service
@@ -69,10 +210,18 @@ public class MenuActivity extends Activity {
 
     @Override
     public void onOptionsMenuClosed(Menu menu) {
+        mOptionsMenuOpen = false;
         // Nothing else to do, closing the Activity.
         finish();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mBindTimeout);
+        unbindService(mConnection);
+    }
+
     /**
      * Posts a {@link Runnable} at the end of the message loop, overridable for testing.
      */
@@ -80,4 +229,11 @@ public class MenuActivity extends Activity {
         mHandler.post(runnable);
     }
 
+    /**
+     * Posts a {@link Runnable} run after {@code delayMillis}, overridable for testing.
+     */
+    protected void postDelayed(Runnable runnable, long delayMillis) {
+        mHandler.postDelayed(runnable, delayMillis);
+    }
+
 }
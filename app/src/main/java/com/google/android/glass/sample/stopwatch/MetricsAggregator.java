@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Aggregates the {@link MetricsLog} files collected from a fleet of devices, in constant memory
+ * whatever their number: the distributions of the sessions' metrics are kept in
+ * {@link Histogram}s.
+ *
+ * Printed by the {@link StopwatchService}'s dump, for the device's logs or the directories passed
+ * as arguments.
+ */
+public class MetricsAggregator implements MetricsLog.Visitor {
+
+    private static final double[] PERCENTILES = { 50, 90, 99 };
+
+    private int mFileCount;
+    private int mInvalidFileCount;
+    private long mSessionCount;
+    private long mTotalFramesDrawn;
+    private long mTotalFramesSkipped;
+    private long mTotalDurationMillis;
+    private long mTotalWakeups;
+    private final Histogram mJitterP99Micros = new Histogram();
+    private final Histogram mFirstFrameMillis = new Histogram();
+    private final Histogram mJavaHeapPeakKb = new Histogram();
+    private final Histogram mNativeHeapPeakKb = new Histogram();
+    private final Histogram mAverageDrawMicros = new Histogram();
+
+    /**
+     * Adds the records of {@code file}, or of the files of {@code file} and its subdirectories if
+     * a directory. Files which aren't metrics logs are counted and skipped.
+     */
+    public void add(File file) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    add(child);
+                }
+            }
+            return;
+        }
+        try {
+            MetricsLog.read(file, this);
+            ++mFileCount;
+        } catch (IOException e) {
+            ++mInvalidFileCount;
+        }
+    }
+
+    @Override
+    public void visit(MetricsLog.Record record) {
+        ++mSessionCount;
+        mTotalFramesDrawn += record.getFramesDrawn();
+        mTotalFramesSkipped += record.getFramesSkipped();
+        mTotalDurationMillis += record.getDurationMillis();
+        mTotalWakeups += record.getWakeups();
+        mJitterP99Micros.add(record.getJitterP99Micros());
+        if (record.getFirstFrameMillis() >= 0) {
+            mFirstFrameMillis.add(record.getFirstFrameMillis());
+        }
+        mJavaHeapPeakKb.add(record.getJavaHeapPeakKb());
+        mNativeHeapPeakKb.add(record.getNativeHeapPeakKb());
+        mAverageDrawMicros.add(record.getAverageDrawMicros());
+    }
+
+    public int getFileCount() {
+        return mFileCount;
+    }
+
+    public long getSessionCount() {
+        return mSessionCount;
+    }
+
+    public long getTotalFramesDrawn() {
+        return mTotalFramesDrawn;
+    }
+
+    /**
+     * Returns the distribution of the sessions' 99th percentile of the frame jitter.
+     */
+    public Histogram getJitterP99Micros() {
+        return mJitterP99Micros;
+    }
+
+    /**
+     * Prints the totals and the percentiles of the sessions' metrics.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println(mSessionCount + " sessions from " + mFileCount + " files, "
+                + mInvalidFileCount + " invalid files");
+        double minutes = Math.max(1, mTotalDurationMillis) / 60000.0;
+        writer.println(String.format("frames: %d drawn, %d skipped (%.2f%%), %.1f wakeups/min",
+                mTotalFramesDrawn, mTotalFramesSkipped,
+                100.0 * mTotalFramesSkipped / Math.max(1, mTotalFramesDrawn + mTotalFramesSkipped),
+                mTotalWakeups / minutes));
+        dump(writer, "jitter p99 (us)", mJitterP99Micros);
+        dump(writer, "first frame (ms)", mFirstFrameMillis);
+        dump(writer, "average draw (us)", mAverageDrawMicros);
+        dump(writer, "java heap peak (kB)", mJavaHeapPeakKb);
+        dump(writer, "native heap peak (kB)", mNativeHeapPeakKb);
+    }
+
+    private static void dump(PrintWriter writer, String name, Histogram histogram) {
+        StringBuilder line = new StringBuilder(String.format("%-22s", name));
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(" p%.0f %-8d", percentile,
+                    histogram.getPercentile(percentile)));
+        }
+        line.append(" max ").append(histogram.getMax());
+        writer.println(line);
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Size-capped log of {@link SessionMetrics} records, one fixed-size record per session, in
+ * memory-mapped files of a directory.
+ *
+ * Each file holds a 16 bytes header, big-endian: a magic number, the version, the record size and
+ * the number of records written, followed by {@link #RECORDS_PER_FILE} record slots. A record is
+ * written to its slot before the count is updated, so that a record is either complete or not
+ * counted. Once a file is full, the next one is created and the oldest are deleted to keep
+ * {@link #MAX_FILES} at most. The files are read on any JVM by {@link #read(File, Visitor)}, e.g.
+ * to aggregate the logs of a fleet with {@link MetricsAggregator}.
+ *
+ * Opening a file lists the directory, creates and maps it: a log given a writer {@link Handler}
+ * appends from its thread with {@link #appendSoon(ByteBuffer)}, so that the main thread never
+ * waits on the disk. A log is only appended to from a single thread.
+ */
+public class MetricsLog {
+
+    private static final String TAG = MetricsLog.class.getSimpleName();
+
+    /** Size of a record in bytes. */
+    public static final int RECORD_SIZE = 64;
+    /** Records of a file. */
+    public static final int RECORDS_PER_FILE = 256;
+    /** Files kept at most. */
+    public static final int MAX_FILES = 8;
+
+    /** First field of a written record. */
+    static final int RECORD_MAGIC = 0x534d5231;
+
+    private static final int MAGIC = 0x534d4c47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 12;
+    private static final int FILE_SIZE = HEADER_SIZE + RECORDS_PER_FILE * RECORD_SIZE;
+    private static final Pattern FILE_NAME = Pattern.compile("metrics-(\\d+)\\.log");
+
+    /**
+     * A record of a file, only valid while visited.
+     */
+    public static class Record {
+        private ByteBuffer mBuffer;
+        private int mOffset;
+
+        public int getFramesDrawn() {
+            return mBuffer.getInt(mOffset + 4);
+        }
+
+        /** Returns the start of the session on the wall clock. */
+        public long getStartMillis() {
+            return mBuffer.getLong(mOffset + 8);
+        }
+
+        public long getDurationMillis() {
+            return mBuffer.getLong(mOffset + 16);
+        }
+
+        public int getFramesSkipped() {
+            return mBuffer.getInt(mOffset + 24);
+        }
+
+        public int getJitterP50Micros() {
+            return mBuffer.getInt(mOffset + 28);
+        }
+
+        public int getJitterP90Micros() {
+            return mBuffer.getInt(mOffset + 32);
+        }
+
+        public int getJitterP99Micros() {
+            return mBuffer.getInt(mOffset + 36);
+        }
+
+        public int getJitterMaxMicros() {
+            return mBuffer.getInt(mOffset + 40);
+        }
+
+        /** Returns the time from the service start to the first frame, -1 if not measured. */
+        public int getFirstFrameMillis() {
+            return mBuffer.getInt(mOffset + 44);
+        }
+
+        public int getWakeups() {
+            return mBuffer.getInt(mOffset + 48);
+        }
+
+        public int getJavaHeapPeakKb() {
+            return mBuffer.getInt(mOffset + 52);
+        }
+
+        public int getNativeHeapPeakKb() {
+            return mBuffer.getInt(mOffset + 56);
+        }
+
+        public int getAverageDrawMicros() {
+            return mBuffer.getInt(mOffset + 60);
+        }
+    }
+
+    /**
+     * Interface to visit the records of a file.
+     */
+    public interface Visitor {
+        public void visit(Record record);
+    }
+
+    private final File mDirectory;
+    private final Handler mWriter;
+    private MappedByteBuffer mBuffer;
+    private int mSequence = -1;
+
+    /**
+     * Creates a {@link MetricsLog} in {@code directory}, created if needed. Nothing is read nor
+     * written until the first record is appended.
+     */
+    public MetricsLog(File directory) {
+        this(directory, null);
+    }
+
+    /**
+     * Creates a {@link MetricsLog} in {@code directory} appending the records passed to
+     * {@link #appendSoon(ByteBuffer)} from the thread of {@code writer}.
+     */
+    public MetricsLog(File directory, Handler writer) {
+        mDirectory = directory;
+        mWriter = writer;
+    }
+
+    /**
+     * Appends a copy of the record in {@code record}, from its position, from the writer's thread,
+     * or from the calling thread without a writer. Never blocks with a writer: a failure is only
+     * logged.
+     */
+    public void appendSoon(ByteBuffer record) {
+        if (record.remaining() != RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid record size: " + record.remaining());
+        }
+        // The caller reuses its buffer for the next session.
+        final ByteBuffer copy = ByteBuffer.allocate(RECORD_SIZE);
+        copy.put(record).flip();
+        Runnable appendRunnable = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    append(copy);
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to append the session metrics: " + e);
+                }
+            }
+        };
+        if (mWriter != null) {
+            mWriter.post(appendRunnable);
+        } else {
+            appendRunnable.run();
+        }
+    }
+
+    /**
+     * Appends the record in {@code record}, from its position, as returned by
+     * {@link SessionMetrics#toRecord(long, long, int)}. Only the page cache is written to: the
+     * record survives the process, and is flushed to the disk by the system.
+     */
+    public void append(ByteBuffer record) throws IOException {
+        if (record.remaining() != RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid record size: " + record.remaining());
+        }
+        if (mBuffer == null) {
+            openLast();
+        }
+        int count = mBuffer.getInt(COUNT_OFFSET);
+        if (count >= RECORDS_PER_FILE) {
+            open(mSequence + 1);
+            count = 0;
+        }
+        mBuffer.position(HEADER_SIZE + count * RECORD_SIZE);
+        mBuffer.put(record);
+        mBuffer.putInt(COUNT_OFFSET, count + 1);
+    }
+
+    /**
+     * Returns the log's files, by increasing age.
+     */
+    public File[] getFiles() {
+        int last = getLastSequence();
+        int count = 0;
+        File[] files = new File[MAX_FILES];
+        for (int sequence = last; sequence >= 0 && sequence > last - MAX_FILES; --sequence) {
+            File file = getFile(sequence);
+            if (file.exists()) {
+                files[count++] = file;
+            }
+        }
+        File[] existing = new File[count];
+        System.arraycopy(files, 0, existing, 0, count);
+        return existing;
+    }
+
+    /**
+     * Visits the records of {@code file} in the order they were written.
+     *
+     * @return the number of records visited.
+     * @throws IOException if {@code file} can't be read or isn't a metrics log
+     */
+    public static int read(File file, Visitor visitor) throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a metrics log: " + file);
+        }
+        if (buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE) {
+            throw new IOException("Unsupported metrics log version: " + buffer.getInt(4));
+        }
+        int count = Math.min(buffer.getInt(COUNT_OFFSET),
+                (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE);
+        Record record = new Record();
+        record.mBuffer = buffer;
+        int visited = 0;
+        for (int i = 0; i < count; ++i) {
+            record.mOffset = HEADER_SIZE + i * RECORD_SIZE;
+            if (buffer.getInt(record.mOffset) == RECORD_MAGIC) {
+                visitor.visit(record);
+                ++visited;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Opens the last file, or the first one.
+     */
+    private void openLast() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+        open(Math.max(0, getLastSequence()));
+    }
+
+    /**
+     * Maps the file at {@code sequence}, created if needed, and deletes the files past the cap.
+     */
+    private void open(int sequence) throws IOException {
+        File file = getFile(sequence);
+        boolean created = !file.exists();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    FILE_SIZE);
+        } finally {
+            randomAccessFile.close();
+        }
+        mSequence = sequence;
+        if (created || mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION) {
+            // New, or left by another version: start over.
+            mBuffer.putInt(4, VERSION);
+            mBuffer.putInt(8, RECORD_SIZE);
+            mBuffer.putInt(COUNT_OFFSET, 0);
+            mBuffer.putInt(0, MAGIC);
+        }
+        for (int old = sequence - MAX_FILES; old >= 0; --old) {
+            File oldFile = getFile(old);
+            if (!oldFile.exists()) {
+                break;
+            }
+            oldFile.delete();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last file, -1 if none.
+     */
+    private int getLastSequence() {
+        int last = -1;
+        String[] names = mDirectory.list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher matcher = FILE_NAME.matcher(name);
+                if (matcher.matches()) {
+                    try {
+                        last = Math.max(last, Integer.parseInt(matcher.group(1)));
+                    } catch (NumberFormatException e) {
+                        // Not one of ours.
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    private File getFile(int sequence) {
+        return new File(mDirectory, "metrics-" + sequence + ".log");
+    }
+}
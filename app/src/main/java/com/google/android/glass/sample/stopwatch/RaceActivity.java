@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import com.google.android.glass.touchpad.Gesture;
+import com.google.android.glass.touchpad.GestureDetector;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.speech.RecognizerIntent;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.widget.TextView;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Activity recording race finish times on top of the running stopwatch: each tap or key press
+ * records a finish, a held key's repeats being ignored, and the latest results are shown with
+ * their time on the chronometer at the moment they were recorded, unaffected by later pauses or
+ * resets.
+ *
+ * A two-finger tap assigns a bib to the selected finish, the latest one unless another is selected
+ * by swiping through the results: the number is spoken through the speech recognizer, and shown
+ * next to the finish's time.
+ *
+ * Finishes are recorded in the {@link StopwatchService}'s {@link FinishRecorder}, and their bibs in
+ * its {@link RaceResults}, so that they outlive the activity. The finish whose bib is being spoken
+ * is saved with the activity's state, and the bib assigned once the service is bound again.
+ */
+public class RaceActivity extends Activity {
+
+    /** Number of results shown around the selected one. */
+    private static final int RESULTS_SHOWN = 3;
+
+    /** Request code of the speech recognition of a bib, visible for testing. */
+    static final int REQUEST_BIB = 1;
+
+    /**
+     * Saved state key of the finish the bib being recognized is assigned to, visible for testing.
+     */
+    static final String STATE_BIB_FINISH_INDEX = "bib_finish_index";
+    /** Saved state key of the finish selected. */
+    private static final String STATE_SELECTED_FINISH_INDEX = "selected_finish_index";
+
+    private final StringBuilder mResultsText = new StringBuilder();
+
+    private StopwatchService.StopwatchBinder mStopwatch;
+    private GestureDetector mGestureDetector;
+    private TextView mCountView;
+    private TextView mResultsView;
+    /** Index of the finish selected by swiping through the results, or -1 for the latest one. */
+    private int mSelectedFinishIndex = -1;
+    /** Index of the finish the bib being recognized is assigned to. */
+    private int mBibFinishIndex = -1;
+    /** Bib recognized before the service was bound, assigned once it is. */
+    private int mPendingBib = RaceResults.NO_BIB;
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            if (service instanceof StopwatchService.StopwatchBinder) {
+                mStopwatch = (StopwatchService.StopwatchBinder) service;
+                if (mPendingBib != RaceResults.NO_BIB) {
+                    assignBib(mPendingBib);
+                    mPendingBib = RaceResults.NO_BIB;
+                }
+                showResults();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mStopwatch = null;
+        }
+    };
+
+    private final GestureDetector.BaseListener mBaseListener = new GestureDetector.BaseListener() {
+
+        @Override
+        public boolean onGesture(Gesture gesture) {
+            if (gesture == Gesture.TAP) {
+                recordFinish(SystemClock.elapsedRealtimeNanos());
+                return true;
+            } else if (gesture == Gesture.TWO_TAP) {
+                return requestBib();
+            } else if (gesture == Gesture.SWIPE_LEFT) {
+                return selectResult(-1);
+            } else if (gesture == Gesture.SWIPE_RIGHT) {
+                return selectResult(1);
+            }
+            return false;
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.card_race);
+        mCountView = (TextView) findViewById(R.id.race_count);
+        mResultsView = (TextView) findViewById(R.id.race_results);
+        mCountView.setText(R.string.race_hint);
+        if (savedInstanceState != null) {
+            mBibFinishIndex = savedInstanceState.getInt(STATE_BIB_FINISH_INDEX, -1);
+            mSelectedFinishIndex = savedInstanceState.getInt(STATE_SELECTED_FINISH_INDEX, -1);
+        }
+
+        mGestureDetector = new GestureDetector(this).setBaseListener(mBaseListener);
+        // Only bind to an already running stopwatch.
+        bindService(new Intent(this, StopwatchService.class), mConnection, 0);
+    }
+
+    @Override
+    public boolean onGenericMotionEvent(MotionEvent event) {
+        return mGestureDetector.onMotionEvent(event) || super.onGenericMotionEvent(event);
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_DPAD_CENTER:
+            case KeyEvent.KEYCODE_ENTER:
+            case KeyEvent.KEYCODE_SPACE:
+                if (event.getRepeatCount() > 0) {
+                    // A held key auto-repeats: only its first press is a finish.
+                    return true;
+                }
+                // Use the time of the key press rather than the time it is handled, event times
+                // are on the uptime clock.
+                long ageNanos = TimeUnit.MILLISECONDS.toNanos(
+                        SystemClock.uptimeMillis() - event.getEventTime());
+                recordFinish(SystemClock.elapsedRealtimeNanos() - ageNanos);
+                return true;
+            default:
+                return super.onKeyDown(keyCode, event);
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != REQUEST_BIB) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        if (resultCode == RESULT_OK && data != null && mBibFinishIndex >= 0) {
+            List<String> results = data.getStringArrayListExtra(RecognizerIntent.EXTRA_RESULTS);
+            int bib = results != null && !results.isEmpty()
+                    ? parseBib(results.get(0)) : RaceResults.NO_BIB;
+            if (bib != RaceResults.NO_BIB) {
+                if (mStopwatch != null) {
+                    assignBib(bib);
+                    showResults();
+                } else {
+                    // Recreated while the bib was spoken, and not bound again yet.
+                    mPendingBib = bib;
+                    return;
+                }
+            }
+        }
+        mBibFinishIndex = -1;
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_BIB_FINISH_INDEX, mBibFinishIndex);
+        outState.putInt(STATE_SELECTED_FINISH_INDEX, mSelectedFinishIndex);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unbindService(mConnection);
+    }
+
+    /**
+     * Records a finish at {@code whenNanos} and shows the updated results, visible for testing.
+     */
+    void recordFinish(long whenNanos) {
+        if (mStopwatch != null && mStopwatch.recordFinish(whenNanos) >= 0) {
+            showResults();
+        }
+    }
+
+    /**
+     * Moves the selection {@code step} results later, back to following the latest finish once
+     * past it, and shows the results around it. Visible for testing.
+     *
+     * @return whether or not there are results to select.
+     */
+    boolean selectResult(int step) {
+        if (mStopwatch == null) {
+            return false;
+        }
+        RaceResults results = mStopwatch.getRaceResults();
+        int count = results.getCount();
+        if (count == 0) {
+            return false;
+        }
+        int rank = getSelectedRank(results) + step;
+        mSelectedFinishIndex = rank >= count - 1 ? -1 : results.getFinishIndex(Math.max(0, rank));
+        showResults();
+        return true;
+    }
+
+    /**
+     * Starts recognizing the bib of the selected finish, kept aside so that the finishes recorded
+     * meanwhile don't take it. Visible for testing.
+     *
+     * @return whether or not there is a finish to assign a bib to.
+     */
+    boolean requestBib() {
+        if (mStopwatch == null) {
+            return false;
+        }
+        // Finishes may have been recorded by the trigger server since the last update.
+        RaceResults results = mStopwatch.getRaceResults();
+        if (results.getCount() == 0) {
+            return false;
+        }
+        mBibFinishIndex = results.getFinishIndex(getSelectedRank(results));
+        startActivityForResult(new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH)
+                .putExtra(RecognizerIntent.EXTRA_PROMPT, getString(R.string.race_bib_prompt)),
+                REQUEST_BIB);
+        return true;
+    }
+
+    /**
+     * Returns the bib spoken in {@code text}, its digits, or {@link RaceResults#NO_BIB} if none.
+     * Visible for testing.
+     */
+    static int parseBib(String text) {
+        int bib = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (bib > (Integer.MAX_VALUE - 9) / 10) {
+                    return RaceResults.NO_BIB;
+                }
+                bib = bib * 10 + c - '0';
+            }
+        }
+        return bib;
+    }
+
+    /**
+     * Assigns {@code bib} to the finish it was spoken for, once the service is bound.
+     */
+    private void assignBib(int bib) {
+        // Finish indexes start from 0 with each session of the service.
+        if (mBibFinishIndex < mStopwatch.getRaceResults().getCount()) {
+            mStopwatch.getRaceResults().assignBib(mBibFinishIndex, bib);
+        }
+        mBibFinishIndex = -1;
+    }
+
+    /**
+     * Returns the rank of the selected finish in {@code results}, which must not be empty: the
+     * selection is kept by finish so that it stays on it when earlier finishes are inserted.
+     */
+    private int getSelectedRank(RaceResults results) {
+        int rank = mSelectedFinishIndex >= 0 ? results.getRank(mSelectedFinishIndex) : -1;
+        return rank >= 0 ? rank : results.getCount() - 1;
+    }
+
+    /**
+     * Shows the number of results and the ones around the selected finish, updated with the
+     * finishes recorded since they were last shown. The selected finish is marked once it isn't
+     * the latest.
+     */
+    private void showResults() {
+        if (mStopwatch == null) {
+            return;
+        }
+        RaceResults results = mStopwatch.getRaceResults();
+        int count = results.getCount();
+        if (count == 0) {
+            return;
+        }
+        mCountView.setText(getString(R.string.race_finishes, count));
+
+        int selectedRank = getSelectedRank(results);
+        int lastRank = Math.min(count - 1,
+                Math.max(selectedRank + RESULTS_SHOWN / 2, RESULTS_SHOWN - 1));
+        mResultsText.setLength(0);
+        for (int rank = lastRank; rank >= Math.max(0, lastRank - RESULTS_SHOWN + 1); --rank) {
+            long elapsedNanos = mStopwatch.getElapsedNanosAt(results.getFinishNanos(rank));
+            if (mSelectedFinishIndex >= 0 && rank == selectedRank) {
+                mResultsText.append("> ");
+            }
+            mResultsText.append(rank + 1).append(".  ").append(formatElapsed(elapsedNanos));
+            int bib = results.getBib(rank);
+            if (bib != RaceResults.NO_BIB) {
+                mResultsText.append("  #").append(bib);
+            }
+            mResultsText.append('\n');
+        }
+        mResultsView.setText(mResultsText);
+    }
+
+    /**
+     * Formats {@code elapsedNanos} as shown by the chronometer: MM:SS.cc, or H:MM:SS.cc after the
+     * first hour.
+     */
+    static String formatElapsed(long elapsedNanos) {
+        long centiSeconds = TimeUnit.NANOSECONDS.toMillis(elapsedNanos) / 10;
+        long seconds = centiSeconds / 100;
+        long minutes = seconds / 60;
+        long hours = minutes / 60;
+        if (hours == 0) {
+            return String.format("%02d:%02d.%02d", minutes, seconds % 60, centiSeconds % 100);
+        }
+        return String.format("%d:%02d:%02d.%02d", hours, minutes % 60, seconds % 60,
+                centiSeconds % 100);
+    }
+}
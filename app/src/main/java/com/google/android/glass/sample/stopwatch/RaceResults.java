@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import java.util.Arrays;
+
+/**
+ * Race results sorted by finish time, updated incrementally from a {@link FinishRecorder}.
+ *
+ * Finishes mostly arrive in order so each new one is inserted from the end of the results, which
+ * is constant time unless it was recorded out of order. Bib numbers are assigned to the finishes
+ * at any time, by their index in the {@link FinishRecorder}. Not thread-safe: results are meant
+ * to be updated and read from the main thread.
+ */
+public class RaceResults {
+
+    /** Bib of the finishes not assigned one yet. */
+    public static final int NO_BIB = 0;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Finish times sorted, and the matching finish index in the {@link FinishRecorder}. */
+    private long[] mSortedNanos = new long[INITIAL_CAPACITY];
+    private int[] mSortedFinishes = new int[INITIAL_CAPACITY];
+    private int mCount;
+
+    /** Bib of each finish, by finish index. */
+    private int[] mBibs = new int[INITIAL_CAPACITY];
+
+    /**
+     * Inserts the finishes recorded since the last update.
+     *
+     * @return the number of new finishes.
+     */
+    public int update(FinishRecorder recorder) {
+        int count = recorder.getCount();
+        if (count <= mCount) {
+            return 0;
+        }
+        ensureCapacity(count);
+        int added = count - mCount;
+        for (int finish = mCount; finish < count; ++finish) {
+            insert(recorder.get(finish), finish);
+        }
+        return added;
+    }
+
+    /**
+     * Returns the number of finishes.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the finish time of the result at {@code rank}, 0 being the first.
+     */
+    public long getFinishNanos(int rank) {
+        checkRank(rank);
+        return mSortedNanos[rank];
+    }
+
+    /**
+     * Returns the index in the {@link FinishRecorder} of the result at {@code rank}.
+     */
+    public int getFinishIndex(int rank) {
+        checkRank(rank);
+        return mSortedFinishes[rank];
+    }
+
+    /**
+     * Returns the rank of the finish at {@code finishIndex} in the {@link FinishRecorder}, or -1 if
+     * it isn't in the results.
+     */
+    public int getRank(int finishIndex) {
+        // The finishes looked up are mostly the latest ones.
+        for (int rank = mCount - 1; rank >= 0; --rank) {
+            if (mSortedFinishes[rank] == finishIndex) {
+                return rank;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the bib of the result at {@code rank}, or {@link #NO_BIB}.
+     */
+    public int getBib(int rank) {
+        return mBibs[getFinishIndex(rank)];
+    }
+
+    /**
+     * Assigns {@code bib} to the finish at {@code finishIndex} in the {@link FinishRecorder}.
+     */
+    public void assignBib(int finishIndex, int bib) {
+        if (finishIndex < 0 || finishIndex >= mCount) {
+            throw new IndexOutOfBoundsException("Invalid finish index: " + finishIndex);
+        }
+        mBibs[finishIndex] = bib;
+    }
+
+    /**
+     * Inserts {@code finishNanos} at its rank, shifting the later results.
+     */
+    private void insert(long finishNanos, int finish) {
+        int rank = mCount;
+        while (rank > 0 && mSortedNanos[rank - 1] > finishNanos) {
+            --rank;
+        }
+        System.arraycopy(mSortedNanos, rank, mSortedNanos, rank + 1, mCount - rank);
+        System.arraycopy(mSortedFinishes, rank, mSortedFinishes, rank + 1, mCount - rank);
+        mSortedNanos[rank] = finishNanos;
+        mSortedFinishes[rank] = finish;
+        ++mCount;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mSortedNanos.length) {
+            int length = Math.max(capacity, mSortedNanos.length * 2);
+            mSortedNanos = Arrays.copyOf(mSortedNanos, length);
+            mSortedFinishes = Arrays.copyOf(mSortedFinishes, length);
+            mBibs = Arrays.copyOf(mBibs, length);
+        }
+    }
+
+    private void checkRank(int rank) {
+        if (rank < 0 || rank >= mCount) {
+            throw new IndexOutOfBoundsException("Invalid rank: " + rank);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persistent history of the past stopwatch sessions, stored in SQLite.
+ *
+ * Sessions are indexed by start time, so that the latest sessions and the sessions within a date
+ * range are read without scanning the whole history. Laps are stored with their session as a single
+ * blob rather than one row each.
+ *
+ * Sessions added from the main thread are only queued: they are written in batches, one transaction
+ * each, on a background thread. Queries hit the database directly and must not be made from the
+ * main thread.
+ *
+ * Each session is also kept as pending upload until marked uploaded, see {@link SessionUploader}.
+ */
+public class SessionHistory {
+
+    /** A past stopwatch session. */
+    public static class Session {
+
+        /** Row ID of the sessions read from the history, -1 for the new ones. */
+        private final long mId;
+        private final long mStartTimeMillis;
+        private final long mDurationNanos;
+        private final long[] mLapNanos;
+
+        /**
+         * @param startTimeMillis the session's start, as returned by
+         *     {@link System#currentTimeMillis()}
+         * @param durationNanos the chronometer's value at the end of the session
+         * @param lapNanos the lap times from the start of the session
+         */
+        public Session(long startTimeMillis, long durationNanos, long[] lapNanos) {
+            this(-1, startTimeMillis, durationNanos, lapNanos);
+        }
+
+        private Session(long id, long startTimeMillis, long durationNanos, long[] lapNanos) {
+            mId = id;
+            mStartTimeMillis = startTimeMillis;
+            mDurationNanos = durationNanos;
+            mLapNanos = lapNanos.clone();
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public long getStartTimeMillis() {
+            return mStartTimeMillis;
+        }
+
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        public int getLapCount() {
+            return mLapNanos.length;
+        }
+
+        public long getLapNanos(int index) {
+            return mLapNanos[index];
+        }
+    }
+
+    private static final String DATABASE_NAME = "sessions.db";
+    /** Version 2 tracks the uploads. */
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_SESSIONS = "sessions";
+    private static final String COLUMN_START_TIME = "start_time";
+    private static final String COLUMN_DURATION = "duration";
+    private static final String COLUMN_LAP_COUNT = "lap_count";
+    private static final String COLUMN_LAPS = "laps";
+    private static final String COLUMN_UPLOADED = "uploaded";
+
+    private static final String INSERT_SESSION = "INSERT INTO " + TABLE_SESSIONS + " ("
+            + COLUMN_START_TIME + ", " + COLUMN_DURATION + ", " + COLUMN_LAP_COUNT + ", "
+            + COLUMN_LAPS + ") VALUES (?, ?, ?, ?)";
+    private static final String SELECT_SESSIONS = "SELECT _id, " + COLUMN_START_TIME + ", "
+            + COLUMN_DURATION + ", " + COLUMN_LAPS + " FROM " + TABLE_SESSIONS;
+    private static final String MARK_UPLOADED = "UPDATE " + TABLE_SESSIONS + " SET "
+            + COLUMN_UPLOADED + " = 1 WHERE _id = ?";
+
+    private static SessionHistory sInstance;
+
+    /** Delay before writing the queued sessions, so that close additions share a transaction. */
+    private static final long BATCH_DELAY_MILLIS = 1000;
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        DatabaseHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_SESSIONS + " ("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_START_TIME + " INTEGER NOT NULL, "
+                    + COLUMN_DURATION + " INTEGER NOT NULL, "
+                    + COLUMN_LAP_COUNT + " INTEGER NOT NULL, "
+                    + COLUMN_LAPS + " BLOB, "
+                    + COLUMN_UPLOADED + " INTEGER NOT NULL DEFAULT 0)");
+            db.execSQL("CREATE INDEX " + TABLE_SESSIONS + "_" + COLUMN_START_TIME + " ON "
+                    + TABLE_SESSIONS + " (" + COLUMN_START_TIME + ")");
+            createUploadIndex(db);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion < 2) {
+                // Sessions stored before uploads existed are uploaded as well.
+                db.execSQL("ALTER TABLE " + TABLE_SESSIONS + " ADD COLUMN " + COLUMN_UPLOADED
+                        + " INTEGER NOT NULL DEFAULT 0");
+                createUploadIndex(db);
+            }
+        }
+
+        private static void createUploadIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX " + TABLE_SESSIONS + "_" + COLUMN_UPLOADED + " ON "
+                    + TABLE_SESSIONS + " (" + COLUMN_UPLOADED + ", _id)");
+        }
+    }
+
+    private final DatabaseHelper mHelper;
+    private final HandlerThread mWriterThread;
+    private final Handler mWriter;
+
+    /** Sessions waiting to be written, guarded by itself. */
+    private final List<Session> mPending = new ArrayList<Session>();
+
+    private final Runnable mWriteRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Returns the process-wide {@link SessionHistory}, shared by the stopwatch and the uploads.
+     */
+    public static synchronized SessionHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SessionHistory(context.getApplicationContext(), DATABASE_NAME);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a {@link SessionHistory} stored in the database {@code name}, visible for testing.
+     */
+    SessionHistory(Context context, String name) {
+        mHelper = new DatabaseHelper(context, name);
+        mWriterThread = new HandlerThread("SessionHistory", Process.THREAD_PRIORITY_BACKGROUND);
+        mWriterThread.start();
+        mWriter = new Handler(mWriterThread.getLooper());
+    }
+
+    /**
+     * Returns the {@link Handler} of the background thread writing the history, e.g. to append the
+     * other records of a session from it.
+     */
+    public Handler getWriter() {
+        return mWriter;
+    }
+
+    /**
+     * Queues {@code session} to be written in the background, never blocks.
+     */
+    public void add(Session session) {
+        synchronized (mPending) {
+            mPending.add(session);
+            if (mPending.size() == 1) {
+                mWriter.postDelayed(mWriteRunnable, BATCH_DELAY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued sessions in the background without waiting for more, never blocks.
+     */
+    public void writeSoon() {
+        synchronized (mPending) {
+            if (!mPending.isEmpty()) {
+                mWriter.removeCallbacks(mWriteRunnable);
+                mWriter.post(mWriteRunnable);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued sessions now, on the calling thread.
+     */
+    public void flush() {
+        Session[] sessions;
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            sessions = mPending.toArray(new Session[mPending.size()]);
+            mPending.clear();
+            mWriter.removeCallbacks(mWriteRunnable);
+        }
+        insert(sessions);
+    }
+
+    /**
+     * Writes {@code sessions} in a single transaction, on the calling thread.
+     */
+    public void insert(Session[] sessions) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(INSERT_SESSION);
+        db.beginTransaction();
+        try {
+            for (Session session : sessions) {
+                statement.bindLong(1, session.mStartTimeMillis);
+                statement.bindLong(2, session.mDurationNanos);
+                statement.bindLong(3, session.mLapNanos.length);
+                statement.bindBlob(4, toBlob(session.mLapNanos));
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} sessions, latest first.
+     */
+    public List<Session> getLatest(int limit) {
+        return query(SELECT_SESSIONS + " ORDER BY " + COLUMN_START_TIME + " DESC LIMIT "
+                + limit, null);
+    }
+
+    /**
+     * Returns the sessions started within [{@code fromMillis}, {@code toMillis}), latest first.
+     */
+    public List<Session> getRange(long fromMillis, long toMillis) {
+        return query(SELECT_SESSIONS + " WHERE " + COLUMN_START_TIME + " >= ? AND "
+                + COLUMN_START_TIME + " < ? ORDER BY " + COLUMN_START_TIME + " DESC",
+                new String[] { Long.toString(fromMillis), Long.toString(toMillis) });
+    }
+
+    /**
+     * Returns up to {@code limit} sessions not uploaded yet, oldest first.
+     */
+    public List<Session> getPendingUploads(int limit) {
+        return query(SELECT_SESSIONS + " WHERE " + COLUMN_UPLOADED + " = 0 ORDER BY _id LIMIT "
+                + limit, null);
+    }
+
+    /**
+     * Marks {@code sessions}, read from the history, uploaded in a single transaction.
+     */
+    public void markUploaded(List<Session> sessions) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(MARK_UPLOADED);
+        db.beginTransaction();
+        try {
+            for (Session session : sessions) {
+                statement.bindLong(1, session.mId);
+                statement.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    /**
+     * Returns the number of sessions written.
+     */
+    public long getCount() {
+        SQLiteStatement statement = mHelper.getReadableDatabase().compileStatement(
+                "SELECT COUNT(*) FROM " + TABLE_SESSIONS);
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Writes the queued sessions and releases the database, the history can't be used anymore.
+     * The instance returned by {@link #getInstance(Context)} lives as long as the process and is
+     * never closed.
+     */
+    public void close() {
+        mWriter.post(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+                mHelper.close();
+            }
+        });
+        mWriterThread.quitSafely();
+    }
+
+    private List<Session> query(String sql, String[] args) {
+        List<Session> sessions = new ArrayList<Session>();
+        Cursor cursor = mHelper.getReadableDatabase().rawQuery(sql, args);
+        try {
+            while (cursor.moveToNext()) {
+                sessions.add(new Session(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2),
+                        fromBlob(cursor.getBlob(3))));
+            }
+        } finally {
+            cursor.close();
+        }
+        return sessions;
+    }
+
+    private static byte[] toBlob(long[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+        buffer.asLongBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static long[] fromBlob(byte[] blob) {
+        if (blob == null) {
+            return new long[0];
+        }
+        long[] values = new long[blob.length / 8];
+        ByteBuffer.wrap(blob).asLongBuffer().get(values);
+        return values;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.os.Debug;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the performance metrics of a session of the chronometer, written as a
+ * {@link MetricsLog} record when the session ends: the frames drawn by its ticks and the ticks
+ * missed, the percentiles of the ticks' jitter, the wakeups and the peak memory used.
+ *
+ * Collecting a tick or a frame is a few arithmetic operations and a {@link Histogram} increment,
+ * without allocation; the memory is only sampled every {@link #MEMORY_SAMPLE_FRAMES} frames.
+ */
+public class SessionMetrics {
+
+    /** Frames between two samples of the memory used, a power of 2. */
+    public static final int MEMORY_SAMPLE_FRAMES = 256;
+
+    private static final long NO_TICK = Long.MIN_VALUE;
+
+    private final Histogram mJitterMicros = new Histogram();
+    private final ByteBuffer mRecord = ByteBuffer.allocate(MetricsLog.RECORD_SIZE);
+
+    private int mFramesDrawn;
+    private int mFramesSkipped;
+    private int mWakeups;
+    private long mTotalDrawNanos;
+    private long mLastTickNanos = NO_TICK;
+    private long mJavaHeapPeakBytes;
+    private long mNativeHeapPeakBytes;
+
+    /**
+     * Notified of a wakeup of the main thread for the stopwatch other than the chronometer's
+     * ticks, e.g. the countdown's.
+     */
+    public void onWakeup() {
+        ++mWakeups;
+    }
+
+    /**
+     * Notified of a chronometer's tick at {@code tickNanos}, drawing a frame or not, while ticks
+     * are expected every {@code intervalMillis}.
+     */
+    public void onTick(long tickNanos, long intervalMillis) {
+        ++mWakeups;
+        if (mLastTickNanos != NO_TICK) {
+            long expectedNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+            long actualNanos = tickNanos - mLastTickNanos;
+            mJitterMicros.add((int) Math.min(Integer.MAX_VALUE,
+                    TimeUnit.NANOSECONDS.toMicros(Math.abs(actualNanos - expectedNanos))));
+            if (expectedNanos > 0 && actualNanos >= expectedNanos + expectedNanos / 2) {
+                // Rounded to the nearest number of intervals.
+                mFramesSkipped += (int) ((actualNanos + expectedNanos / 2) / expectedNanos) - 1;
+            }
+        }
+        mLastTickNanos = tickNanos;
+    }
+
+    /**
+     * Notified of a frame drawn by a tick, taking {@code drawNanos}.
+     */
+    public void onFrameDrawn(long drawNanos) {
+        ++mFramesDrawn;
+        mTotalDrawNanos += drawNanos;
+        if ((mFramesDrawn & (MEMORY_SAMPLE_FRAMES - 1)) == 0) {
+            sampleMemory();
+        }
+    }
+
+    /**
+     * Notified that the ticks stopped, e.g. paused or not visible, so that the next tick isn't
+     * taken as late.
+     */
+    public void onTicksStopped() {
+        mLastTickNanos = NO_TICK;
+    }
+
+    /**
+     * Samples the memory used, keeping the peak.
+     */
+    public void sampleMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        mJavaHeapPeakBytes =
+                Math.max(mJavaHeapPeakBytes, runtime.totalMemory() - runtime.freeMemory());
+        mNativeHeapPeakBytes =
+                Math.max(mNativeHeapPeakBytes, Debug.getNativeHeapAllocatedSize());
+    }
+
+    public int getFramesDrawn() {
+        return mFramesDrawn;
+    }
+
+    public int getFramesSkipped() {
+        return mFramesSkipped;
+    }
+
+    public int getWakeups() {
+        return mWakeups;
+    }
+
+    /**
+     * Returns the jitter of the ticks, the difference between their actual and expected interval,
+     * in microseconds.
+     */
+    public Histogram getJitterMicros() {
+        return mJitterMicros;
+    }
+
+    /**
+     * Returns the record of the session started at {@code startMillis} on the wall clock and
+     * lasting {@code durationMillis}, with the time to its first frame or -1 if not measured. The
+     * returned buffer is reused by the next call.
+     */
+    public ByteBuffer toRecord(long startMillis, long durationMillis, int firstFrameMillis) {
+        sampleMemory();
+        mRecord.clear();
+        mRecord.putInt(MetricsLog.RECORD_MAGIC)
+                .putInt(mFramesDrawn)
+                .putLong(startMillis)
+                .putLong(durationMillis)
+                .putInt(mFramesSkipped)
+                .putInt(mJitterMicros.getPercentile(50))
+                .putInt(mJitterMicros.getPercentile(90))
+                .putInt(mJitterMicros.getPercentile(99))
+                .putInt(mJitterMicros.getMax())
+                .putInt(firstFrameMillis)
+                .putInt(mWakeups)
+                .putInt((int) (mJavaHeapPeakBytes / 1024))
+                .putInt((int) (mNativeHeapPeakBytes / 1024))
+                .putInt(mFramesDrawn > 0
+                        ? (int) TimeUnit.NANOSECONDS.toMicros(mTotalDrawNanos / mFramesDrawn) : 0);
+        mRecord.flip();
+        return mRecord;
+    }
+
+    /**
+     * Clears the metrics for a new session.
+     */
+    public void reset() {
+        mJitterMicros.clear();
+        mFramesDrawn = 0;
+        mFramesSkipped = 0;
+        mWakeups = 0;
+        mTotalDrawNanos = 0;
+        mLastTickNanos = NO_TICK;
+        mJavaHeapPeakBytes = 0;
+        mNativeHeapPeakBytes = 0;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uploads the sessions of a {@link SessionHistory} not uploaded yet, in batches.
+ *
+ * Each batch is a single POST request of a gzipped JSON body:
+ * {@code {"sessions":[{"start_time_ms":..,"duration_ns":..,"laps_ns":[..]},..]}}, oldest session
+ * first. The sessions of a batch are marked uploaded once the server accepted it. Uploads block and
+ * must run in the background, see {@link UploadService}.
+ */
+public class SessionUploader {
+
+    private static final String TAG = SessionUploader.class.getSimpleName();
+
+    /** Sessions uploaded at most per request. */
+    public static final int BATCH_SIZE = 50;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(15);
+    private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+
+    /** Delay before the first retry, doubled on each failed attempt. */
+    private static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final SessionHistory mHistory;
+    private final URL mUrl;
+
+    // Statistics of the requests sent, successful or not.
+    private int mRequestCount;
+    private int mSessionCount;
+    private long mLapCount;
+    private long mByteCount;
+
+    public SessionUploader(SessionHistory history, URL url) {
+        mHistory = history;
+        mUrl = url;
+    }
+
+    /**
+     * Uploads all the pending sessions, batch after batch, stopping at the first failure.
+     *
+     * @return whether or not no session is pending anymore, otherwise the upload should be retried
+     *         later.
+     */
+    public boolean uploadPending() {
+        while (true) {
+            List<SessionHistory.Session> batch = mHistory.getPendingUploads(BATCH_SIZE);
+            if (batch.isEmpty()) {
+                return true;
+            }
+            int responseCode;
+            try {
+                byte[] body = encode(batch);
+                countBatch(batch, body.length);
+                responseCode = post(body);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to upload " + batch.size() + " sessions: " + e);
+                return false;
+            }
+
+            if (responseCode / 100 == 2) {
+                mHistory.markUploaded(batch);
+            } else if (isPermanentFailure(responseCode)) {
+                // Sending the same batch again would fail the same way and block the next ones.
+                Log.w(TAG, "Dropping " + batch.size() + " sessions rejected with " + responseCode);
+                mHistory.markUploaded(batch);
+            } else {
+                Log.w(TAG, "Upload failed with " + responseCode + ", will retry");
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the delay before retrying after {@code attempt} consecutive failed attempts, starting
+     * at 1.
+     */
+    public static long getBackoffMillis(int attempt) {
+        long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        for (int i = 1; i < attempt && backoffMillis < MAX_BACKOFF_MILLIS; ++i) {
+            backoffMillis *= 2;
+        }
+        return Math.min(backoffMillis, MAX_BACKOFF_MILLIS);
+    }
+
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    public int getSessionCount() {
+        return mSessionCount;
+    }
+
+    public long getLapCount() {
+        return mLapCount;
+    }
+
+    /**
+     * Returns the number of compressed bytes sent in the requests' bodies.
+     */
+    public long getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * Returns the gzipped JSON body uploading {@code sessions}, visible for testing.
+     */
+    static byte[] encode(List<SessionHistory.Session> sessions) throws IOException {
+        StringBuilder json = new StringBuilder("{\"sessions\":[");
+        for (int i = 0; i < sessions.size(); ++i) {
+            SessionHistory.Session session = sessions.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"start_time_ms\":").append(session.getStartTimeMillis())
+                    .append(",\"duration_ns\":").append(session.getDurationNanos())
+                    .append(",\"laps_ns\":[");
+            for (int lap = 0; lap < session.getLapCount(); ++lap) {
+                if (lap > 0) {
+                    json.append(',');
+                }
+                json.append(session.getLapNanos(lap));
+            }
+            json.append("]}");
+        }
+        json.append("]}");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length() / 4);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        try {
+            out.write(json.toString().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Sends {@code body} and returns the response code.
+     */
+    private int post(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+
+        ++mRequestCount;
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+        int responseCode = connection.getResponseCode();
+        discardResponse(connection, responseCode);
+        return responseCode;
+    }
+
+    /**
+     * Counts the sessions of a batch sent, as a request succeeded or not.
+     */
+    private void countBatch(List<SessionHistory.Session> batch, int byteCount) {
+        mSessionCount += batch.size();
+        for (SessionHistory.Session session : batch) {
+            mLapCount += session.getLapCount();
+        }
+        mByteCount += byteCount;
+    }
+
+    /**
+     * Reads the response body, if any, so that the connection can be reused by the next batch.
+     */
+    private static void discardResponse(HttpURLConnection connection, int responseCode) {
+        try {
+            InputStream in = responseCode < 400 ? connection.getInputStream()
+                    : connection.getErrorStream();
+            if (in == null) {
+                return;
+            }
+            try {
+                byte[] buffer = new byte[1024];
+                while (in.read(buffer) >= 0) {
+                    // Discard.
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Ignore, the response code is all that matters.
+        }
+    }
+
+    private static boolean isPermanentFailure(int responseCode) {
+        return responseCode / 100 == 4 && responseCode != HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                && responseCode != 429;
+    }
+}
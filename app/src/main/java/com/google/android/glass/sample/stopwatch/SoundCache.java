@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+/**
+ * Process-wide cache of the sounds played by the stopwatch, shared by all the
+ * {@link CountDownView}s.
+ *
+ * Sounds are decoded once, in the background, and only played once their loading completed. The
+ * underlying {@link SoundPool} can be released at any time, e.g. on memory pressure: sounds are
+ * then loaded again on their next use.
+ */
+public class SoundCache {
+
+    private static final String TAG = SoundCache.class.getSimpleName();
+
+    private static final int SOUND_PRIORITY = 1;
+    private static final int MAX_STREAMS = 1;
+
+    private static SoundCache sInstance;
+
+    /**
+     * Returns the process-wide {@link SoundCache}.
+     */
+    public static synchronized SoundCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SoundCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+
+    /** Maps the sounds' raw resource ID to their {@link SoundPool} ID. */
+    private final SparseIntArray mSoundPoolIds = new SparseIntArray();
+    /** {@link SoundPool} IDs of the sounds done loading. */
+    private final SparseBooleanArray mLoadedSoundPoolIds = new SparseBooleanArray();
+
+    private SoundPool mSoundPool;
+
+    private final SoundPool.OnLoadCompleteListener mLoadCompleteListener =
+            new SoundPool.OnLoadCompleteListener() {
+
+        @Override
+        public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+            synchronized (SoundCache.this) {
+                if (soundPool != mSoundPool) {
+                    // Loading completed after the pool was released.
+                    return;
+                }
+                if (status == 0) {
+                    mLoadedSoundPoolIds.put(sampleId, true);
+                } else {
+                    Log.w(TAG, "Unable to load sample " + sampleId + ": " + status);
+                }
+            }
+        }
+    };
+
+    /** Visible for testing, use {@link #getInstance(Context)}. */
+    SoundCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Starts loading the sounds identified by their raw resource ID in the background, sounds
+     * already loaded or loading are skipped.
+     */
+    public synchronized void load(int... soundIds) {
+        if (mSoundPool == null) {
+            mSoundPool = new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
+            mSoundPool.setOnLoadCompleteListener(mLoadCompleteListener);
+        }
+        for (final int soundId : soundIds) {
+            if (mSoundPoolIds.indexOfKey(soundId) >= 0) {
+                continue;
+            }
+            // Reserve the entry until the actual ID is known.
+            mSoundPoolIds.put(soundId, 0);
+
+            final SoundPool soundPool = mSoundPool;
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    int soundPoolId = soundPool.load(mContext, soundId, SOUND_PRIORITY);
+                    onLoadStarted(soundPool, soundId, soundPoolId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns whether or not the sound identified by its raw resource ID is loaded.
+     */
+    public synchronized boolean isLoaded(int soundId) {
+        int soundPoolId = mSoundPoolIds.get(soundId);
+        return soundPoolId != 0 && mLoadedSoundPoolIds.get(soundPoolId);
+    }
+
+    /**
+     * Returns the number of samples decoded, each held until {@link #release()}.
+     */
+    public synchronized int getLoadedCount() {
+        return mLoadedSoundPoolIds.size();
+    }
+
+    /**
+     * Plays the sound identified by its raw resource ID if loaded, or starts loading it otherwise.
+     *
+     * @return whether or not the sound was played.
+     */
+    public synchronized boolean play(int soundId) {
+        if (!isLoaded(soundId)) {
+            load(soundId);
+            return false;
+        }
+        mSoundPool.play(mSoundPoolIds.get(soundId),
+                        1 /* leftVolume */,
+                        1 /* rightVolume */,
+                        SOUND_PRIORITY,
+                        0 /* loop */,
+                        1 /* rate */);
+        return true;
+    }
+
+    /**
+     * Releases the decoded sounds, they are loaded again on their next use.
+     */
+    public synchronized void release() {
+        if (mSoundPool != null) {
+            mSoundPool.release();
+            mSoundPool = null;
+            mSoundPoolIds.clear();
+            mLoadedSoundPoolIds.clear();
+        }
+    }
+
+    private synchronized void onLoadStarted(SoundPool soundPool, int soundId, int soundPoolId) {
+        if (soundPool == mSoundPool) {
+            mSoundPoolIds.put(soundId, soundPoolId);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.os.Looper;
+import android.util.Printer;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the messages dispatched by a {@link Looper} to find the ones delaying the views' ticks,
+ * i.e. the {@link Runnable}s updating the {@link CountDownView} and the {@link ChronometerView}.
+ *
+ * Every message is timed through {@link Looper#setMessageLogging(Printer)}. The views report when
+ * their next tick is due: a message still running after that deadline holds the tick back, and is
+ * recorded in a ring buffer with the time it delayed the tick if above {@link #MIN_STALL_NANOS}.
+ * The offenders are attributed to their target {@link android.os.Handler} and callback classes
+ * when dumped only.
+ *
+ * The watchdog isn't free: {@link Looper#loop()} builds the ">>>>> Dispatching to" and
+ * "<<<<< Finished to" lines only while a {@link Printer} is installed, i.e. two string
+ * concatenations per message, each with the Handler's {@code toString()} and identity hash code,
+ * on top of the watchdog's clock reads. It is therefore only installed on request, see
+ * {@code StallWatchdogTest#testCostPerMessage()} for its measured cost.
+ */
+public class StallWatchdog implements Printer {
+
+    /** Delay of a tick below which the message causing it isn't recorded. */
+    public static final long MIN_STALL_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+    /** Stalls kept at most, the oldest are overwritten. */
+    public static final int CAPACITY = 128;
+    /** Offenders printed at most by {@link #dump(PrintWriter)}. */
+    private static final int TOP_OFFENDERS = 5;
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final float NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** Time spent by messages of the same target delaying ticks. */
+    static class Offender {
+        final String mTarget;
+        int mCount;
+        long mTotalNanos;
+        long mMaxNanos;
+
+        Offender(String target) {
+            mTarget = target;
+        }
+    }
+
+    private final TimeSource mTimeSource;
+    private Looper mLooper;
+
+    /** Deadline of the next tick, {@link #NO_DEADLINE} if none is scheduled. */
+    private long mTickDeadlineNanos = NO_DEADLINE;
+    private long mDispatchStartNanos;
+    private String mDispatch;
+    private long mMessageCount;
+    private long mLateTickCount;
+    private long mMaxTickLatenessNanos;
+
+    // Ring buffer of the stalls: the message's description and the time it delayed the tick.
+    private final String[] mStallDispatches = new String[CAPACITY];
+    private final long[] mStallDelaysNanos = new long[CAPACITY];
+    private long mStallCount;
+
+    public StallWatchdog(TimeSource timeSource) {
+        mTimeSource = timeSource;
+    }
+
+    /**
+     * Starts timing the messages dispatched by {@code looper}, replacing its message logging.
+     */
+    public void install(Looper looper) {
+        mLooper = looper;
+        mLooper.setMessageLogging(this);
+    }
+
+    /**
+     * Stops timing the messages.
+     */
+    public void uninstall() {
+        if (mLooper != null) {
+            mLooper.setMessageLogging(null);
+            mLooper = null;
+        }
+    }
+
+    /**
+     * Notified by a view of its next tick in {@code delayMillis}.
+     */
+    public void onTickScheduled(long delayMillis) {
+        mTickDeadlineNanos =
+                mTimeSource.elapsedRealtimeNanos() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    /**
+     * Notified by a view running its tick, before it schedules the next one.
+     */
+    public void onTickRun() {
+        if (mTickDeadlineNanos == NO_DEADLINE) {
+            return;
+        }
+        long latenessNanos = mTimeSource.elapsedRealtimeNanos() - mTickDeadlineNanos;
+        if (latenessNanos >= MIN_STALL_NANOS) {
+            ++mLateTickCount;
+            mMaxTickLatenessNanos = Math.max(mMaxTickLatenessNanos, latenessNanos);
+        }
+        mTickDeadlineNanos = NO_DEADLINE;
+    }
+
+    /**
+     * Notified by a view cancelling its next tick.
+     */
+    public void onTickCancelled() {
+        mTickDeadlineNanos = NO_DEADLINE;
+    }
+
+    /**
+     * Receives the {@link Looper}'s logging: a line starting with ">>>>> Dispatching" before each
+     * message, and one starting with "<<<<< Finished" after.
+     */
+    @Override
+    public void println(String x) {
+        long nowNanos = mTimeSource.elapsedRealtimeNanos();
+        if (x.charAt(0) == '>') {
+            mDispatchStartNanos = nowNanos;
+            mDispatch = x;
+        } else if (x.charAt(0) == '<' && mDispatch != null) {
+            ++mMessageCount;
+            if (nowNanos > mTickDeadlineNanos) {
+                long delayNanos = nowNanos - Math.max(mDispatchStartNanos, mTickDeadlineNanos);
+                if (delayNanos >= MIN_STALL_NANOS) {
+                    recordStall(mDispatch, delayNanos);
+                }
+            }
+            mDispatch = null;
+        }
+    }
+
+    /**
+     * Returns the number of messages timed.
+     */
+    public long getMessageCount() {
+        return mMessageCount;
+    }
+
+    /**
+     * Returns the number of ticks run at least {@link #MIN_STALL_NANOS} after their deadline.
+     */
+    public long getLateTickCount() {
+        return mLateTickCount;
+    }
+
+    /**
+     * Returns the number of messages recorded as delaying a tick, including the overwritten ones.
+     */
+    public synchronized long getStallCount() {
+        return mStallCount;
+    }
+
+    /**
+     * Prints the counts and the top offenders among the recorded stalls, by total delay.
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Stall watchdog:");
+        writer.println(String.format("  %d messages, %d late ticks (max %.1fms), %d stalls",
+                mMessageCount, mLateTickCount, mMaxTickLatenessNanos / NANOS_PER_MILLI,
+                mStallCount));
+        List<Offender> offenders = getOffenders();
+        for (int i = 0; i < Math.min(TOP_OFFENDERS, offenders.size()); ++i) {
+            Offender offender = offenders.get(i);
+            writer.println(String.format("  %.1fms in %d stalls (max %.1fms): %s",
+                    offender.mTotalNanos / NANOS_PER_MILLI, offender.mCount,
+                    offender.mMaxNanos / NANOS_PER_MILLI, offender.mTarget));
+        }
+    }
+
+    /**
+     * Returns the offenders among the recorded stalls, by decreasing total delay, visible for
+     * testing.
+     */
+    synchronized List<Offender> getOffenders() {
+        Map<String, Offender> offenders = new HashMap<String, Offender>();
+        int count = (int) Math.min(mStallCount, CAPACITY);
+        for (int i = 0; i < count; ++i) {
+            String target = getTarget(mStallDispatches[i]);
+            Offender offender = offenders.get(target);
+            if (offender == null) {
+                offender = new Offender(target);
+                offenders.put(target, offender);
+            }
+            ++offender.mCount;
+            offender.mTotalNanos += mStallDelaysNanos[i];
+            offender.mMaxNanos = Math.max(offender.mMaxNanos, mStallDelaysNanos[i]);
+        }
+        List<Offender> sorted = new ArrayList<Offender>(offenders.values());
+        Collections.sort(sorted, new Comparator<Offender>() {
+
+            @Override
+            public int compare(Offender lhs, Offender rhs) {
+                return lhs.mTotalNanos > rhs.mTotalNanos ? -1
+                        : lhs.mTotalNanos < rhs.mTotalNanos ? 1 : 0;
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Returns the target of a message from its {@code dispatch} line, e.g.
+     * ">>>>> Dispatching to Handler (android.view.Choreographer$FrameHandler) {41a2b3c8}
+     * com.example.Task@41b5e6f0: 0": its {@link android.os.Handler}'s class, followed by its
+     * callback's class unless {@code null}. Visible for testing.
+     */
+    static String getTarget(String dispatch) {
+        int handlerStart = dispatch.indexOf('(');
+        int handlerEnd = dispatch.indexOf(')', handlerStart + 1);
+        int callbackStart = dispatch.indexOf("} ", handlerEnd + 1);
+        if (handlerStart < 0 || handlerEnd < 0 || callbackStart < 0) {
+            return dispatch;
+        }
+        String handler = dispatch.substring(handlerStart + 1, handlerEnd);
+        callbackStart += 2;
+        int callbackEnd = dispatch.lastIndexOf(':');
+        int hashStart = dispatch.indexOf('@', callbackStart);
+        if (hashStart >= 0 && hashStart < callbackEnd) {
+            callbackEnd = hashStart;
+        }
+        if (callbackEnd <= callbackStart) {
+            return handler;
+        }
+        String callback = dispatch.substring(callbackStart, callbackEnd);
+        return callback.equals("null") ? handler : handler + " " + callback;
+    }
+
+    private synchronized void recordStall(String dispatch, long delayNanos) {
+        int index = (int) (mStallCount % CAPACITY);
+        mStallDispatches[index] = dispatch;
+        mStallDelaysNanos[index] = delayNanos;
+        ++mStallCount;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the time at which each startup phase is reached, from the voice trigger starting the
+ * {@link StopwatchService} to the first countdown frame drawn.
+ */
+public class StartupTrace {
+
+    public static final int SERVICE_STARTED = 0;
+    public static final int LIVE_CARD_PUBLISHED = 1;
+    public static final int SURFACE_CREATED = 2;
+    public static final int FIRST_FRAME_DRAWN = 3;
+    public static final int CHRONOMETER_INFLATED = 4;
+
+    private static final String[] PHASE_NAMES = {
+        "service started",
+        "live card published",
+        "surface created",
+        "first frame drawn",
+        "chronometer inflated",
+    };
+
+    private static final float NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** Time at which each phase was reached, 0 if not reached yet. */
+    private final long[] mPhaseNanos = new long[PHASE_NAMES.length];
+
+    /**
+     * Marks {@code phase} as reached, only the first call for a given phase is recorded.
+     */
+    public void mark(int phase) {
+        if (mPhaseNanos[phase] == 0) {
+            mPhaseNanos[phase] = getElapsedRealtimeNanos();
+        }
+    }
+
+    /**
+     * Returns whether or not {@code phase} has been reached.
+     */
+    public boolean isReached(int phase) {
+        return mPhaseNanos[phase] != 0;
+    }
+
+    /**
+     * Returns the time in milliseconds between the first recorded phase and {@code phase}, or -1
+     * if {@code phase} has not been reached.
+     */
+    public long getElapsedMillis(int phase) {
+        if (!isReached(phase)) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(mPhaseNanos[phase] - getOriginNanos());
+    }
+
+    /**
+     * Prints the reached phases and their timings.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Startup phases:");
+        long originNanos = getOriginNanos();
+        for (int phase = 0; phase < PHASE_NAMES.length; ++phase) {
+            if (isReached(phase)) {
+                writer.println(String.format("  %-22s +%.1fms", PHASE_NAMES[phase],
+                        (mPhaseNanos[phase] - originNanos) / NANOS_PER_MILLI));
+            } else {
+                writer.println(String.format("  %-22s -", PHASE_NAMES[phase]));
+            }
+        }
+    }
+
+    /**
+     * Returns {@link SystemClock#elapsedRealtimeNanos}, overridable for testing.
+     */
+    protected long getElapsedRealtimeNanos() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Returns the time of the earliest recorded phase.
+     */
+    private long getOriginNanos() {
+        long originNanos = Long.MAX_VALUE;
+        for (long phaseNanos : mPhaseNanos) {
+            if (phaseNanos != 0 && phaseNanos < originNanos) {
+                originNanos = phaseNanos;
+            }
+        }
+        return originNanos;
+    }
+}
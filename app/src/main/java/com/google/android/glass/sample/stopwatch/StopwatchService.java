@@ -21,33 +21,324 @@ import com.google.android.glass.timeline.LiveCard.PublishMode;
 
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.os.Binder;
+import android.os.Debug;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Service owning the LiveCard living in the timeline.
  */
 public class StopwatchService extends Service {
 
+    private static final String TAG = StopwatchService.class.getSimpleName();
     private static final String LIVE_CARD_TAG = "stopwatch";
+    /** File of the app's files directory where the last session's {@link EventTrace} is saved. */
+    private static final String EVENT_TRACE_FILE = "last_session.trace";
+    /** File of the app's files directory where the last session's {@link TimingLog} is saved. */
+    private static final String TIMING_LOG_FILE = "last_session.timing";
+    /** Directory of the app's files directory where the sessions' {@link MetricsLog} is kept. */
+    private static final String METRICS_DIRECTORY = "metrics";
+    /** Clock samples kept at most per session, besides the one taken when it ends. */
+    private static final int MAX_CLOCK_SAMPLES = 1024;
+    /** Shortest interval between two clock samples taken on commands. */
+    private static final long CLOCK_SAMPLE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Largest number of phases of the {@link IntervalProgram} taken from an {@link Intent}: the
+     * service is exported, and the program is unrolled and compiled before the card shows.
+     */
+    static final int MAX_INTENT_PHASES = 1000;
+
+    /** Action delivered by the {@link CountDownAlarm} when a phase of the countdown is over. */
+    public static final String ACTION_COUNT_DOWN_ALARM =
+            "com.google.android.glass.sample.stopwatch.action.COUNT_DOWN_ALARM";
+
+    /**
+     * Optional {@link IntervalProgram} gone through before starting the chronometer, in its text
+     * form, e.g. {@code "warmup:60, 8x(work:20, rest:10), cooldown:60"}, of at most
+     * {@link #MAX_INTENT_PHASES} once unrolled.
+     */
+    public static final String EXTRA_INTERVAL_PROGRAM =
+            "com.google.android.glass.sample.stopwatch.extra.INTERVAL_PROGRAM";
+
+    /** Optional countdown duration in seconds, an int or a long, defaults to 3. */
+    public static final String EXTRA_COUNT_DOWN_SECONDS =
+            "com.google.android.glass.sample.stopwatch.extra.COUNT_DOWN_SECONDS";
+
+    /**
+     * Optional port of the {@link TriggerServer} receiving commands from external timing sensors
+     * on the loopback interface, disabled by default. The server accepts unauthenticated commands,
+     * so the port is only taken from the callers of this package, see
+     * {@link #newTriggerIntent(Context, int)}.
+     */
+    public static final String EXTRA_TRIGGER_PORT =
+            "com.google.android.glass.sample.stopwatch.extra.TRIGGER_PORT";
+
+    /**
+     * {@link PendingIntent} created by the caller, whose creator identifies it: the service is
+     * exported for its voice trigger, and a started service isn't told who started it.
+     */
+    static final String EXTRA_CALLER = "com.google.android.glass.sample.stopwatch.extra.CALLER";
+
+    /**
+     * Optional flag enabling the {@link StallWatchdog} on the main thread, whose offenders are
+     * printed by the service's dump, disabled by default.
+     */
+    public static final String EXTRA_STALL_WATCHDOG =
+            "com.google.android.glass.sample.stopwatch.extra.STALL_WATCHDOG";
+
+    /**
+     * Binder giving in-process access to the stopwatch commands. Commands are applied
+     * synchronously with the time at which they were issued, in nanoseconds as returned by
+     * {@link SystemClock#elapsedRealtimeNanos()}.
+     */
+    public class StopwatchBinder extends Binder implements LapAdapter.LapSource {
+
+        /** Returns whether or not the stopwatch is running, its card published. */
+        public boolean isRunning() {
+            return mCallback != null;
+        }
+
+        /** Returns whether or not the countdown is done and the chronometer started. */
+        public boolean isStarted() {
+            return mCallback != null && mCallback.isStarted();
+        }
+
+        /** Returns whether or not the chronometer is paused. */
+        public boolean isPaused() {
+            return mCallback != null && mCallback.isPaused();
+        }
+
+        /** Pauses the chronometer. */
+        public void pause(long whenNanos) {
+            if (mCallback != null) {
+                sampleClock();
+                mCallback.pause(whenNanos);
+            }
+        }
+
+        /** Resumes the chronometer. */
+        public void resume(long whenNanos) {
+            if (mCallback != null) {
+                sampleClock();
+                mCallback.resume(whenNanos);
+            }
+        }
+
+        /** Records a lap. */
+        public void lap(long whenNanos) {
+            if (mCallback != null) {
+                sampleClock();
+                mCallback.lap(whenNanos);
+            }
+        }
+
+        /** Resets the chronometer to 0. */
+        public void reset(long whenNanos) {
+            if (mCallback != null) {
+                sampleClock();
+                mCallback.reset(whenNanos);
+            }
+        }
+
+        /** Returns the chronometer's value at {@code whenNanos}. */
+        public long getElapsedNanos(long whenNanos) {
+            return mCallback != null ? mCallback.getElapsedNanos(whenNanos) : 0;
+        }
+
+        /**
+         * Returns the chronometer's value at {@code whenNanos} as it was then, regardless of the
+         * later commands, e.g. for a race finish.
+         */
+        public long getElapsedNanosAt(long whenNanos) {
+            return mCallback != null ? mCallback.getElapsedNanosAt(whenNanos) : 0;
+        }
+
+        /** Returns the number of laps recorded in the current session. */
+        @Override
+        public int getLapCount() {
+            return mCallback != null ? mCallback.getLapCount() : 0;
+        }
+
+        /**
+         * Returns the chronometer's value at the lap at {@code index}, 0 once the stopwatch is
+         * gone.
+         */
+        @Override
+        public long getLapNanos(int index) {
+            return mCallback != null ? mCallback.getLapNanos(index) : 0;
+        }
+
+        /**
+         * Records a race finish at {@code whenNanos}.
+         *
+         * @return the index of the finish, or -1 if no more finishes can be recorded.
+         */
+        public int recordFinish(long whenNanos) {
+            return mFinishRecorder.record(whenNanos);
+        }
+
+        /** Returns the race finishes recorded. */
+        public FinishRecorder getFinishRecorder() {
+            return mFinishRecorder;
+        }
+
+        /**
+         * Returns the race results with their bibs, updated with the finishes recorded since the
+         * last call. Kept by the service so that they outlive the activities showing them, and
+         * only to be used from the main thread.
+         */
+        public RaceResults getRaceResults() {
+            mRaceResults.update(mFinishRecorder);
+            return mRaceResults;
+        }
+    }
+
+    private final StopwatchBinder mBinder = new StopwatchBinder();
+    private final FinishRecorder mFinishRecorder = new FinishRecorder();
+    private final RaceResults mRaceResults = new RaceResults();
 
     private ChronometerDrawer mCallback;
+    private SessionHistory mSessionHistory;
+    private EventTrace mEventTrace;
+    /**
+     * Clock samples taken when the session started then along its commands, written to its
+     * {@link TimingLog} so that a step of the wall clock doesn't pass for drift.
+     */
+    private final long[] mClockElapsedNanos = new long[MAX_CLOCK_SAMPLES];
+    private final long[] mClockWallMillis = new long[MAX_CLOCK_SAMPLES];
+    private int mClockSampleCount;
+
+    private TriggerServer mTriggerServer;
+
+    /**
+     * Applies the chronometer commands received by the {@link TriggerServer} on the main thread,
+     * with the time split in {@link Message#arg1} and {@link Message#arg2}.
+     *
+     * The commands follow a start gate: a reset pauses the chronometer at 0, so that the next
+     * start runs it from 0 at the start's time. A start otherwise resumes a stopped chronometer,
+     * and is ignored while running.
+     */
+    private final Handler mTriggerHandler = new Handler(new Handler.Callback() {
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            long whenNanos = ((long) msg.arg1 << 32) | (msg.arg2 & 0xffffffffL);
+            switch (msg.what) {
+                case TriggerServer.COMMAND_START:
+                    mBinder.resume(whenNanos);
+                    break;
+                case TriggerServer.COMMAND_STOP:
+                    mBinder.pause(whenNanos);
+                    break;
+                case TriggerServer.COMMAND_LAP:
+                    mBinder.lap(whenNanos);
+                    break;
+                case TriggerServer.COMMAND_RESET:
+                    // Armed at 0 until the next start.
+                    mBinder.pause(whenNanos);
+                    mBinder.reset(whenNanos);
+                    break;
+                default:
+                    return false;
+            }
+            return true;
+        }
+    });
+
+    private final TriggerServer.Listener mTriggerListener = new TriggerServer.Listener() {
+
+        @Override
+        public void onCommand(int command, long whenNanos) {
+            if (command == TriggerServer.COMMAND_FINISH) {
+                // The recorder is lock-free, no need to go through the main thread.
+                mFinishRecorder.record(whenNanos);
+            } else {
+                mTriggerHandler.sendMessage(mTriggerHandler.obtainMessage(
+                        command, (int) (whenNanos >>> 32), (int) whenNanos));
+            }
+        }
+    };
 
     private LiveCard mLiveCard;
+    private StartupTrace mStartupTrace;
+    private StallWatchdog mStallWatchdog;
+
+    /**
+     * Returns an {@link Intent} starting the stopwatch with its {@link TriggerServer} on
+     * {@code port}, from a component of this package.
+     */
+    public static Intent newTriggerIntent(Context context, int port) {
+        Intent intent = new Intent(context, StopwatchService.class);
+        PendingIntent caller = PendingIntent.getService(context, 0, intent, 0);
+        return intent.putExtra(EXTRA_TRIGGER_PORT, port).putExtra(EXTRA_CALLER, caller);
+    }
+
+    /**
+     * Returns whether or not {@code intent} was sent by a caller of {@code packageName}, visible
+     * for testing.
+     */
+    static boolean isFromPackage(Intent intent, String packageName) {
+        PendingIntent caller = intent.getParcelableExtra(EXTRA_CALLER);
+        return caller != null && packageName.equals(caller.getCreatorPackage());
+    }
+
+    /**
+     * Sets the stopwatch the binder's commands are applied to, visible for testing.
+     */
+    void setCallback(ChronometerDrawer callback) {
+        mCallback = callback;
+    }
 
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return mBinder;
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_COUNT_DOWN_ALARM.equals(intent.getAction())) {
+            if (mCallback != null) {
+                mCallback.onCountDownAlarm();
+            } else {
+                // The stopwatch was lost with its process, there is nothing left to finish.
+                stopSelf(startId);
+            }
+            return START_NOT_STICKY;
+        }
+
         if (mLiveCard == null) {
+            mStartupTrace = new StartupTrace();
+            mStartupTrace.mark(StartupTrace.SERVICE_STARTED);
             mLiveCard = new LiveCard(this, LIVE_CARD_TAG);
 
             // Keep track of the callback to remove it before unpublishing.
-            mCallback = new ChronometerDrawer(this);
+            mCallback = new ChronometerDrawer(this, mStartupTrace, getProgram(intent));
+            mEventTrace = new EventTrace();
+            mClockSampleCount = 0;
+            sampleClock();
+            mCallback.setEventTrace(mEventTrace);
+            mSessionHistory = SessionHistory.getInstance(this);
+            mCallback.setSessionHistory(mSessionHistory);
+            // The metrics are appended from the history's writer thread.
+            mCallback.setMetricsLog(new MetricsLog(new File(getFilesDir(), METRICS_DIRECTORY),
+                    mSessionHistory.getWriter()));
             mLiveCard.setDirectRenderingEnabled(true).getSurfaceHolder().addCallback(mCallback);
 
             Intent menuIntent = new Intent(this, MenuActivity.class);
@@ -55,6 +346,9 @@ public class StopwatchService extends Service {
             mLiveCard.setAction(PendingIntent.getActivity(this, 0, menuIntent, 0));
             mLiveCard.attach(this);
             mLiveCard.publish(PublishMode.REVEAL);
+            mStartupTrace.mark(StartupTrace.LIVE_CARD_PUBLISHED);
+            startTriggerServer(intent);
+            startStallWatchdog(intent);
         } else {
             mLiveCard.navigate();
         }
@@ -65,12 +359,240 @@ public class StopwatchService extends Service {
         return START_NOT_STICKY;
     }
 
+    /**
+     * Returns the {@link IntervalProgram} requested by {@code intent}, a 3 seconds countdown by
+     * default. Visible for testing.
+     */
+    static IntervalProgram getProgram(Intent intent) {
+        if (intent != null) {
+            try {
+                String program = intent.getStringExtra(EXTRA_INTERVAL_PROGRAM);
+                return program != null ? IntervalProgram.parse(program, MAX_INTENT_PHASES)
+                        : IntervalProgram.countDown(getCountDownSeconds(intent));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring invalid interval program: " + e.getMessage());
+            }
+        }
+        return IntervalProgram.countDown(ChronometerDrawer.COUNT_DOWN_VALUE);
+    }
+
+    /**
+     * Returns the countdown duration requested by {@code intent}: {@code putExtra()} keeps the
+     * type of the value, and a literal is an int.
+     */
+    private static long getCountDownSeconds(Intent intent) {
+        Object seconds = intent.getExtras() != null
+                ? intent.getExtras().get(EXTRA_COUNT_DOWN_SECONDS) : null;
+        if (seconds instanceof Integer || seconds instanceof Long) {
+            return ((Number) seconds).longValue();
+        }
+        return ChronometerDrawer.COUNT_DOWN_VALUE;
+    }
+
+    /**
+     * Starts the {@link TriggerServer} if requested by {@code intent}.
+     */
+    private void startTriggerServer(Intent intent) {
+        int port = intent != null ? intent.getIntExtra(EXTRA_TRIGGER_PORT, 0) : 0;
+        if (port <= 0) {
+            return;
+        }
+        if (!isFromPackage(intent, getPackageName())) {
+            Log.w(TAG, "Ignoring the trigger port requested from outside the package");
+            return;
+        }
+        mTriggerServer = new TriggerServer(port, TimeSource.SYSTEM, mTriggerListener);
+        try {
+            mTriggerServer.start();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to start the trigger server on port " + port + ": " + e);
+            mTriggerServer = null;
+        }
+    }
+
+    /**
+     * Starts the {@link StallWatchdog} if requested by {@code intent}.
+     */
+    private void startStallWatchdog(Intent intent) {
+        if (intent == null || !intent.getBooleanExtra(EXTRA_STALL_WATCHDOG, false)) {
+            return;
+        }
+        mStallWatchdog = new StallWatchdog(TimeSource.SYSTEM);
+        mStallWatchdog.install(Looper.myLooper());
+        mCallback.setStallWatchdog(mStallWatchdog);
+    }
+
     @Override
     public void onDestroy() {
+        if (mTriggerServer != null) {
+            mTriggerServer.stop();
+            mTriggerServer = null;
+        }
+        mTriggerHandler.removeCallbacksAndMessages(null);
+        if (mStallWatchdog != null) {
+            mStallWatchdog.uninstall();
+        }
+        if (mCallback != null) {
+            mCallback.endSession(SystemClock.elapsedRealtimeNanos());
+            saveEventTrace();
+            saveTimingLog();
+        }
+        if (mSessionHistory != null) {
+            // Write the session right away, it is uploaded once written.
+            mSessionHistory.writeSoon();
+            UploadService.requestUpload(this);
+        }
         if (mLiveCard != null && mLiveCard.isPublished()) {
             mLiveCard.unpublish();
             mLiveCard = null;
         }
+        new CountDownAlarm(this).cancel();
+        SoundCache.getInstance(this).release();
         super.onDestroy();
     }
+
+    /**
+     * Saves the events of the stopwatch in the app's files, to be pulled along with a bug report
+     * and replayed.
+     */
+    private void saveEventTrace() {
+        File file = new File(getFilesDir(), EVENT_TRACE_FILE);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                mEventTrace.writeTo(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save the event trace: " + e);
+        }
+    }
+
+    /**
+     * Samples the wall clock against the {@code elapsedRealtime} clock, at most once per
+     * {@link #CLOCK_SAMPLE_INTERVAL_NANOS}.
+     */
+    private void sampleClock() {
+        long elapsedNanos = SystemClock.elapsedRealtimeNanos();
+        if (mClockSampleCount == MAX_CLOCK_SAMPLES || (mClockSampleCount > 0
+                && elapsedNanos - mClockElapsedNanos[mClockSampleCount - 1]
+                        < CLOCK_SAMPLE_INTERVAL_NANOS)) {
+            return;
+        }
+        mClockElapsedNanos[mClockSampleCount] = elapsedNanos;
+        mClockWallMillis[mClockSampleCount] = System.currentTimeMillis();
+        ++mClockSampleCount;
+    }
+
+    /**
+     * Saves the commands of the stopwatch in the app's files with samples of the wall clock, to be
+     * merged with the logs of other devices timing the same event, see {@link TimingLogMerger}.
+     */
+    private void saveTimingLog() {
+        File file = new File(getFilesDir(), TIMING_LOG_FILE);
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                TimingLog.Writer writer = new TimingLog.Writer(out);
+                for (int i = 0; i < mClockSampleCount; ++i) {
+                    writer.writeClockSample(mClockElapsedNanos[i], mClockWallMillis[i]);
+                }
+                writer.writeCommands(mEventTrace);
+                writer.writeClockSample(SystemClock.elapsedRealtimeNanos(),
+                        System.currentTimeMillis());
+                writer.flush();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save the timing log: " + e);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mCallback != null) {
+            mCallback.onTrimMemory(level);
+        }
+        if (shouldReleaseSounds(level, mCallback != null && mCallback.isStarted())) {
+            // Sounds are loaded again on their next use, only the countdown plays them.
+            SoundCache.getInstance(this).release();
+        }
+    }
+
+    /**
+     * Returns whether or not the {@link SoundCache} is released on memory pressure of
+     * {@code level}, visible for testing. Once the countdown is done, its sounds are never played
+     * again. Until then, they are only released when memory runs low or the process is in the
+     * background: {@link #TRIM_MEMORY_UI_HIDDEN} is delivered whenever one of the activities
+     * closes, and a released sound misses its next beep while reloading.
+     */
+    static boolean shouldReleaseSounds(int level, boolean countDownDone) {
+        if (countDownDone) {
+            return true;
+        }
+        if (level == TRIM_MEMORY_UI_HIDDEN) {
+            return false;
+        }
+        return level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= TRIM_MEMORY_BACKGROUND;
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Prints the aggregated {@link MetricsLog}s of the directories in {@code args}, e.g. the logs
+     * of a fleet pushed to the app's external files, or of the device's sessions if none.
+     */
+    private void dumpMetrics(PrintWriter writer, String[] args) {
+        MetricsAggregator aggregator = new MetricsAggregator();
+        if (args != null && args.length > 0) {
+            for (String arg : args) {
+                aggregator.add(new File(arg));
+            }
+        } else {
+            aggregator.add(new File(getFilesDir(), METRICS_DIRECTORY));
+        }
+        writer.println("Metrics:");
+        aggregator.dump(writer);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (mStartupTrace != null) {
+            mStartupTrace.dump(writer);
+        }
+        if (mCallback != null) {
+            mCallback.dump(writer);
+            writer.println("  event trace: " + mEventTrace.getEventCount() + " events, "
+                    + mEventTrace.getDroppedCount() + " dropped");
+        }
+        if (mStallWatchdog != null) {
+            mStallWatchdog.dump(writer);
+        }
+        dumpMetrics(writer, args);
+        writer.println("Race: " + mFinishRecorder.getCount() + " finishes, "
+                + mFinishRecorder.getDroppedCount() + " dropped");
+        writer.println("Footprint:");
+        if (mCallback != null) {
+            mCallback.dumpFootprint(writer);
+        }
+        // Decoded by the native SoundPool, shared by the process' countdowns.
+        writer.println("  sound cache: " + SoundCache.getInstance(this).getLoadedCount()
+                + " samples decoded");
+        // For context only: the heaps are shared with the rest of the process.
+        Runtime runtime = Runtime.getRuntime();
+        writer.println("Process memory:");
+        writer.println(String.format("  java heap   %dkB / %dkB",
+                (runtime.totalMemory() - runtime.freeMemory()) / 1024,
+                runtime.totalMemory() / 1024));
+        writer.println(String.format("  native heap %dkB / %dkB",
+                Debug.getNativeHeapAllocatedSize() / 1024, Debug.getNativeHeapSize() / 1024));
+    }
 }
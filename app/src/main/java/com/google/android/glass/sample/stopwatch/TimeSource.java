@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.os.SystemClock;
+
+/**
+ * Monotonic source of time, in nanoseconds, used for all the stopwatch timings.
+ */
+public interface TimeSource {
+
+    /** {@link TimeSource} backed by {@link SystemClock#elapsedRealtimeNanos()}. */
+    public static final TimeSource SYSTEM = new TimeSource() {
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+    };
+
+    /**
+     * Returns the time since boot in nanoseconds, including time spent in sleep.
+     */
+    public long elapsedRealtimeNanos();
+}
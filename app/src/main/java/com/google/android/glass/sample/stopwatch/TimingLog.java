@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Log of the stopwatch commands of a device, timed on its {@code elapsedRealtime} clock, along
+ * with samples of its wall clock so that logs of several devices can be brought to a common
+ * timeline, see {@link TimingLogMerger}.
+ *
+ * A log is a header followed by 17 bytes records, big-endian: the record type, the time on the
+ * {@code elapsedRealtime} clock in nanoseconds, and a value. Records are sorted by time. The types
+ * are {@link #CLOCK_SAMPLE}, whose value is the wall clock time in milliseconds, and the
+ * {@link EventTrace} commands, whose value is unused.
+ */
+public class TimingLog {
+
+    /** Record of the wall clock's time. */
+    public static final int CLOCK_SAMPLE = 0;
+
+    /** Size of a record in bytes. */
+    public static final int RECORD_SIZE = 1 + 8 + 8;
+
+    private static final int MAGIC = 0x53544d4c;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1;
+    /** Records buffered at once by readers and writers. */
+    private static final int BUFFERED_RECORDS = 512;
+
+    private TimingLog() {
+    }
+
+    /**
+     * Writes the records of a log to an {@link OutputStream}, buffered.
+     */
+    public static class Writer {
+        private final OutputStream mOut;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(RECORD_SIZE * BUFFERED_RECORDS);
+        private long mLastNanos = Long.MIN_VALUE;
+
+        /**
+         * Creates a {@link Writer} to {@code out}, starting with the header.
+         */
+        public Writer(OutputStream out) {
+            mOut = out;
+            mBuffer.putInt(MAGIC).put((byte) VERSION);
+        }
+
+        /**
+         * Writes a sample of the wall clock at {@code wallMillis} taken at {@code elapsedNanos}.
+         */
+        public void writeClockSample(long elapsedNanos, long wallMillis) throws IOException {
+            write(CLOCK_SAMPLE, elapsedNanos, wallMillis);
+        }
+
+        /**
+         * Writes the {@link EventTrace} command {@code event} issued at {@code elapsedNanos}.
+         */
+        public void writeEvent(int event, long elapsedNanos) throws IOException {
+            if (event == CLOCK_SAMPLE) {
+                throw new IllegalArgumentException("Not an event: " + event);
+            }
+            write(event, elapsedNanos, 0);
+        }
+
+        /**
+         * Writes the commands of {@code trace} at the time they were issued, i.e. before the
+         * delay of their delivery. They may be out of order by that delay and are sorted first.
+         */
+        public void writeCommands(EventTrace trace) throws IOException {
+            int count = 0;
+            long[] timesNanos = new long[trace.getEventCount()];
+            int[] events = new int[trace.getEventCount()];
+            for (int i = 0; i < trace.getEventCount(); ++i) {
+                int event = trace.getEvent(i);
+                if (event < EventTrace.PAUSE) {
+                    continue;
+                }
+                long timeNanos = trace.getTimeNanos(i) - trace.getArg(i);
+                // Insertion sort, the commands are nearly sorted already.
+                int j = count++;
+                for (; j > 0 && timesNanos[j - 1] > timeNanos; --j) {
+                    timesNanos[j] = timesNanos[j - 1];
+                    events[j] = events[j - 1];
+                }
+                timesNanos[j] = timeNanos;
+                events[j] = event;
+            }
+            for (int i = 0; i < count; ++i) {
+                writeEvent(events[i], timesNanos[i]);
+            }
+        }
+
+        /**
+         * Writes the buffered records to the {@link OutputStream} and flushes it.
+         */
+        public void flush() throws IOException {
+            mOut.write(mBuffer.array(), 0, mBuffer.position());
+            mBuffer.clear();
+            mOut.flush();
+        }
+
+        private void write(int type, long elapsedNanos, long value) throws IOException {
+            if (elapsedNanos < mLastNanos) {
+                throw new IllegalArgumentException("Records must be sorted by time");
+            }
+            mLastNanos = elapsedNanos;
+            if (mBuffer.remaining() < RECORD_SIZE) {
+                mOut.write(mBuffer.array(), 0, mBuffer.position());
+                mBuffer.clear();
+            }
+            mBuffer.put((byte) type).putLong(elapsedNanos).putLong(value);
+        }
+    }
+
+    /**
+     * Reads the records of a log from an {@link InputStream}, buffered, one at a time.
+     */
+    public static class Reader {
+        private final InputStream mIn;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(RECORD_SIZE * BUFFERED_RECORDS);
+
+        private int mType;
+        private long mElapsedNanos = Long.MIN_VALUE;
+        private long mValue;
+
+        /**
+         * Creates a {@link Reader} from {@code in}, checking the header.
+         *
+         * @throws IOException if {@code in} can't be read or isn't a timing log
+         */
+        public Reader(InputStream in) throws IOException {
+            mIn = in;
+            mBuffer.flip();
+            if (!fill(HEADER_SIZE) || mBuffer.getInt() != MAGIC) {
+                throw new IOException("Not a timing log");
+            }
+            int version = mBuffer.get() & 0xff;
+            if (version != VERSION) {
+                throw new IOException("Unsupported timing log version: " + version);
+            }
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return false at the end of the log.
+         * @throws IOException if the log can't be read, is truncated or isn't sorted
+         */
+        public boolean next() throws IOException {
+            if (!fill(RECORD_SIZE)) {
+                if (mBuffer.hasRemaining()) {
+                    throw new IOException("Truncated timing log");
+                }
+                return false;
+            }
+            mType = mBuffer.get() & 0xff;
+            long elapsedNanos = mBuffer.getLong();
+            mValue = mBuffer.getLong();
+            if (elapsedNanos < mElapsedNanos) {
+                throw new IOException("Timing log not sorted at " + elapsedNanos);
+            }
+            mElapsedNanos = elapsedNanos;
+            return true;
+        }
+
+        /** Returns the type of the current record, {@link #CLOCK_SAMPLE} or a command. */
+        public int getType() {
+            return mType;
+        }
+
+        /** Returns the time of the current record on the {@code elapsedRealtime} clock. */
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        /** Returns the value of the current record, the wall clock time of a clock sample. */
+        public long getValue() {
+            return mValue;
+        }
+
+        /**
+         * Reads from the {@link InputStream} until {@code size} bytes are buffered.
+         *
+         * @return false if the end was reached first.
+         */
+        private boolean fill(int size) throws IOException {
+            if (mBuffer.remaining() >= size) {
+                return true;
+            }
+            mBuffer.compact();
+            try {
+                while (mBuffer.position() < size) {
+                    int read = mIn.read(mBuffer.array(), mBuffer.position(), mBuffer.remaining());
+                    if (read < 0) {
+                        return false;
+                    }
+                    mBuffer.position(mBuffer.position() + read);
+                }
+            } finally {
+                mBuffer.flip();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges the {@link TimingLog}s of several devices timing the same event into a single timeline,
+ * the wall clock's.
+ *
+ * Each log is read twice, as a stream: first to fit its {@link ClockFit} from its clock samples,
+ * then to merge its commands with the other logs' in the order of their time on the wall clock. A
+ * log's commands stay sorted once mapped, so the merge only keeps the next command of each log, in
+ * a binary heap: the memory used depends on the number of logs only, and each command costs
+ * O(log N) for N logs.
+ */
+public class TimingLogMerger {
+
+    /**
+     * Source of a log, opened once for each pass.
+     */
+    public interface LogSource {
+        /** Opens the log from its start, the stream is closed by the merger. */
+        public InputStream open() throws IOException;
+    }
+
+    /**
+     * Interface to receive the merged commands.
+     */
+    public interface Listener {
+        /**
+         * Notified of the command {@code event} of the log at index {@code log}, issued at
+         * {@code wallNanos} on the wall clock, in nanoseconds since the epoch.
+         */
+        public void onEvent(int log, int event, long wallNanos);
+    }
+
+    private final List<LogSource> mSources = new ArrayList<LogSource>();
+    private final List<ClockFit> mClockFits = new ArrayList<ClockFit>();
+
+    /**
+     * Returns a {@link LogSource} reading {@code file}.
+     */
+    public static LogSource fromFile(final File file) {
+        return new LogSource() {
+
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    /**
+     * Adds a log to merge, at the next index.
+     */
+    public void addLog(LogSource source) {
+        mSources.add(source);
+    }
+
+    /**
+     * Returns the {@link ClockFit} of the log at index {@code log}, once merged.
+     */
+    public ClockFit getClockFit(int log) {
+        return mClockFits.get(log);
+    }
+
+    /**
+     * Merges the commands of all the logs, reported to {@code listener} in the order of their
+     * time on the wall clock, and of their log for the same time.
+     *
+     * @return the number of commands merged.
+     * @throws IOException if a log can't be read, isn't a valid log or has no clock sample
+     */
+    public long merge(Listener listener) throws IOException {
+        int count = mSources.size();
+        mClockFits.clear();
+        for (int i = 0; i < count; ++i) {
+            mClockFits.add(fitClock(i));
+        }
+
+        TimingLog.Reader[] readers = new TimingLog.Reader[count];
+        InputStream[] streams = new InputStream[count];
+        long mergedCount = 0;
+        try {
+            Heap heap = new Heap(count);
+            for (int i = 0; i < count; ++i) {
+                streams[i] = mSources.get(i).open();
+                readers[i] = new TimingLog.Reader(streams[i]);
+                if (nextEvent(readers[i])) {
+                    heap.add(toWallNanos(i, readers[i]), i);
+                }
+            }
+            while (heap.mSize > 0) {
+                int log = heap.mLogs[0];
+                TimingLog.Reader reader = readers[log];
+                listener.onEvent(log, reader.getType(), heap.mWallNanos[0]);
+                ++mergedCount;
+                if (nextEvent(reader)) {
+                    heap.replaceTop(toWallNanos(log, reader));
+                } else {
+                    heap.removeTop();
+                }
+            }
+        } finally {
+            for (InputStream stream : streams) {
+                close(stream);
+            }
+        }
+        return mergedCount;
+    }
+
+    /**
+     * Reads the log at index {@code log} to fit its clock.
+     */
+    private ClockFit fitClock(int log) throws IOException {
+        ClockFit clockFit = new ClockFit();
+        InputStream stream = mSources.get(log).open();
+        try {
+            TimingLog.Reader reader = new TimingLog.Reader(stream);
+            while (reader.next()) {
+                if (reader.getType() == TimingLog.CLOCK_SAMPLE) {
+                    clockFit.add(reader.getElapsedNanos(), reader.getValue());
+                }
+            }
+        } finally {
+            close(stream);
+        }
+        if (clockFit.getSampleCount() == 0) {
+            throw new IOException("No clock sample in log " + log);
+        }
+        return clockFit;
+    }
+
+    private long toWallNanos(int log, TimingLog.Reader reader) {
+        return mClockFits.get(log).toWallNanos(reader.getElapsedNanos());
+    }
+
+    /**
+     * Moves {@code reader} to its next command, skipping the clock samples.
+     *
+     * @return false at the end of the log.
+     */
+    private static boolean nextEvent(TimingLog.Reader reader) throws IOException {
+        while (reader.next()) {
+            if (reader.getType() != TimingLog.CLOCK_SAMPLE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void close(InputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Nothing left to read.
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of the logs' next command time, ties broken by log index.
+     */
+    private static class Heap {
+        final long[] mWallNanos;
+        final int[] mLogs;
+        int mSize;
+
+        Heap(int capacity) {
+            mWallNanos = new long[capacity];
+            mLogs = new int[capacity];
+        }
+
+        void add(long wallNanos, int log) {
+            int i = mSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!isBefore(wallNanos, log, parent)) {
+                    break;
+                }
+                mWallNanos[i] = mWallNanos[parent];
+                mLogs[i] = mLogs[parent];
+                i = parent;
+            }
+            mWallNanos[i] = wallNanos;
+            mLogs[i] = log;
+        }
+
+        /** Replaces the time of the top log by its next command's. */
+        void replaceTop(long wallNanos) {
+            siftDown(wallNanos, mLogs[0]);
+        }
+
+        void removeTop() {
+            --mSize;
+            if (mSize > 0) {
+                siftDown(mWallNanos[mSize], mLogs[mSize]);
+            }
+        }
+
+        private void siftDown(long wallNanos, int log) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= mSize) {
+                    break;
+                }
+                if (child + 1 < mSize
+                        && isBefore(mWallNanos[child + 1], mLogs[child + 1], child)) {
+                    ++child;
+                }
+                if (!isBefore(mWallNanos[child], mLogs[child], wallNanos, log)) {
+                    break;
+                }
+                mWallNanos[i] = mWallNanos[child];
+                mLogs[i] = mLogs[child];
+                i = child;
+            }
+            mWallNanos[i] = wallNanos;
+            mLogs[i] = log;
+        }
+
+        private boolean isBefore(long wallNanos, int log, int index) {
+            return isBefore(wallNanos, log, mWallNanos[index], mLogs[index]);
+        }
+
+        private static boolean isBefore(long wallNanos, int log, long otherNanos, int otherLog) {
+            return wallNanos < otherNanos || (wallNanos == otherNanos && log < otherLog);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Local server receiving stopwatch commands from external timing sensors, e.g. photo-gates or foot
+ * switches bridged over a socket.
+ *
+ * Each command is a 9 bytes frame, big-endian: the command, then the time at which the sender
+ * issued it, in nanoseconds on the sender's clock. Clients send frames back to back and the server
+ * never replies.
+ *
+ * All the connections are served by a single thread without blocking. For each connection, the
+ * offset between the sender's clock and the {@link TimeSource} is estimated from the difference
+ * between the time each frame is read and its sender time, see {@link OffsetEstimator}. Commands
+ * are then reported at their sender time on the {@link TimeSource}, compensating for the
+ * transmission latency.
+ *
+ * A connection's first frame has no earlier frame to compare with: it is reported at the time it
+ * was read, its latency uncompensated. Senders should therefore start with a few
+ * {@link #COMMAND_SYNC} frames, which only feed the estimate.
+ */
+public class TriggerServer {
+
+    private static final String TAG = TriggerServer.class.getSimpleName();
+
+    // Commands.
+    /** Only samples the clock offset, not reported to the {@link Listener}. */
+    public static final int COMMAND_SYNC = 0;
+    public static final int COMMAND_START = 1;
+    public static final int COMMAND_STOP = 2;
+    public static final int COMMAND_LAP = 3;
+    public static final int COMMAND_RESET = 4;
+    public static final int COMMAND_FINISH = 5;
+
+    /** Size of a command frame in bytes. */
+    public static final int FRAME_SIZE = 1 + 8;
+
+    /** Frames read at most per connection at once. */
+    private static final int READ_FRAMES = 256;
+
+    /**
+     * Largest drift between a sender's clock and the {@link TimeSource}, in parts per million:
+     * crystal oscillators are typically within 50ppm each.
+     */
+    static final long MAX_DRIFT_PPM = 100;
+
+    /**
+     * Interface to receive the commands, called on the server's thread.
+     */
+    public interface Listener {
+        /** Notified of a {@code command} issued at {@code whenNanos} on the {@link TimeSource}. */
+        public void onCommand(int command, long whenNanos);
+    }
+
+    /**
+     * Estimates the offset between a sender's clock and the {@link TimeSource}, visible for
+     * testing.
+     *
+     * The estimate is the smallest difference between the read and sender times seen, i.e. the
+     * frame with the lowest transmission latency, aged by {@link #MAX_DRIFT_PPM} since that frame
+     * was read. A minimum kept forever couldn't rise again, and would hold a sender clock running
+     * slower than the {@link TimeSource} to the offset of its best frame. Aged, the estimate
+     * follows the drift, while a single late frame moves it by at most the drift bound.
+     */
+    static class OffsetEstimator {
+        private boolean mSampled;
+        private long mMinOffsetNanos;
+        private long mMinReadNanos;
+
+        /**
+         * Adds the frame sent at {@code senderNanos} and read at {@code readNanos}, and returns
+         * the estimated offset to add to the sender times.
+         */
+        long update(long readNanos, long senderNanos) {
+            long offsetNanos = readNanos - senderNanos;
+            if (mSampled) {
+                long agedNanos = mMinOffsetNanos
+                        + (readNanos - mMinReadNanos) * MAX_DRIFT_PPM / 1000000;
+                if (agedNanos < offsetNanos) {
+                    return agedNanos;
+                }
+            }
+            mSampled = true;
+            mMinOffsetNanos = offsetNanos;
+            mMinReadNanos = readNanos;
+            return offsetNanos;
+        }
+    }
+
+    /** State of a client connection. */
+    private static class Connection {
+        final ByteBuffer mBuffer = ByteBuffer.allocate(FRAME_SIZE * READ_FRAMES);
+        final OffsetEstimator mOffsetEstimator = new OffsetEstimator();
+    }
+
+    private final int mPort;
+    private final TimeSource mTimeSource;
+    private final Listener mListener;
+
+    private ServerSocketChannel mServerChannel;
+    private Selector mSelector;
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    /**
+     * Creates a {@link TriggerServer} listening on the loopback interface at {@code port}, 0 to
+     * pick any available one.
+     */
+    public TriggerServer(int port, TimeSource timeSource, Listener listener) {
+        mPort = port;
+        mTimeSource = timeSource;
+        mListener = listener;
+    }
+
+    /**
+     * Starts listening and serving the connections on a new thread.
+     */
+    public synchronized void start() throws IOException {
+        if (mRunning) {
+            return;
+        }
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        try {
+            mServerChannel.socket().bind(
+                    new InetSocketAddress(InetAddress.getByName(null), mPort));
+            mServerChannel.configureBlocking(false);
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        mRunning = true;
+        mThread = new Thread(TAG) {
+
+            @Override
+            public void run() {
+                serve();
+            }
+        };
+        mThread.start();
+    }
+
+    /**
+     * Returns the port listened to, once started.
+     */
+    public int getPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops serving and closes all the connections.
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mSelector.wakeup();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close();
+    }
+
+    private void serve() {
+        while (mRunning) {
+            try {
+                mSelector.select();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to select: " + e);
+                break;
+            }
+            Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Closing connection: " + e);
+                    closeConnection(key);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(mSelector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    /**
+     * Reads the available frames from the connection and reports their command.
+     */
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.mBuffer;
+        int read = ((SocketChannel) key.channel()).read(buffer);
+        long readNanos = mTimeSource.elapsedRealtimeNanos();
+        if (read < 0) {
+            closeConnection(key);
+            return;
+        }
+
+        buffer.flip();
+        while (buffer.remaining() >= FRAME_SIZE) {
+            int command = buffer.get();
+            long senderNanos = buffer.getLong();
+            long offsetNanos = connection.mOffsetEstimator.update(readNanos, senderNanos);
+            if (command != COMMAND_SYNC) {
+                mListener.onCommand(command, senderNanos + offsetNanos);
+            }
+        }
+        // Keep the partial frame, if any, for the next read.
+        buffer.compact();
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Ignore.
+        }
+    }
+
+    private void close() {
+        if (mSelector != null) {
+            for (SelectionKey key : mSelector.keys()) {
+                closeConnection(key);
+            }
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+        try {
+            mServerChannel.close();
+        } catch (IOException e) {
+            // Ignore.
+        }
+    }
+}
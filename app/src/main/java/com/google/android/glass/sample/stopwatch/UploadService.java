@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.glass.sample.stopwatch;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Background service uploading the finished sessions of the {@link SessionHistory} to the server
+ * configured by {@code R.string.upload_url}, if any.
+ *
+ * The history itself is the persistent queue: sessions stay pending until uploaded, across process
+ * deaths and reboots. A failed upload is retried with an exponential backoff and, while offline,
+ * as soon as connectivity comes back through the {@link ConnectivityReceiver}.
+ */
+public class UploadService extends IntentService {
+
+    private static final String TAG = UploadService.class.getSimpleName();
+
+    private static final String PREFS_NAME = "uploads";
+    private static final String KEY_ATTEMPT = "attempt";
+
+    public UploadService() {
+        super(TAG);
+    }
+
+    /**
+     * Requests an upload of the pending sessions, if uploads are configured.
+     */
+    public static void requestUpload(Context context) {
+        if (!TextUtils.isEmpty(context.getString(R.string.upload_url))) {
+            context.startService(new Intent(context, UploadService.class));
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        URL url;
+        try {
+            url = new URL(getString(R.string.upload_url));
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Invalid upload URL: " + e.getMessage());
+            return;
+        }
+        if (!isConnected()) {
+            // No point in retrying before connectivity comes back.
+            setConnectivityReceiverEnabled(true);
+            return;
+        }
+
+        SessionHistory history = SessionHistory.getInstance(this);
+        // Sessions just finished may still be queued in memory.
+        history.flush();
+        SessionUploader uploader = new SessionUploader(history, url);
+        boolean done = uploader.uploadPending();
+        if (uploader.getSessionCount() > 0) {
+            Log.i(TAG, "Sent " + uploader.getSessionCount() + " sessions, "
+                    + uploader.getLapCount() + " laps in " + uploader.getRequestCount()
+                    + " requests, " + uploader.getByteCount() + " bytes");
+        }
+
+        SharedPreferences preferences = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
+        if (done) {
+            preferences.edit().remove(KEY_ATTEMPT).apply();
+            alarmManager.cancel(getRetryIntent());
+            setConnectivityReceiverEnabled(false);
+        } else {
+            int attempt = preferences.getInt(KEY_ATTEMPT, 0) + 1;
+            preferences.edit().putInt(KEY_ATTEMPT, attempt).apply();
+            // Not a wakeup alarm, there is no hurry.
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME,
+                    SystemClock.elapsedRealtime() + SessionUploader.getBackoffMillis(attempt),
+                    getRetryIntent());
+            setConnectivityReceiverEnabled(true);
+        }
+    }
+
+    private boolean isConnected() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    /**
+     * Enables or disables the {@link ConnectivityReceiver}, only listening while uploads are due.
+     */
+    private void setConnectivityReceiverEnabled(boolean enabled) {
+        getPackageManager().setComponentEnabledSetting(
+                new ComponentName(this, ConnectivityReceiver.class),
+                enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                        : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                PackageManager.DONT_KILL_APP);
+    }
+
+    private PendingIntent getRetryIntent() {
+        return PendingIntent.getService(this, 0, new Intent(this, UploadService.class),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}